@@ -0,0 +1,689 @@
+package tileworld;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * TWConfig
+ *
+ * Description:
+ *
+ * Immutable set of simulation parameters. A configuration is handed to the
+ * TWEnvironment it drives and everything in that simulation (object
+ * creators, agents, sensors, memories and planners) reads its parameters
+ * from there, so differently configured simulations can run side by side in
+ * the same JVM.
+ *
+ * Configurations are built in code with a Builder (starting from DEFAULT,
+ * a preset in TWPresets or another configuration) or loaded from a
+ * .properties file. Property keys are the parameter names below; a "preset"
+ * key selects the TWPresets scenario the other keys are applied on top of.
+ */
+public final class TWConfig {
+
+    /**
+     * Scenario 1 of TWPresets
+     */
+    public static final TWConfig DEFAULT = new Builder().build();
+
+    //Simulation Parameters
+    private final long seed; //no effect with gui
+    private final long endTime; //no effect with gui
+
+    //Agent Parameters
+    private final int agentCount;
+    private final int defaultFuelLevel;
+    private final int defaultSensorRange;
+
+    //Environment Parameters
+    private final int xDimension; //size in cells
+    private final int yDimension;
+
+    //Object Parameters
+    // mean, dev: control the number of objects to be created in every time step (i.e. average object creation rate)
+    private final double tileMean;
+    private final double holeMean;
+    private final double obstacleMean;
+    private final double tileDev;
+    private final double holeDev;
+    private final double obstacleDev;
+    // the life time of each object
+    private final int lifeTime;
+
+    //Agent Best Setup Parameters
+    //In-depth documentation available in class HybridPRSTWAgent
+    // Fuel management
+    private final double fuelTolerance;
+    private final double hardFuelLimit;
+    // Agent target selection
+    private final boolean TSPHeuristic;
+    private final double objectLifetimeThreshold;
+    // Agent communication
+    private final int goalAnnounceCount;
+    private final boolean allowAssistance;
+    private final int maxAssistZoneDistance;
+    // Steps a goal reservation holds without being renewed
+    private final int goalClaimLifetime;
+    // Agents submit their targets to the environment's TWTaskAllocator, which assigns them, instead of auctioning them by message
+    private final boolean centralAllocation;
+    // Steps between checks of the environment's TWZoneManager for zones to move to even out their load, 0 keeps the zones fixed
+    private final int zoneRebalancePeriod;
+    // Choose between candidate goals by simulated rollouts (TWRolloutPlanner) instead of by distance alone
+    private final boolean rolloutPlanning;
+    // Rollouts per candidate goal, and steps each of them looks ahead
+    private final int rolloutCount;
+    private final int rolloutHorizon;
+    // Wall-clock milliseconds the rollouts of one decision may take, 0 for no limit (and reproducible decisions)
+    private final double rolloutBudget;
+    // Message delivery: manhattan range within which "ALL" messages reach other agents, 0 broadcasts to every agent
+    private final int communicationRange;
+    // Deliver "ALL" messages to the sender's and the surrounding buckets (of communicationRange cells) instead of by range,
+    // only with a communicationRange above 0
+    private final boolean neighbourhoodDelivery;
+    // Agents share one versioned map owned by the environment instead of merging private copies every step
+    private final boolean sharedBlackboard;
+    // Give every object creator, location sampling and every agent a random stream of its own, derived from the seed.
+    // Agents get one with phasedStep or partitions regardless, as they may think in parallel there
+    private final boolean randomStreams;
+
+    //Execution Parameters
+    // Step agents phase by phase (all sense, communicate, think, then act) instead of each agent thinking and acting in turn
+    private final boolean phasedStep;
+    // Threads the sense and think phases of a phased step run on, 1 runs them on the simulation thread
+    private final int agentThreads;
+    // Run the sense and think phases of every agent on a (virtual) thread of its own, overrides agentThreads
+    private final boolean threadPerAgent;
+    // Split the world into this many strips of columns, each expiring its own objects and stepping its own agents, 0 for none
+    private final int partitions;
+
+    private TWConfig(Builder b) {
+        this.seed = b.seed;
+        this.endTime = b.endTime;
+        this.agentCount = b.agentCount;
+        this.defaultFuelLevel = b.defaultFuelLevel;
+        this.defaultSensorRange = b.defaultSensorRange;
+        this.xDimension = b.xDimension;
+        this.yDimension = b.yDimension;
+        this.tileMean = b.tileMean;
+        this.holeMean = b.holeMean;
+        this.obstacleMean = b.obstacleMean;
+        this.tileDev = b.tileDev;
+        this.holeDev = b.holeDev;
+        this.obstacleDev = b.obstacleDev;
+        this.lifeTime = b.lifeTime;
+        this.fuelTolerance = b.fuelTolerance;
+        this.hardFuelLimit = b.hardFuelLimit;
+        this.TSPHeuristic = b.TSPHeuristic;
+        this.objectLifetimeThreshold = b.objectLifetimeThreshold;
+        this.goalAnnounceCount = b.goalAnnounceCount;
+        this.allowAssistance = b.allowAssistance;
+        this.maxAssistZoneDistance = b.maxAssistZoneDistance;
+        this.goalClaimLifetime = b.goalClaimLifetime;
+        this.centralAllocation = b.centralAllocation;
+        this.zoneRebalancePeriod = b.zoneRebalancePeriod;
+        this.rolloutPlanning = b.rolloutPlanning;
+        this.rolloutCount = b.rolloutCount;
+        this.rolloutHorizon = b.rolloutHorizon;
+        this.rolloutBudget = b.rolloutBudget;
+        this.communicationRange = b.communicationRange;
+        this.neighbourhoodDelivery = b.neighbourhoodDelivery;
+        this.sharedBlackboard = b.sharedBlackboard;
+        this.randomStreams = b.randomStreams;
+        this.phasedStep = b.phasedStep;
+        this.agentThreads = b.agentThreads;
+        this.threadPerAgent = b.threadPerAgent;
+        this.partitions = b.partitions;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder initialised with this configuration
+     */
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.seed = seed;
+        b.endTime = endTime;
+        b.agentCount = agentCount;
+        b.defaultFuelLevel = defaultFuelLevel;
+        b.defaultSensorRange = defaultSensorRange;
+        b.xDimension = xDimension;
+        b.yDimension = yDimension;
+        b.tileMean = tileMean;
+        b.holeMean = holeMean;
+        b.obstacleMean = obstacleMean;
+        b.tileDev = tileDev;
+        b.holeDev = holeDev;
+        b.obstacleDev = obstacleDev;
+        b.lifeTime = lifeTime;
+        b.fuelTolerance = fuelTolerance;
+        b.hardFuelLimit = hardFuelLimit;
+        b.TSPHeuristic = TSPHeuristic;
+        b.objectLifetimeThreshold = objectLifetimeThreshold;
+        b.goalAnnounceCount = goalAnnounceCount;
+        b.allowAssistance = allowAssistance;
+        b.maxAssistZoneDistance = maxAssistZoneDistance;
+        b.goalClaimLifetime = goalClaimLifetime;
+        b.centralAllocation = centralAllocation;
+        b.zoneRebalancePeriod = zoneRebalancePeriod;
+        b.rolloutPlanning = rolloutPlanning;
+        b.rolloutCount = rolloutCount;
+        b.rolloutHorizon = rolloutHorizon;
+        b.rolloutBudget = rolloutBudget;
+        b.communicationRange = communicationRange;
+        b.neighbourhoodDelivery = neighbourhoodDelivery;
+        b.sharedBlackboard = sharedBlackboard;
+        b.randomStreams = randomStreams;
+        b.phasedStep = phasedStep;
+        b.agentThreads = agentThreads;
+        b.threadPerAgent = threadPerAgent;
+        b.partitions = partitions;
+        return b;
+    }
+
+    /**
+     * Reads a configuration from a .properties file, see fromProperties.
+     */
+    public static TWConfig load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return fromProperties(properties);
+    }
+
+    /**
+     * Builds a configuration from the given properties. Parameters which are
+     * not given keep the value of the preset named by the "preset" key, or of
+     * DEFAULT if there is none.
+     *
+     * @throws IllegalArgumentException on unknown keys or malformed values
+     */
+    public static TWConfig fromProperties(Properties properties) {
+        String preset = properties.getProperty("preset");
+        Builder b = (preset == null) ? DEFAULT.toBuilder() : TWPresets.get(Integer.parseInt(preset.trim())).toBuilder();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.equals("preset")) {
+                continue;
+            }
+            b.set(key, properties.getProperty(key).trim());
+        }
+        return b.build();
+    }
+
+    /**
+     * @return every parameter as name and value, sorted by name
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> e : toMap().entrySet()) {
+            properties.setProperty(e.getKey(), e.getValue());
+        }
+        return properties;
+    }
+
+    private TreeMap<String, String> toMap() {
+        TreeMap<String, String> values = new TreeMap<String, String>();
+        for (Field f : TWConfig.class.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers())) {
+                continue;
+            }
+            try {
+                values.put(f.getName(), String.valueOf(f.get(this)));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return values;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public int getAgentCount() {
+        return agentCount;
+    }
+
+    public int getDefaultFuelLevel() {
+        return defaultFuelLevel;
+    }
+
+    public int getDefaultSensorRange() {
+        return defaultSensorRange;
+    }
+
+    public int getxDimension() {
+        return xDimension;
+    }
+
+    public int getyDimension() {
+        return yDimension;
+    }
+
+    public double getTileMean() {
+        return tileMean;
+    }
+
+    public double getHoleMean() {
+        return holeMean;
+    }
+
+    public double getObstacleMean() {
+        return obstacleMean;
+    }
+
+    public double getTileDev() {
+        return tileDev;
+    }
+
+    public double getHoleDev() {
+        return holeDev;
+    }
+
+    public double getObstacleDev() {
+        return obstacleDev;
+    }
+
+    public int getLifeTime() {
+        return lifeTime;
+    }
+
+    public double getFuelTolerance() {
+        return fuelTolerance;
+    }
+
+    public double getHardFuelLimit() {
+        return hardFuelLimit;
+    }
+
+    public boolean isTSPHeuristic() {
+        return TSPHeuristic;
+    }
+
+    public double getObjectLifetimeThreshold() {
+        return objectLifetimeThreshold;
+    }
+
+    public int getGoalAnnounceCount() {
+        return goalAnnounceCount;
+    }
+
+    public boolean isAllowAssistance() {
+        return allowAssistance;
+    }
+
+    public int getMaxAssistZoneDistance() {
+        return maxAssistZoneDistance;
+    }
+
+    public int getGoalClaimLifetime() {
+        return goalClaimLifetime;
+    }
+
+    public boolean isCentralAllocation() {
+        return centralAllocation;
+    }
+
+    public int getZoneRebalancePeriod() {
+        return zoneRebalancePeriod;
+    }
+
+    public boolean isRolloutPlanning() {
+        return rolloutPlanning;
+    }
+
+    public int getRolloutCount() {
+        return rolloutCount;
+    }
+
+    public int getRolloutHorizon() {
+        return rolloutHorizon;
+    }
+
+    public double getRolloutBudget() {
+        return rolloutBudget;
+    }
+
+    public int getCommunicationRange() {
+        return communicationRange;
+    }
+
+    public boolean isNeighbourhoodDelivery() {
+        return neighbourhoodDelivery;
+    }
+
+    public boolean isSharedBlackboard() {
+        return sharedBlackboard;
+    }
+
+    public boolean isRandomStreams() {
+        return randomStreams;
+    }
+
+    public boolean isPhasedStep() {
+        return phasedStep;
+    }
+
+    public int getAgentThreads() {
+        return agentThreads;
+    }
+
+    public boolean isThreadPerAgent() {
+        return threadPerAgent;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TWConfig && toMap().equals(((TWConfig) o).toMap());
+    }
+
+    @Override
+    public int hashCode() {
+        return toMap().hashCode();
+    }
+
+    /**
+     * @return the parameters as name=value lines, sorted by name
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, String> e : toMap().entrySet()) {
+            s.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Mutable counterpart of TWConfig, initialised with the scenario 1
+     * parameters.
+     */
+    public static final class Builder {
+
+        private long seed = 4162012;
+        private long endTime = 5000;
+        private int agentCount = 3;
+        private int defaultFuelLevel = 500;
+        private int defaultSensorRange = 3;
+        private int xDimension = 50;
+        private int yDimension = 50;
+        private double tileMean = 0.2;
+        private double holeMean = 0.2;
+        private double obstacleMean = 0.2;
+        private double tileDev = 0.05f;
+        private double holeDev = 0.05f;
+        private double obstacleDev = 0.05f;
+        private int lifeTime = 100;
+        private double fuelTolerance = 0.95;
+        private double hardFuelLimit = 50;
+        private boolean TSPHeuristic = false;
+        private double objectLifetimeThreshold = 1.0;
+        private int goalAnnounceCount = 1;
+        private boolean allowAssistance = false;
+        private int maxAssistZoneDistance = 1;
+        private int goalClaimLifetime = 1;
+        private boolean centralAllocation = false;
+        private int zoneRebalancePeriod = 0;
+        private boolean rolloutPlanning = false;
+        private int rolloutCount = 64;
+        private int rolloutHorizon = 60;
+        private double rolloutBudget = 0;
+        private int communicationRange = 0;
+        private boolean neighbourhoodDelivery = false;
+        private boolean sharedBlackboard = false;
+        private boolean randomStreams = false;
+        private boolean phasedStep = false;
+        private int agentThreads = 1;
+        private boolean threadPerAgent = false;
+        private int partitions = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the parameter called name from its string form.
+         *
+         * @throws IllegalArgumentException if there is no such parameter or the value does not parse
+         */
+        public Builder set(String name, String value) {
+            Field f;
+            try {
+                f = Builder.class.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+            Class<?> type = f.getType();
+            try {
+                if (type == int.class) {
+                    f.setInt(this, Integer.parseInt(value));
+                } else if (type == long.class) {
+                    f.setLong(this, Long.parseLong(value));
+                } else if (type == double.class) {
+                    f.setDouble(this, Double.parseDouble(value));
+                } else if (type == boolean.class) {
+                    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                        throw new IllegalArgumentException("Not a boolean: " + name + "=" + value);
+                    }
+                    f.setBoolean(this, Boolean.parseBoolean(value));
+                } else {
+                    f.set(this, value);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + name + "=" + value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder endTime(long endTime) {
+            this.endTime = endTime;
+            return this;
+        }
+
+        public Builder agentCount(int agentCount) {
+            this.agentCount = agentCount;
+            return this;
+        }
+
+        public Builder defaultFuelLevel(int defaultFuelLevel) {
+            this.defaultFuelLevel = defaultFuelLevel;
+            return this;
+        }
+
+        public Builder defaultSensorRange(int defaultSensorRange) {
+            this.defaultSensorRange = defaultSensorRange;
+            return this;
+        }
+
+        public Builder dimensions(int xDimension, int yDimension) {
+            this.xDimension = xDimension;
+            this.yDimension = yDimension;
+            return this;
+        }
+
+        public Builder tiles(double mean, double dev) {
+            this.tileMean = mean;
+            this.tileDev = dev;
+            return this;
+        }
+
+        public Builder holes(double mean, double dev) {
+            this.holeMean = mean;
+            this.holeDev = dev;
+            return this;
+        }
+
+        public Builder obstacles(double mean, double dev) {
+            this.obstacleMean = mean;
+            this.obstacleDev = dev;
+            return this;
+        }
+
+        public Builder lifeTime(int lifeTime) {
+            this.lifeTime = lifeTime;
+            return this;
+        }
+
+        public Builder fuelTolerance(double fuelTolerance) {
+            this.fuelTolerance = fuelTolerance;
+            return this;
+        }
+
+        public Builder hardFuelLimit(double hardFuelLimit) {
+            this.hardFuelLimit = hardFuelLimit;
+            return this;
+        }
+
+        public Builder TSPHeuristic(boolean TSPHeuristic) {
+            this.TSPHeuristic = TSPHeuristic;
+            return this;
+        }
+
+        public Builder objectLifetimeThreshold(double objectLifetimeThreshold) {
+            this.objectLifetimeThreshold = objectLifetimeThreshold;
+            return this;
+        }
+
+        public Builder goalAnnounceCount(int goalAnnounceCount) {
+            this.goalAnnounceCount = goalAnnounceCount;
+            return this;
+        }
+
+        public Builder allowAssistance(boolean allowAssistance) {
+            this.allowAssistance = allowAssistance;
+            return this;
+        }
+
+        public Builder maxAssistZoneDistance(int maxAssistZoneDistance) {
+            this.maxAssistZoneDistance = maxAssistZoneDistance;
+            return this;
+        }
+
+        public Builder goalClaimLifetime(int goalClaimLifetime) {
+            this.goalClaimLifetime = goalClaimLifetime;
+            return this;
+        }
+
+        public Builder centralAllocation(boolean centralAllocation) {
+            this.centralAllocation = centralAllocation;
+            return this;
+        }
+
+        public Builder zoneRebalancePeriod(int zoneRebalancePeriod) {
+            this.zoneRebalancePeriod = zoneRebalancePeriod;
+            return this;
+        }
+
+        public Builder rolloutPlanning(boolean rolloutPlanning) {
+            this.rolloutPlanning = rolloutPlanning;
+            return this;
+        }
+
+        public Builder rolloutCount(int rolloutCount) {
+            this.rolloutCount = rolloutCount;
+            return this;
+        }
+
+        public Builder rolloutHorizon(int rolloutHorizon) {
+            this.rolloutHorizon = rolloutHorizon;
+            return this;
+        }
+
+        public Builder rolloutBudget(double rolloutBudget) {
+            this.rolloutBudget = rolloutBudget;
+            return this;
+        }
+
+        public Builder communicationRange(int communicationRange) {
+            this.communicationRange = communicationRange;
+            return this;
+        }
+
+        public Builder neighbourhoodDelivery(boolean neighbourhoodDelivery) {
+            this.neighbourhoodDelivery = neighbourhoodDelivery;
+            return this;
+        }
+
+        public Builder sharedBlackboard(boolean sharedBlackboard) {
+            this.sharedBlackboard = sharedBlackboard;
+            return this;
+        }
+
+        public Builder randomStreams(boolean randomStreams) {
+            this.randomStreams = randomStreams;
+            return this;
+        }
+
+        public Builder phasedStep(boolean phasedStep) {
+            this.phasedStep = phasedStep;
+            return this;
+        }
+
+        public Builder agentThreads(int agentThreads) {
+            this.agentThreads = agentThreads;
+            return this;
+        }
+
+        public Builder threadPerAgent(boolean threadPerAgent) {
+            this.threadPerAgent = threadPerAgent;
+            return this;
+        }
+
+        public Builder partitions(int partitions) {
+            this.partitions = partitions;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the parameters are inconsistent
+         */
+        public TWConfig build() {
+            if (xDimension <= 0 || yDimension <= 0) {
+                throw new IllegalArgumentException("Grid dimensions must be positive");
+            }
+            if (defaultSensorRange < 0 || lifeTime <= 0 || endTime < 0) {
+                throw new IllegalArgumentException("Sensor range, life time and end time must not be negative");
+            }
+            if (goalAnnounceCount < 0 || communicationRange < 0 || partitions < 0 || zoneRebalancePeriod < 0) {
+                throw new IllegalArgumentException("Goal count, communication range, partitions and zone rebalance period must not be negative");
+            }
+            if (neighbourhoodDelivery && communicationRange == 0) {
+                throw new IllegalArgumentException("Neighbourhood delivery needs a communication range, the bucket size");
+            }
+            if (agentCount <= 0 || agentThreads <= 0) {
+                throw new IllegalArgumentException("Agent count and agent threads must be positive");
+            }
+            if (rolloutCount <= 0 || rolloutHorizon <= 0 || rolloutBudget < 0) {
+                throw new IllegalArgumentException("Rollout count and horizon must be positive, the budget must not be negative");
+            }
+            return new TWConfig(this);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package tileworld;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import javax.swing.JFrame;
@@ -99,11 +100,12 @@ public class TWGUI extends GUIState {
 
         agentGridPortrayal.setField(((TWEnvironment) state).getAgentGrid());
 
-        agentGridPortrayal.setPortrayalForClass(TWAgent.class, TWAgent.getPortrayal());
+        int sensorRange = ((TWEnvironment) state).getConfig().getDefaultSensorRange();
+        agentGridPortrayal.setPortrayalForClass(TWAgent.class, TWAgent.getPortrayal(sensorRange));
 
 
-       // gridPortrayal.setPortrayalForClass(SimpleTWAgent.class, TWAgent.getPortrayal());
-        agentGridPortrayal.setPortrayalForRemainder(TWAgent.getPortrayal());
+       // gridPortrayal.setPortrayalForClass(SimpleTWAgent.class, TWAgent.getPortrayal(sensorRange));
+        agentGridPortrayal.setPortrayalForRemainder(TWAgent.getPortrayal(sensorRange));
 
         objectGridPortrayal.setPortrayalForClass(TWHole.class, TWHole.getPortrayal());
         objectGridPortrayal.setPortrayalForClass(TWTile.class, TWTile.getPortrayal());
@@ -160,11 +162,11 @@ public class TWGUI extends GUIState {
     /**
      * Main method called when running Tileworld with a visual display. It is
      * possible to run without any display - see
-     * @param args
+     * @param args optional scenario number (see TWPresets) or .properties file
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
-        TWGUI twGui = new TWGUI();
+        TWGUI twGui = (args.length > 0) ? new TWGUI(new TWEnvironment(TWPresets.resolve(args[0]))) : new TWGUI();
 
         Console c = new Console(twGui);
         c.setVisible(true);
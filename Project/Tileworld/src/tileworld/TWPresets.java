@@ -0,0 +1,98 @@
+package tileworld;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * TWPresets
+ *
+ * Description:
+ *
+ * The bundled evaluation scenarios, formerly the Parameters to Parameters5
+ * classes. Scenario 1 is TWConfig.DEFAULT.
+ */
+public final class TWPresets {
+
+    private static final TWConfig[] SCENARIOS = {
+        TWConfig.DEFAULT,
+
+        TWConfig.builder()
+            .dimensions(80, 80)
+            .tiles(2, 0.5f).holes(2, 0.5f).obstacles(2, 0.5f)
+            .lifeTime(30)
+            .TSPHeuristic(true)
+            .allowAssistance(true)
+            .build(),
+
+        TWConfig.builder()
+            .dimensions(100, 100)
+            .tiles(0.1, 0.025f).holes(0.1, 0.025f).obstacles(0.1, 0.025f)
+            .lifeTime(150)
+            .hardFuelLimit(100)
+            .TSPHeuristic(true)
+            .allowAssistance(true)
+            .build(),
+
+        // Parameters from:
+        // https://www.youtube.com/watch?v=A4eSjiCcLok
+        // https://www.youtube.com/watch?v=q-RA0Y9-j0g
+        // https://www.youtube.com/watch?v=01cPSrwCUAM
+        // https://www.youtube.com/watch?v=FcIl_6ezG-w
+        // https://www.youtube.com/watch?v=GfHJWebig1g
+        // https://www.youtube.com/watch?v=dS7GoNAD5pw
+        TWConfig.builder()
+            .seed(9042014) //09042014
+            .defaultFuelLevel(1000)
+            .dimensions(150, 40)
+            .tiles(0.02, 0.001f).holes(0.2, 0.01f).obstacles(0.5, 0.1f)
+            .lifeTime(120)
+            .hardFuelLimit(100)
+            .TSPHeuristic(true)
+            .build(),
+
+        // Parameters from:
+        // https://www.youtube.com/watch?v=IfYkoQhRpY8
+        // https://www.youtube.com/watch?v=LE6BPNBjK7U
+        // https://www.youtube.com/watch?v=ZFWxbptgFj0
+        // https://www.youtube.com/watch?v=b5hDuWO0u5w
+        // https://www.youtube.com/watch?v=w-kkdzI5mao
+        TWConfig.builder()
+            .seed(40462015)
+            .defaultFuelLevel(1200)
+            .dimensions(300, 25)
+            .tiles(0.8, 0.01f).holes(0.2, 0.002f).obstacles(4.0, 0.2f)
+            .lifeTime(200)
+            .fuelTolerance(0.85)
+            .hardFuelLimit(300)
+            .build()
+    };
+
+    private TWPresets() {
+    }
+
+    /**
+     * @param scenario 1 to count()
+     * @return the configuration of the given scenario
+     */
+    public static TWConfig get(int scenario) {
+        if (scenario < 1 || scenario > SCENARIOS.length) {
+            throw new IllegalArgumentException("No such scenario: " + scenario + ", expected 1 to " + SCENARIOS.length);
+        }
+        return SCENARIOS[scenario - 1];
+    }
+
+    public static int count() {
+        return SCENARIOS.length;
+    }
+
+    /**
+     * Resolves a command line argument naming a configuration, either a
+     * scenario number or a .properties file.
+     */
+    public static TWConfig resolve(String arg) throws IOException {
+        if (arg.matches("\\d+")) {
+            return get(Integer.parseInt(arg));
+        }
+        return TWConfig.load(new File(arg));
+    }
+}
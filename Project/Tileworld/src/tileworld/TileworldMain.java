@@ -5,9 +5,16 @@
 package tileworld;
 
 import sim.engine.SimState;
+import tileworld.batch.TWBatchRunner;
+import tileworld.batch.TWResultCache;
+import tileworld.batch.TWRunResult;
+import tileworld.batch.TWRunStatistics;
 import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWSnapshot;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.concurrent.TimeUnit;
 
 /**
  * TileworldMain
@@ -25,46 +32,49 @@ import java.util.concurrent.TimeUnit;
  */
 public class TileworldMain {
 	
-	public static void main(String args[]) throws InterruptedException {
-		int overallScore = 0; 
+	/**
+	 * Runs 10 random seeds of the configuration given as argument (a scenario number of TWPresets or a .properties
+	 * file), scenario 1 by default. If a cache directory is given as second argument, the seeds are fixed (the
+	 * configuration's seed + 0 to 9) and results are kept there, so repeated runs of unchanged code and
+	 * configuration come straight from the cache.
+	 */
+	public static void main(String args[]) throws IOException {
+		TWConfig config = (args.length > 0) ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+		TWResultCache cache = (args.length > 1) ? new TWResultCache(new File(args[1])) : null;
 		int iteration = 10;
-		int[] scores = new int[iteration];
+		long[] seeds = new long[iteration];
 		for(int i = 0; i<iteration; i++) {
-			int seed = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
-			System.out.println("Seed: "+seed);
-			TWEnvironment tw = new TWEnvironment(seed);
-			tw.start();
-
-			long steps = 0;
-
-			while (steps < Parameters.endTime) {
-				if (!tw.schedule.step(tw)) {
-					break;
-				}
-				steps = tw.schedule.getSteps();
-			}
-			System.out.println("The final reward is: "+tw.getReward());
-			scores[i] = tw.getReward();
-			overallScore+=tw.getReward();
-			tw.finish();
-			TimeUnit.SECONDS.sleep(1);
+			seeds[i] = (cache != null) ? config.getSeed() + i : ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+		}
+		// Replications are independent, run them side by side instead of one after another
+		TWBatchRunner runner = new TWBatchRunner(config);
+		runner.setCache(cache);
+		List<TWRunResult> results = runner.run(seeds);
+		runner.shutdown();
+		if (cache != null) {
+			cache.close();
+		}
+		// The runs finish in any order, report them in seed order once all are done
+		for(int i = 0; i<iteration; i++) {
+			System.out.println("Seed: "+results.get(i).getSeed());
+			System.out.println("The final reward is: "+results.get(i).getReward());
 		}
 		System.out.println("");
 		for(int i = 0; i<iteration; i++) {
-			System.out.println("Iteration " + Integer.toString(i + 1) + ": " + scores[i]);
+			System.out.println("Iteration " + Integer.toString(i + 1) + ": " + results.get(i));
 		}
-		System.out.println("The average reward is: "+((float)overallScore/iteration));
+		System.out.println(TWRunStatistics.ofRewards(results));
 		System.exit(0);  // make sure any threads finish up
     }
 
     public static void main4(String args[]) {
 
-        TWEnvironment tw = new TWEnvironment(Parameters.seed);
+        TWEnvironment tw = new TWEnvironment(TWConfig.DEFAULT);
         tw.start();
 
         long steps = 0;
 
-        while (steps < Parameters.endTime) {
+        while (steps < tw.getConfig().getEndTime()) {
 
             if (!tw.schedule.step(tw)) {
                 break;
@@ -80,10 +90,11 @@ public class TileworldMain {
     }
 
     /**
-     * Main method for restoring form checkpoints
+     * Main method for restoring form checkpoints. Checkpoints are binary
+     * snapshots (see TWSnapshot) written every 500 steps.
      * @param args
      */
-    public static void main2(String[] args) {
+    public static void main2(String[] args) throws IOException {
         TWEnvironment tw = null;
 
         // should we load from checkpoint?  I wrote this little chunk of code to
@@ -92,18 +103,14 @@ public class TileworldMain {
         for (int x = 0; x < args.length - 1; x++) // "-checkpoint" can't be the last string
         {
             if (args[x].equals("-checkpoint")) {
-                SimState state = SimState.readFromCheckpoint(new java.io.File(args[x + 1]));
-                if (state == null) // there was an error -- it got printed out to the screen, so just quit
-                {
+                try {
+                    tw = TWSnapshot.read(new File(args[x + 1]));
+                } catch (IOException e) {
+                    // not a snapshot, or a damaged one
+                    System.out.println("Cannot restore checkpoint " + args[x + 1] + ": " + e.getMessage());
                     System.exit(1);
-                } else if (!(state instanceof TWEnvironment)) // uh oh, wrong simulation stored in the file!
-                {
-                    System.out.println("Checkpoint contains some other simulation: " + state);
-                    System.exit(1);
-                } else // we're ready to lock and load!
-                {
-                    tw = (TWEnvironment) state;
                 }
+                tw.setVerbose(true);
             }
         }
 
@@ -114,7 +121,7 @@ public class TileworldMain {
             tw.start();
         }
 
-        long steps = 0;
+        long steps = tw.schedule.getSteps();
         while (steps < 5000) {
             if (!tw.schedule.step(tw)) {
                 break;
@@ -124,7 +131,7 @@ public class TileworldMain {
                 System.out.println("Steps: " + steps + " Time: " + tw.schedule.time());
                 String s = steps + ".TWEnvironment.checkpoint";
                 System.out.println("Checkpointing to file: " + s);
-                tw.writeToCheckpoint(new java.io.File(s));
+                TWSnapshot.write(tw, new File(s));
             }
         }
         tw.finish();
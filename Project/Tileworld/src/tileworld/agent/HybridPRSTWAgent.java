@@ -1,21 +1,29 @@
 package tileworld.agent;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.PriorityQueue;
 
 import sim.util.Int2D;
-import tileworld.Parameters;
+import tileworld.TWConfig;
 import tileworld.environment.TWDirection;
 import tileworld.environment.TWEntity;
 import tileworld.environment.TWEnvironment;
 import tileworld.environment.TWFuelStation;
+import tileworld.environment.TWGoalReservations;
 import tileworld.environment.TWHole;
 import tileworld.environment.TWObject;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
+import tileworld.environment.TWTaskAllocator;
 import tileworld.environment.TWTile;
+import tileworld.environment.TWZoneManager;
 import tileworld.exceptions.CellBlockedException;
 import tileworld.planners.DefaultTWPlanner;
+import tileworld.planners.TWRolloutPlanner;
 
 public class HybridPRSTWAgent extends TWAgent {
 	//*********************************
@@ -25,21 +33,21 @@ public class HybridPRSTWAgent extends TWAgent {
 	 *  Higher tolerance means agent leaves little buffer fuel to account for obstacles appearing
 	 *  Lower tolerance means agent leaves plenty of buffer fuel and may tend to refuel more
 	 */
-	private double fuelTolerance = Parameters.fuelTolerance;
+	private double fuelTolerance;
 
 	/** Hard fuel limit before needing to refuel
 	 */
-	private double hardFuelLimit = Parameters.hardFuelLimit;
+	private double hardFuelLimit;
 
 	/** Modifies the heuristic used for prioritizing the list of possible goals. 
 	 */
-	private boolean TSPHeuristic = Parameters.TSPHeuristic;
+	private boolean TSPHeuristic;
 
 	/** Lifetime threshold used for determining whether a object at risk of decay should be pursued,
 	 *  taking into account both its estimated remaining lifetime and its distance from agent.
 	 *  Estimated remaining time left for a memorized object is based on its memory time stamp.
 	 */
-	private double objectLifetimeThreshold = Parameters.objectLifetimeThreshold;
+	private double objectLifetimeThreshold;
 
 	/** Maximum number of goals in queue to announce.
 	 *  Announcing goals prevent goal collisions.
@@ -47,13 +55,17 @@ public class HybridPRSTWAgent extends TWAgent {
 	 *  Reserving too little can result in collision between an assisting agent's goal and this agent's next immediate goal,
 	 *  thus wasting the assisting agent's resources.
 	 */
-	private int goalAnnounceCount = Parameters.goalAnnounceCount;
+	private int goalAnnounceCount;
 
-	private boolean allowAssistance = Parameters.allowAssistance;
+	private boolean allowAssistance;
 
 	/** Furthest zone agent can move to assist, specified in terms of number of zones
 	 */
-	private int maxAssistZoneDistance = Parameters.maxAssistZoneDistance;
+	private int maxAssistZoneDistance;
+
+	/** Number of steps a goal reservation holds without being renewed
+	 */
+	private int goalClaimLifetime;
 	//*********************************
 	//*********************************
 	//*********************************
@@ -62,9 +74,16 @@ public class HybridPRSTWAgent extends TWAgent {
 		EXPLORE, COLLECT, FILL, REFUEL, ASSIST_COLLECT, ASSIST_FILL, REACT_COLLECT, REACT_FILL, WAIT
 	}
 
+	private final TWConfig config;
 	private String name;
 	private int agentIdx;
 	private DefaultTWPlanner planner;
+	/** Chooses between candidate goals by rollouts when rolloutPlanning is on, null otherwise
+	 */
+	private TWRolloutPlanner rolloutPlanner;
+	/** Goal the rollouts chose last, kept unless another one is clearly better
+	 */
+	private Int2D lastRolloutGoal;
 	private Mode mode;
 	private boolean zoneByRows;
 	private Integer[] agentZones;
@@ -72,69 +91,85 @@ public class HybridPRSTWAgent extends TWAgent {
 	private Int2D[] anchors;
 	private TWAgentDecayMemory decayMemory;
 
-	PriorityQueue<TWEntity> tilesInZone;
-	PriorityQueue<TWEntity> holesInZone;
-	LinkedList<TWEntity> possibleTileGoals;
-	LinkedList<TWEntity> possibleHoleGoals;
+	/** Remembered tiles and holes in zone, maintained from memory events rather than rebuilt each step
+	 */
+	TWCandidateSet tileCandidates;
+	TWCandidateSet holeCandidates;
+	/** Best candidates by ranking key, closest first, at most goalAnnounceCount + 1 of each
+	 */
 	TWEntity[] closestTile;
 	TWEntity[] closestHole;
+	/** Cells this agent currently holds a reservation on, and those renewed this step
+	 */
+	private ArrayList<Int2D> claimedGoals;
+	private ArrayList<Int2D> renewedGoals;
+	// Bounded max-heap reused by rankCandidates
+	private double[] heapKeys;
+	private int[] heapCells;
+	private TWEntity[] heapObjects;
 
 	public HybridPRSTWAgent(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
 		super(xpos, ypos, env, fuelLevel);
+		this.config = env.getConfig();
+		this.fuelTolerance = config.getFuelTolerance();
+		this.hardFuelLimit = config.getHardFuelLimit();
+		this.TSPHeuristic = config.isTSPHeuristic();
+		this.objectLifetimeThreshold = config.getObjectLifetimeThreshold();
+		this.goalAnnounceCount = config.getGoalAnnounceCount();
+		this.allowAssistance = config.isAllowAssistance();
+		this.maxAssistZoneDistance = config.getMaxAssistZoneDistance();
+		this.goalClaimLifetime = config.getGoalClaimLifetime();
 		this.name = name;
-		this.agentIdx = Character.getNumericValue(name.charAt(name.length() - 1)) - 1;
+		this.agentIdx = agentIndex(name);
 		this.planner = new DefaultTWPlanner(this);
-		this.memory = new TWAgentDecayMemory(this, env.schedule, env.getxDimension(), env.getyDimension());
+		this.rolloutPlanner = config.isRolloutPlanning() ? new TWRolloutPlanner(config) : null;
+		this.memory = env.createDecayMemory(this);
 		this.decayMemory = (TWAgentDecayMemory) this.memory;
 		this.bounds = new Int2D[4];
-		this.tilesInZone = new PriorityQueue<TWEntity>();
-		this.holesInZone = new PriorityQueue<TWEntity>();
-		this.possibleTileGoals = new LinkedList<TWEntity>();
-		this.possibleHoleGoals = new LinkedList<TWEntity>();
+		this.tileCandidates = new TWCandidateSet(TWTile.class, env.getxDimension(), env.getyDimension());
+		this.holeCandidates = new TWCandidateSet(TWHole.class, env.getxDimension(), env.getyDimension());
+		// Registered here, while agents are created one after the other, as the blackboard's listeners are shared.
+		// The sets ignore memory changes until the zone bounds are set.
+		decayMemory.addMemoryListener(tileCandidates);
+		decayMemory.addMemoryListener(holeCandidates);
+		this.claimedGoals = new ArrayList<Int2D>();
+		this.renewedGoals = new ArrayList<Int2D>();
+		this.heapKeys = new double[goalAnnounceCount + 1];
+		this.heapCells = new int[goalAnnounceCount + 1];
+		this.heapObjects = new TWEntity[goalAnnounceCount + 1];
 	}
 
 	@Override
 	public void communicate() {
-		Message message = new TypedMessage(name, "ALL", "MAP", new Object[] { decayMemory.getAgentPercept(), new Int2D(x, y) });
-		this.getEnvironment().receiveMessage(message); // this will send the message to the broadcast channel of the environment
+		// With the shared blackboard there is no map to merge, the message is only needed for zone assignment
+		if (this.getEnvironment().getBlackboard() == null || bounds[0] == null) {
+			Message message = new TypedMessage(name, "ALL", "MAP", new Object[] { decayMemory.publishWindow(), new Int2D(x, y) });
+			this.getEnvironment().receiveMessage(message); // this will send the message to the broadcast channel of the environment
+		}
 
 		// Broadcast surplus tiles and holes for auction
 		if (bounds[0] != null) {
-			tilesInZone = decayMemory.getNearbyObjectsWithinBounds(bounds, new TWTile().getClass());
-			holesInZone = decayMemory.getNearbyObjectsWithinBounds(bounds, new TWHole().getClass());
-
-			possibleTileGoals.clear();
-			possibleHoleGoals.clear();
-
+			// The environment may have moved the zone boundaries since the last step
+			followZoneManager();
 			LinkedList<TWEntity> goals = new LinkedList<TWEntity>();
 			LinkedList<TWEntity> auctionTiles = new LinkedList<TWEntity>();
 			LinkedList<TWEntity> auctionHoles = new LinkedList<TWEntity>();
-			// Cull PriorityQueues for objects too far away to reach in time and auction them to other nearby agents
-			while (!tilesInZone.isEmpty()) {
-				TWEntity tile = tilesInZone.poll();
-				double distToTile = this.getDistanceTo(tile);
-				if (decayMemory.getEstimatedRemainingLifetime(tile, this.objectLifetimeThreshold) <= distToTile) {
-					auctionTiles.add(tile);
-				}
-				else {
-					possibleTileGoals.add(tile);
-				}
+			// Rank candidates in zone, objects too far away to reach in time and those beyond the goals
+			// which could be announced are auctioned to other nearby agents
+			closestTile = rankCandidates(tileCandidates, auctionTiles);
+			closestHole = rankCandidates(holeCandidates, auctionHoles);
+
+			// With central allocation every candidate goes to the allocator, which decides who takes which
+			TWTaskAllocator allocator = this.getEnvironment().getAllocator();
+			if (allocator != null) {
+				allocator.submit(getId(), x, y, agentZones[agentIdx], this.carriedTiles.size() < 3, this.hasTile(),
+					this.getEnvironment().schedule.getSteps());
+				offerTargets(allocator, closestTile, false);
+				offerTargets(allocator, auctionTiles.toArray(new TWEntity[auctionTiles.size()]), false);
+				offerTargets(allocator, closestHole, true);
+				offerTargets(allocator, auctionHoles.toArray(new TWEntity[auctionHoles.size()]), true);
+				return;
 			}
-			while (!holesInZone.isEmpty()) {
-				TWEntity hole = holesInZone.poll();
-				double distToHole = this.getDistanceTo(hole);
-				if (decayMemory.getEstimatedRemainingLifetime(hole, this.objectLifetimeThreshold) <= distToHole) {
-					auctionHoles.add(hole);
-				}
-				else {
-					possibleHoleGoals.add(hole);
-				}
-			}
-
-			closestTile = new TWEntity[possibleTileGoals.size()];
-			closestHole = new TWEntity[possibleHoleGoals.size()];
-			closestTile = possibleTileGoals.toArray(closestTile);
-			closestHole = possibleHoleGoals.toArray(closestHole);
 
 			// Announce goals within set limit, goalAnnounceCount, then auction surplus targets
 			int tileCount = this.carriedTiles.size();
@@ -154,11 +189,9 @@ public class HybridPRSTWAgent extends TWAgent {
 					goals.add(closestHole[i]);
 				}
 			}
-			if (goals.size() >= 0) {
-				TWEntity[] goalsArr = new TWEntity[goals.size()];
-				goalsArr = goals.toArray(goalsArr);
-				Message goalMessage = new TypedMessage(name, "ALL", "GOALS", goalsArr);
-				this.getEnvironment().receiveMessage(goalMessage);
+			// Reserve the announced goals so that other agents leave them alone
+			for (int i = 0; i < goals.size(); i++) {
+				claimGoal(goals.get(i).getX(), goals.get(i).getY());
 			}
 
 			if (auctionTiles.size() >= 0) {
@@ -176,8 +209,23 @@ public class HybridPRSTWAgent extends TWAgent {
 		}
 	}
 
+	private void offerTargets(TWTaskAllocator allocator, TWEntity[] targets, boolean holes) {
+		for (int i = 0; i < targets.length; i++) {
+			allocator.offer(getId(), targets[i].getX(), targets[i].getY(), holes,
+				decayMemory.getEstimatedRemainingLifetime(targets[i], this.objectLifetimeThreshold));
+		}
+	}
+
+	/**
+	 * Index of an agent from its name, "Agent 1" being agent 0
+	 */
+	private static int agentIndex(String name) {
+		return Integer.parseInt(name.substring(name.lastIndexOf(' ') + 1)) - 1;
+	}
+
 	public void assignZone(int startX, int startY, int width, int height) {
 		int agentCount = 0;
+		// Zone assignment is a one-off negotiation between all agents, so read the full channel regardless of communication range
 		ArrayList<Message> messages = this.getEnvironment().getMessages();
 		for (int i = 0; i < messages.size(); i++) {
 			TypedMessage message = (TypedMessage) messages.get(i);
@@ -191,7 +239,7 @@ public class HybridPRSTWAgent extends TWAgent {
 		for (int i = 0; i < messages.size(); i++) {
 			TypedMessage message = (TypedMessage) messages.get(i);
 			if (message.getTo().equals("ALL") && message.getMessage().equals("MAP")) {
-				agentPos[Character.getNumericValue(message.getFrom().charAt(message.getFrom().length() - 1)) - 1] = (Int2D) message.getObject()[1];
+				agentPos[agentIndex(message.getFrom())] = (Int2D) message.getObject()[1];
 			}
 		}
 		// If environment height longer than width, divide into zones along height by
@@ -200,7 +248,7 @@ public class HybridPRSTWAgent extends TWAgent {
 		zoneByRows = width <= height;
 		Int2D zoneDim;
 		if (zoneByRows) {
-			zoneDim = new Int2D(width, height / 3);
+			zoneDim = new Int2D(width, height / agentCount);
 
 			// Assign closest agent for each zone
 			for (int i = 0; i < agentCount; i++) {
@@ -210,7 +258,7 @@ public class HybridPRSTWAgent extends TWAgent {
 						distToZone[j] = Math.abs(agentPos[j].x - startX) + Math.abs(agentPos[j].y - ((zoneDim.y * i) + startY));
 					}
 					else {
-						distToZone[j] = Parameters.xDimension + Parameters.yDimension;
+						distToZone[j] = config.getxDimension() + config.getyDimension();
 					}
 				}
 				int closestAgent = 0;
@@ -227,7 +275,7 @@ public class HybridPRSTWAgent extends TWAgent {
 		}
 		// Else divide into zones along width by columns
 		else {
-			zoneDim = new Int2D(width / 3, height);
+			zoneDim = new Int2D(width / agentCount, height);
 
 			// Assign closest agent for each zone
 			for (int i = 0; i < agentCount; i++) {
@@ -237,7 +285,7 @@ public class HybridPRSTWAgent extends TWAgent {
 						distToZone[j] = Math.abs(agentPos[j].x - ((zoneDim.x * i) + startX)) + Math.abs(agentPos[j].y - startY);
 					}
 					else {
-						distToZone[j] = Parameters.xDimension + Parameters.yDimension;
+						distToZone[j] = config.getxDimension() + config.getyDimension();
 					}
 				}
 				int closestAgent = 0;
@@ -253,57 +301,46 @@ public class HybridPRSTWAgent extends TWAgent {
 			}
 		}
 
-		// Calculate bounds
+		// Calculate bounds, the last zone covers the entire remaining area
+		int zone = agentZones[agentIdx];
+		boolean last = zone == agentZones.length - 1;
 		if (zoneByRows) {
-			bounds[0] = new Int2D(startX, startY + (zoneDim.y * agentZones[agentIdx]));
-			bounds[1] = new Int2D(startX + width, startY + (zoneDim.y * agentZones[agentIdx]));
-
-			// Last zone covers entire remaining area
-			if (agentZones[agentIdx] == agentZones.length - 1) {
-				bounds[2] = new Int2D(startX + width, startY + height);
-				bounds[3] = new Int2D(0, startY + height);
-			}
-			else {
-				bounds[2] = new Int2D(startX + width, startY + (zoneDim.y * (agentZones[agentIdx] + 1)));
-				bounds[3] = new Int2D(0, startY + (zoneDim.y * (agentZones[agentIdx] + 1)));
-			}
+			setZoneBounds(startX, startY + (zoneDim.y * zone), startX + width, last ? startY + height : startY + (zoneDim.y * (zone + 1)));
 		}
 		else {
-			bounds[0] = new Int2D(startX + (zoneDim.x * agentZones[agentIdx]), startY);
-
-			// Last zone covers entire remaining area
-			if (agentZones[agentIdx] == agentZones.length - 1) {
-				bounds[1] = new Int2D(startX + width, startY);
-				bounds[2] = new Int2D(startX + width, startY + height);
-			}
-			else {
-				bounds[1] = new Int2D(startX + (zoneDim.x * (agentZones[agentIdx] + 1)), startY);
-				bounds[2] = new Int2D(startX + (zoneDim.x * (agentZones[agentIdx] + 1)), startY + height);
-			}
-
-			bounds[3] = new Int2D(startX + (zoneDim.x * agentZones[agentIdx]), startY + height);
+			setZoneBounds(startX + (zoneDim.x * zone), startY, last ? startX + width : startX + (zoneDim.x * (zone + 1)), startY + height);
 		}
+	}
+
+	/**
+	 * Sets the zone bounds to the rectangle from (minX, minY) to (maxX, maxY) and lays out its anchors
+	 */
+	private void setZoneBounds(int minX, int minY, int maxX, int maxY) {
+		bounds[0] = new Int2D(minX, minY);
+		bounds[1] = new Int2D(maxX, minY);
+		bounds[2] = new Int2D(maxX, maxY);
+		bounds[3] = new Int2D(minX, maxY);
 
 		// Calculate anchors
-		zoneDim = new Int2D(bounds[1].x - bounds[0].x, bounds[3].y - bounds[0].y);
-		int horizontalAnchors = (int) Math.ceil(zoneDim.x / (Parameters.defaultSensorRange * 2.0 + 1));
-		int verticalAnchors = (int) Math.ceil(zoneDim.y / (Parameters.defaultSensorRange * 2.0 + 1));
+		Int2D zoneDim = new Int2D(bounds[1].x - bounds[0].x, bounds[3].y - bounds[0].y);
+		int horizontalAnchors = (int) Math.ceil(zoneDim.x / (config.getDefaultSensorRange() * 2.0 + 1));
+		int verticalAnchors = (int) Math.ceil(zoneDim.y / (config.getDefaultSensorRange() * 2.0 + 1));
 		anchors = new Int2D[horizontalAnchors * verticalAnchors];
 		for (int i = 0, j = 0; i < verticalAnchors; i++) {
 			Int2D[] tmpAnchors = new Int2D[horizontalAnchors];
 			for (int k = 0; k < horizontalAnchors; k++) {
 				int anchorX, anchorY;
 				if (i == verticalAnchors - 1) {
-					anchorY = bounds[2].y - Parameters.defaultSensorRange;
+					anchorY = bounds[2].y - config.getDefaultSensorRange();
 				}
 				else {
-					anchorY = bounds[0].y + Parameters.defaultSensorRange + (Parameters.defaultSensorRange * 2 + 1) * i;
+					anchorY = bounds[0].y + config.getDefaultSensorRange() + (config.getDefaultSensorRange() * 2 + 1) * i;
 				}
 				if (k == horizontalAnchors - 1) {
-					anchorX = bounds[2].x - Parameters.defaultSensorRange;
+					anchorX = bounds[2].x - config.getDefaultSensorRange();
 				}
 				else {
-					anchorX = bounds[0].x + Parameters.defaultSensorRange + (Parameters.defaultSensorRange * 2 + 1) * k;
+					anchorX = bounds[0].x + config.getDefaultSensorRange() + (config.getDefaultSensorRange() * 2 + 1) * k;
 				}
 				tmpAnchors[k] = new Int2D(anchorX, anchorY);
 			}
@@ -326,10 +363,174 @@ public class HybridPRSTWAgent extends TWAgent {
 		return;
 	}
 
+	/**
+	 * Refills the candidate sets with the remembered tiles and holes within the zone bounds, from then on they follow
+	 * memory changes
+	 */
+	private void boundCandidates() {
+		int maxX = Math.min(bounds[2].x, this.getEnvironment().getxDimension() - 1);
+		int maxY = Math.min(bounds[2].y, this.getEnvironment().getyDimension() - 1);
+		tileCandidates.setBounds(bounds[0].x, bounds[0].y, maxX, maxY, decayMemory.getObjectIndex(TWTile.class));
+		holeCandidates.setBounds(bounds[0].x, bounds[0].y, maxX, maxY, decayMemory.getObjectIndex(TWHole.class));
+	}
+
+	/**
+	 * Moves the zone bounds to where the environment's zone manager has them, if they moved. Only then are the anchors
+	 * laid out again and the candidate sets refilled.
+	 */
+	private void followZoneManager() {
+		TWZoneManager zones = this.getEnvironment().getZoneManager();
+		if (zones == null || zones.getZoneCount() != agentZones.length || zones.isByRows() != zoneByRows) {
+			return;
+		}
+		int from = zones.getStart(agentZones[agentIdx]);
+		int to = zones.getEnd(agentZones[agentIdx]);
+		if (zoneByRows) {
+			if (bounds[0].y == from && bounds[2].y == to) {
+				return;
+			}
+			setZoneBounds(bounds[0].x, from, bounds[2].x, to);
+		}
+		else {
+			if (bounds[0].x == from && bounds[2].x == to) {
+				return;
+			}
+			setZoneBounds(from, bounds[0].y, to, bounds[2].y);
+		}
+		boundCandidates();
+		log("Zone moved to " + from + "-" + (to - 1));
+	}
+
+	/**
+	 * Selects the goalAnnounceCount + 1 best candidates by TSP distance with a bounded heap, each ranking key is computed once.
+	 * Equal distances are ranked by cell, column first, so the order does not depend on how the candidate set was filled.
+	 * Candidates reserved by other agents are skipped. Those which will decay before they can be reached and those not in
+	 * the top selection are added to rest (unordered).
+	 *
+	 * @return the selected candidates, closest first
+	 */
+	private TWEntity[] rankCandidates(TWCandidateSet candidates, List<TWEntity> rest) {
+		TWAgentPercept[][] objects = decayMemory.getAgentPercept();
+		TWGoalReservations reservations = this.getEnvironment().getReservations();
+		long step = this.getEnvironment().schedule.getSteps();
+		int k = heapKeys.length;
+		int heapSize = 0;
+		for (int i = 0; i < candidates.size(); i++) {
+			if (reservations.isReservedByOther(getId(), candidates.getX(i), candidates.getY(i), step)) {
+				continue;
+			}
+			TWEntity o = objects[candidates.getX(i)][candidates.getY(i)].getO();
+			if (decayMemory.getEstimatedRemainingLifetime(o, this.objectLifetimeThreshold) <= this.getDistanceTo(o)) {
+				if (rest != null) {
+					rest.add(o);
+				}
+				continue;
+			}
+			double key = getTSPDistance(o);
+			int cell = candidates.getX(i) * objects[0].length + candidates.getY(i);
+			if (heapSize < k) {
+				// Sift up
+				int c = heapSize++;
+				while (c > 0 && ranksAfter(key, cell, heapKeys[(c - 1) / 2], heapCells[(c - 1) / 2])) {
+					heapKeys[c] = heapKeys[(c - 1) / 2];
+					heapCells[c] = heapCells[(c - 1) / 2];
+					heapObjects[c] = heapObjects[(c - 1) / 2];
+					c = (c - 1) / 2;
+				}
+				heapKeys[c] = key;
+				heapCells[c] = cell;
+				heapObjects[c] = o;
+			}
+			else if (ranksAfter(heapKeys[0], heapCells[0], key, cell)) {
+				if (rest != null) {
+					rest.add(heapObjects[0]);
+				}
+				siftDown(key, cell, o, heapSize);
+			}
+			else if (rest != null) {
+				rest.add(o);
+			}
+		}
+
+		TWEntity[] top = new TWEntity[heapSize];
+		while (heapSize > 0) {
+			top[heapSize - 1] = heapObjects[0];
+			heapSize--;
+			siftDown(heapKeys[heapSize], heapCells[heapSize], heapObjects[heapSize], heapSize);
+			heapObjects[heapSize] = null;
+		}
+		return top;
+	}
+
+	/**
+	 * Places (key, cell, o) at the root of the max-heap of the given size and restores the heap order
+	 */
+	private void siftDown(double key, int cell, TWEntity o, int heapSize) {
+		int c = 0;
+		while (2 * c + 1 < heapSize) {
+			int child = 2 * c + 1;
+			if (child + 1 < heapSize && ranksAfter(heapKeys[child + 1], heapCells[child + 1], heapKeys[child], heapCells[child])) {
+				child++;
+			}
+			if (!ranksAfter(heapKeys[child], heapCells[child], key, cell)) {
+				break;
+			}
+			heapKeys[c] = heapKeys[child];
+			heapCells[c] = heapCells[child];
+			heapObjects[c] = heapObjects[child];
+			c = child;
+		}
+		heapKeys[c] = key;
+		heapCells[c] = cell;
+		heapObjects[c] = o;
+	}
+
+	/**
+	 * @return whether a candidate with key1 in cell1 ranks after one with key2 in cell2
+	 */
+	private static boolean ranksAfter(double key1, int cell1, double key2, int cell2) {
+		return key1 > key2 || (key1 == key2 && cell1 > cell2);
+	}
+
+	/**
+	 * Reserves cell (gx, gy) for this agent, or renews the reservation, and remembers it as wanted this step
+	 */
+	private void claimGoal(int gx, int gy) {
+		long step = this.getEnvironment().schedule.getSteps();
+		if (this.getEnvironment().getReservations().claim(getId(), gx, gy, step, goalClaimLifetime)) {
+			Int2D cell = new Int2D(gx, gy);
+			if (!claimedGoals.contains(cell)) {
+				claimedGoals.add(cell);
+			}
+			renewedGoals.add(cell);
+		}
+	}
+
+	/**
+	 * Releases every reservation which was not renewed during this step
+	 */
+	private void releaseStaleGoals() {
+		TWGoalReservations reservations = this.getEnvironment().getReservations();
+		for (int i = claimedGoals.size() - 1; i >= 0; i--) {
+			Int2D cell = claimedGoals.get(i);
+			if (!renewedGoals.contains(cell)) {
+				reservations.release(getId(), cell.x, cell.y);
+				claimedGoals.remove(i);
+			}
+		}
+		renewedGoals.clear();
+	}
+
 	public void mergeContracts(PriorityQueue<TWEntity> queue, TWEntity[] contractObj, int contractZone) {
+		TWGoalReservations reservations = this.getEnvironment().getReservations();
+		long step = this.getEnvironment().schedule.getSteps();
 		if (this.agentZones[agentIdx] != contractZone &&
 			Math.abs(this.agentZones[agentIdx] - contractZone) <= maxAssistZoneDistance) {
 			for (int i = 0; i < contractObj.length; i++) {
+				// Skip contracts another agent has already reserved
+				if (reservations.isReservedByOther(getId(), contractObj[i].getX(), contractObj[i].getY(), step)) {
+					continue;
+				}
 				double distToObj = this.getDistanceTo(contractObj[i]);
 				if (!(decayMemory.getEstimatedRemainingLifetime(contractObj[i], this.objectLifetimeThreshold) <= distToObj)) {
 					queue.add(contractObj[i]);
@@ -342,7 +543,7 @@ public class HybridPRSTWAgent extends TWAgent {
 		double oDist = getDistanceTo(o);
 		// Modifies Manhattan distance by lifetime remaining, so between two equidistant objects, the one with a shorter lifetime is closer
 		if (this.TSPHeuristic) {
-			oDist *= decayMemory.getEstimatedRemainingLifetime(o, 1.0)/Parameters.lifeTime;
+			oDist *= decayMemory.getEstimatedRemainingLifetime(o, 1.0)/config.getLifeTime();
 		}
 		return oDist;
 	}
@@ -355,31 +556,14 @@ public class HybridPRSTWAgent extends TWAgent {
 		// Further divide each zone into smaller areas with centered
 		// anchors based on sensing range.
 		if (bounds[0] == null) {
-			assignZone(0, 0, Parameters.xDimension, Parameters.yDimension);
-			tilesInZone = decayMemory.getNearbyObjectsWithinBounds(bounds, new TWTile().getClass());
-			holesInZone = decayMemory.getNearbyObjectsWithinBounds(bounds, new TWHole().getClass());
-			while (!tilesInZone.isEmpty()) {
-				TWEntity tile = tilesInZone.poll();
-				double distToTile = this.getDistanceTo(tile);
-				if (!(decayMemory.getEstimatedRemainingLifetime(tile, this.objectLifetimeThreshold) <= distToTile)) {
-					possibleTileGoals.add(tile);
-				}
-			}
-			while (!holesInZone.isEmpty()) {
-				TWEntity hole = holesInZone.poll();
-				double distToHole = this.getDistanceTo(hole);
-				if (!(decayMemory.getEstimatedRemainingLifetime(hole, this.objectLifetimeThreshold) <= distToHole)) {
-					possibleHoleGoals.add(hole);
-				}
-			}
-			closestTile = new TWEntity[possibleTileGoals.size()];
-			closestHole = new TWEntity[possibleHoleGoals.size()];
-			closestTile = possibleTileGoals.toArray(closestTile);
-			closestHole = possibleHoleGoals.toArray(closestHole);
+			assignZone(0, 0, config.getxDimension(), config.getyDimension());
+			boundCandidates();
+			closestTile = rankCandidates(tileCandidates, null);
+			closestHole = rankCandidates(holeCandidates, null);
 		}
 
 		// Merge all shared maps before any further deliberation
-		ArrayList<Message> messages = this.getEnvironment().getMessages();
+		ArrayList<Message> messages = this.getEnvironment().getMessages(this);
 		for (int i = 0; i < messages.size(); i++) {
 			TypedMessage message = (TypedMessage) messages.get(i);
 			if (!message.getFrom().equals(this.name) &&
@@ -410,28 +594,9 @@ public class HybridPRSTWAgent extends TWAgent {
 			}
 		}
 
-		// Remove announced goals from goal and contract lists to prevent goal collisions
-		for (int i = 0; i < messages.size(); i++) {
-			TypedMessage message = (TypedMessage) messages.get(i);
-			if (!message.getFrom().equals(this.name) &&
-				message.getTo().equals("ALL") &&
-				message.getMessage().equals("GOALS")) {
-				TWEntity[] announcedGoals = (TWEntity[]) message.getObject();
-				for (int j = 0; j < announcedGoals.length; j++) {
-					if (announcedGoals[j] instanceof TWTile) {
-						assistableTiles.remove(announcedGoals[j]);
-						possibleTileGoals.remove(announcedGoals[j]);
-					}
-					else if (announcedGoals[j] instanceof TWHole) {
-						assistableHoles.remove(announcedGoals[j]);
-						possibleHoleGoals.remove(announcedGoals[j]);
-					}
-				}
-			}
-		}
-
 		// Default Mode
 		mode = Mode.EXPLORE;
+		Int2D allocatedGoal = null;
 
 		// Refueling takes utmost priority if fuel station already found and low on fuel
 		if (decayMemory.getFuelStation() != null && this.getDistanceTo(decayMemory.getFuelStation().x, decayMemory.getFuelStation().y) >= this.fuelLevel * fuelTolerance) {
@@ -454,6 +619,20 @@ public class HybridPRSTWAgent extends TWAgent {
 				mode = Mode.REFUEL;
 			}
 		}
+		// With central allocation the allocator has decided which target, if any, this agent goes for
+		else if (this.getEnvironment().getAllocator() != null) {
+			TWTaskAllocator allocator = this.getEnvironment().getAllocator();
+			if (allocator.hasAssignment(getId(), this.getEnvironment().schedule.getSteps())) {
+				boolean own = allocator.getAssignedZone(getId()) == agentZones[agentIdx];
+				if (allocator.isAssignedHole(getId())) {
+					mode = own ? Mode.FILL : Mode.ASSIST_FILL;
+				}
+				else {
+					mode = own ? Mode.COLLECT : Mode.ASSIST_COLLECT;
+				}
+				allocatedGoal = new Int2D(allocator.getAssignedX(getId()), allocator.getAssignedY(getId()));
+			}
+		}
 		// If no tile and tile nearby, collect tile else explore
 		else if (!this.hasTile()) {
 			if (closestTile.length > 0) {
@@ -495,12 +674,7 @@ public class HybridPRSTWAgent extends TWAgent {
 		if (curLocObj instanceof TWHole &&
 			this.getEnvironment().canPutdownTile((TWHole) curLocObj, this)) {
 			mode = Mode.REACT_FILL;
-
-			// Announce goal as there is possibility target is not in purview of own's zone and is encountered enroute to or from refueling
-			// If so, there may be a possibility of goal collision
-			TWEntity[] goalsArr = new TWEntity[] {this.decayMemory.objects[x][y].getO()};
-			Message goalMessage = new TypedMessage(name, "ALL", "GOALS", goalsArr);
-			this.getEnvironment().receiveMessage(goalMessage);
+			// Not reserved, the hole is filled by this very action
 
 			planner.getGoals().add(new Int2D(this.x, this.y));
 			return new TWThought(TWAction.PUTDOWN, null);
@@ -511,23 +685,27 @@ public class HybridPRSTWAgent extends TWAgent {
 		{
 			mode = Mode.REACT_COLLECT;
 
-			TWEntity[] goalsArr = new TWEntity[] {this.decayMemory.objects[x][y].getO()};
-			Message goalMessage = new TypedMessage(name, "ALL", "GOALS", goalsArr);
-			this.getEnvironment().receiveMessage(goalMessage);
-
 			planner.getGoals().add(new Int2D(this.x, this.y));
 			return new TWThought(TWAction.PICKUP, null);
 		}
 		// If stumble upon fuel station, refuel if below 75% fuel.
 		// This is different from the fuel management mechanism using the fuelTolerance threshold.
 		else if (curLocObj instanceof TWFuelStation &&
-				 this.fuelLevel < (0.75 * Parameters.defaultFuelLevel))
+				 this.fuelLevel < (0.75 * config.getDefaultFuelLevel()))
 		{
 			planner.getGoals().add(new Int2D(this.x, this.y));
 			return new TWThought(TWAction.REFUEL, null);
 		}
 		// Modes which require a TWDirection and plan to be generated
 		else {
+			// The allocator's target if there is one. Otherwise, with rollout planning the priority chain only decides
+			// that there is something to pick up or fill, rollouts then choose which target (or an early refuel)
+			Int2D chosenGoal = allocatedGoal;
+			if (chosenGoal == null && rolloutPlanner != null &&
+				(mode == Mode.COLLECT || mode == Mode.FILL || mode == Mode.ASSIST_COLLECT || mode == Mode.ASSIST_FILL)) {
+				chosenGoal = chooseByRollouts(assistableTiles, assistableHoles);
+			}
+
 			// getMemory().getClosestObjectInSensorRange(Tile.class);
 			if (mode == Mode.EXPLORE) {
 				// Collect exploration scores for all anchors
@@ -576,6 +754,9 @@ public class HybridPRSTWAgent extends TWAgent {
 
 				planner.getGoals().add(anchorGoal);
 			}
+			else if (chosenGoal != null) {
+				planner.getGoals().add(chosenGoal);
+			}
 			else if (mode == Mode.REFUEL) {
 				planner.getGoals().add(decayMemory.fuelStation);
 			}
@@ -587,19 +768,9 @@ public class HybridPRSTWAgent extends TWAgent {
 			}
 			else if (mode == Mode.ASSIST_COLLECT) {
 				planner.getGoals().add(new Int2D(assistableTiles.peek().getX(), assistableTiles.peek().getY()));
-
-				// Broadcast goal being assisted to indicate contract is no longer available
-				TWEntity[] goalsArr = new TWEntity[] {assistableTiles.peek()};
-				Message goalMessage = new TypedMessage(name, "ALL", "GOALS", goalsArr);
-				this.getEnvironment().receiveMessage(goalMessage);
 			}
 			else if (mode == Mode.ASSIST_FILL) {
 				planner.getGoals().add(new Int2D(assistableHoles.peek().getX(), assistableHoles.peek().getY()));
-
-				// Broadcast goal being assisted to indicate contract is no longer available
-				TWEntity[] goalsArr = new TWEntity[] {assistableHoles.peek()};
-				Message goalMessage = new TypedMessage(name, "ALL", "GOALS", goalsArr);
-				this.getEnvironment().receiveMessage(goalMessage);
 			}
 			else if (mode == Mode.WAIT) {
 				return new TWThought(TWAction.MOVE, TWDirection.Z);
@@ -613,6 +784,51 @@ public class HybridPRSTWAgent extends TWAgent {
 		}
 	}
 
+	/**
+	 * Runs rollouts for the candidate goals: the ranked tiles and holes of the zone, the best assistable ones and the
+	 * fuel station. Sets the mode of the chosen goal.
+	 *
+	 * @return the chosen goal, null if there was no choice to make
+	 */
+	private Int2D chooseByRollouts(PriorityQueue<TWEntity> assistableTiles, PriorityQueue<TWEntity> assistableHoles) {
+		ArrayList<Int2D> goals = new ArrayList<Int2D>();
+		ArrayList<Mode> modes = new ArrayList<Mode>();
+		if (this.carriedTiles.size() < 3) {
+			for (int i = 0; i < closestTile.length; i++) {
+				goals.add(new Int2D(closestTile[i].getX(), closestTile[i].getY()));
+				modes.add(Mode.COLLECT);
+			}
+			if (allowAssistance && !assistableTiles.isEmpty()) {
+				goals.add(new Int2D(assistableTiles.peek().getX(), assistableTiles.peek().getY()));
+				modes.add(Mode.ASSIST_COLLECT);
+			}
+		}
+		if (this.hasTile()) {
+			for (int i = 0; i < closestHole.length; i++) {
+				goals.add(new Int2D(closestHole[i].getX(), closestHole[i].getY()));
+				modes.add(Mode.FILL);
+			}
+			if (allowAssistance && !assistableHoles.isEmpty()) {
+				goals.add(new Int2D(assistableHoles.peek().getX(), assistableHoles.peek().getY()));
+				modes.add(Mode.ASSIST_FILL);
+			}
+		}
+		if (decayMemory.getFuelStation() != null && this.fuelLevel < 0.5 * config.getDefaultFuelLevel()) {
+			goals.add(decayMemory.getFuelStation());
+			modes.add(Mode.REFUEL);
+		}
+		if (goals.size() < 2) {
+			return null;
+		}
+		// Seeded from the agent and step rather than drawn from a generator, which agents thinking in parallel may share
+		long seed = this.getEnvironment().seed() ^ ((long) getId() << 40) ^ this.getEnvironment().schedule.getSteps();
+		int best = rolloutPlanner.choose(rolloutPlanner.capture(this, decayMemory), goals.toArray(new Int2D[goals.size()]),
+			seed, goals.indexOf(lastRolloutGoal));
+		mode = modes.get(best);
+		lastRolloutGoal = goals.get(best);
+		return lastRolloutGoal;
+	}
+
 	@Override
 	protected void act(TWThought thought) {
 		// You can do:
@@ -622,6 +838,17 @@ public class HybridPRSTWAgent extends TWAgent {
 		// refuel()
 		Int2D curGoal = planner.getCurrentGoal();
 
+		// Reserve assisted contracts, which were not announced, as soon as they are chosen so that peers stop offering
+		// and taking them. Reactive pickups and fills need none, the object is gone with this action.
+		// Allocated targets are not claimed, a claim would keep the zone's agent from offering it to the allocator again
+		boolean allocated = this.getEnvironment().getAllocator() != null;
+		if (curGoal != null && !allocated && (mode == Mode.ASSIST_COLLECT || mode == Mode.ASSIST_FILL)) {
+			claimGoal(curGoal.x, curGoal.y);
+		}
+		else if (curGoal != null && (mode == Mode.COLLECT || mode == Mode.FILL)) {
+			renewedGoals.add(curGoal);
+		}
+
 		try {
 			switch (thought.getAction()) {
 			case MOVE:
@@ -643,21 +870,81 @@ public class HybridPRSTWAgent extends TWAgent {
 		}
 		catch (CellBlockedException ex) {
 			// Cell is blocked, replan?
-			System.out.println("Cell is blocked. Current Position: " + Integer.toString(this.x) + ", " + Integer.toString(this.y));
+			log("Cell is blocked. Current Position: " + Integer.toString(this.x) + ", " + Integer.toString(this.y));
 		}
-		System.out.println("Step " + this.getEnvironment().schedule.getSteps());
-		System.out.println(name + " score: " + this.score);
-		System.out.println("Assigned Zone: " + Integer.toString(agentZones[agentIdx]));
-		System.out.println("Mode: " + mode.name());
-		System.out.println("Position: " + Integer.toString(this.x) + ", " + Integer.toString(this.y));
+
+		// Drop reservations on anything no longer pursued
+		releaseStaleGoals();
+		log("Step " + this.getEnvironment().schedule.getSteps());
+		log(name + " score: " + this.score);
+		log("Assigned Zone: " + Integer.toString(agentZones[agentIdx]));
+		log("Mode: " + mode.name());
+		log("Position: " + Integer.toString(this.x) + ", " + Integer.toString(this.y));
 		if (curGoal != null) {
-			System.out.println("Goal: " + curGoal.x + ", " + curGoal.y);
+			log("Goal: " + curGoal.x + ", " + curGoal.y);
 		}
 		else
-			System.out.println("Goal: WAIT");
-		System.out.println("Tiles: " + this.carriedTiles.size());
-		System.out.println("Fuel Level: " + this.fuelLevel);
-		System.out.println("");
+			log("Goal: WAIT");
+		log("Tiles: " + this.carriedTiles.size());
+		log("Fuel Level: " + this.fuelLevel);
+		log("");
+	}
+
+	/**
+	 * Adds the zone assignment, reservations held, planner goals and the goal last chosen by rollouts. Candidate rankings and the mode are
+	 * recomputed every step and are not stored.
+	 */
+	@Override
+	public void writeState(TWSnapshotOutput out) {
+		super.writeState(out);
+		out.writeBoolean(bounds[0] != null);
+		if (bounds[0] != null) {
+			out.writeBoolean(zoneByRows);
+			out.writeInt(agentZones.length);
+			for (int i = 0; i < agentZones.length; i++) {
+				out.writeInt(agentZones[i]);
+			}
+			for (int i = 0; i < bounds.length; i++) {
+				out.writeInt2D(bounds[i]);
+			}
+			out.writeInt(anchors.length);
+			for (int i = 0; i < anchors.length; i++) {
+				out.writeInt2D(anchors[i]);
+			}
+		}
+		out.writeInt(claimedGoals.size());
+		for (int i = 0; i < claimedGoals.size(); i++) {
+			out.writeInt2D(claimedGoals.get(i));
+		}
+		planner.writeState(out);
+		out.writeInt2D(lastRolloutGoal);
+	}
+
+	@Override
+	public void readState(TWSnapshotInput in) throws IOException {
+		super.readState(in);
+		if (in.readBoolean()) {
+			zoneByRows = in.readBoolean();
+			agentZones = new Integer[in.readInt()];
+			for (int i = 0; i < agentZones.length; i++) {
+				agentZones[i] = in.readInt();
+			}
+			for (int i = 0; i < bounds.length; i++) {
+				bounds[i] = in.readInt2D();
+			}
+			anchors = new Int2D[in.readInt()];
+			for (int i = 0; i < anchors.length; i++) {
+				anchors[i] = in.readInt2D();
+			}
+			// Memory is restored, so the candidate sets can be filled from its index
+			boundCandidates();
+		}
+		claimedGoals.clear();
+		for (int count = in.readInt(); count > 0; count--) {
+			claimedGoals.add(in.readInt2D());
+		}
+		planner.readState(in);
+		lastRolloutGoal = in.readInt2D();
 	}
 
 	@Override
@@ -30,7 +30,7 @@ public class SimpleTWAgent extends TWAgent{
 
     protected TWThought think() {
 //        getMemory().getClosestObjectInSensorRange(Tile.class);
-        System.out.println("Simple Score: " + this.score);
+        log("Simple Score: " + this.score);
         return new TWThought(TWAction.MOVE,getRandomDirection());
     }
 
@@ -54,7 +54,7 @@ public class SimpleTWAgent extends TWAgent{
 
     private TWDirection getRandomDirection(){
 
-        TWDirection randomDir = TWDirection.values()[this.getEnvironment().random.nextInt(5)];
+        TWDirection randomDir = TWDirection.values()[this.getRandom().nextInt(5)];
 
         if(this.getX()>=this.getEnvironment().getxDimension() ){
             randomDir = TWDirection.W;
@@ -1,18 +1,22 @@
 package tileworld.agent;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.util.ArrayList;
+
+import ec.util.MersenneTwisterFast;
 import sim.display.GUIState;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.portrayal.Inspector;
 import sim.portrayal.LocationWrapper;
 import sim.portrayal.Portrayal;
-import tileworld.Parameters;
 import tileworld.environment.TWDirection;
 import tileworld.environment.TWEntity;
 import tileworld.environment.TWEnvironment;
 import tileworld.environment.TWHole;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
 import tileworld.environment.TWTile;
 import tileworld.exceptions.CellBlockedException;
 
@@ -34,6 +38,35 @@ public abstract class TWAgent extends TWEntity implements Steppable {
 
     protected int score;
 
+    /**
+     * Index of the agent in its environment, assigned when the agent is
+     * scheduled. Used to identify the agent in environment services such as
+     * goal reservations.
+     */
+    private int id = -1;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Random numbers of this agent, a stream of its own when the environment
+     * runs with randomStreams, phasedStep or partitions
+     */
+    private MersenneTwisterFast random;
+
+    public MersenneTwisterFast getRandom() {
+        return random;
+    }
+
+    public void setRandom(MersenneTwisterFast random) {
+        this.random = random;
+    }
+
     public int getScore() {
         return score;
     }
@@ -44,7 +77,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         this.score = 0;
         this.fuelLevel = fuelLevel;
         this.carriedTiles = new ArrayList<TWTile>();
-        this.sensor = new TWAgentSensor(this, Parameters.defaultSensorRange);
+        this.sensor = new TWAgentSensor(this, env.getConfig().getDefaultSensorRange());
         this.memory = new TWAgentWorkingMemory(this, env.schedule, env.getxDimension(), env.getyDimension());
     }
     /**
@@ -100,7 +133,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     @Override
     protected void move(TWDirection d) throws CellBlockedException {
         if (fuelLevel <= 0) {
-        	System.out.println("Agent ran out of fuel, Score: " + this.score);
+        	log("Agent ran out of fuel, Score: " + this.score);
             //Bad news, causes runtime exception
             //throw new InsufficientFuelException("Agent ran out of fuel, Score: " + this.score);
         } else {
@@ -108,6 +141,16 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         }
     }
 
+    /**
+     * Prints a progress message, unless the environment runs quietly (e.g. in
+     * a batch of headless runs).
+     */
+    protected void log(String message) {
+        if (this.getEnvironment().isVerbose()) {
+            System.out.println(message);
+        }
+    }
+
     /**
      * Gets the fuel level of the agent
      * @return
@@ -126,13 +169,13 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     	if(this.getEnvironment().canPickupTile(tile, this)) {
 	    	if (carriedTiles.size() < 3){
 	    		carriedTiles.add(tile);
-	    		System.out.println("Pickup...");
-	    		this.getEnvironment().getObjectGrid().set(tile.getX(), tile.getY(), null);
+	    		log("Pickup...");
+	    		this.getEnvironment().setObjectAt(tile.getX(), tile.getY(), null);
 	    	} else {
-	    		System.out.println("Agent already carries 3 tiles.");
+	    		log("Agent already carries 3 tiles.");
 	    	}
     	} else {
-    		System.out.println("The tile does not exist or the agent is not in the same position of the tile.");
+    		log("The tile does not exist or the agent is not in the same position of the tile.");
     	}
     }
 
@@ -145,12 +188,12 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     protected final void putTileInHole(TWHole hole) {
     	if(this.getEnvironment().canPutdownTile(hole, this)) {
     		this.carriedTiles.remove(0); //remove first tile in list
-    		this.getEnvironment().getObjectGrid().set(hole.getX(), hole.getY(), null);
+    		this.getEnvironment().setObjectAt(hole.getX(), hole.getY(), null);
     		this.score++; // increase individual reward       
     		this.getEnvironment().increaseReward(); // increase the overall reward
-    		System.out.println("Put tile...");
+    		log("Put tile...");
     	} else {
-    		System.out.println("The put down action is invalid in current situation.");
+    		log("The put down action is invalid in current situation.");
     	}
     }
 
@@ -162,10 +205,10 @@ public abstract class TWAgent extends TWEntity implements Steppable {
     protected final void refuel() {
         //assert (this.sameLocation(this.getEnvironment().getFuelingStation()));   	
     	if(this.getEnvironment().inFuelStation(this)) {
-    		this.fuelLevel = Parameters.defaultFuelLevel;
-    		System.out.println("Refuel.....");
+    		this.fuelLevel = this.getEnvironment().getConfig().getDefaultFuelLevel();
+    		log("Refuel.....");
     	}else {
-    		System.out.println("Agent is not in the same position of fuel station.");
+    		log("Agent is not in the same position of fuel station.");
     	}
     }
 
@@ -208,15 +251,71 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         this.act(thought);
     }
 
+    /**
+     * Runs think on its own, for step pipelines in which every agent thinks
+     * before any of them acts (see TWStepPipeline). May be called from a
+     * worker thread.
+     */
+    public final TWThought deliberate() {
+        return this.think();
+    }
+
+    /**
+     * Runs act on its own, with the thought deliberate returned
+     */
+    public final void commit(TWThought thought) {
+        this.act(thought);
+    }
+
+    /**
+     * Writes the state of the agent for TWSnapshot: position, fuel, score,
+     * carried tiles and memory. Agents with more state override this and
+     * readState, calling the super methods first.
+     */
+    public void writeState(TWSnapshotOutput out) {
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeDouble(fuelLevel);
+        out.writeInt(score);
+        out.writeInt(carriedTiles.size());
+        for (TWTile tile : carriedTiles) {
+            out.writeEntity(tile);
+        }
+        memory.writeState(out);
+        if (random != getEnvironment().random) {
+            out.writeRandom(random);
+        }
+    }
+
+    /**
+     * Restores the state written by writeState into this freshly created agent
+     */
+    public void readState(TWSnapshotInput in) throws IOException {
+        int xpos = in.readInt();
+        int ypos = in.readInt();
+        this.setLocation(xpos, ypos);
+        fuelLevel = in.readDouble();
+        score = in.readInt();
+        carriedTiles.clear();
+        for (int count = in.readInt(); count > 0; count--) {
+            carriedTiles.add((TWTile) in.readEntity());
+        }
+        memory.readState(in);
+        if (random != getEnvironment().random) {
+            in.readRandom(random);
+        }
+    }
+
     /**
      * This is the portrayal for the agent. If you want a different coloured
      * agent you can modify this.
      *
+     * @param sensorRange sensor range of the agents, drawn around them
      * @return
      */
-    public static Portrayal getPortrayal() {
+    public static Portrayal getPortrayal(int sensorRange) {
         //red filled box.
-        return new TWAgentPortrayal(Color.blue, Parameters.defaultSensorRange) {
+        return new TWAgentPortrayal(Color.blue, sensorRange) {
 
             @Override
             public Inspector getInspector(LocationWrapper wrapper, GUIState state) {
@@ -235,6 +334,13 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         return carriedTiles.size() > 0;
     }
 
+    /**
+     * @return the number of tiles the agent carries
+     */
+    public int getCarriedTileCount() {
+        return carriedTiles.size();
+    }
+
     /**
      * Returns the working memory of this agent
      * @return working memory
@@ -254,6 +360,7 @@ public abstract class TWAgent extends TWEntity implements Steppable {
         y = ypos;
         //Set location of entity when it's created
         this.getEnvironment().getAgentGrid().set(x, y, this);
+        this.getEnvironment().agentMoved(this);
     }
     
     /**
@@ -1,7 +1,9 @@
 package tileworld.agent;
 
+import java.io.IOException;
 import java.util.PriorityQueue;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -13,12 +15,14 @@ import sim.util.Bag;
 import sim.util.Int2D;
 import sim.util.IntBag;
 import tileworld.environment.NeighbourSpiral;
-import tileworld.Parameters;
+import tileworld.TWConfig;
 import tileworld.environment.TWEntity;
 import tileworld.environment.TWFuelStation;
 import tileworld.environment.TWHole;
 import tileworld.environment.TWObject;
 import tileworld.environment.TWObstacle;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
 import tileworld.environment.TWTile;
 
 /**
@@ -38,7 +42,11 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 	protected Schedule schedule;
 	protected TWAgent me;
 
-	protected final static int MAX_TIME = Parameters.lifeTime;
+	/**
+	 * Age beyond which memories are forgotten, the lifetime of objects
+	 */
+	protected final int maxTime;
+	protected final int sensorRange;
 
 	protected ObjectGrid2D memoryGrid;
 	protected Double[][] explorationScore; // Undiscovered = POSITIVE_INFINITY, OnSense = 0, OnDecay += 1
@@ -49,25 +57,285 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 
 	protected TWAgentPercept[][] sensedMemory; // Keeps a record of the observable region to compare with incoming new records. Used for memory updates.
 	protected HashMap<Class<?>, TWEntity> closestInSensorRange;
-	static protected List<Int2D> spiral = new NeighbourSpiral(Parameters.defaultSensorRange * 4).spiral();
+	protected final List<Int2D> spiral;
+	/**
+	 * Position of every offset in the spiral (-1 if not in it), indexed by offset - spiralMin.
+	 * Lets index queries reproduce the spiral search order without walking the spiral.
+	 */
+	protected int spiralMin;
+	protected int spiralMax;
+	protected int[][] spiralRank;
+	/**
+	 * Bucket indexes of remembered tiles and holes, maintained in setPercept
+	 */
+	protected TWObjectIndex tileIndex;
+	protected TWObjectIndex holeIndex;
+	protected List<TWMemoryListener> listeners = new ArrayList<TWMemoryListener>();
+	private final IntBag queryX = new IntBag();
+	private final IntBag queryY = new IntBag();
 	protected List<TWAgent> neighbouringAgents = new ArrayList<TWAgent>();
+	/**
+	 * Copy of the sensor window peers merge from, see publishWindow
+	 */
+	private TWAgentPercept[][] published;
 
 	// x, y: the dimension of the grid
 	public TWAgentDecayMemory(TWAgent moi, Schedule schedule, int x, int y) {
-		super(moi, schedule, x, y);
-		this.sensedMemory = new TWAgentPercept[Parameters.defaultSensorRange * 2 + 1][Parameters.defaultSensorRange * 2 + 1];
+		this(moi, schedule, new TWAgentPercept[x][y], newExplorationScore(x, y), new ObjectGrid2D(x, y),
+			new TWObjectIndex(TWTile.class, x, y), new TWObjectIndex(TWHole.class, x, y));
+	}
+
+	/**
+	 * Creates a memory on top of existing maps, which may be shared with other agents (see TWBlackboardMemory).
+	 */
+	protected TWAgentDecayMemory(TWAgent moi, Schedule schedule, TWAgentPercept[][] objects, Double[][] explorationScore, ObjectGrid2D memoryGrid,
+		TWObjectIndex tileIndex, TWObjectIndex holeIndex) {
+		super(moi, schedule);
+		TWConfig config = moi.getEnvironment().getConfig();
+		this.maxTime = config.getLifeTime();
+		this.sensorRange = config.getDefaultSensorRange();
+		this.sensedMemory = new TWAgentPercept[sensorRange * 2 + 1][sensorRange * 2 + 1];
 		this.me = moi;
 
-		this.objects = new TWAgentPercept[x][y];
-		this.explorationScore = new Double[x][y];
+		this.spiral = NeighbourSpiral.of(sensorRange * 4);
+		for (Int2D offset : spiral) {
+			spiralMin = Math.min(spiralMin, Math.min(offset.x, offset.y));
+			spiralMax = Math.max(spiralMax, Math.max(offset.x, offset.y));
+		}
+		spiralRank = new int[spiralMax - spiralMin + 1][spiralMax - spiralMin + 1];
+		for (int[] column : spiralRank) {
+			Arrays.fill(column, -1);
+		}
+		for (int i = 0; i < spiral.size(); i++) {
+			spiralRank[spiral.get(i).x - spiralMin][spiral.get(i).y - spiralMin] = i;
+		}
+
+		this.objects = objects;
+		this.explorationScore = explorationScore;
+
+		this.schedule = schedule;
+		this.memoryGrid = memoryGrid;
+		this.tileIndex = tileIndex;
+		this.holeIndex = holeIndex;
+	}
+
+	protected static Double[][] newExplorationScore(int x, int y) {
+		Double[][] explorationScore = new Double[x][y];
 		for (int i = 0; i < x; i++) {
 			for (int j = 0; j < y; j++) {
 				explorationScore[i][j] = Double.POSITIVE_INFINITY;
 			}
 		}
+		return explorationScore;
+	}
 
-		this.schedule = schedule;
-		this.memoryGrid = new ObjectGrid2D(me.getEnvironment().getxDimension(), me.getEnvironment().getyDimension());
+	/**
+	 * Single point through which remembered objects are written or cleared (percept == null), keeps the memory grid in step
+	 */
+	protected void setPercept(int x, int y, TWAgentPercept percept) {
+		TWAgentPercept old = objects[x][y];
+		objects[x][y] = percept;
+		memoryGrid.set(x, y, (percept == null) ? null : percept.getO());
+		perceptReplaced(x, y, old, percept);
+	}
+
+	/**
+	 * Forgets the cell (x, y) but leaves the memory grid as it is, which is what removeAgentPercept has always done
+	 */
+	protected void forgetPercept(int x, int y) {
+		TWAgentPercept old = objects[x][y];
+		objects[x][y] = null;
+		perceptReplaced(x, y, old, null);
+	}
+
+	private void perceptReplaced(int x, int y, TWAgentPercept old, TWAgentPercept percept) {
+		indexPercept(tileIndex, holeIndex, x, y, old, percept);
+		if (old != percept) {
+			for (int i = 0; i < listeners.size(); i++) {
+				listeners.get(i).perceptChanged(x, y, old, percept);
+			}
+		}
+	}
+
+	/**
+	 * Registers a listener which is told about every change to a remembered cell
+	 */
+	public void addMemoryListener(TWMemoryListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeMemoryListener(TWMemoryListener listener) {
+		listeners.remove(listener);
+	}
+
+	static void indexPercept(TWObjectIndex tileIndex, TWObjectIndex holeIndex, int x, int y, TWAgentPercept old, TWAgentPercept percept) {
+		TWEntity oldObject = (old == null) ? null : old.getO();
+		TWEntity newObject = (percept == null) ? null : percept.getO();
+		tileIndex.replaced(x, y, oldObject, newObject);
+		holeIndex.replaced(x, y, oldObject, newObject);
+	}
+
+	/**
+	 * Exploration scores are 0, a power of two or infinity (see decayMemory), written as a short code:
+	 * 0 for 0.0, 1 for infinity and 2 + k for 2^k. Anything else is escaped and written in full.
+	 */
+	private static final short SCORE_ESCAPE = Short.MAX_VALUE;
+
+	/**
+	 * Writes a percept map (sparsely) and its exploration scores for TWSnapshot
+	 */
+	static void writeMap(TWSnapshotOutput out, TWAgentPercept[][] objects, Double[][] explorationScore) {
+		int count = 0;
+		for (int x = 0; x < objects.length; x++) {
+			for (int y = 0; y < objects[x].length; y++) {
+				if (objects[x][y] != null) {
+					count++;
+				}
+			}
+		}
+		out.writeInt(count);
+		for (int x = 0; x < objects.length; x++) {
+			for (int y = 0; y < objects[x].length; y++) {
+				if (objects[x][y] != null) {
+					out.writeInt(x);
+					out.writeInt(y);
+					out.writePercept(objects[x][y]);
+				}
+			}
+		}
+		for (int x = 0; x < explorationScore.length; x++) {
+			for (int y = 0; y < explorationScore[x].length; y++) {
+				double score = explorationScore[x][y];
+				int k = Math.getExponent(score);
+				if (score == 0.0) {
+					out.writeShort((short) 0);
+				}
+				else if (score == Double.POSITIVE_INFINITY) {
+					out.writeShort((short) 1);
+				}
+				else if (k >= 0 && k <= Double.MAX_EXPONENT && score == Math.scalb(1.0, k)) {
+					out.writeShort((short) (2 + k));
+				}
+				else {
+					out.writeShort(SCORE_ESCAPE);
+					out.writeDouble(score);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Restores a map written by writeMap into empty maps
+	 */
+	static void readMap(TWSnapshotInput in, TWAgentPercept[][] objects, Double[][] explorationScore, ObjectGrid2D memoryGrid,
+		TWObjectIndex tileIndex, TWObjectIndex holeIndex) throws IOException {
+		for (int count = in.readInt(); count > 0; count--) {
+			int x = in.readInt();
+			int y = in.readInt();
+			TWAgentPercept percept = in.readPercept();
+			objects[x][y] = percept;
+			memoryGrid.set(x, y, percept.getO());
+			indexPercept(tileIndex, holeIndex, x, y, null, percept);
+		}
+		for (int x = 0; x < explorationScore.length; x++) {
+			for (int y = 0; y < explorationScore[x].length; y++) {
+				short code = in.readShort();
+				if (code == 0) {
+					explorationScore[x][y] = 0.0;
+				}
+				else if (code == 1) {
+					explorationScore[x][y] = Double.POSITIVE_INFINITY;
+				}
+				else if (code == SCORE_ESCAPE) {
+					explorationScore[x][y] = in.readDouble();
+				}
+				else {
+					explorationScore[x][y] = Math.scalb(1.0, code - 2);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void writeState(TWSnapshotOutput out) {
+		writeMap(out, objects, explorationScore);
+		writeForgotten(out);
+		out.writeInt(memorySize);
+		writeOverlay(out);
+	}
+
+	@Override
+	public void readState(TWSnapshotInput in) throws IOException {
+		readMap(in, objects, explorationScore, memoryGrid, tileIndex, holeIndex);
+		for (int count = in.readInt(); count > 0; count--) {
+			int x = in.readInt();
+			int y = in.readInt();
+			memoryGrid.set(x, y, in.readEntity());
+		}
+		memorySize = in.readInt();
+		readOverlay(in);
+	}
+
+	/**
+	 * Writes the cells of the memory grid which still hold an object the map has forgotten (see forgetPercept), the
+	 * rest of the grid follows from the map
+	 */
+	private void writeForgotten(TWSnapshotOutput out) {
+		int count = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			if (pass == 1) {
+				out.writeInt(count);
+			}
+			for (int x = 0; x < objects.length; x++) {
+				for (int y = 0; y < objects[x].length; y++) {
+					Object o = memoryGrid.get(x, y);
+					if (o != null && (objects[x][y] == null || objects[x][y].getO() != o)) {
+						if (pass == 0) {
+							count++;
+						}
+						else {
+							out.writeInt(x);
+							out.writeInt(y);
+							out.writeEntity((TWEntity) o);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the part of the memory which is private to the agent even when the map is shared
+	 */
+	protected void writeOverlay(TWSnapshotOutput out) {
+		out.writeInt2D(fuelStation);
+		for (int i = 0; i < sensedMemory.length; i++) {
+			for (int j = 0; j < sensedMemory[i].length; j++) {
+				out.writePercept(sensedMemory[i][j]);
+			}
+		}
+	}
+
+	protected void readOverlay(TWSnapshotInput in) throws IOException {
+		fuelStation = in.readInt2D();
+		for (int i = 0; i < sensedMemory.length; i++) {
+			for (int j = 0; j < sensedMemory[i].length; j++) {
+				sensedMemory[i][j] = in.readPercept();
+			}
+		}
+	}
+
+	/**
+	 * @return the bucket index for type (TWTile or TWHole), null for any other type
+	 */
+	public TWObjectIndex getObjectIndex(Class<?> type) {
+		if (type == TWTile.class) {
+			return tileIndex;
+		}
+		else if (type == TWHole.class) {
+			return holeIndex;
+		}
+		return null;
 	}
 
 	/**
@@ -96,10 +364,10 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 		this.decayMemory(); // You might want to think about when to call the decay function as well.
 
 		// Backup observable region and clears the region in memory (i.e. refreshes observable region every update)
-		int visibleX_min = me.getX() - Parameters.defaultSensorRange;
-		int visibleY_min = me.getY() - Parameters.defaultSensorRange;
-		for (int i = 0; i <= Parameters.defaultSensorRange * 2; i++) {
-			for (int j = 0; j <= Parameters.defaultSensorRange * 2; j++) {
+		int visibleX_min = me.getX() - sensorRange;
+		int visibleY_min = me.getY() - sensorRange;
+		for (int i = 0; i <= sensorRange * 2; i++) {
+			for (int j = 0; j <= sensorRange * 2; j++) {
 				int nx = visibleX_min + i;
 				int ny = visibleY_min + j;
 				// Horribly inefficient way of refreshing observable map because only way agent can sense surrounding is by the Bag of sensedObjects
@@ -113,8 +381,7 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 				if (nx >= 0 && ny >= 0 && nx < objects.length && ny < objects[1].length) {
 					explorationScore[nx][ny] = 0.0;
 					sensedMemory[i][j] = objects[nx][ny];
-					objects[nx][ny] = null;
-					memoryGrid.set(nx, ny, null);
+					setPercept(nx, ny, null);
 				}
 			}
 		}
@@ -135,19 +402,21 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 			int oY = o.getY() - visibleY_min;
 			TWAgentPercept prevObject = sensedMemory[oX][oY];
 			if (sensedMemory[oX][oY] != null && prevObject.getO().getClass().equals(o.getClass())) {
-				objects[o.getX()][o.getY()] = new TWAgentPercept(o, prevObject.getT());
-				memoryGrid.set(o.getX(), o.getY(), o);
+				setPercept(o.getX(), o.getY(), new TWAgentPercept(o, prevObject.getT()));
 				memorySize++;
 			}
 			else {
-				objects[o.getX()][o.getY()] = new TWAgentPercept(o, this.getSimulationTime());
-				memoryGrid.set(o.getX(), o.getY(), o);
+				setPercept(o.getX(), o.getY(), new TWAgentPercept(o, this.getSimulationTime()));
 				memorySize++;
 			}
 
 			updateClosest(o);
 
 		}
+		updateNeighbours(sensedAgents);
+	}
+
+	protected void updateNeighbours(Bag sensedAgents) {
 		// Agents are currently not added to working memory. Depending on how
 		// communication is modelled you might want to do this.
 		neighbouringAgents.clear();
@@ -170,13 +439,12 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 		for (int i = 0; i < objects.length; i++) {
 			for (int j = 0; j < objects[0].length; j++) {
 				// if within sensing range of any agents, replace with latest percept
-				if (i >= (agentX - Parameters.defaultSensorRange) && i <= (agentX + Parameters.defaultSensorRange) && j >= (agentY - Parameters.defaultSensorRange) && j <= (agentY + Parameters.defaultSensorRange)) {
+				if (i >= (agentX - sensorRange) && i <= (agentX + sensorRange) && j >= (agentY - sensorRange) && j <= (agentY + sensorRange)) {
 					explorationScore[i][j] = 0.0;
 					if (objectsShared[i][j] == null) {
 						if (objects[i][j] != null) {
-							objects[i][j] = null;
+							setPercept(i, j, null);
 							memorySize--;
-							memoryGrid.set(i, j, null);
 						}
 					}
 					else {
@@ -186,13 +454,11 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 						}
 
 						if (objects[i][j] == null) {
-							objects[i][j] = objectsShared[i][j];
+							setPercept(i, j, objectsShared[i][j]);
 							memorySize++;
-							memoryGrid.set(i, j, objectsShared[i][j].getO());
 						}
 						else if (objectsShared[i][j].getT() > objects[i][j].getT()) {
-							objects[i][j] = objectsShared[i][j];
-							memoryGrid.set(i, j, objectsShared[i][j].getO());
+							setPercept(i, j, objectsShared[i][j]);
 						}
 					}
 				}
@@ -213,7 +479,7 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 	public void updateMemory(TWEntity[][] sensed, int xOffset, int yOffset) {
 		for (int x = 0; x < sensed.length; x++) {
 			for (int y = 0; y < sensed[x].length; y++) {
-				objects[x + xOffset][y + yOffset] = new TWAgentPercept(sensed[x][y], this.getSimulationTime());
+				setPercept(x + xOffset, y + yOffset, new TWAgentPercept(sensed[x][y], this.getSimulationTime()));
 			}
 		}
 	}
@@ -230,9 +496,8 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 					explorationScore[x][y] += 1.0;
 				else
 					explorationScore[x][y] *= 2.0;
-				if (currentMemory != null && !(currentMemory.getO() instanceof TWFuelStation) && currentMemory.getT() < (schedule.getTime() - MAX_TIME)) {
-					objects[x][y] = null;
-					memoryGrid.set(x, y, null);
+				if (currentMemory != null && !(currentMemory.getO() instanceof TWFuelStation) && currentMemory.getT() < (schedule.getTime() - maxTime)) {
+					setPercept(x, y, null);
 					memorySize--;
 				}
 			}
@@ -241,7 +506,7 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 
 	@Override
 	public void removeAgentPercept(int x, int y) {
-		objects[x][y] = null;
+		forgetPercept(x, y);
 	}
 
 	@Override
@@ -269,6 +534,10 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 	}
 
 	protected TWObject getNearbyObject(int sx, int sy, double threshold, Class<?> type) {
+		TWObjectIndex index = getObjectIndex(type);
+		if (index != null) {
+			return getNearbyIndexedObject(index, sx, sy, threshold);
+		}
 
 		// If we cannot find an object which we have seen recently, then we want
 		// the one with maxTimestamp
@@ -306,6 +575,43 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 		return ret;
 	}
 
+	/**
+	 * Same result as walking the spiral, but only looks at the indexed objects inside the spiral's square:
+	 * the first object in spiral order seen within threshold, otherwise the most recently seen one.
+	 */
+	private TWObject getNearbyIndexedObject(TWObjectIndex index, int sx, int sy, double threshold) {
+		queryX.clear();
+		queryY.clear();
+		index.collect(sx + spiralMin, sy + spiralMin, sx + spiralMax, sy + spiralMax, queryX, queryY);
+
+		int bestRecentRank = Integer.MAX_VALUE;
+		TWObject recent = null;
+		int bestOldRank = Integer.MAX_VALUE;
+		double maxTimestamp = 0;
+		TWObject ret = null;
+		for (int i = 0; i < queryX.size(); i++) {
+			int x = queryX.get(i);
+			int y = queryY.get(i);
+			int rank = spiralRank[x - sx - spiralMin][y - sy - spiralMin];
+			if (rank < 0) {
+				continue;
+			}
+			double time = objects[x][y].getT();
+			if (this.getSimulationTime() - time <= threshold) {
+				if (rank < bestRecentRank) {
+					bestRecentRank = rank;
+					recent = (TWObject) objects[x][y].getO();
+				}
+			}
+			else if (time > maxTimestamp || (time == maxTimestamp && ret != null && rank < bestOldRank)) {
+				ret = (TWObject) objects[x][y].getO();
+				maxTimestamp = time;
+				bestOldRank = rank;
+			}
+		}
+		return (recent != null) ? recent : ret;
+	}
+
 	/**
 	 * Returns the estimated remaining lifetime based on the time of memory
 	 */
@@ -313,7 +619,7 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 		if (objects[o.getX()][o.getY()] == null)
 			return 0;
 		else
-			return (Parameters.lifeTime * threshold) - (this.getSimulationTime() - objects[o.getX()][o.getY()].getT());
+			return (maxTime * threshold) - (this.getSimulationTime() - objects[o.getX()][o.getY()].getT());
 	}
 
 	protected PriorityQueue<TWEntity> getNearbyObjectsWithinBounds(Int2D[] bounds, Class<?> type) {
@@ -323,6 +629,17 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 				public int compare(TWEntity o1, TWEntity o2) {
 					return (int) (((HybridPRSTWAgent)me).getTSPDistance(o1) - ((HybridPRSTWAgent)me).getTSPDistance(o2));
 				}});
+		TWObjectIndex index = getObjectIndex(type);
+		if (index != null) {
+			// Only visit the remembered objects of this type, not every cell of the zone
+			queryX.clear();
+			queryY.clear();
+			index.collect(bounds[0].x, bounds[0].y, bounds[2].x, bounds[2].y, queryX, queryY);
+			for (int i = 0; i < queryX.size(); i++) {
+				ret.add(objects[queryX.get(i)][queryY.get(i)].getO());
+			}
+			return ret;
+		}
 		int x, y;
 		for (int i = bounds[0].x; i <= bounds[2].x; i++) {
 			for (int j = bounds[0].y; j <= bounds[2].y; j++) {
@@ -376,28 +693,54 @@ public class TWAgentDecayMemory extends TWAgentWorkingMemory {
 		return this.objects;
 	}
 
+	/**
+	 * Copies the sensor window around the agent into a map of its own, which is what peers merge from. Peers read it
+	 * while this agent merges their windows into its map, so it must not be that map. Only the cells of the window
+	 * are current, mergeMemory reads no others.
+	 *
+	 * @return the published map
+	 */
+	public TWAgentPercept[][] publishWindow() {
+		if (published == null) {
+			published = new TWAgentPercept[objects.length][objects[0].length];
+		}
+		int minX = Math.max(0, me.getX() - sensorRange), maxX = Math.min(objects.length - 1, me.getX() + sensorRange);
+		int minY = Math.max(0, me.getY() - sensorRange), maxY = Math.min(objects[0].length - 1, me.getY() + sensorRange);
+		for (int i = minX; i <= maxX; i++) {
+			System.arraycopy(objects[i], minY, published[i], minY, maxY - minY + 1);
+		}
+		return published;
+	}
+
+	/**
+	 * @return whether the cell has ever been sensed, by this agent or by one it merged memories with
+	 */
+	public boolean isExplored(int x, int y) {
+		return explorationScore[x][y] != Double.POSITIVE_INFINITY;
+	}
+
 	public Int2D getFuelStation() {
 		return fuelStation;
 	}
 
 	public Double getAnchorExplorationScore(Int2D anchor) {
 		Double score = 0.0;
-		for (int i = (anchor.x - Parameters.defaultSensorRange); i <= (anchor.x + Parameters.defaultSensorRange); i++) {
-			for (int j = (anchor.y - Parameters.defaultSensorRange); j <= (anchor.y + Parameters.defaultSensorRange); j++) {
+		for (int i = (anchor.x - sensorRange); i <= (anchor.x + sensorRange); i++) {
+			for (int j = (anchor.y - sensorRange); j <= (anchor.y + sensorRange); j++) {
 				int x = i, y = j;
 				// If i and j out of bounds, take the score of the mirrored cell
 				// Prevents anchor points near boundary from being penalized because of having lesser valid cells
 				if (i < 0) {
 					x = -i;
 				}
-				else if (i >= Parameters.xDimension) {
-					x = 2 * (Parameters.xDimension - 1) - i;
+				else if (i >= objects.length) {
+					x = 2 * (objects.length - 1) - i;
 				}
 				if (j < 0) {
 					y = -j;
 				}
-				else if (j >= Parameters.yDimension) {
-					y = 2 * (Parameters.yDimension - 1) - j;
+				else if (j >= objects[0].length) {
+					y = 2 * (objects[0].length - 1) - j;
 				}
 				score += explorationScore[x][y];
 			}
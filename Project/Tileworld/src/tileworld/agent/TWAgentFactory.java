@@ -0,0 +1,24 @@
+package tileworld.agent;
+
+import tileworld.environment.TWEnvironment;
+
+/**
+ * TWAgentFactory
+ *
+ * Description:
+ *
+ * Creates the agents of an environment in TWEnvironment#start, in place of
+ * the default HybridPRSTWAgent, e.g. agents driven by a learned policy (see
+ * TWPolicyAgent).
+ */
+public interface TWAgentFactory {
+
+    /**
+     * @param name name of the agent, "Agent i" for the i-th agent from 1
+     * @param xpos starting position
+     * @param ypos starting position
+     * @param env environment the agent lives in
+     * @param fuelLevel starting fuel
+     */
+    TWAgent create(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel);
+}
@@ -1,5 +1,6 @@
 package tileworld.agent;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -10,13 +11,14 @@ import sim.util.Bag;
 import sim.util.Int2D;
 import sim.util.IntBag;
 import tileworld.environment.NeighbourSpiral;
-import tileworld.Parameters;
 import tileworld.environment.TWEntity;
 
 
 import tileworld.environment.TWHole;
 import tileworld.environment.TWObject;
 import tileworld.environment.TWObstacle;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
 import tileworld.environment.TWTile;
 
 /**
@@ -68,7 +70,7 @@ public class TWAgentWorkingMemory {
 	 * null if no objects are in sensor range
 	 */
 	private HashMap<Class<?>, TWEntity> closestInSensorRange;
-	static private List<Int2D> spiral = new NeighbourSpiral(Parameters.defaultSensorRange * 4).spiral();
+	private final List<Int2D> spiral;
 	//    private List<TWAgent> neighbouringAgents = new ArrayList<TWAgent>();
 
 	// x, y: the dimension of the grid
@@ -76,6 +78,7 @@ public class TWAgentWorkingMemory {
 
 		closestInSensorRange = new HashMap<Class<?>, TWEntity>(4);
 		this.me = moi;
+		this.spiral = NeighbourSpiral.of(moi.getEnvironment().getConfig().getDefaultSensorRange() * 4);
 
 		this.objects = new TWAgentPercept[x][y];
 
@@ -83,6 +86,17 @@ public class TWAgentWorkingMemory {
 		this.memoryGrid = new ObjectGrid2D(me.getEnvironment().getxDimension(), me.getEnvironment().getyDimension());
 	}
 
+	/**
+	 * Used by subclasses which keep their own map of the world, skips
+	 * allocating the (unused) map of this class.
+	 */
+	protected TWAgentWorkingMemory(TWAgent moi, Schedule schedule) {
+		closestInSensorRange = new HashMap<Class<?>, TWEntity>(4);
+		this.me = moi;
+		this.spiral = NeighbourSpiral.of(moi.getEnvironment().getConfig().getDefaultSensorRange() * 4);
+		this.schedule = schedule;
+	}
+
 	/**
 	 * Called at each time step, updates the memory map of the agent.
 	 * Note that some objects may disappear or be moved, in which case part of
@@ -330,4 +344,66 @@ public class TWAgentWorkingMemory {
 	public ObjectGrid2D getMemoryGrid() {
 		return this.memoryGrid;
 	}
+
+	/**
+	 * Writes the remembered objects for TWSnapshot. Memories which keep other
+	 * state override this and readState.
+	 */
+	public void writeState(TWSnapshotOutput out) {
+		int count = 0;
+		for (int x = 0; x < objects.length; x++) {
+			for (int y = 0; y < objects[x].length; y++) {
+				if (objects[x][y] != null) {
+					count++;
+				}
+			}
+		}
+		out.writeInt(count);
+		for (int x = 0; x < objects.length; x++) {
+			for (int y = 0; y < objects[x].length; y++) {
+				if (objects[x][y] != null) {
+					out.writeInt(x);
+					out.writeInt(y);
+					out.writePercept(objects[x][y]);
+				}
+			}
+		}
+		// Removed percepts stay on the memory grid, so it is written separately
+		count = 0;
+		for (int x = 0; x < memoryGrid.getWidth(); x++) {
+			for (int y = 0; y < memoryGrid.getHeight(); y++) {
+				if (memoryGrid.get(x, y) != null) {
+					count++;
+				}
+			}
+		}
+		out.writeInt(count);
+		for (int x = 0; x < memoryGrid.getWidth(); x++) {
+			for (int y = 0; y < memoryGrid.getHeight(); y++) {
+				if (memoryGrid.get(x, y) != null) {
+					out.writeInt(x);
+					out.writeInt(y);
+					out.writeEntity((TWEntity) memoryGrid.get(x, y));
+				}
+			}
+		}
+		out.writeInt(memorySize);
+	}
+
+	/**
+	 * Restores the state written by writeState into this (empty) memory
+	 */
+	public void readState(TWSnapshotInput in) throws IOException {
+		for (int count = in.readInt(); count > 0; count--) {
+			int x = in.readInt();
+			int y = in.readInt();
+			objects[x][y] = in.readPercept();
+		}
+		for (int count = in.readInt(); count > 0; count--) {
+			int x = in.readInt();
+			int y = in.readInt();
+			memoryGrid.set(x, y, in.readEntity());
+		}
+		memorySize = in.readInt();
+	}
 }
@@ -0,0 +1,202 @@
+package tileworld.agent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import sim.field.grid.ObjectGrid2D;
+import sim.util.Int2D;
+import tileworld.environment.TWFuelStation;
+import tileworld.environment.TWHole;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
+import tileworld.environment.TWTile;
+
+/**
+ * TWBlackboard
+ *
+ * Description:
+ *
+ * Shared, versioned world model for cooperating agents. Instead of every
+ * agent keeping a full private map and merging every peer's map each step,
+ * all agents write what they sense into this single grid of percepts and read
+ * from it when thinking. Every cell carries a version stamp taken from a
+ * global write clock, so a reader can tell whether a cell changed since it
+ * last looked at it.
+ *
+ * The blackboard is owned by the TWEnvironment (see
+ * TWEnvironment#getBlackboard) and is accessed by agents through
+ * TWBlackboardMemory, which keeps the TWAgentWorkingMemory interface.
+ */
+public class TWBlackboard {
+
+	private final TWAgentPercept[][] objects;
+	private final Double[][] explorationScore;
+	private final ObjectGrid2D memoryGrid;
+	private final long[][] versions;
+	private final TWObjectIndex tileIndex;
+	private final TWObjectIndex holeIndex;
+	private final List<TWMemoryListener> listeners = new ArrayList<TWMemoryListener>();
+	private long clock;
+	private int memorySize;
+	private Int2D fuelStation;
+	private double lastDecayTime = Double.NEGATIVE_INFINITY;
+
+	public TWBlackboard(int x, int y) {
+		this.objects = new TWAgentPercept[x][y];
+		this.explorationScore = TWAgentDecayMemory.newExplorationScore(x, y);
+		this.memoryGrid = new ObjectGrid2D(x, y);
+		this.versions = new long[x][y];
+		this.tileIndex = new TWObjectIndex(TWTile.class, x, y);
+		this.holeIndex = new TWObjectIndex(TWHole.class, x, y);
+	}
+
+	/**
+	 * Writes (or clears, when percept is null) a cell. The version of the cell
+	 * is only bumped when its content actually changes.
+	 */
+	public void write(int x, int y, TWAgentPercept percept) {
+		TWAgentPercept old = objects[x][y];
+		if (old == percept) {
+			return;
+		}
+		if (old == null) {
+			memorySize++;
+		}
+		else if (percept == null) {
+			memorySize--;
+		}
+		objects[x][y] = percept;
+		memoryGrid.set(x, y, (percept == null) ? null : percept.getO());
+		versions[x][y] = ++clock;
+		TWAgentDecayMemory.indexPercept(tileIndex, holeIndex, x, y, old, percept);
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).perceptChanged(x, y, old, percept);
+		}
+
+		if (fuelStation == null && percept != null && percept.getO() instanceof TWFuelStation) {
+			fuelStation = new Int2D(x, y);
+		}
+	}
+
+	/**
+	 * Ages the exploration map and forgets percepts older than maxTime. Only the
+	 * first call in a time step does any work, later callers share its result.
+	 *
+	 * @return true if this call performed the decay
+	 */
+	public boolean decay(double time, double maxTime) {
+		if (time == lastDecayTime) {
+			return false;
+		}
+		lastDecayTime = time;
+		for (int x = 0; x < objects.length; x++) {
+			for (int y = 0; y < objects[x].length; y++) {
+				TWAgentPercept currentMemory = objects[x][y];
+				if (explorationScore[x][y] == 0.0)
+					explorationScore[x][y] += 1.0;
+				else
+					explorationScore[x][y] *= 2.0;
+				if (currentMemory != null && !(currentMemory.getO() instanceof TWFuelStation) && currentMemory.getT() < (time - maxTime)) {
+					write(x, y, null);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the shared map for TWSnapshot
+	 */
+	public void writeState(TWSnapshotOutput out) {
+		TWAgentDecayMemory.writeMap(out, objects, explorationScore);
+		int changed = 0;
+		for (int x = 0; x < versions.length; x++) {
+			for (int y = 0; y < versions[x].length; y++) {
+				if (versions[x][y] != 0) {
+					changed++;
+				}
+			}
+		}
+		out.writeInt(changed);
+		for (int x = 0; x < versions.length; x++) {
+			for (int y = 0; y < versions[x].length; y++) {
+				if (versions[x][y] != 0) {
+					out.writeInt(x);
+					out.writeInt(y);
+					out.writeLong(versions[x][y]);
+				}
+			}
+		}
+		out.writeLong(clock);
+		out.writeInt(memorySize);
+		out.writeInt2D(fuelStation);
+		out.writeDouble(lastDecayTime);
+	}
+
+	/**
+	 * Restores the map written by writeState into this (empty) blackboard
+	 */
+	public void readState(TWSnapshotInput in) throws IOException {
+		TWAgentDecayMemory.readMap(in, objects, explorationScore, memoryGrid, tileIndex, holeIndex);
+		for (int changed = in.readInt(); changed > 0; changed--) {
+			int x = in.readInt();
+			int y = in.readInt();
+			versions[x][y] = in.readLong();
+		}
+		clock = in.readLong();
+		memorySize = in.readInt();
+		fuelStation = in.readInt2D();
+		lastDecayTime = in.readDouble();
+	}
+
+	/**
+	 * Registers a listener which is told about every change to the shared map, whoever wrote it
+	 */
+	public void addListener(TWMemoryListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(TWMemoryListener listener) {
+		listeners.remove(listener);
+	}
+
+	public long getVersion(int x, int y) {
+		return versions[x][y];
+	}
+
+	/**
+	 * @return the version stamp of the latest write to any cell
+	 */
+	public long getClock() {
+		return clock;
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	public Int2D getFuelStation() {
+		return fuelStation;
+	}
+
+	TWAgentPercept[][] getObjects() {
+		return objects;
+	}
+
+	Double[][] getExplorationScore() {
+		return explorationScore;
+	}
+
+	ObjectGrid2D getMemoryGrid() {
+		return memoryGrid;
+	}
+
+	TWObjectIndex getTileIndex() {
+		return tileIndex;
+	}
+
+	TWObjectIndex getHoleIndex() {
+		return holeIndex;
+	}
+}
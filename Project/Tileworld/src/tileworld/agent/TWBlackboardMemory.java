@@ -0,0 +1,168 @@
+package tileworld.agent;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import sim.engine.Schedule;
+import sim.util.Bag;
+import sim.util.Int2D;
+import sim.util.IntBag;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
+
+/**
+ * TWBlackboardMemory
+ *
+ * Description:
+ *
+ * A TWAgentDecayMemory whose map lives on the environment's shared
+ * TWBlackboard instead of being a private copy. The object and exploration
+ * maps of the parent class point straight at the blackboard's grids, so the
+ * agent reads them exactly as before, while all writes go through the
+ * blackboard to keep the per-cell version stamps and the shared object count
+ * current.
+ *
+ * Private to each agent (the overlay) are only the backup of the sensor
+ * window used to carry observation times over, the closest objects in sensor
+ * range, the neighbouring agents and the agent's own copy of the fuel station
+ * location. Merging a peer's map is a no-op apart from picking up the fuel
+ * station, since the peer already wrote into the same grid.
+ */
+public class TWBlackboardMemory extends TWAgentDecayMemory {
+
+	private final TWBlackboard blackboard;
+	/**
+	 * Content of the sensor window being built, written back to the blackboard in one pass
+	 */
+	private final TWAgentPercept[][] window;
+
+	public TWBlackboardMemory(TWAgent moi, Schedule schedule, TWBlackboard blackboard) {
+		super(moi, schedule, blackboard.getObjects(), blackboard.getExplorationScore(), blackboard.getMemoryGrid(),
+			blackboard.getTileIndex(), blackboard.getHoleIndex());
+		this.blackboard = blackboard;
+		this.window = new TWAgentPercept[sensorRange * 2 + 1][sensorRange * 2 + 1];
+	}
+
+	@Override
+	public void updateMemory(Bag sensedObjects, IntBag objectXCoords, IntBag objectYCoords, Bag sensedAgents, IntBag agentXCoords, IntBag agentYCoords) {
+		closestInSensorRange = new HashMap<Class<?>, TWEntity>(4);
+		this.decayMemory();
+
+		// Back up the observable region, then rebuild it from what is sensed now.
+		// Cells are only rewritten on the blackboard if their content changed, so versions stay meaningful.
+		int visibleX_min = me.getX() - sensorRange;
+		int visibleY_min = me.getY() - sensorRange;
+		for (int i = 0; i <= sensorRange * 2; i++) {
+			for (int j = 0; j <= sensorRange * 2; j++) {
+				int nx = visibleX_min + i;
+				int ny = visibleY_min + j;
+				sensedMemory[i][j] = null;
+				window[i][j] = null;
+				if (nx >= 0 && ny >= 0 && nx < objects.length && ny < objects[0].length) {
+					explorationScore[nx][ny] = 0.0;
+					sensedMemory[i][j] = objects[nx][ny];
+				}
+			}
+		}
+
+		for (int i = 0; i < sensedObjects.size(); i++) {
+			TWEntity o = (TWEntity) sensedObjects.get(i);
+			if (!(o instanceof TWEntity)) {
+				continue;
+			}
+			int oX = o.getX() - visibleX_min;
+			int oY = o.getY() - visibleY_min;
+			TWAgentPercept prevObject = sensedMemory[oX][oY];
+			if (prevObject != null && prevObject.getO() == o) {
+				window[oX][oY] = prevObject;
+			}
+			else if (prevObject != null && prevObject.getO().getClass().equals(o.getClass())) {
+				window[oX][oY] = new TWAgentPercept(o, prevObject.getT());
+			}
+			else {
+				window[oX][oY] = new TWAgentPercept(o, this.getSimulationTime());
+			}
+			updateClosest(o);
+		}
+
+		for (int i = 0; i <= sensorRange * 2; i++) {
+			for (int j = 0; j <= sensorRange * 2; j++) {
+				int nx = visibleX_min + i;
+				int ny = visibleY_min + j;
+				if (nx >= 0 && ny >= 0 && nx < objects.length && ny < objects[0].length) {
+					setPercept(nx, ny, window[i][j]);
+				}
+			}
+		}
+
+		if (fuelStation == null) {
+			fuelStation = blackboard.getFuelStation();
+		}
+		updateNeighbours(sensedAgents);
+	}
+
+	/**
+	 * Peers write into the same grid, so there is nothing to merge apart from
+	 * learning about the fuel station.
+	 */
+	@Override
+	public void mergeMemory(TWAgentPercept[][] objectsShared, Int2D agentPos) {
+		if (fuelStation == null) {
+			fuelStation = blackboard.getFuelStation();
+		}
+	}
+
+	/**
+	 * Decays the shared map, once per step no matter how many agents call this.
+	 */
+	@Override
+	public void decayMemory() {
+		blackboard.decay(schedule.getTime(), maxTime);
+	}
+
+	@Override
+	protected void setPercept(int x, int y, TWAgentPercept percept) {
+		blackboard.write(x, y, percept);
+	}
+
+	/**
+	 * A cell forgotten by one agent is forgotten by all, grid included, so peers do not go for an object that is gone
+	 */
+	@Override
+	protected void forgetPercept(int x, int y) {
+		blackboard.write(x, y, null);
+	}
+
+	@Override
+	public void addMemoryListener(TWMemoryListener listener) {
+		blackboard.addListener(listener);
+	}
+
+	@Override
+	public void removeMemoryListener(TWMemoryListener listener) {
+		blackboard.removeListener(listener);
+	}
+
+	/**
+	 * The map itself is written with the blackboard, only the agent's overlay is written here
+	 */
+	@Override
+	public void writeState(TWSnapshotOutput out) {
+		writeOverlay(out);
+	}
+
+	@Override
+	public void readState(TWSnapshotInput in) throws IOException {
+		readOverlay(in);
+	}
+
+	@Override
+	public int getMemorySize() {
+		return blackboard.getMemorySize();
+	}
+
+	public TWBlackboard getBlackboard() {
+		return blackboard;
+	}
+}
@@ -0,0 +1,110 @@
+package tileworld.agent;
+
+import java.util.Arrays;
+
+import sim.util.IntBag;
+
+/**
+ * TWCandidateSet
+ *
+ * Description:
+ *
+ * The set of remembered objects of one type (tiles or holes) inside an agent's
+ * zone, i.e. its candidate goals. The set listens to the agent's memory and is
+ * updated whenever an object inside the zone is added or forgotten, so it
+ * never has to be rebuilt from the map. Cells are kept in a dense primitive
+ * array with a cell-to-slot table, which makes adding and removing a candidate
+ * O(1).
+ */
+public class TWCandidateSet implements TWMemoryListener {
+
+	private final Class<?> type;
+	private final int height;
+	private int minX, minY, maxX, maxY;
+	private boolean bounded;
+
+	private int[] cells;
+	private int size;
+	/**
+	 * Slot in cells of every grid cell, -1 if the cell is not a candidate
+	 */
+	private final int[] slot;
+
+	public TWCandidateSet(Class<?> type, int x, int y) {
+		this.type = type;
+		this.height = y;
+		this.cells = new int[16];
+		this.slot = new int[x * y];
+		Arrays.fill(slot, -1);
+	}
+
+	/**
+	 * Restricts the set to the rectangle [minX, maxX] x [minY, maxY] (inclusive)
+	 * and fills it from the memory's bucket index.
+	 */
+	public void setBounds(int minX, int minY, int maxX, int maxY, TWObjectIndex index) {
+		for (int i = 0; i < size; i++) {
+			slot[cells[i]] = -1;
+		}
+		size = 0;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.bounded = true;
+
+		IntBag xs = new IntBag();
+		IntBag ys = new IntBag();
+		index.collect(minX, minY, maxX, maxY, xs, ys);
+		for (int i = 0; i < xs.size(); i++) {
+			add(xs.get(i) * height + ys.get(i));
+		}
+	}
+
+	@Override
+	public void perceptChanged(int x, int y, TWAgentPercept old, TWAgentPercept percept) {
+		if (!bounded || x < minX || x > maxX || y < minY || y > maxY) {
+			return;
+		}
+		int cell = x * height + y;
+		boolean has = percept != null && type.isInstance(percept.getO());
+		if (has && slot[cell] < 0) {
+			add(cell);
+		}
+		else if (!has && slot[cell] >= 0) {
+			remove(cell);
+		}
+	}
+
+	private void add(int cell) {
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, size * 2);
+		}
+		slot[cell] = size;
+		cells[size++] = cell;
+	}
+
+	private void remove(int cell) {
+		int i = slot[cell];
+		int last = cells[--size];
+		cells[i] = last;
+		slot[last] = i;
+		slot[cell] = -1;
+	}
+
+	public boolean contains(int x, int y) {
+		return slot[x * height + y] >= 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getX(int i) {
+		return cells[i] / height;
+	}
+
+	public int getY(int i) {
+		return cells[i] % height;
+	}
+}
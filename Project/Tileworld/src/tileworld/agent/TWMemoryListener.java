@@ -0,0 +1,22 @@
+package tileworld.agent;
+
+/**
+ * TWMemoryListener
+ *
+ * Description:
+ *
+ * Notified by TWAgentDecayMemory (or the shared TWBlackboard) whenever a
+ * remembered cell changes, i.e. an object is added, replaced, expires or is
+ * removed. Lets derived structures such as TWCandidateSet be maintained
+ * incrementally instead of being rebuilt from the whole map.
+ */
+public interface TWMemoryListener {
+
+	/**
+	 * @param x x coordinate of the cell
+	 * @param y y coordinate of the cell
+	 * @param old previous percept of the cell, null if it was empty
+	 * @param percept new percept of the cell, null if it is now empty
+	 */
+	void perceptChanged(int x, int y, TWAgentPercept old, TWAgentPercept percept);
+}
@@ -0,0 +1,124 @@
+package tileworld.agent;
+
+import sim.util.IntBag;
+
+/**
+ * TWObjectIndex
+ *
+ * Description:
+ *
+ * Spatial bucket index of the remembered objects of one type (e.g. TWTile).
+ * The map is split into BUCKET_SIZE x BUCKET_SIZE buckets, each holding a
+ * primitive list of the cells in it that contain such an object. The index is
+ * kept up to date by the memory whenever a cell is written, so region queries
+ * only touch the buckets overlapping the region and the objects inside them
+ * instead of every cell of the region.
+ */
+public class TWObjectIndex {
+
+	public static final int BUCKET_SIZE = 8;
+
+	private final Class<?> type;
+	private final int height;
+	private final int columns;
+	private final int rows;
+	/**
+	 * Cells (packed as x * height + y) per bucket, first counts[b] entries are valid
+	 */
+	private final int[][] buckets;
+	private final int[] counts;
+	private int size;
+
+	public TWObjectIndex(Class<?> type, int x, int y) {
+		this.type = type;
+		this.height = y;
+		this.columns = (x + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		this.rows = (y + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		this.buckets = new int[columns * rows][];
+		this.counts = new int[columns * rows];
+	}
+
+	/**
+	 * Updates the index after the content of cell (x, y) changed from old to neu
+	 * (either may be null).
+	 */
+	public void replaced(int x, int y, Object old, Object neu) {
+		boolean had = type.isInstance(old);
+		boolean has = type.isInstance(neu);
+		if (had && !has) {
+			remove(x, y);
+		}
+		else if (!had && has) {
+			add(x, y);
+		}
+	}
+
+	public void add(int x, int y) {
+		int b = (x / BUCKET_SIZE) * rows + (y / BUCKET_SIZE);
+		int[] cells = buckets[b];
+		if (cells == null) {
+			cells = buckets[b] = new int[4];
+		}
+		else if (counts[b] == cells.length) {
+			int[] grown = new int[cells.length * 2];
+			System.arraycopy(cells, 0, grown, 0, cells.length);
+			cells = buckets[b] = grown;
+		}
+		cells[counts[b]++] = x * height + y;
+		size++;
+	}
+
+	public void remove(int x, int y) {
+		int b = (x / BUCKET_SIZE) * rows + (y / BUCKET_SIZE);
+		int[] cells = buckets[b];
+		int key = x * height + y;
+		for (int i = 0; i < counts[b]; i++) {
+			if (cells[i] == key) {
+				cells[i] = cells[--counts[b]];
+				size--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Appends the coordinates of all indexed cells inside the rectangle
+	 * [minX, maxX] x [minY, maxY] (inclusive) to xs and ys.
+	 *
+	 * @return number of cells appended
+	 */
+	public int collect(int minX, int minY, int maxX, int maxY, IntBag xs, IntBag ys) {
+		int found = 0;
+		int minBx = Math.max(minX, 0) / BUCKET_SIZE;
+		int maxBx = Math.min(maxX / BUCKET_SIZE, columns - 1);
+		int minBy = Math.max(minY, 0) / BUCKET_SIZE;
+		int maxBy = Math.min(maxY / BUCKET_SIZE, rows - 1);
+		for (int bx = minBx; bx <= maxBx; bx++) {
+			for (int by = minBy; by <= maxBy; by++) {
+				int b = bx * rows + by;
+				int[] cells = buckets[b];
+				for (int i = 0; i < counts[b]; i++) {
+					int x = cells[i] / height;
+					int y = cells[i] % height;
+					if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+						xs.add(x);
+						ys.add(y);
+						found++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return number of indexed objects
+	 */
+	public int size() {
+		return size;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+}
@@ -0,0 +1,320 @@
+package tileworld.agent;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWFuelStation;
+import tileworld.environment.TWHole;
+import tileworld.environment.TWObstacle;
+import tileworld.environment.TWTile;
+
+/**
+ * TWObservationEncoder
+ *
+ * Description:
+ *
+ * Encodes what an agent remembers (its TWAgentDecayMemory) as dense arrays
+ * for learned policies and rule engines, instead of TWAgentPercept objects:
+ * one bit-plane per type (tiles, holes, obstacles, the fuel station and cells
+ * never sensed) packed into longs, and one age plane per object type with the
+ * time since the object was first seen, divided by the lifetime of objects.
+ * The age is 0 where there is no such object.
+ *
+ * Either the window of cells at most radius away from a position is encoded,
+ * with cells off the map marked as obstacles, or the whole map downsampled by
+ * a factor: a cell of the encoding then covers factor x factor cells of the
+ * map and has the bit of every type one of them has, and the age of the
+ * youngest object of the type among them.
+ *
+ * Cell (col, row) of the encoding is cell index row * getWidth() + col. Plane
+ * p takes getWordsPerPlane() longs from p * getWordsPerPlane(), with the cell
+ * index giving word (index >>> 6) and bit (index & 63); age plane a takes
+ * getCells() floats from a * getCells(). The buffers are allocated with the
+ * encoder, encoding allocates nothing.
+ */
+public class TWObservationEncoder {
+
+	public static final int TILE_PLANE = 0;
+	public static final int HOLE_PLANE = 1;
+	public static final int OBSTACLE_PLANE = 2;
+	public static final int FUEL_STATION_PLANE = 3;
+	public static final int UNKNOWN_PLANE = 4;
+	public static final int PLANES = 5;
+
+	/**
+	 * Age planes, of tiles, holes and obstacles
+	 */
+	public static final int AGE_PLANES = 3;
+
+	private final int xDimension;
+	private final int yDimension;
+	private final float lifeTime;
+	/**
+	 * Radius of the window, -1 when downsampling the map
+	 */
+	private final int radius;
+	private final int factor;
+	private final int width;
+	private final int height;
+	private final int wordsPerPlane;
+
+	private final long[] planes;
+	private final float[] ages;
+
+	private TWObservationEncoder(TWConfig config, int radius, int factor, int width, int height) {
+		this.xDimension = config.getxDimension();
+		this.yDimension = config.getyDimension();
+		this.lifeTime = config.getLifeTime();
+		this.radius = radius;
+		this.factor = factor;
+		this.width = width;
+		this.height = height;
+		this.wordsPerPlane = (width * height + 63) >>> 6;
+		this.planes = new long[PLANES * wordsPerPlane];
+		this.ages = new float[AGE_PLANES * width * height];
+	}
+
+	/**
+	 * An encoder of the (2 * radius + 1) x (2 * radius + 1) window around a position
+	 */
+	public static TWObservationEncoder window(TWConfig config, int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Radius must not be negative");
+		}
+		return new TWObservationEncoder(config, radius, 1, 2 * radius + 1, 2 * radius + 1);
+	}
+
+	/**
+	 * An encoder of the whole map, downsampled by factor in both directions
+	 */
+	public static TWObservationEncoder downsampled(TWConfig config, int factor) {
+		if (factor < 1) {
+			throw new IllegalArgumentException("Factor must be at least 1");
+		}
+		return new TWObservationEncoder(config, -1, factor, (config.getxDimension() + factor - 1) / factor,
+			(config.getyDimension() + factor - 1) / factor);
+	}
+
+	/**
+	 * Encodes memory around the agent's position, or the whole map, into the buffers of this encoder
+	 */
+	public void encode(TWAgentDecayMemory memory, TWAgent agent) {
+		encode(memory, agent.getX(), agent.getY(), planes, 0, ages, 0);
+	}
+
+	/**
+	 * Encodes memory around (x, y), or the whole map, into the given buffers,
+	 * e.g. one slice each of the buffers of a whole batch of agents.
+	 *
+	 * @param planes receives getPlaneWords() longs from planeOffset
+	 * @param ages receives getAgeValues() floats from ageOffset
+	 */
+	public void encode(TWAgentDecayMemory memory, int x, int y, long[] planes, int planeOffset, float[] ages, int ageOffset) {
+		Arrays.fill(planes, planeOffset, planeOffset + getPlaneWords(), 0L);
+		Arrays.fill(ages, ageOffset, ageOffset + getAgeValues(), 0f);
+		TWAgentPercept[][] objects = memory.getAgentPercept();
+		double now = memory.getSimulationTime();
+		int cells = width * height;
+		if (radius >= 0) {
+			for (int row = 0; row < height; row++) {
+				int my = y - radius + row;
+				for (int col = 0; col < width; col++) {
+					int mx = x - radius + col;
+					int cell = row * width + col;
+					if (mx < 0 || my < 0 || mx >= xDimension || my >= yDimension) {
+						set(planes, planeOffset, OBSTACLE_PLANE, cell);
+					} else {
+						encodeCell(memory, objects, now, mx, my, planes, planeOffset, ages, ageOffset, cell, cells);
+					}
+				}
+			}
+			return;
+		}
+		for (int mx = 0; mx < xDimension; mx++) {
+			for (int my = 0; my < yDimension; my++) {
+				encodeCell(memory, objects, now, mx, my, planes, planeOffset, ages, ageOffset,
+					(my / factor) * width + mx / factor, cells);
+			}
+		}
+	}
+
+	/**
+	 * Ors map cell (mx, my) into encoded cell, keeping the youngest age
+	 */
+	private void encodeCell(TWAgentDecayMemory memory, TWAgentPercept[][] objects, double now, int mx, int my,
+		long[] planes, int planeOffset, float[] ages, int ageOffset, int cell, int cells) {
+		if (!memory.isExplored(mx, my)) {
+			set(planes, planeOffset, UNKNOWN_PLANE, cell);
+			return;
+		}
+		TWAgentPercept percept = objects[mx][my];
+		if (percept == null) {
+			return;
+		}
+		TWEntity o = percept.getO();
+		int plane;
+		if (o instanceof TWTile) {
+			plane = TILE_PLANE;
+		} else if (o instanceof TWHole) {
+			plane = HOLE_PLANE;
+		} else if (o instanceof TWObstacle) {
+			plane = OBSTACLE_PLANE;
+		} else if (o instanceof TWFuelStation) {
+			set(planes, planeOffset, FUEL_STATION_PLANE, cell);
+			return;
+		} else {
+			return;
+		}
+		// Age 0 means no object, so an object seen this very step gets the smallest age above it
+		float age = Math.max((float) ((now - percept.getT()) / lifeTime), Float.MIN_VALUE);
+		int slot = ageOffset + plane * cells + cell;
+		if (!isSet(planes, planeOffset, plane, cell) || age < ages[slot]) {
+			ages[slot] = age;
+		}
+		set(planes, planeOffset, plane, cell);
+	}
+
+	private void set(long[] planes, int planeOffset, int plane, int cell) {
+		planes[planeOffset + plane * wordsPerPlane + (cell >>> 6)] |= 1L << (cell & 63);
+	}
+
+	private boolean isSet(long[] planes, int planeOffset, int plane, int cell) {
+		return (planes[planeOffset + plane * wordsPerPlane + (cell >>> 6)] & (1L << (cell & 63))) != 0;
+	}
+
+	/**
+	 * @return whether the cell has the plane's bit in the last encoding into this encoder's buffers
+	 */
+	public boolean isSet(int plane, int cell) {
+		return isSet(planes, 0, plane, cell);
+	}
+
+	/**
+	 * Expands the bit-planes of the last encoding into out from offset, one
+	 * float (0 or 1) per plane and cell, followed by the age planes: the
+	 * layout of a dense input tensor.
+	 */
+	public void toFloats(float[] out, int offset) {
+		int cells = width * height;
+		for (int plane = 0; plane < PLANES; plane++) {
+			for (int cell = 0; cell < cells; cell++) {
+				out[offset++] = isSet(planes, 0, plane, cell) ? 1f : 0f;
+			}
+		}
+		System.arraycopy(ages, 0, out, offset, ages.length);
+	}
+
+	/**
+	 * @return the bit-planes of the last encoding, see the class description
+	 */
+	public long[] getPlanes() {
+		return planes;
+	}
+
+	/**
+	 * @return the age planes of the last encoding, see the class description
+	 */
+	public float[] getAges() {
+		return ages;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getCells() {
+		return width * height;
+	}
+
+	public int getWordsPerPlane() {
+		return wordsPerPlane;
+	}
+
+	/**
+	 * @return the number of longs of one encoding's bit-planes
+	 */
+	public int getPlaneWords() {
+		return PLANES * wordsPerPlane;
+	}
+
+	/**
+	 * @return the number of floats of one encoding's age planes
+	 */
+	public int getAgeValues() {
+		return AGE_PLANES * width * height;
+	}
+
+	/**
+	 * @return the number of floats toFloats writes
+	 */
+	public int getFloatSize() {
+		return (PLANES + AGE_PLANES) * width * height;
+	}
+
+	/**
+	 * Runs a scenario and encodes the memory of every agent after every step,
+	 * as a sensor range window and as the map downsampled by 4, and prints
+	 * the time per encoding and the bytes allocated by 10000 more encodings
+	 * (where the JVM can tell). Arguments: scenario number or .properties file (default
+	 * 1) and steps (default 2000).
+	 */
+	public static void main(String[] args) throws IOException {
+		TWConfig config = TWPresets.resolve((args.length > 0) ? args[0] : "1");
+		long steps = (args.length > 1) ? Long.parseLong(args[1]) : 2000;
+		TWObservationEncoder[] encoders = {window(config, config.getDefaultSensorRange()), downsampled(config, 4)};
+		String[] names = {"window", "downsampled"};
+		long[] nanos = new long[encoders.length];
+		long[] allocated = new long[encoders.length];
+		long encodings = 0;
+
+		TWEnvironment env = new TWEnvironment(config);
+		env.setVerbose(false);
+		env.start();
+		for (long step = 0; step < steps; step++) {
+			env.schedule.step(env);
+			for (int i = 0; i < encoders.length; i++) {
+				long start = System.nanoTime();
+				for (TWAgent agent : env.getAgents()) {
+					encoders[i].encode((TWAgentDecayMemory) agent.getMemory(), agent);
+				}
+				nanos[i] += System.nanoTime() - start;
+			}
+			encodings += env.getAgents().size();
+		}
+		// Allocations are counted over many encodings at once, reading the counter allocates a little itself
+		for (int i = 0; i < encoders.length; i++) {
+			TWAgent agent = env.getAgents().get(0);
+			long bytes = allocatedBytes();
+			for (int n = 0; n < 10000; n++) {
+				encoders[i].encode((TWAgentDecayMemory) agent.getMemory(), agent);
+			}
+			allocated[i] = allocatedBytes() - bytes;
+		}
+		env.finish();
+		for (int i = 0; i < encoders.length; i++) {
+			System.out.printf("%-11s %3d x %-3d %5d longs %6d floats: %8.0f ns per encoding, %.0f ns per step, %d bytes allocated in 10000 encodings%n",
+				names[i], encoders[i].getWidth(), encoders[i].getHeight(), encoders[i].getPlaneWords(), encoders[i].getAgeValues(),
+				(double) nanos[i] / encodings, (double) nanos[i] / steps, allocated[i]);
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by this thread so far, 0 if the JVM cannot tell
+	 */
+	private static long allocatedBytes() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,129 @@
+package tileworld.agent;
+
+import tileworld.environment.TWDirection;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWHole;
+import tileworld.environment.TWTile;
+import tileworld.exceptions.CellBlockedException;
+
+/**
+ * TWPolicyAgent
+ *
+ * Description:
+ *
+ * An agent which does not decide anything itself: it performs the action set
+ * from outside before the step, e.g. by a policy being trained (see
+ * TWVecEnv). Actions are coded as ints, MOVE_E to MOVE_Z by direction
+ * followed by PICKUP, PUTDOWN and REFUEL.
+ *
+ * The policy sees the world through its own observation, so the agent
+ * neither senses into its memory nor sends messages.
+ */
+public class TWPolicyAgent extends TWAgent {
+
+    public static final int MOVE_E = 0;
+    public static final int MOVE_N = 1;
+    public static final int MOVE_W = 2;
+    public static final int MOVE_S = 3;
+    public static final int MOVE_Z = 4;
+    public static final int PICKUP = 5;
+    public static final int PUTDOWN = 6;
+    public static final int REFUEL = 7;
+    public static final int ACTIONS = 8;
+
+    /**
+     * The thought of every action code, thoughts are immutable so one each is enough
+     */
+    private static final TWThought[] THOUGHTS = new TWThought[ACTIONS];
+
+    static {
+        for (TWDirection d : TWDirection.values()) {
+            THOUGHTS[MOVE_E + d.ordinal()] = new TWThought(TWAction.MOVE, d);
+        }
+        THOUGHTS[PICKUP] = new TWThought(TWAction.PICKUP, TWDirection.Z);
+        THOUGHTS[PUTDOWN] = new TWThought(TWAction.PUTDOWN, TWDirection.Z);
+        THOUGHTS[REFUEL] = new TWThought(TWAction.REFUEL, TWDirection.Z);
+    }
+
+    /**
+     * Creates policy agents, for TWEnvironment#setAgentFactory
+     */
+    public static final TWAgentFactory FACTORY = new TWAgentFactory() {
+        public TWAgent create(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
+            return new TWPolicyAgent(name, xpos, ypos, env, fuelLevel);
+        }
+    };
+
+    private final String name;
+    private int action = MOVE_Z;
+
+    public TWPolicyAgent(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
+        super(xpos, ypos, env, fuelLevel);
+        this.name = name;
+    }
+
+    /**
+     * Sets the action performed in the next step
+     *
+     * @throws IllegalArgumentException if action is not an action code
+     */
+    public void setAction(int action) {
+        if (action < 0 || action >= ACTIONS) {
+            throw new IllegalArgumentException("No action " + action + ", actions are 0 to " + (ACTIONS - 1));
+        }
+        this.action = action;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    @Override
+    public void sense() {
+    }
+
+    @Override
+    public void communicate() {
+    }
+
+    @Override
+    protected TWThought think() {
+        return THOUGHTS[action];
+    }
+
+    /**
+     * Invalid actions, e.g. picking up where there is no tile or moving into
+     * an obstacle, leave the agent where it is.
+     */
+    @Override
+    protected void act(TWThought thought) {
+        Object here = this.getEnvironment().getObjectGrid().get(x, y);
+        try {
+            switch (thought.getAction()) {
+            case MOVE:
+                move(thought.getDirection());
+                break;
+            case PICKUP:
+                if (here instanceof TWTile) {
+                    pickUpTile((TWTile) here);
+                }
+                break;
+            case PUTDOWN:
+                if (here instanceof TWHole) {
+                    putTileInHole((TWHole) here);
+                }
+                break;
+            case REFUEL:
+                refuel();
+                break;
+            }
+        } catch (CellBlockedException ex) {
+            // The move is lost, as for a human player walking into a wall
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
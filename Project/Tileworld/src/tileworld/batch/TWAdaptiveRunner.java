@@ -0,0 +1,319 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWAdaptiveRunner
+ *
+ * Description:
+ *
+ * Runs configurations with as many seeds as each one needs instead of a
+ * fixed count. Seeds are launched for a configuration until the 95%
+ * confidence interval of its mean reward is narrower than the target (its
+ * half width at most targetHalfWidth), or maxSeeds is reached. When several
+ * configurations are compared, one whose interval lies entirely below the
+ * interval of another is dominated and gets no more seeds either.
+ *
+ * The pool is kept full: whenever a run finishes the next seed goes to the
+ * active configuration with the widest interval, so compute is spent where
+ * the variance is. Configuration c is always run with seeds
+ * c.getSeed() + 0, 1, 2 ..., which keeps results reproducible and lets them
+ * be shared with a TWResultCache.
+ *
+ * Runs finish in any order, so the stopping rules are not applied as results
+ * come in. They are applied in rounds k = minSeeds, minSeeds + 1 ..., round k
+ * once every running configuration has the results of its first k seeds,
+ * and only those k count. A configuration which stops keeps its first k
+ * results, runs of later seeds which finish after that are dropped. Which
+ * configurations stop, when, and on which results therefore only depends on
+ * the seeds, not on the thread timing.
+ */
+public class TWAdaptiveRunner {
+
+    public enum Status {
+        RUNNING, CONVERGED, DOMINATED, MAX_SEEDS
+    }
+
+    /**
+     * Replications of one configuration and why they stopped
+     */
+    public static class Outcome {
+        private final TWConfig config;
+        private final List<TWRunResult> results = new ArrayList<TWRunResult>();
+        /**
+         * Finished runs by seed offset, only the first prefix of them are all there
+         */
+        private final List<TWRunResult> finished = new ArrayList<TWRunResult>();
+        private int prefix;
+        private int launched;
+        private int inFlight;
+        private Status status = Status.RUNNING;
+        private TWRunStatistics statistics = new TWRunStatistics(new double[0]);
+
+        Outcome(TWConfig config) {
+            this.config = config;
+        }
+
+        public TWConfig getConfig() {
+            return config;
+        }
+
+        public List<TWRunResult> getResults() {
+            return results;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public TWRunStatistics getStatistics() {
+            return statistics;
+        }
+
+        double getLower() {
+            return statistics.getMean() - statistics.getConfidenceHalfWidth();
+        }
+
+        double getUpper() {
+            return statistics.getMean() + statistics.getConfidenceHalfWidth();
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + statistics;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private double targetHalfWidth = 2.0;
+    private int minSeeds = 4;
+    private int maxSeeds = 50;
+    private TWResultCache cache;
+    private TWRunListener listener;
+
+    public TWAdaptiveRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public TWAdaptiveRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param targetHalfWidth half width of the 95% confidence interval, in reward, at which a configuration stops
+     */
+    public void setTargetHalfWidth(double targetHalfWidth) {
+        this.targetHalfWidth = targetHalfWidth;
+    }
+
+    /**
+     * @param minSeeds seeds every configuration gets before it can stop (at least 2)
+     * @param maxSeeds seeds after which a configuration stops anyway
+     */
+    public void setSeedLimits(int minSeeds, int maxSeeds) {
+        if (minSeeds < 2 || maxSeeds < minSeeds) {
+            throw new IllegalArgumentException("Need 2 <= minSeeds <= maxSeeds");
+        }
+        this.minSeeds = minSeeds;
+        this.maxSeeds = maxSeeds;
+    }
+
+    public void setCache(TWResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param listener told about every run counted by the stopping rules, in seed order per configuration, from
+     *                 the calling thread
+     */
+    public void setListener(TWRunListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Runs configs until every one of them has stopped.
+     *
+     * @return one outcome per configuration, in the order of configs
+     */
+    public List<Outcome> run(List<TWConfig> configs) {
+        final List<Outcome> outcomes = new ArrayList<Outcome>();
+        for (TWConfig config : configs) {
+            outcomes.add(new Outcome(config));
+        }
+        ExecutorCompletionService<Object[]> completion = new ExecutorCompletionService<Object[]>(pool);
+        int inFlight = 0;
+        int round = minSeeds - 1;
+        while (true) {
+            // Top up the pool, widest intervals first
+            while (inFlight < pool.getParallelism()) {
+                int next = pickNext(outcomes);
+                if (next < 0) {
+                    break;
+                }
+                final int index = next;
+                final Outcome o = outcomes.get(index);
+                final int offset = o.launched++;
+                final long seed = o.config.getSeed() + offset;
+                o.finished.add(null);
+                o.inFlight++;
+                inFlight++;
+                completion.submit(new Callable<Object[]>() {
+                    public Object[] call() {
+                        TWRunResult result = (cache == null) ? TWBatchRunner.runOne(o.config, seed) : cache.run(o.config, seed);
+                        return new Object[] {index, offset, result};
+                    }
+                });
+            }
+            if (inFlight == 0) {
+                return outcomes;
+            }
+
+            Object[] done;
+            try {
+                done = completion.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Adaptive run interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Replication failed", e.getCause());
+            }
+            inFlight--;
+            Outcome o = outcomes.get((Integer) done[0]);
+            o.inFlight--;
+            if (o.status != Status.RUNNING) {
+                // Beyond the seeds the configuration stopped at
+                continue;
+            }
+            o.finished.set((Integer) done[1], (TWRunResult) done[2]);
+            while (o.prefix < o.finished.size() && o.finished.get(o.prefix) != null) {
+                o.prefix++;
+            }
+            while (isRoundReady(outcomes, round + 1)) {
+                round++;
+                updateStatus(outcomes, round);
+            }
+        }
+    }
+
+    /**
+     * @return whether some configuration is still running and all running ones have their first k results
+     */
+    private static boolean isRoundReady(List<Outcome> outcomes, int k) {
+        boolean running = false;
+        for (Outcome o : outcomes) {
+            if (o.status == Status.RUNNING) {
+                if (o.prefix < k) {
+                    return false;
+                }
+                running = true;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * @return the running configuration which should get the next seed, -1 if none needs one
+     */
+    private int pickNext(List<Outcome> outcomes) {
+        int best = -1;
+        double widest = -1;
+        for (int i = 0; i < outcomes.size(); i++) {
+            Outcome o = outcomes.get(i);
+            if (o.status != Status.RUNNING || o.launched >= maxSeeds) {
+                continue;
+            }
+            // Until minSeeds are in, the interval means nothing: those come first
+            double width = (o.launched < minSeeds) ? Double.POSITIVE_INFINITY : o.statistics.getConfidenceHalfWidth();
+            // Do not run ahead of the results by more than minSeeds seeds
+            if (o.launched >= minSeeds && o.inFlight >= minSeeds) {
+                continue;
+            }
+            if (width > widest) {
+                widest = width;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Applies the stopping rules to the first k results of every running
+     * configuration, and the final results of those which stopped before
+     */
+    private void updateStatus(List<Outcome> outcomes, int k) {
+        for (int i = 0; i < outcomes.size(); i++) {
+            Outcome o = outcomes.get(i);
+            if (o.status != Status.RUNNING) {
+                continue;
+            }
+            while (o.results.size() < k) {
+                TWRunResult result = o.finished.get(o.results.size());
+                o.results.add(result);
+                if (listener != null) {
+                    listener.runFinished(i, o.config, result);
+                }
+            }
+            double[] rewards = new double[k];
+            for (int j = 0; j < k; j++) {
+                rewards[j] = o.results.get(j).getReward();
+            }
+            o.statistics = new TWRunStatistics(rewards);
+        }
+        double bestLower = Double.NEGATIVE_INFINITY;
+        for (Outcome o : outcomes) {
+            bestLower = Math.max(bestLower, o.getLower());
+        }
+        for (Outcome o : outcomes) {
+            if (o.status != Status.RUNNING) {
+                continue;
+            }
+            if (o.getUpper() < bestLower) {
+                o.status = Status.DOMINATED;
+            } else if (o.statistics.getConfidenceHalfWidth() <= targetHalfWidth) {
+                o.status = Status.CONVERGED;
+            } else if (o.results.size() >= maxSeeds) {
+                o.status = Status.MAX_SEEDS;
+            }
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Compares configurations adaptively.
+     *
+     * Usage: TWAdaptiveRunner halfWidth config...  (configs are scenario numbers or .properties files)
+     */
+    public static void main(String[] args) throws IOException {
+        double halfWidth = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        List<TWConfig> configs = new ArrayList<TWConfig>();
+        for (int i = 1; i < args.length; i++) {
+            configs.add(TWPresets.resolve(args[i]));
+        }
+        if (configs.isEmpty()) {
+            configs.add(TWConfig.DEFAULT);
+        }
+        TWAdaptiveRunner runner = new TWAdaptiveRunner();
+        runner.setTargetHalfWidth(halfWidth);
+        long start = System.nanoTime();
+        List<Outcome> outcomes = runner.run(configs);
+        runner.shutdown();
+        int total = 0;
+        for (int i = 0; i < outcomes.size(); i++) {
+            System.out.println("Config " + (i + 1) + ": " + outcomes.get(i));
+            total += outcomes.get(i).getResults().size();
+        }
+        System.out.println(String.format("%d runs in %.1f s", total, (System.nanoTime() - start) / 1e9));
+    }
+}
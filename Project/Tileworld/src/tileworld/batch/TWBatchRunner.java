@@ -0,0 +1,147 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * TWBatchRunner
+ *
+ * Description:
+ *
+ * Runs independent headless replications of the Tileworld in parallel on a
+ * work-stealing pool. Every replication gets its own TWEnvironment (and so
+ * its own schedule, random generator, grids and agents), the only state
+ * shared between runs is immutable: the TWConfig and the cached spiral
+ * search orders of the agent memories. Runs are quiet, as printing from many
+ * threads would serialise them on System.out, and never touch the GUI.
+ */
+public class TWBatchRunner {
+
+    private final ForkJoinPool pool;
+    private final TWConfig config;
+    private TWResultCache cache;
+
+    /**
+     * @param parallelism number of replications run at once
+     * @param config configuration of every replication, runs last config.getEndTime() steps
+     */
+    public TWBatchRunner(int parallelism, TWConfig config) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.config = config;
+    }
+
+    public TWBatchRunner(TWConfig config) {
+        this(Runtime.getRuntime().availableProcessors(), config);
+    }
+
+    /**
+     * Runs one replication per seed and waits for all of them.
+     *
+     * @return the results, in the order of seeds
+     */
+    public List<TWRunResult> run(long[] seeds) {
+        List<Callable<TWRunResult>> tasks = new ArrayList<Callable<TWRunResult>>(seeds.length);
+        for (final long seed : seeds) {
+            tasks.add(new Callable<TWRunResult>() {
+                public TWRunResult call() {
+                    return (cache == null) ? runOne(config, seed) : cache.run(config, seed);
+                }
+            });
+        }
+        List<TWRunResult> results = new ArrayList<TWRunResult>(seeds.length);
+        for (Future<TWRunResult> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Batch interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Replication failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Simulates a single quiet replication of config from seed.
+     */
+    public static TWRunResult runOne(TWConfig config, long seed) {
+        long start = System.nanoTime();
+        long endTime = config.getEndTime();
+        TWEnvironment tw = new TWEnvironment(config, seed);
+        tw.setVerbose(false);
+        tw.start();
+        long steps = 0;
+        while (steps < endTime) {
+            if (!tw.schedule.step(tw)) {
+                break;
+            }
+            steps = tw.schedule.getSteps();
+        }
+        int reward = tw.getReward();
+        tw.finish();
+        return new TWRunResult(seed, reward, steps, System.nanoTime() - start);
+    }
+
+    /**
+     * Reuses the results stored in cache and stores new ones there
+     */
+    public void setCache(TWResultCache cache) {
+        this.cache = cache;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Scaling benchmark: runs the same seeds with 1, 2, 4, ... threads up to
+     * the number of cores and reports throughput and speedup.
+     *
+     * Usage: TWBatchRunner [scenario number or .properties file] [runs]
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = args.length > 0 ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int cores = Runtime.getRuntime().availableProcessors();
+        long[] seeds = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            seeds[i] = config.getSeed() + i;
+        }
+
+        double baseline = 0;
+        TWRunStatistics reference = null;
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            TWBatchRunner runner = new TWBatchRunner(threads, config);
+            long start = System.nanoTime();
+            List<TWRunResult> results = runner.run(seeds);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            runner.shutdown();
+
+            TWRunStatistics stats = TWRunStatistics.ofRewards(results);
+            if (reference == null) {
+                reference = stats;
+                baseline = seconds;
+            }
+            System.out.println(String.format("%3d threads: %8.2f s, %6.2f runs/s, speedup %5.2f, %s%s", threads, seconds,
+                    runs / seconds, baseline / seconds, stats,
+                    stats.getMean() == reference.getMean() ? "" : " (differs from 1 thread!)"));
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+}
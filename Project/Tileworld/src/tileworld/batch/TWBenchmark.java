@@ -0,0 +1,217 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.agent.HybridPRSTWAgent;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWAgentFactory;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWTaskAllocator;
+import tileworld.environment.TWZoneManager;
+
+/**
+ * TWBenchmark
+ *
+ * Description:
+ *
+ * Compares configurations of the same scenario side by side: every case runs
+ * a fixed number of steps on the same seeds, one run after the other so the
+ * time per step is not distorted by other runs, and one line per case gives
+ * the rewards, their mean and the time per step, followed by whatever the
+ * case's probe gathered from the runs. The optional components that have a
+ * benchmark (see main) describe their cases here, so they share the loop.
+ */
+public class TWBenchmark {
+
+    /**
+     * Fuel agent 1 starts with in the stranded cases of the zones benchmark
+     */
+    private static final double STRANDED_FUEL = 50;
+
+    /**
+     * Gathers statistics of a component from the runs of a case
+     */
+    public interface Probe {
+
+        /**
+         * Called once per run, after it ended
+         */
+        void runEnded(TWEnvironment env);
+
+        /**
+         * @return what was gathered over runs runs, appended to the line of the case ("" for nothing)
+         */
+        String summary(int runs);
+    }
+
+    /**
+     * A configuration to compare, with the agents to run it with (null for the
+     * environment's default) and its probe (null for none)
+     */
+    public static final class Case {
+        private final String name;
+        private final TWConfig config;
+        private final TWAgentFactory factory;
+        private final Probe probe;
+
+        public Case(String name, TWConfig config, TWAgentFactory factory, Probe probe) {
+            this.name = name;
+            this.config = config;
+            this.factory = factory;
+            this.probe = probe;
+        }
+
+        public Case(String name, TWConfig config) {
+            this(name, config, null, null);
+        }
+    }
+
+    private TWBenchmark() {
+    }
+
+    /**
+     * Runs every case for steps steps from the seeds config.getSeed() to
+     * config.getSeed() + seeds - 1 of its configuration, printing a line per
+     * case to out.
+     *
+     * @return the mean reward of every case, in the order of cases
+     */
+    public static double[] compare(List<Case> cases, long steps, int seeds, PrintStream out) {
+        int width = 0;
+        for (Case c : cases) {
+            width = Math.max(width, c.name.length());
+        }
+        double[] means = new double[cases.size()];
+        for (int c = 0; c < cases.size(); c++) {
+            Case current = cases.get(c);
+            long nanos = 0;
+            int total = 0;
+            StringBuilder rewards = new StringBuilder();
+            for (int i = 0; i < seeds; i++) {
+                TWEnvironment env = new TWEnvironment(current.config, current.config.getSeed() + i);
+                env.setVerbose(false);
+                env.setAgentFactory(current.factory);
+                env.start();
+                long start = System.nanoTime();
+                for (long step = 0; step < steps; step++) {
+                    env.schedule.step(env);
+                }
+                nanos += System.nanoTime() - start;
+                env.finish();
+                total += env.getReward();
+                rewards.append(' ').append(env.getReward());
+                if (current.probe != null) {
+                    current.probe.runEnded(env);
+                }
+            }
+            means[c] = (double) total / seeds;
+            out.printf("%-" + width + "s rewards%s, mean %.1f, %.3f ms per step%s%n", current.name, rewards, means[c],
+                    nanos / 1e6 / (steps * seeds), current.probe == null ? "" : current.probe.summary(seeds));
+        }
+        return means;
+    }
+
+    /**
+     * Counts how much bidding the allocator needed
+     */
+    private static class AllocatorProbe implements Probe {
+        private long solves;
+        private long bids;
+        private long kept;
+
+        public void runEnded(TWEnvironment env) {
+            TWTaskAllocator allocator = env.getAllocator();
+            solves += allocator.getSolves();
+            bids += allocator.getBids();
+            kept += allocator.getKept();
+        }
+
+        public String summary(int runs) {
+            return (solves == 0) ? "" : String.format(", %.2f bids and %.2f kept targets per solve",
+                    (double) bids / solves, (double) kept / solves);
+        }
+    }
+
+    /**
+     * Counts how often the zones moved and keeps where the last run left them
+     */
+    private static class ZoneProbe implements Probe {
+        private long rebalances;
+        private long moved;
+        private String last = "";
+
+        public void runEnded(TWEnvironment env) {
+            TWZoneManager zones = env.getZoneManager();
+            rebalances += zones.getRebalances();
+            moved += zones.getMovedZones();
+            last = zones.toString();
+        }
+
+        public String summary(int runs) {
+            return String.format(", %.1f rebalances moving %.1f zones per run, last seed ended on %s",
+                    (double) rebalances / runs, (double) moved / runs, last);
+        }
+    }
+
+    /**
+     * Usage:
+     * TWBenchmark rollouts [scenario number or .properties file] [steps] [budget] [seeds]
+     * TWBenchmark allocator [scenario number or .properties file] [steps] [seeds]
+     * TWBenchmark zones [scenario number or .properties file] [rebalance period] [steps] [seeds]
+     *
+     * rollouts: the priority chain alone against rollout planning (scenario 1,
+     * 1000 steps, a budget of 0 ms, i.e. none, and 3 seeds by default).
+     *
+     * allocator: targets auctioned by message against the central allocator
+     * (scenario 2, which allows assistance, 2000 steps and 3 seeds by default).
+     *
+     * zones: fixed zones against rebalanced ones, once as the scenario is and
+     * once with agent 1 stranded: it starts with STRANDED_FUEL and runs dry
+     * before it finds the fuel station (scenario 1, a period of 50, 2000
+     * steps and 3 seeds by default).
+     */
+    public static void main(String[] args) throws IOException {
+        String benchmark = (args.length > 0) ? args[0] : "rollouts";
+        List<Case> cases = new ArrayList<Case>();
+        if (benchmark.equals("rollouts")) {
+            TWConfig config = TWPresets.resolve((args.length > 1) ? args[1] : "1");
+            long steps = (args.length > 2) ? Long.parseLong(args[2]) : 1000;
+            double budget = (args.length > 3) ? Double.parseDouble(args[3]) : 0;
+            int seeds = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+            cases.add(new Case("priority chain", config.toBuilder().rolloutPlanning(false).build()));
+            cases.add(new Case("rollouts", config.toBuilder().rolloutPlanning(true).rolloutBudget(budget).build()));
+            compare(cases, steps, seeds, System.out);
+        } else if (benchmark.equals("allocator")) {
+            TWConfig config = TWPresets.resolve((args.length > 1) ? args[1] : "2");
+            long steps = (args.length > 2) ? Long.parseLong(args[2]) : 2000;
+            int seeds = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+            cases.add(new Case("messages", config.toBuilder().centralAllocation(false).build()));
+            cases.add(new Case("allocator", config.toBuilder().centralAllocation(true).build(), null, new AllocatorProbe()));
+            compare(cases, steps, seeds, System.out);
+        } else if (benchmark.equals("zones")) {
+            TWConfig config = TWPresets.resolve((args.length > 1) ? args[1] : "1");
+            int period = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+            long steps = (args.length > 3) ? Long.parseLong(args[3]) : 2000;
+            int seeds = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+            TWConfig fixed = config.toBuilder().zoneRebalancePeriod(0).build();
+            TWConfig rebalanced = config.toBuilder().zoneRebalancePeriod(period).build();
+            TWAgentFactory stranded = new TWAgentFactory() {
+                public TWAgent create(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
+                    return new HybridPRSTWAgent(name, xpos, ypos, env, name.equals("Agent 1") ? STRANDED_FUEL : fuelLevel);
+                }
+            };
+            cases.add(new Case("fixed", fixed));
+            cases.add(new Case("rebalanced", rebalanced, null, new ZoneProbe()));
+            cases.add(new Case("fixed, agent 1 stranded", fixed, stranded, null));
+            cases.add(new Case("rebalanced, agent 1 stranded", rebalanced, stranded, new ZoneProbe()));
+            compare(cases, steps, seeds, System.out);
+        } else {
+            throw new IllegalArgumentException("Unknown benchmark " + benchmark + ", expected rollouts, allocator or zones");
+        }
+    }
+}
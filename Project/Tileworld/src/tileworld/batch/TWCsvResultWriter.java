@@ -0,0 +1,60 @@
+package tileworld.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Properties;
+
+import tileworld.TWConfig;
+
+/**
+ * TWCsvResultWriter
+ *
+ * Description:
+ *
+ * Streams sweep results to CSV, one row per replication written and flushed
+ * as soon as it finishes, so partial results survive an interrupted sweep.
+ * Columns are the configuration index, the seed, the swept parameters, then
+ * reward, steps and wall clock milliseconds.
+ */
+public class TWCsvResultWriter implements TWRunListener, Closeable {
+
+    private final Writer out;
+    private final List<String> parameters;
+
+    public TWCsvResultWriter(Writer out, List<String> parameters) throws IOException {
+        this.out = out;
+        this.parameters = parameters;
+        StringBuilder header = new StringBuilder("config,seed");
+        for (String p : parameters) {
+            header.append(',').append(p);
+        }
+        header.append(",reward,steps,millis\n");
+        out.write(header.toString());
+        out.flush();
+    }
+
+    public void runFinished(int configIndex, TWConfig config, TWRunResult result) {
+        Properties values = config.toProperties();
+        StringBuilder row = new StringBuilder();
+        row.append(configIndex).append(',').append(result.getSeed());
+        for (String p : parameters) {
+            row.append(',').append(values.getProperty(p));
+        }
+        row.append(',').append(result.getReward())
+                .append(',').append(result.getSteps())
+                .append(',').append(result.getElapsedNanos() / 1000000).append('\n');
+        try {
+            out.write(row.toString());
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,210 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWAgentFactory;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWObject;
+import tileworld.environment.TWWorldHash;
+
+/**
+ * TWDeterminismCheck
+ *
+ * Description:
+ *
+ * Runs the same seed under two configurations side by side, e.g. a
+ * reference and an optimised code path or a serial and a parallel mode,
+ * and compares their TWWorldHash after every step. The first step at which
+ * the hashes differ is reported with a diff of the two worlds after that
+ * step: reward, the agents which differ and the cells which differ.
+ *
+ * Comparing hashes costs next to nothing per step, so the worlds are only
+ * compared cell by cell once they have diverged.
+ */
+public class TWDeterminismCheck {
+
+    /**
+     * Diff lines reported at most
+     */
+    private static final int MAX_DIFFERENCES = 20;
+
+    /**
+     * Where two runs first diverged
+     */
+    public static class Divergence {
+        private final long step;
+        private final List<String> differences;
+
+        Divergence(long step, List<String> differences) {
+            this.step = step;
+            this.differences = differences;
+        }
+
+        /**
+         * @return the first step after which the runs differ
+         */
+        public long getStep() {
+            return step;
+        }
+
+        /**
+         * @return what differs after that step, one line each
+         */
+        public List<String> getDifferences() {
+            return differences;
+        }
+    }
+
+    /**
+     * Runs a and b, both with the seed of a, for steps steps.
+     *
+     * @return where they diverged, null if they did not
+     * @throws IllegalStateException if an incremental hash no longer matches
+     *         its grid, which is a bug in how the grid is changed rather
+     *         than a divergence
+     */
+    public static Divergence run(TWConfig a, TWConfig b, long steps) {
+        return run(a, b, steps, null);
+    }
+
+    /**
+     * Runs a and b with the agents created by factory (null for the
+     * environment's default), see run(TWConfig, TWConfig, long)
+     */
+    public static Divergence run(TWConfig a, TWConfig b, long steps, TWAgentFactory factory) {
+        TWEnvironment left = new TWEnvironment(a, a.getSeed());
+        TWEnvironment right = new TWEnvironment(b, a.getSeed());
+        left.setVerbose(false);
+        right.setVerbose(false);
+        left.setAgentFactory(factory);
+        right.setAgentFactory(factory);
+        left.start();
+        right.start();
+        TWWorldHash leftHash = new TWWorldHash(left);
+        TWWorldHash rightHash = new TWWorldHash(right);
+        try {
+            if (leftHash.getHash() != rightHash.getHash()) {
+                return new Divergence(0, diff(left, right));
+            }
+            for (long step = 1; step <= steps; step++) {
+                left.schedule.step(left);
+                right.schedule.step(right);
+                if (leftHash.getHash() != rightHash.getHash()) {
+                    return new Divergence(step, diff(left, right));
+                }
+                // Every now and then make sure the incremental hashes are right
+                if (step % 500 == 0 && (leftHash.getGridHash() != leftHash.recomputeGridHash()
+                        || rightHash.getGridHash() != rightHash.recomputeGridHash())) {
+                    throw new IllegalStateException("Grid changed without telling the world listeners before step " + step);
+                }
+            }
+            return null;
+        } finally {
+            left.finish();
+            right.finish();
+        }
+    }
+
+    /**
+     * @return the differences between a and b, at most MAX_DIFFERENCES lines
+     */
+    static List<String> diff(TWEnvironment a, TWEnvironment b) {
+        List<String> lines = new ArrayList<String>();
+        if (a.getReward() != b.getReward()) {
+            lines.add("reward: " + a.getReward() + " / " + b.getReward());
+        }
+        for (int i = 0; i < Math.min(a.getAgents().size(), b.getAgents().size()); i++) {
+            String p = describe(a.getAgents().get(i));
+            String q = describe(b.getAgents().get(i));
+            if (!p.equals(q)) {
+                lines.add(a.getAgents().get(i).getName() + ": " + p + " / " + q);
+            }
+        }
+        if (a.getAgents().size() != b.getAgents().size()) {
+            lines.add("agents: " + a.getAgents().size() + " / " + b.getAgents().size());
+        }
+        int cells = 0;
+        for (int x = 0; x < a.getxDimension(); x++) {
+            for (int y = 0; y < a.getyDimension(); y++) {
+                String p = describe((TWEntity) a.getObjectGrid().get(x, y));
+                String q = describe((TWEntity) b.getObjectGrid().get(x, y));
+                if (!p.equals(q)) {
+                    if (lines.size() < MAX_DIFFERENCES) {
+                        lines.add("cell " + x + "," + y + ": " + p + " / " + q);
+                    }
+                    cells++;
+                }
+            }
+        }
+        if (lines.size() >= MAX_DIFFERENCES && cells > 0) {
+            lines.add("(" + cells + " cells differ in all)");
+        }
+        return lines;
+    }
+
+    private static String describe(TWAgent a) {
+        return "at " + a.getX() + "," + a.getY() + " fuel " + a.getFuelLevel() + " score " + a.getScore()
+                + " carrying " + a.getCarriedTileCount();
+    }
+
+    private static String describe(TWEntity e) {
+        if (e == null) {
+            return "empty";
+        }
+        String name = e.getClass().getSimpleName();
+        return (e instanceof TWObject) ? name + " dying at " + ((TWObject) e).getDeathTime() : name;
+    }
+
+    /**
+     * Compares the two configurations given as arguments (scenario numbers or
+     * .properties files) for the number of steps given as third argument
+     * (default: the end time of the first). Without arguments compares a
+     * run of scenario 1 on one strip and with phasedStep with one on three
+     * strips, which must not diverge, then the default schedule of scenario
+     * 2 with phasedStep, which does: the default schedule draws the order of
+     * the agents from the simulation's random generator, and every agent
+     * thinks after the ones before it have acted.
+     *
+     * Exits with 1 if the given runs, or the strip runs, diverged.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2) {
+            TWConfig a = TWPresets.resolve(args[0]);
+            TWConfig b = TWPresets.resolve(args[1]);
+            long steps = (args.length > 2) ? Long.parseLong(args[2]) : a.getEndTime();
+            if (report(args[0] + " vs " + args[1], run(a, b, steps), steps) != null) {
+                System.exit(1);
+            }
+            return;
+        }
+        TWConfig strip = TWConfig.DEFAULT.toBuilder().partitions(1).build();
+        if (report("1 strip vs 3 strips", run(strip, strip.toBuilder().partitions(3).build(), 2000), 2000) != null) {
+            System.exit(1);
+        }
+        TWConfig phased = TWConfig.DEFAULT.toBuilder().phasedStep(true).build();
+        if (report("phasedStep vs 3 strips", run(phased, strip.toBuilder().partitions(3).build(), 2000), 2000) != null) {
+            System.exit(1);
+        }
+        TWConfig assisting = TWPresets.get(2);
+        report("default schedule vs phasedStep", run(assisting, assisting.toBuilder().phasedStep(true).build(), 2000),
+                2000);
+    }
+
+    private static Divergence report(String title, Divergence divergence, long steps) {
+        if (divergence == null) {
+            System.out.println(title + ": identical for " + steps + " steps");
+            return null;
+        }
+        System.out.println(title + ": diverged at step " + divergence.getStep());
+        for (String line : divergence.getDifferences()) {
+            System.out.println("  " + line);
+        }
+        return divergence;
+    }
+}
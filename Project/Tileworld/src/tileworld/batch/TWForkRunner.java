@@ -0,0 +1,211 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWForkPoint;
+
+/**
+ * TWForkRunner
+ *
+ * Description:
+ *
+ * What-if evaluation from a common mid-run state. The state is captured once
+ * in a TWForkPoint, then every branch configuration is forked from it and run
+ * to its end time concurrently, so the shared prefix is only simulated once.
+ * The first branch is the baseline; the reward of every other branch is
+ * compared with it step by step to tell when and by how much it diverges.
+ */
+public class TWForkRunner {
+
+    /**
+     * Outcome of one branch
+     */
+    public static class Branch {
+        private final TWConfig config;
+        private final long forkStep;
+        /**
+         * Reward after each step since the fork
+         */
+        private final int[] rewards;
+        private final long elapsedNanos;
+        private long firstDivergence = -1;
+        private int maxDifference;
+
+        Branch(TWConfig config, long forkStep, int[] rewards, long elapsedNanos) {
+            this.config = config;
+            this.forkStep = forkStep;
+            this.rewards = rewards;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void compareWith(Branch baseline) {
+            for (int i = 0; i < Math.max(rewards.length, baseline.rewards.length); i++) {
+                int difference = getRewardAt(forkStep + i + 1) - baseline.getRewardAt(forkStep + i + 1);
+                if (difference != 0 && firstDivergence < 0) {
+                    firstDivergence = forkStep + i + 1;
+                }
+                if (Math.abs(difference) > Math.abs(maxDifference)) {
+                    maxDifference = difference;
+                }
+            }
+        }
+
+        public TWConfig getConfig() {
+            return config;
+        }
+
+        public int getReward() {
+            return rewards.length == 0 ? 0 : rewards[rewards.length - 1];
+        }
+
+        /**
+         * @return the reward after step (held at the final reward once the branch has ended)
+         */
+        public int getRewardAt(long step) {
+            int i = (int) Math.min(step - forkStep, rewards.length) - 1;
+            return (i < 0) ? 0 : rewards[i];
+        }
+
+        /**
+         * @return first step at which the reward differs from the baseline, -1 if it never does
+         */
+        public long getFirstDivergence() {
+            return firstDivergence;
+        }
+
+        /**
+         * @return the largest difference to the baseline reward over the branch, signed
+         */
+        public int getMaxDifference() {
+            return maxDifference;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public TWForkRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public TWForkRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs one fork of point per configuration, the first one being the
+     * baseline, and waits for all of them.
+     *
+     * @return the branches, in the order of configs
+     */
+    public List<Branch> run(final TWForkPoint point, List<TWConfig> configs) {
+        List<Callable<Branch>> tasks = new ArrayList<Callable<Branch>>(configs.size());
+        for (final TWConfig config : configs) {
+            tasks.add(new Callable<Branch>() {
+                public Branch call() {
+                    return runBranch(point, config);
+                }
+            });
+        }
+        List<Branch> branches = new ArrayList<Branch>(configs.size());
+        for (Future<Branch> future : pool.invokeAll(tasks)) {
+            try {
+                branches.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Fork run interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Branch failed", e.getCause());
+            }
+        }
+        for (int i = 1; i < branches.size(); i++) {
+            branches.get(i).compareWith(branches.get(0));
+        }
+        return branches;
+    }
+
+    private static Branch runBranch(TWForkPoint point, TWConfig config) {
+        long start = System.nanoTime();
+        TWEnvironment tw = point.fork(config);
+        long forkStep = point.getSteps();
+        int[] rewards = new int[(int) Math.max(config.getEndTime() - forkStep, 0)];
+        int n = 0;
+        while (n < rewards.length && tw.schedule.step(tw)) {
+            rewards[n++] = tw.getReward();
+        }
+        tw.finish();
+        return new Branch(config, forkStep, Arrays.copyOf(rewards, n), System.nanoTime() - start);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs the configuration given as first argument (a scenario number or
+     * .properties file, scenario 5 by default) up to the step given as second
+     * argument (default: half its end time), then forks the baseline and a
+     * set of agent tunable variations from there and reports how their
+     * rewards diverge.
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = TWPresets.resolve(args.length > 0 ? args[0] : "5");
+        long forkStep = (args.length > 1) ? Long.parseLong(args[1]) : config.getEndTime() / 2;
+
+        long start = System.nanoTime();
+        TWEnvironment tw = new TWEnvironment(config);
+        tw.setVerbose(false);
+        tw.start();
+        while (tw.schedule.getSteps() < forkStep && tw.schedule.step(tw)) {
+        }
+        TWForkPoint point = new TWForkPoint(tw);
+        long prefixNanos = System.nanoTime() - start;
+        System.out.println(String.format("Prefix of %d steps simulated in %.2f s, reward %d, fork state %d bytes",
+                point.getSteps(), prefixNanos / 1e9, point.getReward(), point.getSize()));
+
+        List<TWConfig> configs = new ArrayList<TWConfig>();
+        configs.add(config);
+        configs.add(config.toBuilder().fuelTolerance(0.8).build());
+        configs.add(config.toBuilder().fuelTolerance(0.95).build());
+        configs.add(config.toBuilder().TSPHeuristic(!config.isTSPHeuristic()).build());
+        configs.add(config.toBuilder().allowAssistance(!config.isAllowAssistance()).build());
+        configs.add(config.toBuilder().goalAnnounceCount(0).build());
+        configs.add(config.toBuilder().goalAnnounceCount(2).build());
+        String[] labels = {"baseline", "fuelTolerance=0.8", "fuelTolerance=0.95",
+                "TSPHeuristic=" + !config.isTSPHeuristic(), "allowAssistance=" + !config.isAllowAssistance(),
+                "goalAnnounceCount=0", "goalAnnounceCount=2"};
+
+        TWForkRunner runner = new TWForkRunner();
+        start = System.nanoTime();
+        List<Branch> branches;
+        try {
+            branches = runner.run(point, configs);
+        } finally {
+            runner.shutdown();
+        }
+        long forkNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < branches.size(); i++) {
+            Branch b = branches.get(i);
+            String divergence = (i == 0) ? "" : (b.getFirstDivergence() < 0) ? "  never diverges"
+                    : String.format("  diverges at step %d, max difference %+d", b.getFirstDivergence(), b.getMaxDifference());
+            System.out.println(String.format("%-22s reward %4d (%+4d)%s", labels[i], b.getReward(),
+                    b.getReward() - branches.get(0).getReward(), divergence));
+        }
+        System.out.println(String.format("%d branches in %.2f s, re-simulating the prefix for each would have added %.2f s",
+                branches.size(), forkNanos / 1e9, (branches.size() - 1) * prefixNanos / 1e9));
+    }
+}
@@ -0,0 +1,280 @@
+package tileworld.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import tileworld.TWConfig;
+import tileworld.environment.TWEnvironment;
+
+/**
+ * TWResultCache
+ *
+ * Description:
+ *
+ * On-disk store of replication results, addressed by the SHA-256 of the full
+ * configuration, the seed and the code version (a hash of the compiled
+ * tileworld classes). A run whose key is already stored is not simulated
+ * again, and any change to the code gives every run a new key.
+ *
+ * Results are appended to a journal file in the cache directory as runs
+ * complete, one line per run, so a sweep which is interrupted keeps every
+ * finished run and resumes by skipping them. A line cut short by the
+ * interruption is ignored when the journal is read back.
+ */
+public class TWResultCache {
+
+    private static final String JOURNAL = "results.journal";
+    private static String codeVersion;
+
+    private final File journal;
+    private final String version;
+    private final HashMap<String, TWRunResult> results = new HashMap<String, TWRunResult>();
+    private final Writer out;
+    private int hits;
+    private int misses;
+
+    /**
+     * Opens (or creates) the cache in directory, for the running code.
+     */
+    public TWResultCache(File directory) throws IOException {
+        this(directory, getCodeVersion());
+    }
+
+    public TWResultCache(File directory, String version) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        this.journal = new File(directory, JOURNAL);
+        this.version = version;
+        if (journal.exists()) {
+            load();
+            terminateLastLine();
+        }
+        this.out = new OutputStreamWriter(new FileOutputStream(journal, true), StandardCharsets.UTF_8);
+    }
+
+    private void load() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] f = line.split(" ");
+                if (f.length != 5 || f[0].length() != 64) {
+                    continue;
+                }
+                try {
+                    results.put(f[0], new TWRunResult(Long.parseLong(f[1]), Integer.parseInt(f[2]), Long.parseLong(f[3]),
+                            Long.parseLong(f[4])));
+                } catch (NumberFormatException e) {
+                    // truncated line, the run will be redone
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure a line left incomplete by an interrupted run is not joined with the next one
+     */
+    private void terminateLastLine() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            if (file.length() > 0) {
+                file.seek(file.length() - 1);
+                if (file.read() != '\n') {
+                    file.write('\n');
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the stored result of config run from seed, null if there is none
+     */
+    public synchronized TWRunResult get(TWConfig config, long seed) {
+        TWRunResult result = results.get(key(config, seed));
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return result;
+    }
+
+    /**
+     * Stores result and appends it to the journal.
+     */
+    public synchronized void put(TWConfig config, long seed, TWRunResult result) {
+        String key = key(config, seed);
+        results.put(key, result);
+        try {
+            out.write(key + " " + result.getSeed() + " " + result.getReward() + " " + result.getSteps() + " "
+                    + result.getElapsedNanos() + "\n");
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the stored result of config run from seed, simulating (and storing) it first if needed
+     */
+    public TWRunResult run(TWConfig config, long seed) {
+        TWRunResult result = get(config, seed);
+        if (result == null) {
+            result = TWBatchRunner.runOne(config, seed);
+            put(config, seed, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the key of config run from seed with this cache's code version
+     */
+    public String key(TWConfig config, long seed) {
+        return sha256(config.toString() + "seed=" + seed + "\ncode=" + version + "\n");
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Hash of the compiled tileworld classes which are on the classpath,
+     * whether in a directory or a jar. Can be overridden with the
+     * tileworld.codeVersion system property.
+     */
+    public static synchronized String getCodeVersion() {
+        if (codeVersion == null) {
+            codeVersion = System.getProperty("tileworld.codeVersion");
+        }
+        if (codeVersion == null) {
+            try {
+                codeVersion = hashClasses();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return codeVersion;
+    }
+
+    private static String hashClasses() throws IOException {
+        URL location = TWEnvironment.class.getProtectionDomain().getCodeSource().getLocation();
+        Path root;
+        try {
+            root = Paths.get(location.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        MessageDigest digest = newDigest();
+        if (Files.isDirectory(root)) {
+            List<File> classes = new ArrayList<File>();
+            collectClasses(root.resolve("tileworld").toFile(), classes);
+            Collections.sort(classes);
+            for (File f : classes) {
+                digest.update(root.relativize(f.toPath()).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+                digest.update(Files.readAllBytes(f.toPath()));
+            }
+        } else {
+            JarFile jar = new JarFile(root.toFile());
+            try {
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    if (name.startsWith("tileworld/") && name.endsWith(".class")) {
+                        names.add(name);
+                    }
+                }
+                Collections.sort(names);
+                for (String name : names) {
+                    digest.update(name.getBytes(StandardCharsets.UTF_8));
+                    InputStream in = jar.getInputStream(jar.getEntry(name));
+                    try {
+                        byte[] buffer = new byte[8192];
+                        for (int n; (n = in.read(buffer)) > 0; ) {
+                            digest.update(buffer, 0, n);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static void collectClasses(File directory, List<File> classes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectClasses(f, classes);
+            } else if (f.getName().endsWith(".class")) {
+                classes.add(f);
+            }
+        }
+    }
+
+    static String sha256(String text) {
+        return hex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder s = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+}
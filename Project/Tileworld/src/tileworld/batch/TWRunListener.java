@@ -0,0 +1,21 @@
+package tileworld.batch;
+
+import tileworld.TWConfig;
+
+/**
+ * TWRunListener
+ *
+ * Description:
+ *
+ * Receives the results of a sweep as the replications finish, in completion
+ * order. Calls are made from the thread running the sweep, one at a time.
+ */
+public interface TWRunListener {
+
+    /**
+     * @param configIndex position of config in the sweep
+     * @param config configuration of the replication
+     * @param result outcome of the replication
+     */
+    void runFinished(int configIndex, TWConfig config, TWRunResult result);
+}
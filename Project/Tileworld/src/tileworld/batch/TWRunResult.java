@@ -0,0 +1,45 @@
+package tileworld.batch;
+
+/**
+ * TWRunResult
+ *
+ * Description:
+ *
+ * Outcome of one headless replication: the seed it was started with, the
+ * final reward, the number of steps simulated and the wall clock time taken.
+ */
+public class TWRunResult {
+
+    private final long seed;
+    private final int reward;
+    private final long steps;
+    private final long elapsedNanos;
+
+    public TWRunResult(long seed, int reward, long steps, long elapsedNanos) {
+        this.seed = seed;
+        this.reward = reward;
+        this.steps = steps;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getReward() {
+        return reward;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "seed " + seed + ": reward " + reward + " (" + steps + " steps, " + (elapsedNanos / 1000000) + " ms)";
+    }
+}
@@ -0,0 +1,108 @@
+package tileworld.batch;
+
+import java.util.List;
+
+/**
+ * TWRunStatistics
+ *
+ * Description:
+ *
+ * Summary statistics of the rewards of a set of replications: mean, sample
+ * standard deviation and the half width of the 95% confidence interval of the
+ * mean, using Student's t distribution for small samples.
+ */
+public class TWRunStatistics {
+
+    /**
+     * Two sided 95% quantiles of Student's t for 1 to 30 degrees of freedom
+     */
+    private static final double[] T_95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+    private static final double Z_95 = 1.960;
+
+    private final int count;
+    private final double mean;
+    private final double stdDev;
+    private final double min;
+    private final double max;
+
+    public TWRunStatistics(double[] values) {
+        this.count = values.length;
+        double sum = 0;
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        for (double v : values) {
+            sum += v;
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        this.mean = count > 0 ? sum / count : Double.NaN;
+        double squares = 0;
+        for (double v : values) {
+            squares += (v - mean) * (v - mean);
+        }
+        this.stdDev = count > 1 ? Math.sqrt(squares / (count - 1)) : 0;
+        this.min = lo;
+        this.max = hi;
+    }
+
+    /**
+     * @return statistics of the rewards of results
+     */
+    public static TWRunStatistics ofRewards(List<TWRunResult> results) {
+        double[] rewards = new double[results.size()];
+        for (int i = 0; i < rewards.length; i++) {
+            rewards[i] = results.get(i).getReward();
+        }
+        return new TWRunStatistics(rewards);
+    }
+
+    /**
+     * @return the 95% quantile of Student's t for the given degrees of freedom
+     */
+    public static double tQuantile95(int degreesOfFreedom) {
+        if (degreesOfFreedom < 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return degreesOfFreedom <= T_95.length ? T_95[degreesOfFreedom - 1] : Z_95;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return half width of the 95% confidence interval of the mean
+     */
+    public double getConfidenceHalfWidth() {
+        if (count < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return tQuantile95(count - 1) * stdDev / Math.sqrt(count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2f sd=%.2f 95%% CI=[%.2f, %.2f] min=%.0f max=%.0f", count, mean, stdDev,
+                mean - getConfidenceHalfWidth(), mean + getConfidenceHalfWidth(), min, max);
+    }
+}
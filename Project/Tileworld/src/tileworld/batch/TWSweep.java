@@ -0,0 +1,202 @@
+package tileworld.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import ec.util.MersenneTwisterFast;
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWSweep
+ *
+ * Description:
+ *
+ * Design of a parameter sweep: a base configuration and, for some of its
+ * parameters (see TWConfig for the names), the values to try. A grid design
+ * takes every combination of the listed values, a random design draws a
+ * number of configurations, each parameter either picked among its listed
+ * values or drawn uniformly from its range.
+ *
+ * A sweep can be read from a .properties file:
+ *
+ * <pre>
+ * base=2                        # scenario number or .properties file, default scenario 1
+ * design=grid                   # or random
+ * samples=50                    # number of configurations of a random design
+ * samplingSeed=1                # seed used to draw them
+ * sweep.hardFuelLimit=50,100    # values to try
+ * sweep.fuelTolerance=0.8:0.99  # range, random design only
+ * </pre>
+ */
+public class TWSweep {
+
+    private final TWConfig base;
+    private final LinkedHashMap<String, String[]> values = new LinkedHashMap<String, String[]>();
+    private final LinkedHashMap<String, double[]> ranges = new LinkedHashMap<String, double[]>();
+    private final List<String> parameters = new ArrayList<String>();
+
+    public TWSweep(TWConfig base) {
+        this.base = base;
+    }
+
+    /**
+     * Sweeps parameter name over the given values.
+     */
+    public TWSweep axis(String name, String... choices) {
+        check(name);
+        values.put(name, choices);
+        parameters.add(name);
+        return this;
+    }
+
+    /**
+     * Draws parameter name uniformly from [min, max] in random designs,
+     * integer parameters are drawn among the integers of the range.
+     */
+    public TWSweep range(String name, double min, double max) {
+        check(name);
+        ranges.put(name, new double[] {min, max});
+        parameters.add(name);
+        return this;
+    }
+
+    private void check(String name) {
+        if (base.toProperties().getProperty(name) == null) {
+            throw new IllegalArgumentException("Unknown parameter: " + name);
+        }
+        if (parameters.contains(name)) {
+            throw new IllegalArgumentException("Parameter swept twice: " + name);
+        }
+    }
+
+    /**
+     * @return the swept parameters, in the order they were added
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    public TWConfig getBase() {
+        return base;
+    }
+
+    /**
+     * @return every combination of the listed values, the last parameter varying fastest
+     */
+    public List<TWConfig> grid() {
+        if (!ranges.isEmpty()) {
+            throw new IllegalStateException("Ranges can only be sampled, list values for a grid: " + ranges.keySet());
+        }
+        List<TWConfig> configs = new ArrayList<TWConfig>();
+        String[] names = values.keySet().toArray(new String[0]);
+        int[] digits = new int[names.length];
+        while (true) {
+            TWConfig.Builder b = base.toBuilder();
+            for (int i = 0; i < names.length; i++) {
+                b.set(names[i], values.get(names[i])[digits[i]]);
+            }
+            configs.add(b.build());
+            int i = names.length - 1;
+            while (i >= 0 && ++digits[i] == values.get(names[i]).length) {
+                digits[i--] = 0;
+            }
+            if (i < 0) {
+                return configs;
+            }
+        }
+    }
+
+    /**
+     * @return n configurations drawn at random
+     */
+    public List<TWConfig> sample(int n, long seed) {
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        Properties defaults = base.toProperties();
+        List<TWConfig> configs = new ArrayList<TWConfig>(n);
+        for (int k = 0; k < n; k++) {
+            TWConfig.Builder b = base.toBuilder();
+            for (String name : parameters) {
+                String[] choices = values.get(name);
+                if (choices != null) {
+                    b.set(name, choices[random.nextInt(choices.length)]);
+                    continue;
+                }
+                double[] range = ranges.get(name);
+                if (isInteger(defaults.getProperty(name))) {
+                    long lo = (long) Math.ceil(range[0]);
+                    long hi = (long) Math.floor(range[1]);
+                    b.set(name, String.valueOf(lo + (long) (random.nextDouble() * (hi - lo + 1))));
+                } else {
+                    b.set(name, String.valueOf(range[0] + random.nextDouble() * (range[1] - range[0])));
+                }
+            }
+            configs.add(b.build());
+        }
+        return configs;
+    }
+
+    private static boolean isInteger(String value) {
+        return value.matches("-?\\d+");
+    }
+
+    /**
+     * Expands this sweep with the design (grid or random) given by the
+     * design, samples and samplingSeed properties, see the class description.
+     */
+    public List<TWConfig> design(Properties properties) {
+        String design = properties.getProperty("design", "grid").trim();
+        if (design.equals("grid")) {
+            return grid();
+        }
+        if (design.equals("random")) {
+            int samples = Integer.parseInt(properties.getProperty("samples", "20").trim());
+            long seed = Long.parseLong(properties.getProperty("samplingSeed", "1").trim());
+            return sample(samples, seed);
+        }
+        throw new IllegalArgumentException("Unknown design: " + design);
+    }
+
+    public static TWSweep fromProperties(Properties properties) throws IOException {
+        String base = properties.getProperty("base");
+        TWSweep sweep = new TWSweep(base == null ? TWConfig.DEFAULT : TWPresets.resolve(base.trim()));
+        for (Map.Entry<Object, Object> e : new TreeMap<Object, Object>(properties).entrySet()) {
+            String key = (String) e.getKey();
+            if (!key.startsWith("sweep.")) {
+                continue;
+            }
+            String name = key.substring("sweep.".length());
+            String value = ((String) e.getValue()).trim();
+            if (value.contains(":")) {
+                String[] bounds = value.split(":");
+                sweep.range(name, Double.parseDouble(bounds[0].trim()), Double.parseDouble(bounds[1].trim()));
+            } else {
+                String[] choices = value.split(",");
+                for (int i = 0; i < choices.length; i++) {
+                    choices[i] = choices[i].trim();
+                }
+                sweep.axis(name, choices);
+            }
+        }
+        return sweep;
+    }
+
+    public static Properties loadProperties(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,448 @@
+package tileworld.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import tileworld.TWConfig;
+
+/**
+ * TWSweepCoordinator
+ *
+ * Description:
+ *
+ * Coordinator side of a distributed sweep. Workers (TWSweepWorker, in other
+ * JVMs on this or other machines) connect over TCP at any time; each one is
+ * kept busy with as many (config, seed) jobs as it runs at once, and results
+ * are handed to the listener as they come back. A worker which disconnects
+ * is dropped and its unfinished jobs go back to the front of the queue for
+ * the other workers. A job which is not back within the job timeout is put
+ * back at the front of the queue as well, without dropping the worker: the
+ * first result to come back counts, whichever worker it is from.
+ *
+ * Throughput of every worker is printed periodically and at the end.
+ */
+public class TWSweepCoordinator {
+
+    public static final int DEFAULT_PORT = 7411;
+
+    private static class Job {
+        final int id;
+        final int configIndex;
+        final int seedIndex;
+        final String config;
+        final long seed;
+
+        Job(int id, int configIndex, int seedIndex, String config, long seed) {
+            this.id = id;
+            this.configIndex = configIndex;
+            this.seedIndex = seedIndex;
+            this.config = config;
+            this.seed = seed;
+        }
+    }
+
+    /**
+     * Book keeping of one connected worker
+     */
+    private static class Worker {
+        final String name;
+        final long connected = System.nanoTime();
+        int completed;
+        long simulatedNanos;
+        boolean lost;
+
+        Worker(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = (System.nanoTime() - connected) / 1e9;
+            return String.format("%s: %d runs, %.2f runs/s%s", name, completed, completed / Math.max(seconds, 1e-9),
+                    lost ? " (lost)" : "");
+        }
+    }
+
+    private final ServerSocket server;
+    private final LinkedBlockingDeque<Job> pending = new LinkedBlockingDeque<Job>();
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private final List<Process> localWorkers = new ArrayList<Process>();
+    private long jobTimeoutMillis = 0;
+    /**
+     * Jobs out on a worker, by id, and when they were sent
+     */
+    private final HashMap<Integer, Job> dispatched = new HashMap<Integer, Job>();
+    private final HashMap<Integer, Long> dispatchTimes = new HashMap<Integer, Long>();
+
+    private List<TWConfig> configs;
+    private boolean[][] finished;
+    private double[][] rewards;
+    private TWRunListener listener;
+    private TWResultCache cache;
+    private CountDownLatch remaining;
+    private int redispatched;
+    private List<String> failures;
+
+    public TWSweepCoordinator(int port) throws IOException {
+        this.server = new ServerSocket(port);
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "sweep-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @param millis time after which a job which has not come back is also sent to another worker, 0 for no limit
+     */
+    public void setJobTimeout(long millis) {
+        this.jobTimeoutMillis = millis;
+    }
+
+    public void setCache(TWResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Starts worker JVMs on this machine, with the classpath of this one.
+     */
+    public void spawnLocalWorkers(int count, int threadsEach) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    TWSweepWorker.class.getName(), "localhost", String.valueOf(getPort()), String.valueOf(threadsEach),
+                    "local-" + (i + 1));
+            builder.inheritIO();
+            localWorkers.add(builder.start());
+        }
+    }
+
+    /**
+     * Runs configs x seeds on whichever workers are connected, or connect later, and waits for all of them.
+     *
+     * @return the rewards of every configuration, in seed order
+     */
+    public double[][] run(List<TWConfig> configs, long[] seeds, TWRunListener listener) throws InterruptedException {
+        synchronized (this) {
+            this.configs = configs;
+            this.listener = listener;
+            this.finished = new boolean[configs.size()][seeds.length];
+            this.rewards = new double[configs.size()][seeds.length];
+            this.remaining = new CountDownLatch(configs.size() * seeds.length);
+            this.failures = new ArrayList<String>();
+            int id = 0;
+            for (int c = 0; c < configs.size(); c++) {
+                String config = configs.get(c).toString();
+                for (int s = 0; s < seeds.length; s++) {
+                    TWRunResult cached = (cache == null) ? null : cache.get(configs.get(c), seeds[s]);
+                    if (cached != null) {
+                        record(new Job(id++, c, s, config, seeds[s]), cached);
+                    } else {
+                        pending.add(new Job(id++, c, s, config, seeds[s]));
+                    }
+                }
+            }
+        }
+        long tick = (jobTimeoutMillis > 0) ? Math.min(jobTimeoutMillis, 1000) : 5000;
+        long lastPrint = System.nanoTime();
+        while (!remaining.await(tick, TimeUnit.MILLISECONDS)) {
+            expireJobs();
+            if (System.nanoTime() - lastPrint >= 5e9) {
+                printThroughput();
+                lastPrint = System.nanoTime();
+            }
+        }
+        synchronized (this) {
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException(failures.size() + " runs failed, first: " + failures.get(0));
+            }
+        }
+        return rewards;
+    }
+
+    private synchronized void record(Job job, TWRunResult result) {
+        if (finished[job.configIndex][job.seedIndex]) {
+            // late result of a job which was re-dispatched
+            return;
+        }
+        finished[job.configIndex][job.seedIndex] = true;
+        rewards[job.configIndex][job.seedIndex] = result.getReward();
+        dispatched.remove(job.id);
+        dispatchTimes.remove(job.id);
+        if (cache != null) {
+            cache.put(configs.get(job.configIndex), job.seed, result);
+        }
+        if (listener != null) {
+            listener.runFinished(job.configIndex, configs.get(job.configIndex), result);
+        }
+        remaining.countDown();
+    }
+
+    /**
+     * A run which threw on the worker is not retried, it would fail the same way anywhere
+     */
+    private synchronized void recordFailure(Job job, String error) {
+        if (finished[job.configIndex][job.seedIndex]) {
+            return;
+        }
+        finished[job.configIndex][job.seedIndex] = true;
+        rewards[job.configIndex][job.seedIndex] = Double.NaN;
+        dispatched.remove(job.id);
+        dispatchTimes.remove(job.id);
+        failures.add("config " + job.configIndex + " seed " + job.seed + ": " + error);
+        remaining.countDown();
+    }
+
+    private synchronized boolean isFinished(Job job) {
+        return finished[job.configIndex][job.seedIndex];
+    }
+
+    /**
+     * Notes that job was sent to a worker, a job sent again starts its timeout over
+     */
+    private synchronized void dispatch(Job job) {
+        dispatched.put(job.id, job);
+        dispatchTimes.put(job.id, System.nanoTime());
+    }
+
+    /**
+     * Queues the jobs which are out for longer than the job timeout again, at the front
+     */
+    private synchronized void expireJobs() {
+        if (jobTimeoutMillis <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        List<Integer> expired = new ArrayList<Integer>();
+        for (Integer id : dispatchTimes.keySet()) {
+            if (now - dispatchTimes.get(id) >= jobTimeoutMillis * 1000000L) {
+                expired.add(id);
+            }
+        }
+        for (Integer id : expired) {
+            Job job = dispatched.remove(id);
+            dispatchTimes.remove(id);
+            System.out.println("Job timed out: config " + job.configIndex + " seed " + job.seed + ", re-dispatched");
+            pending.addFirst(job);
+            redispatched++;
+        }
+    }
+
+    private synchronized boolean isSweepOver() {
+        return remaining != null && remaining.getCount() == 0;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                Thread handler = new Thread(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "sweep-worker");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    /**
+     * Feeds one worker until the sweep is over or the worker is lost
+     */
+    private void serve(Socket socket) {
+        Worker worker = null;
+        boolean done = false;
+        HashMap<Integer, Job> outstanding = new HashMap<Integer, Job>();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readByte() != TWSweepWorker.HELLO) {
+                throw new IOException("not a sweep worker");
+            }
+            worker = new Worker(in.readUTF());
+            int capacity = Math.max(1, in.readInt());
+            synchronized (this) {
+                workers.add(worker);
+            }
+            System.out.println("Worker connected: " + worker.name + " (" + capacity + " threads)");
+
+            while (true) {
+                // Keep the worker full, with jobs it is not already running
+                List<Job> running = new ArrayList<Job>();
+                while (outstanding.size() < capacity) {
+                    Job job = pending.poll();
+                    if (job == null) {
+                        break;
+                    }
+                    if (isFinished(job)) {
+                        continue;
+                    }
+                    if (outstanding.containsKey(job.id)) {
+                        // Timed out here, it is for another worker
+                        running.add(job);
+                        continue;
+                    }
+                    out.writeByte(TWSweepWorker.JOB);
+                    out.writeInt(job.id);
+                    out.writeUTF(job.config);
+                    out.writeLong(job.seed);
+                    outstanding.put(job.id, job);
+                    dispatch(job);
+                }
+                for (int i = running.size() - 1; i >= 0; i--) {
+                    pending.addFirst(running.get(i));
+                }
+                out.flush();
+
+                if (outstanding.isEmpty()) {
+                    if (isSweepOver()) {
+                        out.writeByte(TWSweepWorker.DONE);
+                        out.flush();
+                        done = true;
+                        return;
+                    }
+                    Job job = pending.poll(200, TimeUnit.MILLISECONDS);
+                    if (job != null) {
+                        pending.addFirst(job);
+                    }
+                    continue;
+                }
+
+                Job job = outstanding.remove(in.readInt());
+                if (in.readByte() == TWSweepWorker.FAILED) {
+                    recordFailure(job, in.readUTF());
+                    continue;
+                }
+                TWRunResult result = new TWRunResult(job.seed, in.readInt(), in.readLong(), in.readLong());
+                synchronized (this) {
+                    worker.completed++;
+                    worker.simulatedNanos += result.getElapsedNanos();
+                }
+                record(job, result);
+            }
+        } catch (IOException e) {
+            System.out.println("Worker lost: " + (worker == null ? socket : worker.name));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Hand unfinished jobs to the other workers
+            synchronized (this) {
+                for (Job job : outstanding.values()) {
+                    // Not if it already timed out and went back to the queue
+                    if (!finished[job.configIndex][job.seedIndex] && dispatched.remove(job.id) != null) {
+                        dispatchTimes.remove(job.id);
+                        pending.addFirst(job);
+                        redispatched++;
+                    }
+                }
+                if (worker != null && !done) {
+                    worker.lost = true;
+                }
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+
+    public synchronized void printThroughput() {
+        System.out.println(String.format("%d runs left, %d re-dispatched", remaining.getCount(), redispatched));
+        for (Worker w : workers) {
+            System.out.println("  " + w);
+        }
+    }
+
+    public void close() throws IOException, InterruptedException {
+        server.close();
+        for (Process p : localWorkers) {
+            p.waitFor(10, TimeUnit.SECONDS);
+            p.destroy();
+        }
+    }
+
+    /**
+     * Runs the sweep described by a .properties file (see TWSweepRunner.main) on workers. Extra keys:
+     *
+     * <pre>
+     * port=7411              # port workers connect to
+     * localWorkers=2         # worker JVMs to start on this machine, default 0 (wait for remote ones)
+     * workerThreads=4        # runs at once in each local worker
+     * jobTimeout=600000      # ms after which an unfinished job is also sent to another worker, default no limit
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Properties properties = TWSweep.loadProperties(new File(args[0]));
+        TWSweep sweep = TWSweep.fromProperties(properties);
+        List<TWConfig> configs = sweep.design(properties);
+        int replications = Integer.parseInt(properties.getProperty("seeds", "10").trim());
+        long[] seeds = new long[replications];
+        for (int i = 0; i < replications; i++) {
+            seeds[i] = sweep.getBase().getSeed() + i;
+        }
+        File out = new File(properties.getProperty("out", "sweep.csv").trim());
+
+        TWSweepCoordinator coordinator = new TWSweepCoordinator(
+                Integer.parseInt(properties.getProperty("port", String.valueOf(DEFAULT_PORT)).trim()));
+        coordinator.setJobTimeout(Long.parseLong(properties.getProperty("jobTimeout", "0").trim()));
+        String cacheDir = properties.getProperty("cache");
+        TWResultCache cache = (cacheDir == null) ? null : new TWResultCache(new File(cacheDir.trim()));
+        coordinator.setCache(cache);
+        int localWorkers = Integer.parseInt(properties.getProperty("localWorkers", "0").trim());
+        if (localWorkers > 0) {
+            coordinator.spawnLocalWorkers(localWorkers, Integer.parseInt(properties.getProperty("workerThreads",
+                    String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / localWorkers))).trim()));
+        }
+        System.out.println("Coordinating " + configs.size() + " configurations x " + replications + " seeds on port "
+                + coordinator.getPort() + ", results in " + out);
+
+        long start = System.nanoTime();
+        TWCsvResultWriter writer = new TWCsvResultWriter(new BufferedWriter(new FileWriter(out)), sweep.getParameters());
+        double[][] rewards;
+        try {
+            rewards = coordinator.run(configs, seeds, writer);
+        } finally {
+            writer.close();
+            if (cache != null) {
+                cache.close();
+            }
+        }
+        System.out.println(String.format("Done in %.1f s", (System.nanoTime() - start) / 1e9));
+        coordinator.printThroughput();
+        coordinator.close();
+
+        TWRunStatistics[] stats = new TWRunStatistics[configs.size()];
+        String[] notes = new String[configs.size()];
+        for (int c = 0; c < configs.size(); c++) {
+            stats[c] = new TWRunStatistics(rewards[c]);
+            notes[c] = "";
+        }
+        TWSweepRunner.printBest(sweep, configs, stats, notes);
+        System.exit(0);
+    }
+}
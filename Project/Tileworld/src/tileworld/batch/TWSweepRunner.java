@@ -0,0 +1,214 @@
+package tileworld.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+import tileworld.TWConfig;
+
+/**
+ * TWSweepRunner
+ *
+ * Description:
+ *
+ * Runs every (configuration, seed) pair of a sweep as an independent quiet
+ * replication on a work-stealing pool and hands each result to a listener as
+ * soon as it finishes. All runs share one JVM, so after the first few runs
+ * they all execute JIT compiled code.
+ */
+public class TWSweepRunner {
+
+    private final ForkJoinPool pool;
+    private TWResultCache cache;
+
+    public TWSweepRunner(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public TWSweepRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Runs configs x seeds and waits for all of them.
+     *
+     * @return the rewards of every configuration, in seed order
+     */
+    public double[][] run(final List<TWConfig> configs, final long[] seeds, TWRunListener listener) {
+        ExecutorCompletionService<Object[]> completion = new ExecutorCompletionService<Object[]>(pool);
+        for (int c = 0; c < configs.size(); c++) {
+            for (int s = 0; s < seeds.length; s++) {
+                final int configIndex = c;
+                final int seedIndex = s;
+                completion.submit(new Callable<Object[]>() {
+                    public Object[] call() {
+                        TWConfig config = configs.get(configIndex);
+                        TWRunResult result = (cache == null) ? TWBatchRunner.runOne(config, seeds[seedIndex])
+                                : cache.run(config, seeds[seedIndex]);
+                        return new Object[] {configIndex, seedIndex, result};
+                    }
+                });
+            }
+        }
+
+        double[][] rewards = new double[configs.size()][seeds.length];
+        for (int n = configs.size() * seeds.length; n > 0; n--) {
+            Object[] done;
+            try {
+                done = completion.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Sweep interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Replication failed", e.getCause());
+            }
+            int configIndex = (Integer) done[0];
+            TWRunResult result = (TWRunResult) done[2];
+            rewards[configIndex][(Integer) done[1]] = result.getReward();
+            if (listener != null) {
+                listener.runFinished(configIndex, configs.get(configIndex), result);
+            }
+        }
+        return rewards;
+    }
+
+    /**
+     * Looks runs up in cache before simulating them and stores new results
+     * there, so a repeated or interrupted sweep only simulates what is
+     * missing.
+     */
+    public void setCache(TWResultCache cache) {
+        this.cache = cache;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Runs the sweep described by a .properties file (see TWSweep), plus:
+     *
+     * <pre>
+     * seeds=10              # replications per configuration, seeded base seed + 0, 1, ...
+     * out=sweep.csv         # result file
+     * threads=8             # default: number of cores
+     * cache=sweep-cache     # result cache directory, default: none
+     * adaptive=true         # seeds per configuration chosen by TWAdaptiveRunner instead of a fixed count
+     * halfWidth=2.0         # adaptive: target half width of the 95% confidence interval of the reward
+     * minSeeds=4            # adaptive: seeds before a configuration can stop
+     * maxSeeds=50           # adaptive: seeds after which it stops anyway
+     * </pre>
+     *
+     * Without a file, sweeps the agent tunables of scenario 1 over a small grid.
+     */
+    public static void main(String[] args) throws IOException {
+        Properties properties;
+        if (args.length > 0) {
+            properties = TWSweep.loadProperties(new File(args[0]));
+        } else {
+            properties = new Properties();
+            properties.setProperty("sweep.fuelTolerance", "0.85,0.95");
+            properties.setProperty("sweep.hardFuelLimit", "50,100");
+            properties.setProperty("sweep.TSPHeuristic", "false,true");
+            properties.setProperty("sweep.goalAnnounceCount", "0,1,2");
+            properties.setProperty("sweep.allowAssistance", "false,true");
+        }
+        TWSweep sweep = TWSweep.fromProperties(properties);
+        List<TWConfig> configs = sweep.design(properties);
+        boolean adaptive = Boolean.parseBoolean(properties.getProperty("adaptive", "false").trim());
+        int replications = Integer.parseInt(properties.getProperty("seeds", "10").trim());
+        long[] seeds = new long[replications];
+        for (int i = 0; i < replications; i++) {
+            seeds[i] = sweep.getBase().getSeed() + i;
+        }
+        int threads = Integer.parseInt(properties.getProperty("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+        File out = new File(properties.getProperty("out", "sweep.csv").trim());
+
+        System.out.println("Running " + configs.size() + " configurations x "
+                + (adaptive ? "adaptive" : String.valueOf(replications)) + " seeds on " + threads
+                + " threads, results in " + out);
+        long start = System.nanoTime();
+        String cacheDir = properties.getProperty("cache");
+        TWResultCache cache = (cacheDir == null) ? null : new TWResultCache(new File(cacheDir.trim()));
+        TWCsvResultWriter writer = new TWCsvResultWriter(new BufferedWriter(new FileWriter(out)), sweep.getParameters());
+        final TWRunStatistics[] stats = new TWRunStatistics[configs.size()];
+        String[] notes = new String[configs.size()];
+        try {
+            if (adaptive) {
+                TWAdaptiveRunner runner = new TWAdaptiveRunner(threads);
+                runner.setTargetHalfWidth(Double.parseDouble(properties.getProperty("halfWidth", "2.0").trim()));
+                runner.setSeedLimits(Integer.parseInt(properties.getProperty("minSeeds", "4").trim()),
+                        Integer.parseInt(properties.getProperty("maxSeeds", "50").trim()));
+                runner.setCache(cache);
+                runner.setListener(writer);
+                try {
+                    List<TWAdaptiveRunner.Outcome> outcomes = runner.run(configs);
+                    for (int c = 0; c < configs.size(); c++) {
+                        stats[c] = outcomes.get(c).getStatistics();
+                        notes[c] = "  " + outcomes.get(c).getStatus();
+                    }
+                } finally {
+                    runner.shutdown();
+                }
+            } else {
+                TWSweepRunner runner = new TWSweepRunner(threads);
+                runner.setCache(cache);
+                try {
+                    double[][] rewards = runner.run(configs, seeds, writer);
+                    for (int c = 0; c < configs.size(); c++) {
+                        stats[c] = new TWRunStatistics(rewards[c]);
+                        notes[c] = "";
+                    }
+                } finally {
+                    runner.shutdown();
+                }
+            }
+        } finally {
+            writer.close();
+            if (cache != null) {
+                cache.close();
+            }
+        }
+        System.out.println(String.format("Done in %.1f s", (System.nanoTime() - start) / 1e9));
+        if (cache != null) {
+            System.out.println("Cache: " + cache.getHits() + " runs reused, " + cache.getMisses() + " simulated");
+        }
+
+        printBest(sweep, configs, stats, notes);
+    }
+
+    /**
+     * Prints the ten configurations with the highest mean reward, with the swept parameter values
+     */
+    static void printBest(TWSweep sweep, List<TWConfig> configs, final TWRunStatistics[] stats, String[] notes) {
+        // Best configurations first
+        List<Integer> order = new ArrayList<Integer>();
+        for (int c = 0; c < configs.size(); c++) {
+            order.add(c);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(stats[b].getMean(), stats[a].getMean());
+            }
+        });
+        for (int c : order.subList(0, Math.min(10, order.size()))) {
+            Properties values = configs.get(c).toProperties();
+            StringBuilder line = new StringBuilder("config " + c + ":");
+            for (String p : sweep.getParameters()) {
+                line.append(' ').append(p).append('=').append(values.getProperty(p));
+            }
+            System.out.println(line + "  " + stats[c] + notes[c]);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package tileworld.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tileworld.TWConfig;
+
+/**
+ * TWSweepWorker
+ *
+ * Description:
+ *
+ * Worker side of a distributed sweep. Connects to a TWSweepCoordinator,
+ * announces how many runs it does at once, then simulates the (config, seed)
+ * jobs it is sent with the same quiet headless loop as TWBatchRunner and
+ * sends back each result as soon as it is done. Exits when the coordinator
+ * says the sweep is over or goes away.
+ *
+ * Wire format (DataOutputStream):
+ * <pre>
+ * worker:      HELLO=0x57 name:UTF threads:int
+ * coordinator: JOB=1 id:int config:UTF seed:long  |  DONE=0
+ * worker:      id:int OK=0 reward:int steps:long elapsedNanos:long  |  id:int FAILED=1 error:UTF
+ * </pre>
+ */
+public class TWSweepWorker {
+
+    static final byte HELLO = 0x57;
+    static final byte DONE = 0;
+    static final byte JOB = 1;
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private final String host;
+    private final int port;
+    private final int threads;
+
+    public TWSweepWorker(String host, int port, int threads) {
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+    }
+
+    /**
+     * Serves jobs until the coordinator is done.
+     */
+    public void run(String name) throws IOException, InterruptedException {
+        Socket socket = connect();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(HELLO);
+            out.writeUTF(name);
+            out.writeInt(threads);
+            out.flush();
+
+            while (true) {
+                byte command;
+                try {
+                    command = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (command == DONE) {
+                    return;
+                }
+                final int id = in.readInt();
+                final TWConfig config = parseConfig(in.readUTF());
+                final long seed = in.readLong();
+                pool.execute(new Runnable() {
+                    public void run() {
+                        TWRunResult result = null;
+                        String error = null;
+                        try {
+                            result = TWBatchRunner.runOne(config, seed);
+                        } catch (RuntimeException e) {
+                            error = e.toString();
+                        }
+                        try {
+                            synchronized (out) {
+                                out.writeInt(id);
+                                if (result != null) {
+                                    out.writeByte(OK);
+                                    out.writeInt(result.getReward());
+                                    out.writeLong(result.getSteps());
+                                    out.writeLong(result.getElapsedNanos());
+                                } else {
+                                    out.writeByte(FAILED);
+                                    out.writeUTF(error);
+                                }
+                                out.flush();
+                            }
+                        } catch (IOException e) {
+                            // coordinator gone, the job will be run elsewhere
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdownNow();
+            socket.close();
+        }
+    }
+
+    /**
+     * Connects to the coordinator, waiting for it for up to 10 seconds
+     */
+    private Socket connect() throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (attempt >= 100) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    static TWConfig parseConfig(String text) {
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(text));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return TWConfig.fromProperties(properties);
+    }
+
+    /**
+     * Usage: TWSweepWorker host port [threads] [name]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : TWSweepCoordinator.DEFAULT_PORT;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String name = args.length > 3 ? args[3] : ManagementFactory.getRuntimeMXBean().getName();
+        new TWSweepWorker(host, port, threads).run(name);
+        System.exit(0);
+    }
+}
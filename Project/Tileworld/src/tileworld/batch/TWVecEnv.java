@@ -0,0 +1,351 @@
+package tileworld.batch;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ec.util.MersenneTwisterFast;
+import sim.field.grid.ObjectGrid2D;
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWPolicyAgent;
+import tileworld.environment.TWAgentExecutor;
+import tileworld.environment.TWEnvironment;
+import tileworld.environment.TWForkJoinExecutor;
+import tileworld.environment.TWFuelStation;
+import tileworld.environment.TWHole;
+import tileworld.environment.TWObstacle;
+import tileworld.environment.TWSerialExecutor;
+import tileworld.environment.TWTile;
+
+/**
+ * TWVecEnv
+ *
+ * Description:
+ *
+ * M independent environments stepped together, for training policies:
+ * every agent is a TWPolicyAgent, one action per agent comes in as an int,
+ * and observations, rewards and episode ends come back in flat buffers which
+ * are allocated once and overwritten by every step. The environments are
+ * stepped in parallel, each on one thread at a time, so they need not be
+ * thread safe themselves.
+ *
+ * Agent a of environment e is at index e * getAgentCount() + a in the
+ * action and reward buffers. Its observation starts at that index times
+ * getObservationSize() and holds CHANNELS planes of the window of cells
+ * around the agent, row by row, followed by its fuel and carried tiles
+ * scaled to [0, 1].
+ *
+ * An episode ends after getEpisodeLength() steps or once every agent has
+ * run out of fuel. The environment is then started again, with a new seed,
+ * straight away, as in gym's auto-reset: the observation returned for the
+ * step is the first one of the new episode.
+ */
+public class TWVecEnv {
+
+    /**
+     * Observation planes: tiles, holes, obstacles (and cells off the map),
+     * the fuel station, other agents
+     */
+    public static final int TILE_CHANNEL = 0;
+    public static final int HOLE_CHANNEL = 1;
+    public static final int OBSTACLE_CHANNEL = 2;
+    public static final int FUEL_STATION_CHANNEL = 3;
+    public static final int AGENT_CHANNEL = 4;
+    public static final int CHANNELS = 5;
+
+    private final TWConfig config;
+    private final TWEnvironment[] envs;
+    private final int agentCount;
+    private final int radius;
+    private final int width;
+    private final int observationSize;
+    private final long episodeLength;
+    private final TWAgentExecutor executor;
+    private final long[] episodes;
+
+    private final float[] observations;
+    private final float[] rewards;
+    private final int[] dones;
+    private final int[] scores;
+    private int[] actions;
+
+    /**
+     * Steps the environments of the actions of the last step()
+     */
+    private final TWAgentExecutor.Task stepTask = new TWAgentExecutor.Task() {
+        public void run(int env) {
+            stepOne(env);
+        }
+    };
+
+    /**
+     * @param config configuration of every environment, episodes last config.getEndTime() steps
+     * @param count number of environments
+     * @param threads number of environments stepped at once
+     * @param radius the window observed is the cells at most radius away from the agent in x and y
+     */
+    public TWVecEnv(TWConfig config, int count, int threads, int radius) {
+        if (count < 1 || threads < 1 || radius < 0) {
+            throw new IllegalArgumentException("Need at least one environment and one thread, and a radius of 0 or more");
+        }
+        this.config = config;
+        this.envs = new TWEnvironment[count];
+        this.agentCount = config.getAgentCount();
+        this.radius = radius;
+        this.width = 2 * radius + 1;
+        this.observationSize = CHANNELS * width * width + 2;
+        this.episodeLength = config.getEndTime();
+        this.executor = (threads > 1) ? new TWForkJoinExecutor(threads) : new TWSerialExecutor();
+        this.observations = new float[count * agentCount * observationSize];
+        this.rewards = new float[count * agentCount];
+        this.dones = new int[count];
+        this.scores = new int[count * agentCount];
+        this.episodes = new long[count];
+    }
+
+    /**
+     * Observes the sensor range of the agents
+     */
+    public TWVecEnv(TWConfig config, int count, int threads) {
+        this(config, count, threads, config.getDefaultSensorRange());
+    }
+
+    /**
+     * Starts a new episode in every environment
+     *
+     * @return the observations of the first step, see getObservations
+     */
+    public float[] reset() {
+        executor.invokeAll(envs.length, new TWAgentExecutor.Task() {
+            public void run(int env) {
+                restart(env);
+                dones[env] = 0;
+            }
+        });
+        Arrays.fill(rewards, 0);
+        return observations;
+    }
+
+    /**
+     * Performs one action per agent in every environment. Environments whose
+     * episode ended are restarted, see the class description.
+     *
+     * @param actions getActionCount() action codes of TWPolicyAgent
+     * @return the observations after the step, see getObservations
+     * @throws IllegalArgumentException if there are too few or too many actions
+     *         or one of them is not an action code
+     */
+    public float[] step(int[] actions) {
+        if (actions.length != rewards.length) {
+            throw new IllegalArgumentException("Expected " + rewards.length + " actions, got " + actions.length);
+        }
+        for (int action : actions) {
+            if (action < 0 || action >= TWPolicyAgent.ACTIONS) {
+                throw new IllegalArgumentException("No action " + action + ", actions are 0 to " + (TWPolicyAgent.ACTIONS - 1));
+            }
+        }
+        if (envs[0] == null) {
+            reset();
+        }
+        this.actions = actions;
+        executor.invokeAll(envs.length, stepTask);
+        return observations;
+    }
+
+    private void stepOne(int e) {
+        TWEnvironment env = envs[e];
+        int first = e * agentCount;
+        for (int a = 0; a < agentCount; a++) {
+            ((TWPolicyAgent) env.getAgents().get(a)).setAction(actions[first + a]);
+        }
+        env.schedule.step(env);
+        boolean fuelLeft = false;
+        for (int a = 0; a < agentCount; a++) {
+            TWAgent agent = env.getAgents().get(a);
+            rewards[first + a] = agent.getScore() - scores[first + a];
+            scores[first + a] = agent.getScore();
+            fuelLeft |= agent.getFuelLevel() > 0;
+        }
+        if (env.schedule.getSteps() >= episodeLength || !fuelLeft) {
+            env.finish();
+            restart(e);
+            dones[e] = 1;
+        } else {
+            dones[e] = 0;
+            observe(e);
+        }
+    }
+
+    /**
+     * Starts a new episode in environment e, in place once it exists. Every
+     * environment and episode gets a seed of its own, so that no two episodes
+     * are the same, which does not depend on the order the environments are
+     * restarted in.
+     */
+    private void restart(int e) {
+        long seed = config.getSeed() + episodes[e]++ * envs.length + e;
+        TWEnvironment env = envs[e];
+        if (env == null) {
+            env = new TWEnvironment(config, seed);
+            env.setVerbose(false);
+            env.setAgentFactory(TWPolicyAgent.FACTORY);
+            envs[e] = env;
+        } else {
+            env.setSeed(seed);
+        }
+        env.start();
+        for (int a = 0; a < agentCount; a++) {
+            scores[e * agentCount + a] = 0;
+        }
+        observe(e);
+    }
+
+    /**
+     * Writes the observations of the agents of environment e
+     */
+    private void observe(int e) {
+        TWEnvironment env = envs[e];
+        ObjectGrid2D objects = env.getObjectGrid();
+        ObjectGrid2D agents = env.getAgentGrid();
+        int plane = width * width;
+        for (int a = 0; a < agentCount; a++) {
+            TWAgent agent = env.getAgents().get(a);
+            int base = (e * agentCount + a) * observationSize;
+            Arrays.fill(observations, base, base + CHANNELS * plane, 0f);
+            for (int dy = -radius; dy <= radius; dy++) {
+                int y = agent.getY() + dy;
+                for (int dx = -radius; dx <= radius; dx++) {
+                    int x = agent.getX() + dx;
+                    int cell = base + (dy + radius) * width + (dx + radius);
+                    if (!env.isInBounds(x, y)) {
+                        observations[cell + OBSTACLE_CHANNEL * plane] = 1f;
+                        continue;
+                    }
+                    Object o = objects.get(x, y);
+                    if (o instanceof TWTile) {
+                        observations[cell + TILE_CHANNEL * plane] = 1f;
+                    } else if (o instanceof TWHole) {
+                        observations[cell + HOLE_CHANNEL * plane] = 1f;
+                    } else if (o instanceof TWObstacle) {
+                        observations[cell + OBSTACLE_CHANNEL * plane] = 1f;
+                    } else if (o instanceof TWFuelStation) {
+                        observations[cell + FUEL_STATION_CHANNEL * plane] = 1f;
+                    }
+                    Object other = agents.get(x, y);
+                    if (other != null && other != agent) {
+                        observations[cell + AGENT_CHANNEL * plane] = 1f;
+                    }
+                }
+            }
+            observations[base + CHANNELS * plane] = (float) (agent.getFuelLevel() / config.getDefaultFuelLevel());
+            observations[base + CHANNELS * plane + 1] = agent.getCarriedTileCount() / 3f;
+        }
+    }
+
+    /**
+     * @return the observations of every agent after the last step, see the class description
+     */
+    public float[] getObservations() {
+        return observations;
+    }
+
+    /**
+     * @return the tiles every agent put into holes in the last step
+     */
+    public float[] getRewards() {
+        return rewards;
+    }
+
+    /**
+     * @return 1 for the environments whose episode ended in the last step, 0 for the others
+     */
+    public int[] getDones() {
+        return dones;
+    }
+
+    /**
+     * @return the environment with index e. It is reseeded and restarted in
+     *         place when its episode ends, so the reference stays valid.
+     */
+    public TWEnvironment getEnvironment(int e) {
+        return envs[e];
+    }
+
+    public int getEnvironmentCount() {
+        return envs.length;
+    }
+
+    public int getAgentCount() {
+        return agentCount;
+    }
+
+    /**
+     * @return the number of actions step takes, one per agent of every environment
+     */
+    public int getActionCount() {
+        return rewards.length;
+    }
+
+    /**
+     * @return the number of values observed by one agent
+     */
+    public int getObservationSize() {
+        return observationSize;
+    }
+
+    public long getEpisodeLength() {
+        return episodeLength;
+    }
+
+    /**
+     * Finishes the environments and releases the threads
+     */
+    public void close() {
+        for (TWEnvironment env : envs) {
+            if (env != null) {
+                env.finish();
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Steps environments taking random actions and prints the agent steps
+     * per second. Arguments: scenario number or .properties file (default
+     * 1), number of environments (default 16), threads (default: available
+     * processors) and steps (default 2000).
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = TWPresets.resolve((args.length > 0) ? args[0] : "1");
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int steps = (args.length > 3) ? Integer.parseInt(args[3]) : 2000;
+
+        TWVecEnv vec = new TWVecEnv(config, count, threads);
+        MersenneTwisterFast random = new MersenneTwisterFast(config.getSeed());
+        int[] actions = new int[vec.getActionCount()];
+        vec.reset();
+        double reward = 0;
+        int episodes = 0;
+        long start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            for (int i = 0; i < actions.length; i++) {
+                actions[i] = random.nextInt(TWPolicyAgent.ACTIONS);
+            }
+            vec.step(actions);
+            for (float r : vec.getRewards()) {
+                reward += r;
+            }
+            for (int done : vec.getDones()) {
+                episodes += done;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        vec.close();
+        System.out.printf("%d environments x %d agents, %d threads: %d steps in %.2f s, %.0f agent steps/s%n",
+                count, vec.getAgentCount(), threads, steps, seconds, (double) steps * actions.length / seconds);
+        System.out.printf("observation size %d, reward %.0f, %d episodes ended%n", vec.getObservationSize(), reward,
+                episodes);
+    }
+}
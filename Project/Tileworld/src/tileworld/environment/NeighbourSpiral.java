@@ -6,7 +6,9 @@
 package tileworld.environment;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import sim.util.Int2D;
 
 /**
@@ -25,6 +27,27 @@ import sim.util.Int2D;
  */
 
 public class NeighbourSpiral {
+	/**
+	 * Spirals already built, by radius. They are read-only so memories of all
+	 * simulations in the JVM can share them.
+	 */
+	private static final ConcurrentHashMap<Integer, List<Int2D>> cache = new ConcurrentHashMap<Integer, List<Int2D>>();
+
+	/**
+	 * @return the (unmodifiable) spiral of the given radius, as returned by spiral()
+	 */
+	public static List<Int2D> of(int maxRadius) {
+		List<Int2D> spiral = cache.get(maxRadius);
+		if (spiral == null) {
+			spiral = Collections.unmodifiableList(new NeighbourSpiral(maxRadius).spiral());
+			List<Int2D> raced = cache.putIfAbsent(maxRadius, spiral);
+			if (raced != null) {
+				spiral = raced;
+			}
+		}
+		return spiral;
+	}
+
 	Int2D point;
 	TWDirection direction = TWDirection.E;
 	private List<Int2D> list = new ArrayList<Int2D>();
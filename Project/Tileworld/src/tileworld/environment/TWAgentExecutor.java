@@ -0,0 +1,32 @@
+package tileworld.environment;
+
+/**
+ * TWAgentExecutor
+ *
+ * Description:
+ *
+ * Runs one phase of a TWStepPipeline, i.e. the same task for every agent,
+ * and returns once all of them are done. Implementations decide whether the
+ * agents run one after the other or concurrently; the pipeline only hands
+ * them phases in which agents do not touch each other's state.
+ */
+public interface TWAgentExecutor {
+
+    /**
+     * The work of one agent in a phase
+     */
+    interface Task {
+        void run(int agent);
+    }
+
+    /**
+     * Runs task for agents 0 to count - 1, if count is above 0, and waits for
+     * all of them. An exception thrown by a task is rethrown here.
+     */
+    void invokeAll(int count, Task task);
+
+    /**
+     * Releases the threads of the executor, if it has any
+     */
+    void shutdown();
+}
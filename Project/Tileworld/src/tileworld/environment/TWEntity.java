@@ -50,12 +50,20 @@ public abstract class TWEntity{
         this(pos.x, pos.y, env);
      }
 
+    /**
+     * An entity of env which is not on the grid yet, for subclasses which
+     * have to be complete before they are placed with setLocation
+     */
+    protected TWEntity(TWEnvironment env){
+        environment = env;
+    }
+
     protected abstract void move(TWDirection d) throws InsufficientFuelException, CellBlockedException;
 
     protected void setLocation(int xpos, int ypos){
         x=xpos;y=ypos;
         //Set location of entity when it's created
-        environment.getObjectGrid().set(x, y, this);
+        environment.setObjectAt(x, y, this);
     }
 
     public void setLocation(Int2D pos){
@@ -3,21 +3,28 @@
  */
 package tileworld.environment;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ThreadLocalRandom;
 
+import ec.util.MersenneTwisterFast;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.field.grid.ObjectGrid2D;
 import sim.util.Bag;
 import sim.util.Int2D;
 import sun.font.TrueTypeFont;
-import tileworld.Parameters;
+import tileworld.TWConfig;
 import tileworld.TWGUI;
 import tileworld.agent.Message;
 import tileworld.agent.HybridPRSTWAgent;
 import tileworld.agent.SimpleTWAgent;
 import tileworld.agent.TWAgent;
+import tileworld.agent.TWAgentFactory;
+import tileworld.agent.TWAgentDecayMemory;
+import tileworld.agent.TWBlackboard;
+import tileworld.agent.TWBlackboardMemory;
 
 /**
  * TWEnvironment
@@ -35,9 +42,14 @@ import tileworld.agent.TWAgent;
 public class TWEnvironment extends SimState implements Steppable {
 
 
-    //Parameters to configure the environment - read from main parameter file
-    private final int xDimension = Parameters.xDimension; //size in cells
-    private final int yDimension = Parameters.yDimension;
+    /**
+     * Parameters of this simulation
+     */
+    private final TWConfig config;
+
+    //Parameters to configure the environment - read from the configuration
+    private final int xDimension; //size in cells
+    private final int yDimension;
     
     /**
      * grid environment which stores all TWEntities, ObjectGrd is preferred over
@@ -47,6 +59,22 @@ public class TWEnvironment extends SimState implements Steppable {
     private ObjectGrid2D objectGrid;
     private ObjectGrid2D agentGrid;
    
+    /**
+     * Numbers of the random streams derived from the seed when randomStreams
+     * is set, agent i draws from stream AGENT_STREAMS + i (also with
+     * phasedStep or partitions)
+     */
+    public static final int TILE_STREAM = 1;
+    public static final int HOLE_STREAM = 2;
+    public static final int OBSTACLE_STREAM = 3;
+    public static final int LOCATION_STREAM = 4;
+    public static final int AGENT_STREAMS = 16;
+
+    /**
+     * Random numbers for placing objects, agents and the fuel station
+     */
+    private MersenneTwisterFast locationRandom;
+
     private TWObjectCreator<TWTile> tileCreator;
     private TWObjectCreator<TWHole> holeCreator;
     private TWObjectCreator<TWObstacle> obstacleCreator;
@@ -60,9 +88,80 @@ public class TWEnvironment extends SimState implements Steppable {
     private TWFuelStation fuelingStation;
     
     private ArrayList<Message> messages; // the communication channel
+
+    /**
+     * Range limited communication. When communicationRange is 0 every agent
+     * reads the whole channel, otherwise each agent only gets the messages
+     * delivered to its own inbox. Recipients are looked up through a spatial
+     * hash of agent positions which is kept up to date as agents move.
+     */
+    private final int communicationRange;
+    private final boolean neighbourhoodDelivery;
+    private TWSpatialHash agentHash;
+    private ArrayList<TWAgent> agents;
+    private HashMap<String, TWAgent> agentsByName;
+    private HashMap<TWAgent, ArrayList<Message>> inboxes;
+    private ArrayList<TWAgent> recipients;
+
+    /**
+     * Shared world model for the agents, only created when
+     * sharedBlackboard is set in the configuration.
+     */
+    private TWBlackboard blackboard;
+
+    /**
+     * Claims agents hold on the tiles and holes they are going for
+     */
+    private TWGoalReservations reservations;
+
+    /**
+     * Assigns targets to agents when centralAllocation is on, null otherwise
+     */
+    private TWTaskAllocator allocator;
+
+    /**
+     * Moves the agents' zone boundaries when zoneRebalancePeriod is set, null otherwise
+     */
+    private TWZoneManager zoneManager;
     
     private int reward;
 
+    /**
+     * Event log the world timeline is written to, and the one it is replayed
+     * from instead of being generated, both optional
+     */
+    private TWEventRecorder recorder;
+    private TWEventReplay replay;
+
+    /**
+     * Runs the sense and think phases when agents are stepped phase by phase
+     */
+    private TWAgentExecutor agentExecutor;
+
+    /**
+     * Creates the agents in start(), null for HybridPRSTWAgents
+     */
+    private TWAgentFactory agentFactory;
+
+    /**
+     * Strips the world is split into, null unless partitions is set in the
+     * configuration. The strips then hold the objects instead of the bags.
+     */
+    private TWStripPartition partition;
+
+    private final ArrayList<TWWorldListener> worldListeners = new ArrayList<TWWorldListener>();
+
+    /**
+     * Order the agents are stepped in this phase, see scheduleAgents
+     */
+    private int[] agentOrder = new int[0];
+
+    /**
+     * Whether agents print their progress. Batch runs switch this off as
+     * printing from many concurrent runs serialises them on System.out.
+     */
+    private boolean verbose = true;
+
 //    private TWFuelStation getFuelingStation() {
 //        return fuelingStation;
 //    }
@@ -76,22 +175,45 @@ public class TWEnvironment extends SimState implements Steppable {
     }
 
     public TWEnvironment(long seed) {
+        this(TWConfig.DEFAULT, seed);
+    }
+
+    /**
+     * Creates an environment running config, seeded with the configuration's seed
+     */
+    public TWEnvironment(TWConfig config) {
+        this(config, config.getSeed());
+    }
+
+    public TWEnvironment(TWConfig config, long seed) {
         super(seed);
+        this.schedule = new TWSchedule();
+        this.config = config;
+        this.xDimension = config.getxDimension();
+        this.yDimension = config.getyDimension();
+        this.communicationRange = config.getCommunicationRange();
+        this.neighbourhoodDelivery = config.isNeighbourhoodDelivery();
 
         // create object creation distributions (assumed normal for now)
 
-        this.tileCreator = new TWObjectCreator<TWTile>(Parameters.tileMean, Parameters.tileDev,
-                tiles, this.random, new TWTile(), this);
-        this.holeCreator = new TWObjectCreator<TWHole>(Parameters.holeMean, Parameters.holeDev,
-                holes, this.random, new TWHole(), this);
-        this.obstacleCreator = new TWObjectCreator<TWObstacle>(Parameters.obstacleMean,
-                Parameters.obstacleDev, obstacles, this.random, new TWObstacle(), this);
+        // Everything draws from this.random, unless every component gets its own stream
+        this.locationRandom = stream(LOCATION_STREAM);
+        this.tileCreator = new TWObjectCreator<TWTile>(config.getTileMean(), config.getTileDev(),
+                tiles, stream(TILE_STREAM), new TWTile(), this, config.getLifeTime());
+        this.holeCreator = new TWObjectCreator<TWHole>(config.getHoleMean(), config.getHoleDev(),
+                holes, stream(HOLE_STREAM), new TWHole(), this, config.getLifeTime());
+        this.obstacleCreator = new TWObjectCreator<TWObstacle>(config.getObstacleMean(),
+                config.getObstacleDev(), obstacles, stream(OBSTACLE_STREAM), new TWObstacle(), this, config.getLifeTime());
 
         tiles = new Bag();
         holes = new Bag();
         obstacles = new Bag();
         reward = 0;
         messages = new ArrayList<Message>();
+        agents = new ArrayList<TWAgent>();
+        agentsByName = new HashMap<String, TWAgent>();
+        inboxes = new HashMap<TWAgent, ArrayList<Message>>();
+        recipients = new ArrayList<TWAgent>();
     }
     
     @Override
@@ -100,36 +222,82 @@ public class TWEnvironment extends SimState implements Steppable {
         //create my grid
         this.objectGrid = new ObjectGrid2D(getxDimension(), getyDimension());
         this.agentGrid = new ObjectGrid2D(getxDimension(), getyDimension());
-        if(TWGUI.instance!=null){
+        this.agentHash = new TWSpatialHash(getxDimension(), getyDimension(), Math.max(communicationRange, 1));
+        this.reservations = new TWGoalReservations(getxDimension(), getyDimension());
+        if (zoneManager != null) {
+            removeWorldListener(zoneManager);
+        }
+        this.zoneManager = (config.getZoneRebalancePeriod() > 0) ? new TWZoneManager(this) : null;
+        if (zoneManager != null) {
+            addWorldListener(zoneManager);
+        }
+        this.allocator = config.isCentralAllocation() ? new TWTaskAllocator(config, zoneManager) : null;
+        this.blackboard = config.isSharedBlackboard() ? new TWBlackboard(getxDimension(), getyDimension()) : null;
+        this.partition = (config.getPartitions() > 0) ? new TWStripPartition(this, config.getPartitions()) : null;
+        // Whatever is left from an earlier run, so that an environment can be started again
+        tiles.clear();
+        holes.clear();
+        obstacles.clear();
+        reward = 0;
+        messages.clear();
+        agents.clear();
+        agentsByName.clear();
+        inboxes.clear();
+        if(isDisplayed()){
             TWGUI.instance.resetDisplay();
         }
 
         //The environment is also stepped each step
 
         schedule.scheduleRepeating(this, 1, 1.0);
-        
+
+        if (recorder != null) {
+            recorder.beginStep(schedule.getTime());
+        }
         //Now we create some agents
-        Int2D pos = this.generateRandomLocation();
-        createAgent(new HybridPRSTWAgent("Agent 1", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        pos = this.generateRandomLocation();
-        createAgent(new HybridPRSTWAgent("Agent 2", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
-        pos = this.generateRandomLocation();
-        createAgent(new HybridPRSTWAgent("Agent 3", pos.getX(), pos.getY(), this, Parameters.defaultFuelLevel));
+        Int2D pos;
+        for (int i = 1; i <= config.getAgentCount(); i++) {
+            pos = this.placeEntity(TWEventRecorder.PLACE_AGENT);
+            if (agentFactory != null) {
+                createAgent(agentFactory.create("Agent " + i, pos.getX(), pos.getY(), this, config.getDefaultFuelLevel()));
+            } else {
+                createAgent(new HybridPRSTWAgent("Agent " + i, pos.getX(), pos.getY(), this, config.getDefaultFuelLevel()));
+            }
+        }
+        scheduleAgents();
         
 //        
         //create the fueling station
-        pos = this.generateRandomLocation();
+        pos = this.placeEntity(TWEventRecorder.PLACE_FUEL_STATION);
         fuelingStation = new TWFuelStation(pos.getX(), pos.getY(),this);
+        if (recorder != null) {
+            recorder.endStep();
+        }
 
 
 
     }
 
+    /**
+     * Location of an agent or the fuel station in start(), taken from the
+     * replayed event log if there is one and it has a placement left
+     */
+    private Int2D placeEntity(byte kind) {
+        Int2D pos = (replay == null) ? null : replay.nextPlacement(schedule.getTime(), kind);
+        if (pos == null) {
+            pos = this.generateRandomLocation();
+        }
+        if (recorder != null) {
+            recorder.placed(kind, pos.x, pos.y);
+        }
+        return pos;
+    }
+
     private void createTWObjects(double time) {
         try {
-            tiles.addAll(tileCreator.createTWObjects(time));
-            holes.addAll(holeCreator.createTWObjects(time));
-            obstacles.addAll(obstacleCreator.createTWObjects(time));
+            addCreated(tiles, tileCreator.createTWObjects(time));
+            addCreated(holes, holeCreator.createTWObjects(time));
+            addCreated(obstacles, obstacleCreator.createTWObjects(time));
         } catch (IllegalAccessException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -139,30 +307,78 @@ public class TWEnvironment extends SimState implements Steppable {
         }
     }
 
+    private void addCreated(Bag objects, Bag created) {
+        if (recorder != null) {
+            for (int i = 0; i < created.size(); i++) {
+                recorder.spawned((TWObject) created.get(i));
+            }
+        }
+        if (partition != null) {
+            partition.addAll(created);
+        } else {
+            objects.addAll(created);
+        }
+    }
+
+    /**
+     * Creates an object logged in the replayed event log
+     */
+    void addReplayedObject(byte kind, int x, int y, double creationTime, double deathTime) {
+        Bag created = new Bag(1);
+        switch (kind) {
+        case TWEventRecorder.SPAWN_TILE:
+            created.add(new TWTile(x, y, this, creationTime, deathTime));
+            addCreated(tiles, created);
+            break;
+        case TWEventRecorder.SPAWN_HOLE:
+            created.add(new TWHole(x, y, this, creationTime, deathTime));
+            addCreated(holes, created);
+            break;
+        default:
+            created.add(new TWObstacle(x, y, this, creationTime, deathTime));
+            addCreated(obstacles, created);
+            break;
+        }
+    }
+
     /**
      * Horribly inefficient, Context is not ordered so need complete iteration of context to remove items.
      * This is done every timestep
+     *
+     * Bag.remove moves the last object into the freed slot, so the bags are
+     * walked from the end; walking forwards skipped the moved object, which
+     * then outlived its death time by a step. Every object now leaves the
+     * grid in the step its life ends, as in TWStripPartition.
      */
     private void removeTWObjects(double timeNow) {
 
-        for (int i = 0; i < tiles.size(); i++) {
+        for (int i = tiles.size() - 1; i >= 0; i--) {
             if (((TWObject) tiles.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) tiles.get(i)).getX(), ((TWObject) tiles.get(i)).getY(), null);
+                this.setObjectAt(((TWObject) tiles.get(i)).getX(), ((TWObject) tiles.get(i)).getY(), null);
+                if (recorder != null) {
+                    recorder.expired((TWObject) tiles.get(i));
+                }
                 tiles.remove(i);
 
             }
         }
 
-        for (int i = 0; i < holes.size(); i++) {
+        for (int i = holes.size() - 1; i >= 0; i--) {
             if (((TWObject) holes.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) holes.get(i)).getX(), ((TWObject) holes.get(i)).getY(), null);
+                this.setObjectAt(((TWObject) holes.get(i)).getX(), ((TWObject) holes.get(i)).getY(), null);
+                if (recorder != null) {
+                    recorder.expired((TWObject) holes.get(i));
+                }
                 holes.remove(i);
             }
         }
 
-        for (int i = 0; i < obstacles.size(); i++) {
+        for (int i = obstacles.size() - 1; i >= 0; i--) {
             if (((TWObject) obstacles.get(i)).getTimeLeft(timeNow) <= 0) {
-                this.objectGrid.set(((TWObject) obstacles.get(i)).getX(), ((TWObject) obstacles.get(i)).getY(), null);
+                this.setObjectAt(((TWObject) obstacles.get(i)).getX(), ((TWObject) obstacles.get(i)).getY(), null);
+                if (recorder != null) {
+                    recorder.expired((TWObject) obstacles.get(i));
+                }
                 obstacles.remove(i);
             }
         }
@@ -171,21 +387,164 @@ public class TWEnvironment extends SimState implements Steppable {
     public void step(SimState state) {
         
     	double time = state.schedule.getTime();
-        // create new objects
-        createTWObjects(time);
+        if (recorder != null) {
+            recorder.beginStep(time);
+        }
+        // create new objects, or take them from the replayed log
+        if (replay != null) {
+            replay.spawn(time, this);
+        } else {
+            createTWObjects(time);
+        }
         // remove old objects (dead ones)
-        removeTWObjects(time);
+        if (partition != null) {
+            partition.expire(time);
+        } else {
+            removeTWObjects(time);
+        }
+        reservations.expire(state.schedule.getSteps());
+        if (zoneManager != null) {
+            zoneManager.step(state.schedule.getSteps());
+        }
+        if (recorder != null) {
+            recorder.endStep();
+        }
         messages.clear(); // clear the messages in every time step
-        
+        for (ArrayList<Message> inbox : inboxes.values()) {
+            inbox.clear();
+        }
         
     }
     
+    /**
+     * @return every message sent this step, regardless of communication range
+     */
     public ArrayList<Message> getMessages(){
     	return messages;
     }
+
+    /**
+     * Returns the messages the given agent can receive this step. With
+     * unlimited range this is the whole channel, otherwise only what was
+     * delivered to the agent's inbox.
+     *
+     * @param receiver the agent reading its messages
+     * @return messages delivered to receiver
+     */
+    public ArrayList<Message> getMessages(TWAgent receiver) {
+        if (communicationRange <= 0) {
+            return messages;
+        }
+        ArrayList<Message> inbox = inboxes.get(receiver);
+        return (inbox != null) ? inbox : messages;
+    }
     
     public void receiveMessage(Message m){
     	messages.add(m);
+    	if (communicationRange > 0) {
+    	    deliverMessage(m);
+    	}
+    }
+
+    /**
+     * Puts m into the inboxes of its recipients. Messages addressed to "ALL"
+     * reach the agents within communicationRange of the sender (or in the
+     * sender's neighbourhood of hash buckets), anything else goes to the
+     * named agent only.
+     */
+    private void deliverMessage(Message m) {
+        if (!m.getTo().equals("ALL")) {
+            TWAgent receiver = agentsByName.get(m.getTo());
+            if (receiver != null) {
+                inboxes.get(receiver).add(m);
+            }
+            return;
+        }
+        TWAgent sender = agentsByName.get(m.getFrom());
+        if (sender == null) {
+            // Unknown origin, nothing to measure range from
+            for (ArrayList<Message> inbox : inboxes.values()) {
+                inbox.add(m);
+            }
+            return;
+        }
+        recipients.clear();
+        if (neighbourhoodDelivery) {
+            agentHash.getAgentsInNeighbourhood(sender.getX(), sender.getY(), recipients);
+        } else {
+            agentHash.getAgentsWithinDistance(sender.getX(), sender.getY(), communicationRange, recipients);
+        }
+        for (int i = 0; i < recipients.size(); i++) {
+            inboxes.get(recipients.get(i)).add(m);
+        }
+    }
+
+    /**
+     * Called by agents whenever their location changes so that the spatial
+     * hash used for message delivery stays current.
+     *
+     * @param agent the agent which moved
+     */
+    public void agentMoved(TWAgent agent) {
+        if (agentHash != null && inboxes.containsKey(agent)) {
+            agentHash.update(agent);
+        }
+    }
+
+    /**
+     * @return the parameters of this simulation
+     */
+    public TWConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the goal reservation table
+     */
+    public TWGoalReservations getReservations() {
+        return reservations;
+    }
+
+    /**
+     * @return the shared agent world model, null unless sharedBlackboard is set in the configuration
+     */
+    public TWBlackboard getBlackboard() {
+        return blackboard;
+    }
+
+    /**
+     * @return the task allocator, null unless centralAllocation is on
+     */
+    public TWTaskAllocator getAllocator() {
+        return allocator;
+    }
+
+    /**
+     * @return the zone manager, null unless zoneRebalancePeriod is set
+     */
+    public TWZoneManager getZoneManager() {
+        return zoneManager;
+    }
+
+    /**
+     * Creates the decay memory for an agent, backed by the shared blackboard
+     * when one is in use and by a private map otherwise.
+     *
+     * @param agent the owner of the memory
+     * @return a new memory for agent
+     */
+    public TWAgentDecayMemory createDecayMemory(TWAgent agent) {
+        if (blackboard != null) {
+            return new TWBlackboardMemory(agent, schedule, blackboard);
+        }
+        return new TWAgentDecayMemory(agent, schedule, getxDimension(), getyDimension());
+    }
+
+    /**
+     * @return all agents created in this environment, in creation order
+     */
+    public ArrayList<TWAgent> getAgents() {
+        return agents;
     }
     
     /**
@@ -195,6 +554,50 @@ public class TWEnvironment extends SimState implements Steppable {
         return objectGrid;
     }
     
+    /**
+     * Puts e (null to clear) on the object grid at (x, y) and tells the world
+     * listeners. All changes to the object grid go through here, the grid
+     * returned by getObjectGrid should only be read.
+     */
+    public void setObjectAt(int x, int y, TWEntity e) {
+        TWEntity old = (TWEntity) objectGrid.get(x, y);
+        objectGrid.set(x, y, e);
+        for (int i = 0; i < worldListeners.size(); i++) {
+            worldListeners.get(i).cellChanged(x, y, old, e);
+        }
+    }
+
+    /**
+     * Reports an object a strip of the partition has taken off the grid, its
+     * cell having held old (normally the object itself)
+     */
+    void objectExpired(TWObject o, TWEntity old) {
+        if (recorder != null) {
+            recorder.expired(o);
+        }
+        for (int i = 0; i < worldListeners.size(); i++) {
+            worldListeners.get(i).cellChanged(o.getX(), o.getY(), old, null);
+        }
+    }
+
+    /**
+     * @return the strips the world is split into, null unless partitions is set
+     */
+    public TWStripPartition getPartition() {
+        return partition;
+    }
+
+    /**
+     * Registers a listener which is told about every change to the object grid
+     */
+    public void addWorldListener(TWWorldListener listener) {
+        worldListeners.add(listener);
+    }
+
+    public void removeWorldListener(TWWorldListener listener) {
+        worldListeners.remove(listener);
+    }
+
     public ObjectGrid2D getAgentGrid() {
         return agentGrid;
     }
@@ -291,8 +694,8 @@ public class TWEnvironment extends SimState implements Steppable {
     public Int2D generateRandomLocation() {
         int gx = 1, gy = 1;
         while (!isValidCreationLocation(
-                gx = this.random.nextInt(this.xDimension),
-                gy = this.random.nextInt(this.yDimension))) {
+                gx = this.locationRandom.nextInt(this.xDimension),
+                gy = this.locationRandom.nextInt(this.yDimension))) {
         }
 
         return new Int2D(gx, gy);
@@ -307,8 +710,8 @@ public class TWEnvironment extends SimState implements Steppable {
      */
     public Int2D generateFarRandomLocation(int x, int y, int minDistance) {
         int gx = 1, gy = 1;
-        while (!isValidCreationLocation(gx = this.random.nextInt(this.xDimension),
-                gy = this.random.nextInt(this.yDimension)) && this.getDistance(x, y, gx, gy) < minDistance) {
+        while (!isValidCreationLocation(gx = this.locationRandom.nextInt(this.xDimension),
+                gy = this.locationRandom.nextInt(this.yDimension)) && this.getDistance(x, y, gx, gy) < minDistance) {
         }
 
         return new Int2D(gx, gy);
@@ -366,13 +769,381 @@ public class TWEnvironment extends SimState implements Steppable {
      * @param a 
      */
     private void createAgent(TWAgent a) {
-    	schedule.scheduleRepeating(new Steppable(){public void step(SimState state) {a.sense(); a.communicate();}}, 2, 1.0);
-        schedule.scheduleRepeating(a, 3, 1.0);
-        if(TWGUI.instance !=null){
+        a.setId(agents.size());
+        a.setRandom(agentStream(a.getId()));
+        agents.add(a);
+        agentsByName.put(a.getName(), a);
+        inboxes.put(a, new ArrayList<Message>());
+        agentHash.update(a);
+        if(isDisplayed()){
             TWGUI.instance.addMemoryPortrayal(a);
         }
     }
 
+    /**
+     * Schedules the agents after the environment update: with partitions they
+     * are stepped strip by strip by the TWStripPartition, with phasedStep all
+     * of them are stepped by one TWStepPipeline, otherwise every agent senses
+     * and communicates at ordering 2 and thinks and acts at ordering 3.
+     *
+     * In the last case each ordering is one steppable which runs the agents in
+     * a random order, as the schedule's shuffle would if every agent were
+     * scheduled on its own. The order is shuffled from agent order with
+     * this.random each time, rather than from the schedule's queue which
+     * depends on its history, so a restored snapshot steps the agents in the
+     * same order as the run it was taken from.
+     */
+    private void scheduleAgents() {
+        if (config.isPhasedStep() || partition != null) {
+            if (agentExecutor == null && config.isThreadPerAgent()) {
+                agentExecutor = new TWThreadPerAgentExecutor();
+            } else if (agentExecutor == null) {
+                agentExecutor = (config.getAgentThreads() > 1) ? new TWForkJoinExecutor(config.getAgentThreads())
+                        : new TWSerialExecutor();
+            }
+            if (partition != null) {
+                partition.setExecutor(agentExecutor);
+                schedule.scheduleRepeating(partition, 2, 1.0);
+            } else {
+                schedule.scheduleRepeating(new TWStepPipeline(this, agentExecutor), 2, 1.0);
+            }
+            return;
+        }
+        schedule.scheduleRepeating(new Steppable() {
+            public void step(SimState state) {
+                for (int i : shuffleAgents()) {
+                    agents.get(i).sense();
+                    agents.get(i).communicate();
+                }
+            }
+        }, 2, 1.0);
+        schedule.scheduleRepeating(new Steppable() {
+            public void step(SimState state) {
+                for (int i : shuffleAgents()) {
+                    agents.get(i).step(state);
+                }
+            }
+        }, 3, 1.0);
+    }
+
+    /**
+     * @return the agent indices in a random order drawn from this.random
+     */
+    private int[] shuffleAgents() {
+        if (agentOrder.length != agents.size()) {
+            agentOrder = new int[agents.size()];
+        }
+        for (int i = 0; i < agentOrder.length; i++) {
+            agentOrder[i] = i;
+        }
+        for (int i = agentOrder.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = agentOrder[i];
+            agentOrder[i] = agentOrder[j];
+            agentOrder[j] = swap;
+        }
+        return agentOrder;
+    }
+
+    /**
+     * Runs the agent phases of phased steps on executor instead of the one
+     * chosen by agentThreads. Must be called before start().
+     */
+    public void setAgentExecutor(TWAgentExecutor executor) {
+        this.agentExecutor = executor;
+    }
+
+    /**
+     * Creates the agents with factory instead of as HybridPRSTWAgents. Must be
+     * called before start(). The factory is not part of snapshots, forks and
+     * restored snapshots create the default agents.
+     */
+    public void setAgentFactory(TWAgentFactory factory) {
+        this.agentFactory = factory;
+    }
+
+    /**
+     * Also releases the threads of the agent executor
+     */
+    @Override
+    public void finish() {
+        super.finish();
+        if (agentExecutor != null) {
+            agentExecutor.shutdown();
+            agentExecutor = null;
+        }
+    }
+
+    /**
+     * Reseeds the simulation for the next start(). SimState replaces
+     * this.random, so the components are handed the new generator, or new
+     * streams, too: started again, the environment runs as a new one created
+     * with this seed would.
+     */
+    @Override
+    public void setSeed(long seed) {
+        super.setSeed(seed);
+        locationRandom = stream(LOCATION_STREAM);
+        tileCreator.random = stream(TILE_STREAM);
+        holeCreator.random = stream(HOLE_STREAM);
+        obstacleCreator.random = stream(OBSTACLE_STREAM);
+    }
+
+    /**
+     * The random number generator of a component: this.random, or with
+     * randomStreams an independent stream seeded from the simulation seed and
+     * the stream number, so that what a component draws does not depend on
+     * what the others drew before it or on the order they run in.
+     */
+    private MersenneTwisterFast stream(int number) {
+        if (!config.isRandomStreams()) {
+            return random;
+        }
+        return derivedStream(number);
+    }
+
+    /**
+     * The random number generator of agent id. With phasedStep or partitions
+     * agents may think on several threads at once, so every agent draws from
+     * a stream of its own there even without randomStreams: drawing from the
+     * shared this.random would race, in an order which depends on thread
+     * timing.
+     */
+    private MersenneTwisterFast agentStream(int id) {
+        if (config.isPhasedStep() || config.getPartitions() > 0) {
+            return derivedStream(AGENT_STREAMS + id);
+        }
+        return stream(AGENT_STREAMS + id);
+    }
+
+    private MersenneTwisterFast derivedStream(int number) {
+        long z = deriveSeed(seed(), number);
+        return new MersenneTwisterFast(new int[] {(int) (z >>> 32), (int) z});
+    }
+
+    /**
+     * SplitMix64 of seed advanced by number + 1 steps: well mixed and
+     * different for every stream number, even for consecutive seeds.
+     */
+    static long deriveSeed(long seed, int number) {
+        long z = seed + (number + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Branches off an independent copy of this simulation at its current
+     * step, which can be run on another thread. To branch several times from
+     * the same step, create a TWForkPoint once and fork from that.
+     */
+    public TWEnvironment fork() {
+        return new TWForkPoint(this).fork();
+    }
+
+    /**
+     * Writes the state of the simulation for TWSnapshot. Messages are not
+     * included, the channel is cleared at the start of every step anyway.
+     */
+    void writeState(TWSnapshotOutput out) {
+        out.writeDouble(schedule.getTime());
+        out.writeLong(schedule.getSteps());
+        out.writeRandom(random);
+        if (config.isRandomStreams()) {
+            out.writeRandom(locationRandom);
+            out.writeRandom(tileCreator.random);
+            out.writeRandom(holeCreator.random);
+            out.writeRandom(obstacleCreator.random);
+        }
+        out.writeInt(reward);
+        out.writeEntity(fuelingStation);
+        if (partition != null) {
+            Bag[] objects = {new Bag(), new Bag(), new Bag()};
+            partition.collect(objects[0], objects[1], objects[2]);
+            for (Bag b : objects) {
+                writeObjects(out, b);
+            }
+        } else {
+            writeObjects(out, tiles);
+            writeObjects(out, holes);
+            writeObjects(out, obstacles);
+        }
+
+        out.writeBoolean(blackboard != null);
+        if (blackboard != null) {
+            blackboard.writeState(out);
+        }
+        out.writeInt(agents.size());
+        for (TWAgent a : agents) {
+            out.writeString(a.getName());
+            a.writeState(out);
+        }
+        reservations.writeState(out);
+        out.writeBoolean(allocator != null);
+        if (allocator != null) {
+            allocator.writeState(out);
+        }
+
+        // The grid is not implied by the object lists: picked up tiles, filled holes
+        // and expired objects have been taken off the grid but may still be listed
+        int count = 0;
+        for (int x = 0; x < xDimension; x++) {
+            for (int y = 0; y < yDimension; y++) {
+                if (objectGrid.get(x, y) != null) {
+                    count++;
+                }
+            }
+        }
+        out.writeInt(count);
+        for (int x = 0; x < xDimension; x++) {
+            for (int y = 0; y < yDimension; y++) {
+                TWEntity e = (TWEntity) objectGrid.get(x, y);
+                if (e != null) {
+                    out.writeInt(x);
+                    out.writeInt(y);
+                    out.writeEntity(e);
+                }
+            }
+        }
+        // Restoring the grid counts as changes to it, so the zone counters come after it
+        out.writeBoolean(zoneManager != null);
+        if (zoneManager != null) {
+            zoneManager.writeState(out);
+        }
+    }
+
+    private static void writeObjects(TWSnapshotOutput out, Bag objects) {
+        out.writeInt(objects.size());
+        for (int i = 0; i < objects.size(); i++) {
+            out.writeEntity((TWEntity) objects.get(i));
+        }
+    }
+
+    /**
+     * Restores the state written by writeState into this environment, which
+     * must have just been started with the same configuration.
+     */
+    void readState(TWSnapshotInput in) throws IOException {
+        double time = in.readDouble();
+        long steps = in.readLong();
+        // Steppables are rescheduled from the restored clock, in the same order as in start()
+        schedule.clear();
+        ((TWSchedule) schedule).setPosition(time, steps);
+        schedule.scheduleRepeating(this, 1, 1.0);
+        scheduleAgents();
+        in.readRandom(random);
+        if (config.isRandomStreams()) {
+            in.readRandom(locationRandom);
+            in.readRandom(tileCreator.random);
+            in.readRandom(holeCreator.random);
+            in.readRandom(obstacleCreator.random);
+        }
+        reward = in.readInt();
+        fuelingStation = (TWFuelStation) in.readEntity();
+        readObjects(in, tiles);
+        readObjects(in, holes);
+        readObjects(in, obstacles);
+        if (partition != null) {
+            partition.reset(tiles, holes, obstacles);
+        }
+
+        if (in.readBoolean() != (blackboard != null)) {
+            throw new IOException("Snapshot does not match the configuration: sharedBlackboard differs");
+        }
+        if (blackboard != null) {
+            blackboard.readState(in);
+        }
+        int agentCount = in.readInt();
+        if (agentCount != agents.size()) {
+            throw new IOException("Snapshot has " + agentCount + " agents, the configuration creates " + agents.size());
+        }
+        for (int x = 0; x < xDimension; x++) {
+            for (int y = 0; y < yDimension; y++) {
+                agentGrid.set(x, y, null);
+            }
+        }
+        for (TWAgent a : agents) {
+            String name = in.readString();
+            if (!name.equals(a.getName())) {
+                throw new IOException("Snapshot agent " + name + " does not match " + a.getName());
+            }
+            a.readState(in);
+        }
+        reservations.readState(in);
+        if (in.readBoolean() != (allocator != null)) {
+            throw new IOException("Snapshot does not match the configuration: centralAllocation differs");
+        }
+        if (allocator != null) {
+            allocator.readState(in);
+        }
+
+        // Restoring the objects has placed them on the grid, replace that with the recorded grid
+        for (int x = 0; x < xDimension; x++) {
+            for (int y = 0; y < yDimension; y++) {
+                setObjectAt(x, y, null);
+            }
+        }
+        for (int count = in.readInt(); count > 0; count--) {
+            int x = in.readInt();
+            int y = in.readInt();
+            setObjectAt(x, y, in.readEntity());
+        }
+        if (in.readBoolean() != (zoneManager != null)) {
+            throw new IOException("Snapshot does not match the configuration: zoneRebalancePeriod differs");
+        }
+        if (zoneManager != null) {
+            zoneManager.readState(in);
+        }
+    }
+
+    private static void readObjects(TWSnapshotInput in, Bag objects) throws IOException {
+        objects.clear();
+        for (int count = in.readInt(); count > 0; count--) {
+            objects.add(in.readEntity());
+        }
+    }
+
+    /**
+     * The GUI registers itself globally, only the environment it displays may
+     * touch it. Other environments in the same JVM (e.g. headless batch runs)
+     * must leave it alone.
+     */
+    private boolean isDisplayed() {
+        return TWGUI.instance != null && TWGUI.instance.state == this;
+    }
+
+    /**
+     * Records the world timeline (placements, spawns and expiries) of this
+     * run to recorder, which the caller closes after the run. Set before
+     * start().
+     */
+    public void setRecorder(TWEventRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Replays the world timeline logged in replay instead of generating one.
+     * Set before start().
+     *
+     * @throws IllegalArgumentException if the log was recorded on a map of a different size
+     */
+    public void setReplay(TWEventReplay replay) {
+        TWConfig recorded = replay.getConfig();
+        if (recorded.getxDimension() != xDimension || recorded.getyDimension() != yDimension) {
+            throw new IllegalArgumentException("Event log was recorded on a " + recorded.getxDimension() + "x"
+                    + recorded.getyDimension() + " map, this one is " + xDimension + "x" + yDimension);
+        }
+        this.replay = replay;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     public int getReward(){
     	return reward;
     }
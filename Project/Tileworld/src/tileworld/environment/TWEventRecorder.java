@@ -0,0 +1,164 @@
+package tileworld.environment;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import tileworld.TWConfig;
+
+/**
+ * TWEventRecorder
+ *
+ * Description:
+ *
+ * Writes the world timeline of a run to a binary event log which
+ * TWEventReplay can feed to another run: where the agents and the fuel
+ * station were placed, and every object spawned or expired. Attach it with
+ * TWEnvironment#setRecorder before starting the environment.
+ *
+ * The log is a header (magic, format, configuration, seed) followed by one
+ * block per time step which had events: the time, the length of the block
+ * in bytes, then the events. A spawn is the kind, position and lifetime
+ * (13 bytes), an expiry or placement the kind and position (9 bytes).
+ * Blocks are staged in memory and go to the file through a direct buffer.
+ */
+public class TWEventRecorder implements Closeable {
+
+    static final int MAGIC = 0x5457454c; // "TWEL"
+    static final int FORMAT = 1;
+
+    static final byte SPAWN_TILE = 1;
+    static final byte SPAWN_HOLE = 2;
+    static final byte SPAWN_OBSTACLE = 3;
+    static final byte EXPIRE_TILE = 4;
+    static final byte EXPIRE_HOLE = 5;
+    static final byte EXPIRE_OBSTACLE = 6;
+    static final byte PLACE_AGENT = 7;
+    static final byte PLACE_FUEL_STATION = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+    private ByteBuffer block = ByteBuffer.allocate(4096);
+    private double blockTime;
+    private long events;
+    private long bytes;
+
+    public TWEventRecorder(File file, TWConfig config, long seed) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        byte[] text = config.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(20 + text.length);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(text.length).put(text).putLong(seed);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Starts the block of events happening at time
+     */
+    void beginStep(double time) {
+        endStep();
+        blockTime = time;
+    }
+
+    void placed(byte kind, int x, int y) {
+        event(kind, x, y);
+    }
+
+    void spawned(TWObject o) {
+        byte kind = (o instanceof TWTile) ? SPAWN_TILE : (o instanceof TWHole) ? SPAWN_HOLE : SPAWN_OBSTACLE;
+        event(kind, o.getX(), o.getY());
+        ensure(4);
+        block.putInt((int) (o.getDeathTime() - o.getCreationTime()));
+    }
+
+    void expired(TWObject o) {
+        byte kind = (o instanceof TWTile) ? EXPIRE_TILE : (o instanceof TWHole) ? EXPIRE_HOLE : EXPIRE_OBSTACLE;
+        event(kind, o.getX(), o.getY());
+    }
+
+    private void event(byte kind, int x, int y) {
+        ensure(9);
+        block.put(kind).putInt(x).putInt(y);
+        events++;
+    }
+
+    private void ensure(int n) {
+        if (block.remaining() < n) {
+            ByteBuffer grown = ByteBuffer.allocate(block.capacity() * 2);
+            block.flip();
+            grown.put(block);
+            block = grown;
+        }
+    }
+
+    /**
+     * Writes out the events of the current step, if there were any
+     */
+    void endStep() {
+        if (block.position() == 0) {
+            return;
+        }
+        block.flip();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putDouble(blockTime).putInt(block.remaining());
+            header.flip();
+            write(header);
+            write(block);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write event log", e);
+        }
+        block.clear();
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        bytes += data.remaining();
+        while (data.hasRemaining()) {
+            if (!out.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(out.remaining(), data.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + n);
+            out.put(slice);
+            data.position(data.position() + n);
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * @return number of events recorded
+     */
+    public long getEventCount() {
+        return events;
+    }
+
+    /**
+     * @return size of the log written so far in bytes
+     */
+    public long getSize() {
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            endStep();
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
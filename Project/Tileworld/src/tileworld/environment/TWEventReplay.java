@@ -0,0 +1,244 @@
+package tileworld.environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import sim.util.Int2D;
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWEventReplay
+ *
+ * Description:
+ *
+ * Reads an event log written by TWEventRecorder and feeds it to an
+ * environment in replay mode (see TWEnvironment#setReplay). Agents and the
+ * fuel station are placed where the log says. Every step, the objects logged
+ * as spawned at that time are created with their logged lifetimes, and the
+ * spawn logic and its random numbers are not used at all. Any set of agents
+ * therefore sees exactly the same world timeline, as far as their own
+ * actions allow.
+ *
+ * A logged spawn on a cell which is occupied in the replayed run (e.g. by a
+ * tile the recorded agents had picked up by then) is skipped and counted.
+ * Expiries in the log are informational, replayed objects expire through
+ * their lifetime like any other.
+ *
+ * The log is memory-mapped and read sequentially, one replay per run.
+ */
+public class TWEventReplay {
+
+    private final ByteBuffer buffer;
+    private final TWConfig config;
+    private final long seed;
+    /**
+     * End of the current block, -1 if none is open
+     */
+    private int blockEnd = -1;
+    private long replayed;
+    private long skipped;
+
+    private TWEventReplay(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        try {
+            if (buffer.getInt() != TWEventRecorder.MAGIC) {
+                throw new IOException("Not a Tileworld event log");
+            }
+            int format = buffer.getInt();
+            if (format != TWEventRecorder.FORMAT) {
+                throw new IOException("Unsupported event log format " + format);
+            }
+            byte[] text = new byte[buffer.getInt()];
+            buffer.get(text);
+            Properties properties = new Properties();
+            properties.load(new StringReader(new String(text, StandardCharsets.UTF_8)));
+            this.config = TWConfig.fromProperties(properties);
+            this.seed = buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Event log is truncated");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Event log configuration is not valid: " + e.getMessage(), e);
+        }
+    }
+
+    public static TWEventReplay open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new TWEventReplay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the configuration of the recorded run
+     */
+    public TWConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the seed of the recorded run
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Opens the block of events logged at time, skipping any earlier ones.
+     *
+     * @return false if nothing was logged at time
+     */
+    private boolean seek(double time) {
+        if (blockEnd >= 0) {
+            buffer.position(blockEnd);
+            blockEnd = -1;
+        }
+        // A block is at least its 12 byte header plus one event, a shorter rest is a truncated write
+        while (buffer.remaining() >= 12) {
+            double blockTime = buffer.getDouble(buffer.position());
+            int length = buffer.getInt(buffer.position() + 8);
+            if (blockTime > time) {
+                return false;
+            }
+            if (length < 0 || length > buffer.remaining() - 12) {
+                buffer.position(buffer.limit());
+                return false;
+            }
+            buffer.position(buffer.position() + 12);
+            if (blockTime == time) {
+                blockEnd = buffer.position() + length;
+                return true;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next placement logged at time, used for the agents and fuel
+     * station in start(). Returns null once the placements logged at time have
+     * run out, e.g. when more agents are placed than were recorded.
+     */
+    Int2D nextPlacement(double time, byte kind) {
+        if (blockEnd < 0 && !seek(time)) {
+            return null;
+        }
+        while (buffer.position() < blockEnd) {
+            byte k = buffer.get(buffer.position());
+            if (k != kind && kind == TWEventRecorder.PLACE_AGENT) {
+                // Agents are placed before the fuel station, leave it for its own request
+                return null;
+            }
+            buffer.get();
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            if (isSpawn(k)) {
+                buffer.getInt();
+            }
+            if (k == kind) {
+                return new Int2D(x, y);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates the objects logged as spawned at time in env
+     */
+    void spawn(double time, TWEnvironment env) {
+        if (!seek(time)) {
+            return;
+        }
+        while (buffer.position() < blockEnd) {
+            byte kind = buffer.get();
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            if (!isSpawn(kind)) {
+                continue;
+            }
+            int lifetime = buffer.getInt();
+            if (!env.isValidCreationLocation(x, y)) {
+                skipped++;
+                continue;
+            }
+            env.addReplayedObject(kind, x, y, time, time + lifetime);
+            replayed++;
+        }
+        blockEnd = -1;
+    }
+
+    private static boolean isSpawn(byte kind) {
+        return kind == TWEventRecorder.SPAWN_TILE || kind == TWEventRecorder.SPAWN_HOLE
+                || kind == TWEventRecorder.SPAWN_OBSTACLE;
+    }
+
+    /**
+     * @return number of logged spawns which were replayed
+     */
+    public long getReplayed() {
+        return replayed;
+    }
+
+    /**
+     * @return number of logged spawns skipped because their cell was occupied
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Records a run of the configuration given as first argument (a scenario
+     * number or .properties file, scenario 1 by default), then replays its
+     * world timeline with the same agents, which must give the same reward,
+     * and with the TSP heuristic switched, next to a regular run with the
+     * heuristic switched.
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = (args.length > 0) ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+        File file = File.createTempFile("tileworld", ".events");
+        file.deleteOnExit();
+
+        long start = System.nanoTime();
+        TWEnvironment recorded = new TWEnvironment(config);
+        TWEventRecorder recorder = new TWEventRecorder(file, config, recorded.seed());
+        recorded.setRecorder(recorder);
+        run(recorded);
+        recorder.close();
+        System.out.println(String.format("Recorded:  reward %4d in %.2f s, %d events, %d bytes", recorded.getReward(),
+                (System.nanoTime() - start) / 1e9, recorder.getEventCount(), recorder.getSize()));
+
+        TWConfig variant = config.toBuilder().TSPHeuristic(!config.isTSPHeuristic()).build();
+        for (TWConfig c : new TWConfig[] {config, variant}) {
+            start = System.nanoTime();
+            TWEventReplay replay = open(file);
+            TWEnvironment tw = new TWEnvironment(c);
+            tw.setReplay(replay);
+            run(tw);
+            System.out.println(String.format("Replayed:  reward %4d in %.2f s, TSPHeuristic=%b, %d spawns, %d skipped",
+                    tw.getReward(), (System.nanoTime() - start) / 1e9, c.isTSPHeuristic(), replay.getReplayed(),
+                    replay.getSkipped()));
+        }
+        TWEnvironment fresh = new TWEnvironment(variant);
+        run(fresh);
+        System.out.println(String.format("Generated: reward %4d, TSPHeuristic=%b (own world timeline)", fresh.getReward(),
+                variant.isTSPHeuristic()));
+    }
+
+    private static void run(TWEnvironment tw) {
+        tw.setVerbose(false);
+        tw.start();
+        long endTime = tw.getConfig().getEndTime();
+        while (tw.schedule.getSteps() < endTime && tw.schedule.step(tw)) {
+        }
+        tw.finish();
+    }
+}
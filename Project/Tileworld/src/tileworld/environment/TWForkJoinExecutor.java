@@ -0,0 +1,62 @@
+package tileworld.environment;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * TWForkJoinExecutor
+ *
+ * Description:
+ *
+ * Runs the agents of a phase on a work-stealing pool. The agent range is
+ * split in halves down to single agents, so agents which take longer to think
+ * (e.g. those planning long paths) are balanced across the workers.
+ */
+public class TWForkJoinExecutor implements TWAgentExecutor {
+
+    private final ForkJoinPool pool;
+
+    public TWForkJoinExecutor(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void invokeAll(int count, Task task) {
+        if (count <= 0) {
+            return;
+        }
+        if (count == 1) {
+            task.run(0);
+            return;
+        }
+        pool.invoke(new Range(task, 0, count));
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Agents from (inclusive) to to (exclusive)
+     */
+    private static class Range extends RecursiveAction {
+        private final Task task;
+        private final int from;
+        private final int to;
+
+        Range(Task task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.run(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Range(task, from, middle), new Range(task, middle, to));
+        }
+    }
+}
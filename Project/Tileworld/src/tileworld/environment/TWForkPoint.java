@@ -0,0 +1,90 @@
+package tileworld.environment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import tileworld.TWConfig;
+
+/**
+ * TWForkPoint
+ *
+ * Description:
+ *
+ * The state of an environment at one step, from which any number of
+ * independent continuations (forks) can be created, see
+ * TWEnvironment#fork. The state is captured once as a snapshot (see
+ * TWSnapshot). Every fork restores from that same snapshot but shares the
+ * tiles, holes, obstacles, fuel station and remembered percepts with the
+ * original instead of recreating them: these never change once created, so
+ * sharing them is safe however the forks go on. What a fork changes (grids,
+ * object lists, agents, memories, random generator, schedule) is its own.
+ *
+ * Forks may be created concurrently from several threads and run side by
+ * side, they share nothing mutable with each other or with the original.
+ */
+public class TWForkPoint {
+
+    private final TWConfig config;
+    private final long steps;
+    private final int reward;
+    private final ByteBuffer snapshot;
+    private final Object[] shared;
+
+    public TWForkPoint(TWEnvironment env) {
+        TWSnapshotOutput out = TWSnapshot.encode(env);
+        this.config = env.getConfig();
+        this.steps = env.schedule.getSteps();
+        this.reward = env.getReward();
+        this.snapshot = out.toBuffer().asReadOnlyBuffer();
+        this.shared = out.getObjects();
+    }
+
+    /**
+     * @return a new environment continuing from this state, identical to the original
+     */
+    public TWEnvironment fork() {
+        return fork(config);
+    }
+
+    /**
+     * Creates a new environment continuing from this state but running
+     * config from now on, e.g. with different agent tunables. The random
+     * generator state is the same as in the original, so a fork with the
+     * original configuration replays exactly what the original does.
+     *
+     * @throws IllegalArgumentException if config describes a different map,
+     *         sensor range, set of agents or blackboard use
+     */
+    public TWEnvironment fork(TWConfig config) {
+        try {
+            return TWSnapshot.restore(snapshot, config, shared);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot fork with this configuration: " + e.getMessage(), e);
+        }
+    }
+
+    public TWConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the step the state was captured at
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the reward at the step the state was captured at
+     */
+    public int getReward() {
+        return reward;
+    }
+
+    /**
+     * @return size of the captured state in bytes
+     */
+    public int getSize() {
+        return snapshot.remaining();
+    }
+}
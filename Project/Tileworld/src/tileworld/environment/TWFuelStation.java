@@ -27,6 +27,12 @@ public class TWFuelStation extends TWEntity {
 		super(x,y,env);
     }
 
+    /**
+     * A fuel station which is not part of any environment, as rebuilt by TWHistory
+     */
+    TWFuelStation() {
+    }
+
     @Override
     protected void move(TWDirection d) {
         throw new UnsupportedOperationException("You cannot move the Fuel Station.");
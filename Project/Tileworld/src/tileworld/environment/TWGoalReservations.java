@@ -0,0 +1,211 @@
+package tileworld.environment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * TWGoalReservations
+ *
+ * Description:
+ *
+ * Goal reservation service used by agents to avoid chasing the same tile or
+ * hole. Claims are stored in primitive arrays indexed by cell, holding the
+ * owning agent and the last step the claim is valid for, so checking whether
+ * a candidate is taken is a single array lookup. Agents claim their targets,
+ * renew them by claiming again every step and release them once they are no
+ * longer wanted. A claim that is left to run out without being released is
+ * dropped and counted as stale by expire, which the environment calls at the
+ * start of every step. The claimed cells are also kept in a list, so expire
+ * only visits those instead of the whole map. Lookups never write, so agents
+ * may check reservations while thinking in parallel.
+ */
+public class TWGoalReservations {
+
+    private final int height;
+    /**
+     * Owning agent id + 1 per cell, 0 if the cell is free
+     */
+    private final int[] owner;
+    /**
+     * Last step (inclusive) each claim holds for
+     */
+    private final long[] expiry;
+    /**
+     * Cells claimed since the last expire, released ones included until then
+     */
+    private int[] held = new int[16];
+    private int heldCount;
+    /**
+     * Whether each cell is in held
+     */
+    private final boolean[] listed;
+
+    private long claims;
+    private long releases;
+    private long contention;
+    private long staleClaims;
+
+    public TWGoalReservations(int xDimension, int yDimension) {
+        this.height = yDimension;
+        this.owner = new int[xDimension * yDimension];
+        this.expiry = new long[xDimension * yDimension];
+        this.listed = new boolean[xDimension * yDimension];
+    }
+
+    /**
+     * Claims (or renews) cell (x, y) for agentId from step until step +
+     * lifetime.
+     *
+     * @return false if the cell is held by another agent
+     */
+    public boolean claim(int agentId, int x, int y, long step, long lifetime) {
+        int cell = x * height + y;
+        if (owner[cell] != 0 && owner[cell] != agentId + 1) {
+            if (expiry[cell] >= step) {
+                contention++;
+                return false;
+            }
+            staleClaims++;
+        }
+        owner[cell] = agentId + 1;
+        expiry[cell] = step + lifetime;
+        list(cell);
+        claims++;
+        return true;
+    }
+
+    /**
+     * Gives up agentId's claim on (x, y), does nothing if the cell is not held
+     * by agentId.
+     */
+    public void release(int agentId, int x, int y) {
+        int cell = x * height + y;
+        if (owner[cell] == agentId + 1) {
+            owner[cell] = 0;
+            releases++;
+        }
+    }
+
+    /**
+     * Drops the claims which ran out before step without being released
+     */
+    void expire(long step) {
+        int kept = 0;
+        for (int i = 0; i < heldCount; i++) {
+            int cell = held[i];
+            if (owner[cell] != 0 && expiry[cell] < step) {
+                owner[cell] = 0;
+                staleClaims++;
+            }
+            if (owner[cell] != 0) {
+                held[kept++] = cell;
+            } else {
+                listed[cell] = false;
+            }
+        }
+        heldCount = kept;
+    }
+
+    /**
+     * Adds cell to held unless it is already there
+     */
+    private void list(int cell) {
+        if (listed[cell]) {
+            return;
+        }
+        if (heldCount == held.length) {
+            held = Arrays.copyOf(held, 2 * held.length);
+        }
+        held[heldCount++] = cell;
+        listed[cell] = true;
+    }
+
+    /**
+     * @return true if (x, y) is held by an agent other than agentId at step
+     */
+    public boolean isReservedByOther(int agentId, int x, int y, long step) {
+        int cell = x * height + y;
+        int o = owner[cell];
+        return o != 0 && o != agentId + 1 && expiry[cell] >= step;
+    }
+
+    /**
+     * @return id of the agent holding (x, y) at step, -1 if none
+     */
+    public int getOwner(int x, int y, long step) {
+        int cell = x * height + y;
+        return (owner[cell] == 0 || expiry[cell] < step) ? -1 : owner[cell] - 1;
+    }
+
+    /**
+     * Writes the held claims and the counters for TWSnapshot
+     */
+    void writeState(TWSnapshotOutput out) {
+        int[] cells = new int[heldCount];
+        int count = 0;
+        for (int i = 0; i < heldCount; i++) {
+            if (owner[held[i]] != 0) {
+                cells[count++] = held[i];
+            }
+        }
+        Arrays.sort(cells, 0, count);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(cells[i]);
+            out.writeInt(owner[cells[i]]);
+            out.writeLong(expiry[cells[i]]);
+        }
+        out.writeLong(claims);
+        out.writeLong(releases);
+        out.writeLong(contention);
+        out.writeLong(staleClaims);
+    }
+
+    void readState(TWSnapshotInput in) throws IOException {
+        for (int i = 0; i < heldCount; i++) {
+            owner[held[i]] = 0;
+            listed[held[i]] = false;
+        }
+        heldCount = 0;
+        for (int count = in.readInt(); count > 0; count--) {
+            int cell = in.readInt();
+            if (cell < 0 || cell >= owner.length) {
+                throw new IOException("Corrupt snapshot: reservation outside the map");
+            }
+            owner[cell] = in.readInt();
+            expiry[cell] = in.readLong();
+            list(cell);
+        }
+        claims = in.readLong();
+        releases = in.readLong();
+        contention = in.readLong();
+        staleClaims = in.readLong();
+    }
+
+    public long getClaims() {
+        return claims;
+    }
+
+    public long getReleases() {
+        return releases;
+    }
+
+    /**
+     * @return number of claims refused because another agent held the cell
+     */
+    public long getContention() {
+        return contention;
+    }
+
+    /**
+     * @return number of claims which ran out without being released
+     */
+    public long getStaleClaims() {
+        return staleClaims;
+    }
+
+    @Override
+    public String toString() {
+        return "claims: " + claims + ", releases: " + releases + ", contention: " + contention + ", stale: " + staleClaims;
+    }
+}
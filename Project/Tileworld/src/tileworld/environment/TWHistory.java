@@ -0,0 +1,394 @@
+package tileworld.environment;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.field.grid.ObjectGrid2D;
+import sim.util.Int2D;
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.agent.TWAgent;
+
+/**
+ * TWHistory
+ *
+ * Description:
+ *
+ * Reader of a history file written by TWHistoryWriter. getFrame rebuilds the
+ * object grid, agent positions and reward at any recorded step by mapping the
+ * file from the nearest keyframe at or before the step and applying the
+ * deltas up to it, so a lookup reads at most one keyframe interval of the
+ * file whatever the length of the run.
+ *
+ * A file whose writer did not get to close it (e.g. after a crash) has no
+ * keyframe index; it is rebuilt by scanning the record headers, and the
+ * history ends with the last complete record.
+ */
+public class TWHistory implements Closeable {
+
+    /**
+     * The world at one step
+     */
+    public static class Frame {
+        private final long step;
+        private final int reward;
+        private final ObjectGrid2D grid;
+        private final Int2D[] agentPositions;
+
+        Frame(long step, int reward, ObjectGrid2D grid, Int2D[] agentPositions) {
+            this.step = step;
+            this.reward = reward;
+            this.grid = grid;
+            this.agentPositions = agentPositions;
+        }
+
+        public long getStep() {
+            return step;
+        }
+
+        public int getReward() {
+            return reward;
+        }
+
+        /**
+         * @return the object grid, holding tiles, holes, obstacles and the fuel
+         *         station with their recorded lifetimes. These are copies which
+         *         do not belong to any environment.
+         */
+        public ObjectGrid2D getGrid() {
+            return grid;
+        }
+
+        /**
+         * @return position of agent i, agents in the environment's creation order
+         */
+        public Int2D getAgentPosition(int i) {
+            return agentPositions[i];
+        }
+
+        public int getAgentCount() {
+            return agentPositions.length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int agentCount;
+    private final int keyframeInterval;
+    private long[] keyframeSteps;
+    private long[] keyframeOffsets;
+    /**
+     * End of the last complete record
+     */
+    private long end;
+    private long lastStep;
+
+    public TWHistory(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = read(0, TWHistoryWriter.HEADER_SIZE);
+            if (header.getInt() != TWHistoryWriter.MAGIC) {
+                throw new IOException("Not a Tileworld history");
+            }
+            int format = header.getInt();
+            if (format != TWHistoryWriter.FORMAT) {
+                throw new IOException("Unsupported history format " + format);
+            }
+            width = header.getInt();
+            height = header.getInt();
+            agentCount = header.getInt();
+            keyframeInterval = header.getInt();
+            if (!readIndex()) {
+                scan();
+            }
+            if (keyframeSteps.length == 0) {
+                throw new IOException("History holds no complete record");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the keyframe index written on close
+     *
+     * @return false if there is none
+     */
+    private boolean readIndex() throws IOException {
+        long size = channel.size();
+        if (size < TWHistoryWriter.HEADER_SIZE + 16) {
+            return false;
+        }
+        ByteBuffer footer = read(size - 12, 12);
+        long indexOffset = footer.getLong();
+        if (footer.getInt() != TWHistoryWriter.END_MAGIC || indexOffset < TWHistoryWriter.HEADER_SIZE
+                || indexOffset > size - 16) {
+            return false;
+        }
+        ByteBuffer index = read(indexOffset, (int) (size - 12 - indexOffset));
+        int count = index.getInt();
+        keyframeSteps = new long[count];
+        keyframeOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            keyframeSteps[i] = index.getLong();
+            keyframeOffsets[i] = index.getLong();
+        }
+        end = indexOffset;
+        lastStep = (count == 0) ? -1 : lastStepFrom(keyframeOffsets[count - 1]);
+        return true;
+    }
+
+    /**
+     * Rebuilds the index from the record headers, up to the last complete record
+     */
+    private void scan() throws IOException {
+        long size = channel.size();
+        long[] steps = new long[16];
+        long[] offsets = new long[16];
+        int count = 0;
+        long position = TWHistoryWriter.HEADER_SIZE;
+        while (position + 13 <= size) {
+            ByteBuffer head = read(position, 13);
+            int length = head.getInt();
+            if (length < 9 || position + 4 + length > size) {
+                break;
+            }
+            byte kind = head.get();
+            long step = head.getLong();
+            if (kind == TWHistoryWriter.KEYFRAME) {
+                if (count == steps.length) {
+                    steps = Arrays.copyOf(steps, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                steps[count] = step;
+                offsets[count++] = position;
+            } else if (kind != TWHistoryWriter.DELTA) {
+                break;
+            }
+            lastStep = step;
+            position += 4 + length;
+        }
+        keyframeSteps = Arrays.copyOf(steps, count);
+        keyframeOffsets = Arrays.copyOf(offsets, count);
+        end = position;
+    }
+
+    private long lastStepFrom(long position) throws IOException {
+        long step = -1;
+        while (position + 13 <= end) {
+            ByteBuffer head = read(position, 13);
+            int length = head.getInt();
+            head.get();
+            step = head.getLong();
+            position += 4 + length;
+        }
+        return step;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("History is truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public long getFirstStep() {
+        return keyframeSteps[0];
+    }
+
+    public long getLastStep() {
+        return lastStep;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Rebuilds the world as it was at the end of step.
+     *
+     * @throws IllegalArgumentException if step was not recorded
+     */
+    public Frame getFrame(long step) throws IOException {
+        if (step < getFirstStep() || step > lastStep) {
+            throw new IllegalArgumentException("Step " + step + " is outside the recorded steps " + getFirstStep()
+                    + " to " + lastStep);
+        }
+        int k = Arrays.binarySearch(keyframeSteps, step);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        long start = keyframeOffsets[k];
+        long stop = (k + 1 < keyframeOffsets.length) ? keyframeOffsets[k + 1] : end;
+        ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, start, stop - start);
+        ObjectGrid2D grid = new ObjectGrid2D(width, height);
+        try {
+            while (records.hasRemaining()) {
+                int next = records.getInt();
+                next += records.position();
+                records.get();
+                long recordStep = records.getLong();
+                int reward = records.getInt();
+                Int2D[] positions = new Int2D[agentCount];
+                for (int i = 0; i < agentCount; i++) {
+                    int x = records.getInt();
+                    positions[i] = new Int2D(x, records.getInt());
+                }
+                for (int count = records.getInt(); count > 0; count--) {
+                    int cell = records.getInt();
+                    grid.set(cell / height, cell % height, readEntity(records, cell));
+                }
+                if (recordStep == step) {
+                    return new Frame(step, reward, grid, positions);
+                }
+                records.position(next);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("History record is truncated", e);
+        }
+        throw new IOException("Step " + step + " is missing from the history");
+    }
+
+    private TWEntity readEntity(ByteBuffer records, int cell) throws IOException {
+        byte code = records.get();
+        TWEntity e;
+        switch (code) {
+        case TWHistoryWriter.EMPTY:
+            return null;
+        case TWHistoryWriter.FUEL_STATION:
+            e = new TWFuelStation();
+            break;
+        case TWHistoryWriter.TILE:
+            e = new TWTile();
+            break;
+        case TWHistoryWriter.HOLE:
+            e = new TWHole();
+            break;
+        case TWHistoryWriter.OBSTACLE:
+            e = new TWObstacle();
+            break;
+        default:
+            throw new IOException("Corrupt history: unknown cell content " + code);
+        }
+        e.x = cell / height;
+        e.y = cell % height;
+        if (e instanceof TWObject) {
+            ((TWObject) e).setCreationTime(records.getInt());
+            ((TWObject) e).setDeathTime(records.getInt());
+        }
+        return e;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Records the configuration given as first argument (a scenario number or
+     * .properties file, scenario 1 by default) with a keyframe every K steps
+     * (second argument, default 100), then rebuilds a set of steps from the
+     * history, checks them against the live run and times random lookups.
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = (args.length > 0) ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+        int interval = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        final long[] probes = {1, interval - 1, interval, 2 * interval + 1, 3712, config.getEndTime() - 1,
+            config.getEndTime()};
+        final String[] expected = new String[probes.length];
+        File file = File.createTempFile("tileworld", ".history");
+        file.deleteOnExit();
+
+        final TWEnvironment tw = new TWEnvironment(config);
+        tw.setVerbose(false);
+        tw.start();
+        long start = System.nanoTime();
+        TWHistoryWriter writer = TWHistoryWriter.attach(tw, file, interval);
+        // Remembers the live world at the probe steps, after the writer has recorded them
+        tw.schedule.scheduleRepeating(new Steppable() {
+            public void step(SimState state) {
+                int i = Arrays.binarySearch(probes, tw.schedule.getSteps() + 1);
+                if (i >= 0) {
+                    Int2D[] positions = new Int2D[tw.getAgents().size()];
+                    for (int a = 0; a < positions.length; a++) {
+                        TWAgent agent = tw.getAgents().get(a);
+                        positions[a] = new Int2D(agent.getX(), agent.getY());
+                    }
+                    expected[i] = describe(new Frame(0, tw.getReward(), tw.getObjectGrid(), positions));
+                }
+            }
+        }, 5, 1.0);
+        while (tw.schedule.getSteps() < config.getEndTime() && tw.schedule.step(tw)) {
+        }
+        writer.close();
+        System.out.println(String.format("Recorded %d steps in %.2f s, history %d bytes (%.0f bytes per step)",
+                tw.schedule.getSteps(), (System.nanoTime() - start) / 1e9, file.length(),
+                (double) file.length() / tw.schedule.getSteps()));
+
+        TWHistory history = new TWHistory(file);
+        try {
+            boolean ok = true;
+            for (int i = 0; i < probes.length; i++) {
+                if (probes[i] > history.getLastStep() || expected[i] == null) {
+                    continue;
+                }
+                Frame frame = history.getFrame(probes[i]);
+                boolean same = describe(frame).equals(expected[i]);
+                ok &= same;
+                System.out.println("step " + probes[i] + ": reward " + frame.getReward() + ", agent 1 at "
+                        + frame.getAgentPosition(0) + (same ? ", matches the run" : ", DIFFERS FROM THE RUN"));
+            }
+            Random random = new Random(1);
+            int lookups = 1000;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                history.getFrame(history.getFirstStep()
+                        + (long) (random.nextDouble() * (history.getLastStep() - history.getFirstStep() + 1)));
+            }
+            System.out.println(String.format("Random lookup: %.3f ms", (System.nanoTime() - start) / 1e6 / lookups));
+            if (!ok) {
+                System.exit(1);
+            }
+        } finally {
+            history.close();
+        }
+    }
+
+    /**
+     * Content of a frame as text, for comparing rebuilt frames with the live world
+     */
+    private static String describe(Frame frame) {
+        StringBuilder s = new StringBuilder("reward " + frame.getReward());
+        for (int i = 0; i < frame.getAgentCount(); i++) {
+            s.append(' ').append(frame.getAgentPosition(i));
+        }
+        ObjectGrid2D grid = frame.getGrid();
+        for (int x = 0; x < grid.getWidth(); x++) {
+            for (int y = 0; y < grid.getHeight(); y++) {
+                TWEntity e = (TWEntity) grid.get(x, y);
+                if (e != null) {
+                    s.append(' ').append(e.getClass().getSimpleName()).append('@').append(x).append(',').append(y);
+                    if (e instanceof TWObject) {
+                        s.append('/').append((int) ((TWObject) e).getDeathTime());
+                    }
+                }
+            }
+        }
+        return s.toString();
+    }
+}
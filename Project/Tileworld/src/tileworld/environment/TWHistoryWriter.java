@@ -0,0 +1,250 @@
+package tileworld.environment;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.field.grid.ObjectGrid2D;
+import tileworld.agent.TWAgent;
+
+/**
+ * TWHistoryWriter
+ *
+ * Description:
+ *
+ * Records the world of a run step by step into a history file which
+ * TWHistory can read back at any step. Every keyframeInterval steps the
+ * whole object grid is written (sparsely), every other step only the cells
+ * which changed since the previous step; each record also carries the agent
+ * positions and the reward. Changes are picked up as a TWWorldListener, so
+ * recording a step costs in proportion to what happened in it, not to the
+ * size of the map.
+ *
+ * The file is written through memory-mapped regions which are remapped as it
+ * grows. On close an index of the keyframes is appended so that readers can
+ * seek straight to them.
+ *
+ * File layout, all records prefixed with their length:
+ * <pre>
+ * header    magic, format, width, height, agent count, keyframe interval
+ * record    kind (keyframe or delta), step, reward, agent x, y per agent,
+ *           cell count, per cell: cell index, content code and, for objects,
+ *           creation and death time
+ * index     keyframe count, per keyframe: step, file offset
+ * footer    index offset, end magic
+ * </pre>
+ */
+public class TWHistoryWriter implements Steppable, TWWorldListener, Closeable {
+
+    static final int MAGIC = 0x54574853; // "TWHS"
+    static final int END_MAGIC = 0x54574845; // "TWHE"
+    static final int FORMAT = 1;
+    static final int HEADER_SIZE = 24;
+
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+
+    static final byte EMPTY = 0;
+    static final byte TILE = 1;
+    static final byte HOLE = 2;
+    static final byte OBSTACLE = 3;
+    static final byte FUEL_STATION = 4;
+
+    private static final int REGION_SIZE = 4 * 1024 * 1024;
+
+    private final TWEnvironment env;
+    private final int keyframeInterval;
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private ByteBuffer record = ByteBuffer.allocate(16 * 1024);
+
+    /**
+     * Cells changed since the last record, without duplicates
+     */
+    private int[] dirty = new int[256];
+    private int dirtyCount;
+    private final boolean[] isDirty;
+
+    private long step;
+    private final ArrayList<long[]> keyframes = new ArrayList<long[]>();
+    private boolean closed;
+
+    /**
+     * Starts recording env, which must have been started, with a keyframe of
+     * its current state. The writer must then be stepped after the agents
+     * every step, attach does both.
+     */
+    public TWHistoryWriter(TWEnvironment env, File file, int keyframeInterval) throws IOException {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("keyframeInterval must be at least 1");
+        }
+        this.env = env;
+        this.keyframeInterval = keyframeInterval;
+        this.isDirty = new boolean[env.getxDimension() * env.getyDimension()];
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        region.putInt(MAGIC).putInt(FORMAT).putInt(env.getxDimension()).putInt(env.getyDimension())
+                .putInt(env.getAgents().size()).putInt(keyframeInterval);
+        this.step = env.schedule.getSteps();
+        env.addWorldListener(this);
+        writeRecord(KEYFRAME);
+    }
+
+    /**
+     * Records env into file from now on, scheduled to run after the agents
+     * every step. The caller closes the writer at the end of the run.
+     */
+    public static TWHistoryWriter attach(TWEnvironment env, File file, int keyframeInterval) throws IOException {
+        TWHistoryWriter writer = new TWHistoryWriter(env, file, keyframeInterval);
+        env.schedule.scheduleRepeating(writer, 4, 1.0);
+        return writer;
+    }
+
+    @Override
+    public void cellChanged(int x, int y, TWEntity old, TWEntity now) {
+        int cell = x * env.getyDimension() + y;
+        if (!isDirty[cell]) {
+            isDirty[cell] = true;
+            if (dirtyCount == dirty.length) {
+                int[] grown = new int[dirty.length * 2];
+                System.arraycopy(dirty, 0, grown, 0, dirtyCount);
+                dirty = grown;
+            }
+            dirty[dirtyCount++] = cell;
+        }
+    }
+
+    /**
+     * Records the state at the end of the step
+     */
+    @Override
+    public void step(SimState state) {
+        if (closed) {
+            return;
+        }
+        step++;
+        try {
+            writeRecord((step % keyframeInterval == 0) ? KEYFRAME : DELTA);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write history", e);
+        }
+    }
+
+    private void writeRecord(byte kind) throws IOException {
+        record.clear();
+        ensureRecord(24 + env.getAgents().size() * 8);
+        record.put(kind).putLong(step).putInt(env.getReward());
+        for (TWAgent a : env.getAgents()) {
+            record.putInt(a.getX()).putInt(a.getY());
+        }
+        ObjectGrid2D grid = env.getObjectGrid();
+        int height = env.getyDimension();
+        if (kind == KEYFRAME) {
+            int countAt = record.position();
+            record.putInt(0);
+            int count = 0;
+            for (int x = 0; x < env.getxDimension(); x++) {
+                for (int y = 0; y < height; y++) {
+                    TWEntity e = (TWEntity) grid.get(x, y);
+                    if (e != null) {
+                        putCell(x * height + y, e);
+                        count++;
+                    }
+                }
+            }
+            record.putInt(countAt, count);
+            keyframes.add(new long[] {step, regionStart + region.position()});
+        } else {
+            record.putInt(dirtyCount);
+            for (int i = 0; i < dirtyCount; i++) {
+                int cell = dirty[i];
+                putCell(cell, (TWEntity) grid.get(cell / height, cell % height));
+            }
+        }
+        for (int i = 0; i < dirtyCount; i++) {
+            isDirty[dirty[i]] = false;
+        }
+        dirtyCount = 0;
+
+        record.flip();
+        ensureRegion(4 + record.remaining());
+        region.putInt(record.remaining());
+        region.put(record);
+    }
+
+    private void putCell(int cell, TWEntity e) {
+        ensureRecord(13);
+        record.putInt(cell);
+        if (e == null) {
+            record.put(EMPTY);
+        } else if (e instanceof TWFuelStation) {
+            record.put(FUEL_STATION);
+        } else {
+            record.put((e instanceof TWTile) ? TILE : (e instanceof TWHole) ? HOLE : OBSTACLE);
+            record.putInt((int) ((TWObject) e).getCreationTime());
+            record.putInt((int) ((TWObject) e).getDeathTime());
+        }
+    }
+
+    private void ensureRecord(int n) {
+        if (record.remaining() < n) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + n));
+            record.flip();
+            grown.put(record);
+            record = grown;
+        }
+    }
+
+    /**
+     * Maps the next region of the file if fewer than n bytes are left in the current one
+     */
+    private void ensureRegion(int n) throws IOException {
+        if (region.remaining() < n) {
+            long position = regionStart + region.position();
+            region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(REGION_SIZE, n));
+            regionStart = position;
+        }
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public long getSize() {
+        return regionStart + region.position();
+    }
+
+    /**
+     * Writes the keyframe index, trims the file and stops recording
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        env.removeWorldListener(this);
+        try {
+            long indexOffset = getSize();
+            ensureRegion(4 + keyframes.size() * 16 + 12);
+            region.putInt(keyframes.size());
+            for (long[] keyframe : keyframes) {
+                region.putLong(keyframe[0]).putLong(keyframe[1]);
+            }
+            region.putLong(indexOffset).putInt(END_MAGIC);
+            long size = getSize();
+            region.force();
+            channel.truncate(size);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -4,7 +4,6 @@
 package tileworld.environment;
 
 import sim.util.Int2D;
-import tileworld.Parameters;
 
 /**
  * TWObject
@@ -20,12 +19,21 @@ import tileworld.Parameters;
  */
 public class TWObject extends TWEntity{
 
-	protected static final int lifeTime = Parameters.lifeTime;
-
 	private double creationTime;
 	private double dTime;
 
 
+	/**
+	 * @return the time step the object was created at
+	 */
+	public double getCreationTime() {
+		return creationTime;
+	}
+
+	void setCreationTime(double creationTime) {
+		this.creationTime = creationTime;
+	}
+
 	/**
 	 * @return the deathTime
 	 */
@@ -45,9 +53,11 @@ public class TWObject extends TWEntity{
 	 * @param deathTime
 	 */
 	public TWObject(int x, int y, TWEnvironment env, double creationTime, double deathTime) {
-		super(x,y,env);
+		super(env);
 		this.creationTime = creationTime;
 		this.dTime = deathTime;
+		// Placed once complete, world listeners see the lifetime of the new object
+		this.setLocation(x, y);
 	}
 
 	public TWObject(Int2D pos, TWEnvironment env, Double creationTime, Double deathTime) {
@@ -9,7 +9,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import sim.util.Bag;
 import sim.util.Int2D;
-import tileworld.Parameters;
 
 /**
  * TWObjectCreator
@@ -29,6 +28,10 @@ public class TWObjectCreator<T> {
     double dev;
     MersenneTwisterFast random;
     TWEnvironment env;
+    /**
+     * Number of time steps created objects live for
+     */
+    private final int lifeTime;
     private T instance;
     Class[] classes = {Int2D.class, TWEnvironment.class, Double.class, Double.class};
 
@@ -38,10 +41,11 @@ public class TWObjectCreator<T> {
      * @param tileCreationDistribution
      */
     public TWObjectCreator(double mean, double dev,
-            Bag context, MersenneTwisterFast random, T inst, TWEnvironment env) {
+            Bag context, MersenneTwisterFast random, T inst, TWEnvironment env, int lifeTime) {
         super();
         this.mean = mean;
         this.dev = dev;
+        this.lifeTime = lifeTime;
         instance = inst;
 
         this.env = env;
@@ -104,7 +108,7 @@ public class TWObjectCreator<T> {
 
         T o = null;
         try {
-            o = clazz.getDeclaredConstructor(classes).newInstance(pos, env, time, (time + Parameters.lifeTime));
+            o = clazz.getDeclaredConstructor(classes).newInstance(pos, env, time, (time + lifeTime));
         } catch (IllegalArgumentException ex) {
             Logger.getLogger(TWObjectCreator.class.getName()).log(Level.SEVERE, null, ex);
         } catch (InvocationTargetException ex) {
@@ -0,0 +1,24 @@
+package tileworld.environment;
+
+import sim.engine.Schedule;
+
+/**
+ * TWSchedule
+ *
+ * Description:
+ *
+ * The schedule of a TWEnvironment. Behaves exactly like the MASON Schedule,
+ * but its clock can be moved to the position recorded in a snapshot so that a
+ * restored simulation carries on from the step it was taken at.
+ */
+public class TWSchedule extends Schedule {
+
+    /**
+     * Sets the current time and step count. Only valid on an empty schedule,
+     * everything has to be scheduled again afterwards.
+     */
+    void setPosition(double time, long steps) {
+        this.time = time;
+        this.steps = steps;
+    }
+}
@@ -0,0 +1,22 @@
+package tileworld.environment;
+
+/**
+ * TWSerialExecutor
+ *
+ * Description:
+ *
+ * Runs the agents of a phase one after the other, in agent order, on the
+ * simulation thread. The reference the parallel executors are checked
+ * against.
+ */
+public class TWSerialExecutor implements TWAgentExecutor {
+
+    public void invokeAll(int count, Task task) {
+        for (int i = 0; i < count; i++) {
+            task.run(i);
+        }
+    }
+
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,208 @@
+package tileworld.environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWSnapshot
+ *
+ * Description:
+ *
+ * Compact binary snapshot of a running TWEnvironment: the schedule position,
+ * random generator state, reward, the objects with their lifetimes, the
+ * object grid and fuel station, every agent (position, fuel, score, carried
+ * tiles, memory and planner state), the shared blackboard and the goal
+ * reservations. The header carries the configuration and seed, so a snapshot
+ * is all that is needed to carry on a run.
+ *
+ * Unlike MASON checkpoints nothing is Java-serialised. The schedule's
+ * steppables are not stored, the environment schedules them again on
+ * restore. Percept maps, grids and reservations are written sparsely, so the
+ * size grows with what is on the map rather than with its area.
+ *
+ * Snapshots are written to a temporary file which then replaces the target,
+ * so an interrupted checkpoint leaves the previous one intact. They are read
+ * through a memory-mapped buffer.
+ */
+public final class TWSnapshot {
+
+    /**
+     * "TWS1"
+     */
+    private static final int MAGIC = 0x54575331;
+    /**
+     * Layout version, bumped whenever anything written changes
+     */
+    private static final int FORMAT = 6;
+
+    private TWSnapshot() {
+    }
+
+    /**
+     * Captures the state of env between two steps.
+     *
+     * @return the snapshot, ready to be read
+     */
+    public static ByteBuffer capture(TWEnvironment env) {
+        return encode(env).toBuffer();
+    }
+
+    static TWSnapshotOutput encode(TWEnvironment env) {
+        TWSnapshotOutput out = new TWSnapshotOutput(64 * 1024);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeString(env.getConfig().toString());
+        out.writeLong(env.seed());
+        env.writeState(out);
+        return out;
+    }
+
+    /**
+     * Creates a new environment in the state captured in snapshot. The
+     * snapshot buffer is not modified.
+     *
+     * @throws IOException if snapshot is not a valid snapshot
+     */
+    public static TWEnvironment restore(ByteBuffer snapshot) throws IOException {
+        return restore(snapshot, null, null);
+    }
+
+    /**
+     * Restores snapshot into a new environment running config, or the
+     * snapshot's own configuration if config is null. A different
+     * configuration must describe the same map, sensor range, agents and
+     * blackboard use, it can differ in e.g. the agents' tunables. shared are
+     * the objects of the snapshot's output to share rather than recreate, or
+     * null.
+     */
+    static TWEnvironment restore(ByteBuffer snapshot, TWConfig config, Object[] shared) throws IOException {
+        ByteBuffer buffer = snapshot.duplicate();
+        TWSnapshotInput in = new TWSnapshotInput(buffer, null);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Tileworld snapshot");
+        }
+        int format = in.readInt();
+        if (format != FORMAT) {
+            throw new IOException("Unsupported snapshot format " + format);
+        }
+        Properties properties = new Properties();
+        properties.load(new StringReader(in.readString()));
+        TWConfig stored;
+        try {
+            stored = TWConfig.fromProperties(properties);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Snapshot configuration is not valid: " + e.getMessage(), e);
+        }
+        if (config == null) {
+            config = stored;
+        } else if (config.getxDimension() != stored.getxDimension() || config.getyDimension() != stored.getyDimension()
+                || config.getDefaultSensorRange() != stored.getDefaultSensorRange()) {
+            throw new IOException("Configuration does not match the snapshot's map or sensor range");
+        }
+        TWEnvironment env = new TWEnvironment(config, in.readLong());
+        env.setVerbose(false);
+        env.start();
+        env.readState(new TWSnapshotInput(buffer, env, shared));
+        return env;
+    }
+
+    /**
+     * Writes a snapshot of env to file, replacing it.
+     */
+    public static void write(TWEnvironment env, File file) throws IOException {
+        ByteBuffer snapshot = capture(env);
+        Path target = file.toPath();
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+        try {
+            FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+            try {
+                while (snapshot.hasRemaining()) {
+                    channel.write(snapshot);
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Checkpoint benchmark. Runs the configuration given as first argument (a
+     * scenario number or .properties file, scenario 1 by default) quietly and
+     * writes a snapshot every interval steps (second argument, default 500),
+     * reporting snapshot size and write and restore times. The snapshot taken
+     * halfway is restored and run to the end next to the original, both must
+     * then produce identical snapshots.
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig config = (args.length > 0) ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+        int interval = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+        File file = File.createTempFile("tileworld", ".snapshot");
+        file.deleteOnExit();
+
+        TWEnvironment env = new TWEnvironment(config);
+        env.setVerbose(false);
+        env.start();
+        TWEnvironment restored = null;
+        long restoredAt = 0;
+        long endTime = config.getEndTime();
+        while (env.schedule.getSteps() < endTime && env.schedule.step(env)) {
+            // Keep the restored copy in step with the original
+            if (restored != null) {
+                restored.schedule.step(restored);
+            }
+            long steps = env.schedule.getSteps();
+            if (steps % interval != 0) {
+                continue;
+            }
+            long start = System.nanoTime();
+            write(env, file);
+            long written = System.nanoTime();
+            TWEnvironment copy = read(file);
+            long read = System.nanoTime();
+            System.out.println(String.format("step %5d: %8d bytes, write %6.2f ms, restore %6.2f ms", steps,
+                    file.length(), (written - start) / 1e6, (read - written) / 1e6));
+            if (restored == null && steps >= endTime / 2) {
+                restored = copy;
+                restoredAt = steps;
+            }
+        }
+        if (restored == null) {
+            System.out.println("Run too short to check a restore");
+            return;
+        }
+        boolean same = capture(env).equals(capture(restored));
+        System.out.println("Reward " + env.getReward() + ", restored from step " + restoredAt + ": "
+                + restored.getReward() + (same ? ", identical state" : ", STATE DIFFERS"));
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Restores the environment stored in file by write.
+     */
+    public static TWEnvironment read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return restore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package tileworld.environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.Int2D;
+import tileworld.agent.TWAgentPercept;
+
+/**
+ * TWSnapshotInput
+ *
+ * Description:
+ *
+ * Decoder for snapshots written by TWSnapshotOutput. Entities are recreated in
+ * the environment being restored the first time they are referenced, later
+ * references return the same object.
+ */
+public class TWSnapshotInput {
+
+    private final ByteBuffer buffer;
+    private final TWEnvironment env;
+    private final ArrayList<Object> objects = new ArrayList<Object>();
+    /**
+     * Objects of the environment the snapshot was taken from, by reference id,
+     * null unless they are shared with the restored environment
+     */
+    private final Object[] shared;
+
+    public TWSnapshotInput(ByteBuffer buffer, TWEnvironment env) {
+        this(buffer, env, null);
+    }
+
+    /**
+     * Creates an input which does not recreate entities and percepts but
+     * resolves references to the given objects, i.e. those of the snapshot's
+     * TWSnapshotOutput. Possible because neither ever changes once created.
+     */
+    TWSnapshotInput(ByteBuffer buffer, TWEnvironment env, Object[] shared) {
+        this.buffer = buffer;
+        this.env = env;
+        this.shared = shared;
+    }
+
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public double readDouble() throws IOException {
+        try {
+            return buffer.getDouble();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public short readShort() throws IOException {
+        try {
+            return buffer.getShort();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public String readString() throws IOException {
+        return new String(readBytes(readInt()), StandardCharsets.UTF_8);
+    }
+
+    public Int2D readInt2D() throws IOException {
+        if (!readBoolean()) {
+            return null;
+        }
+        int x = readInt();
+        return new Int2D(x, readInt());
+    }
+
+    /**
+     * Restores the state of random from the snapshot
+     */
+    public void readRandom(MersenneTwisterFast random) throws IOException {
+        random.readState(new DataInputStream(new ByteArrayInputStream(readBytes(readInt()))));
+    }
+
+    public TWEntity readEntity() throws IOException {
+        Object o = readReference();
+        if (o != null && !(o instanceof TWEntity)) {
+            throw new IOException("Corrupt snapshot: expected an entity, found " + o.getClass().getSimpleName());
+        }
+        return (TWEntity) o;
+    }
+
+    public TWAgentPercept readPercept() throws IOException {
+        Object o = readReference();
+        if (o != null && !(o instanceof TWAgentPercept)) {
+            throw new IOException("Corrupt snapshot: expected a percept, found " + o.getClass().getSimpleName());
+        }
+        return (TWAgentPercept) o;
+    }
+
+    private Object readReference() throws IOException {
+        int id = readInt();
+        if (id == TWSnapshotOutput.NULL) {
+            return null;
+        }
+        if (id < objects.size()) {
+            return objects.get(id);
+        }
+        if (id != objects.size()) {
+            throw new IOException("Corrupt snapshot: reference " + id + " before its definition");
+        }
+        // Reserve the id first, a percept's definition defines its entity
+        objects.add(null);
+        Object o;
+        byte kind = readByte();
+        if (kind == TWSnapshotOutput.PERCEPT) {
+            TWEntity e = readEntity();
+            double t = readDouble();
+            o = (shared != null) ? null : new TWAgentPercept(e, t);
+        } else if (shared != null) {
+            readInt();
+            readInt();
+            if (kind != TWSnapshotOutput.FUEL_STATION) {
+                readDouble();
+                readDouble();
+            }
+            o = null;
+        } else {
+            int x = readInt();
+            int y = readInt();
+            switch (kind) {
+            case TWSnapshotOutput.FUEL_STATION:
+                o = new TWFuelStation(x, y, env);
+                break;
+            case TWSnapshotOutput.TILE:
+                o = new TWTile(x, y, env, readDouble(), readDouble());
+                break;
+            case TWSnapshotOutput.HOLE:
+                o = new TWHole(x, y, env, readDouble(), readDouble());
+                break;
+            case TWSnapshotOutput.OBSTACLE:
+                o = new TWObstacle(x, y, env, readDouble(), readDouble());
+                break;
+            default:
+                throw new IOException("Corrupt snapshot: unknown object kind " + kind);
+            }
+        }
+        if (shared != null) {
+            // Definition read only to move past it
+            if (id >= shared.length) {
+                throw new IOException("Corrupt snapshot: reference " + id + " is not a shared object");
+            }
+            o = shared[id];
+        }
+        objects.set(id, o);
+        return o;
+    }
+
+    private byte readByte() throws IOException {
+        try {
+            return buffer.get();
+        } catch (BufferUnderflowException e) {
+            throw truncated();
+        }
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw truncated();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static IOException truncated() {
+        return new IOException("Snapshot is truncated");
+    }
+}
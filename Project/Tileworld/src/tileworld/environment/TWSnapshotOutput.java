@@ -0,0 +1,195 @@
+package tileworld.environment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.Int2D;
+import tileworld.agent.TWAgentPercept;
+
+/**
+ * TWSnapshotOutput
+ *
+ * Description:
+ *
+ * Encoder used to write a snapshot (see TWSnapshot). Primitives go straight
+ * into a growing ByteBuffer. Entities and percepts are written as references:
+ * the first time one is seen it gets the next id and its definition follows
+ * inline, afterwards only the id is written. Object identity is therefore
+ * preserved, e.g. a tile an agent remembers and the same tile on the grid are
+ * one object again after a restore.
+ */
+public class TWSnapshotOutput {
+
+    static final int NULL = -1;
+    static final byte TILE = 1;
+    static final byte HOLE = 2;
+    static final byte OBSTACLE = 3;
+    static final byte FUEL_STATION = 4;
+    static final byte PERCEPT = 5;
+
+    private ByteBuffer buffer;
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+
+    public TWSnapshotOutput(int capacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, 64));
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    public void writeInt(int v) {
+        ensure(4);
+        buffer.putInt(v);
+    }
+
+    public void writeLong(long v) {
+        ensure(8);
+        buffer.putLong(v);
+    }
+
+    public void writeDouble(double v) {
+        ensure(8);
+        buffer.putDouble(v);
+    }
+
+    public void writeShort(short v) {
+        ensure(2);
+        buffer.putShort(v);
+    }
+
+    public void writeBoolean(boolean v) {
+        ensure(1);
+        buffer.put(v ? (byte) 1 : (byte) 0);
+    }
+
+    public void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Writes a cell position, null allowed
+     */
+    public void writeInt2D(Int2D p) {
+        writeBoolean(p != null);
+        if (p != null) {
+            writeInt(p.x);
+            writeInt(p.y);
+        }
+    }
+
+    /**
+     * Writes the state of a random number generator
+     */
+    public void writeRandom(MersenneTwisterFast random) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2560);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            random.writeState(out);
+            out.flush();
+        } catch (IOException e) {
+            // Only thrown by the underlying stream, which is in memory
+            throw new IllegalStateException(e);
+        }
+        writeInt(bytes.size());
+        ensure(bytes.size());
+        buffer.put(bytes.toByteArray());
+    }
+
+    /**
+     * Writes a reference to a tile, hole, obstacle or fuel station (or null)
+     */
+    public void writeEntity(TWEntity e) {
+        if (e == null) {
+            writeInt(NULL);
+            return;
+        }
+        Integer id = ids.get(e);
+        if (id != null) {
+            writeInt(id);
+            return;
+        }
+        writeInt(define(e));
+        if (e instanceof TWFuelStation) {
+            writeByte(FUEL_STATION);
+        } else if (e instanceof TWTile) {
+            writeByte(TILE);
+        } else if (e instanceof TWHole) {
+            writeByte(HOLE);
+        } else if (e instanceof TWObstacle) {
+            writeByte(OBSTACLE);
+        } else {
+            throw new IllegalArgumentException("Cannot snapshot " + e.getClass().getName());
+        }
+        writeInt(e.x);
+        writeInt(e.y);
+        if (e instanceof TWObject) {
+            writeDouble(((TWObject) e).getCreationTime());
+            writeDouble(((TWObject) e).getDeathTime());
+        }
+    }
+
+    /**
+     * Writes a reference to a memory percept (or null)
+     */
+    public void writePercept(TWAgentPercept p) {
+        if (p == null) {
+            writeInt(NULL);
+            return;
+        }
+        Integer id = ids.get(p);
+        if (id != null) {
+            writeInt(id);
+            return;
+        }
+        writeInt(define(p));
+        writeByte(PERCEPT);
+        writeEntity(p.getO());
+        writeDouble(p.getT());
+    }
+
+    private int define(Object o) {
+        int id = ids.size();
+        ids.put(o, id);
+        return id;
+    }
+
+    private void writeByte(byte b) {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    /**
+     * @return the entities and percepts written so far, indexed by their reference id
+     */
+    Object[] getObjects() {
+        Object[] objects = new Object[ids.size()];
+        for (Map.Entry<Object, Integer> e : ids.entrySet()) {
+            objects[e.getValue()] = e.getKey();
+        }
+        return objects;
+    }
+
+    /**
+     * @return the bytes written so far, ready to be read
+     */
+    public ByteBuffer toBuffer() {
+        ByteBuffer out = buffer.duplicate();
+        out.flip();
+        return out;
+    }
+}
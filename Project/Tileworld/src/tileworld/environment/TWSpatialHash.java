@@ -0,0 +1,125 @@
+package tileworld.environment;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import tileworld.agent.TWAgent;
+
+/**
+ * TWSpatialHash
+ *
+ * Description:
+ *
+ * Uniform spatial hash of agent positions. The grid is split into square
+ * buckets of cellSize x cellSize cells and every agent is kept in the bucket
+ * covering its current location. The bucket of an agent is updated whenever
+ * the agent moves (see TWAgent#setLocation), so a query for the agents around
+ * a location only has to look at the handful of buckets overlapping the query
+ * square instead of at the whole population.
+ *
+ */
+public class TWSpatialHash {
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final List<List<TWAgent>> buckets;
+    /**
+     * Bucket each agent is currently stored in, used to find it again when it
+     * moves.
+     */
+    private final IdentityHashMap<TWAgent, Integer> bucketOf;
+
+    public TWSpatialHash(int xDimension, int yDimension, int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+        this.columns = (xDimension + this.cellSize - 1) / this.cellSize;
+        this.rows = (yDimension + this.cellSize - 1) / this.cellSize;
+        this.buckets = new ArrayList<List<TWAgent>>(columns * rows);
+        for (int i = 0; i < columns * rows; i++) {
+            buckets.add(new ArrayList<TWAgent>(4));
+        }
+        this.bucketOf = new IdentityHashMap<TWAgent, Integer>();
+    }
+
+    private int bucketIndex(int x, int y) {
+        int bx = Math.min(Math.max(x / cellSize, 0), columns - 1);
+        int by = Math.min(Math.max(y / cellSize, 0), rows - 1);
+        return bx * rows + by;
+    }
+
+    /**
+     * Inserts the agent or moves it to the bucket covering its current
+     * location. Cheap when the agent stays inside the same bucket.
+     *
+     * @param agent the agent which (possibly) moved
+     */
+    public void update(TWAgent agent) {
+        int newBucket = bucketIndex(agent.getX(), agent.getY());
+        Integer oldBucket = bucketOf.get(agent);
+        if (oldBucket != null) {
+            if (oldBucket == newBucket) {
+                return;
+            }
+            buckets.get(oldBucket).remove(agent);
+        }
+        buckets.get(newBucket).add(agent);
+        bucketOf.put(agent, newBucket);
+    }
+
+    public void remove(TWAgent agent) {
+        Integer oldBucket = bucketOf.remove(agent);
+        if (oldBucket != null) {
+            buckets.get(oldBucket).remove(agent);
+        }
+    }
+
+    /**
+     * Adds to result all agents within the given manhattan distance of (x, y).
+     *
+     * @param x x coordinate of the centre
+     * @param y y coordinate of the centre
+     * @param radius maximum manhattan distance
+     * @param result list the agents are appended to
+     */
+    public void getAgentsWithinDistance(int x, int y, int radius, List<TWAgent> result) {
+        int minBx = Math.max((x - radius) / cellSize, 0);
+        int maxBx = Math.min((x + radius) / cellSize, columns - 1);
+        int minBy = Math.max((y - radius) / cellSize, 0);
+        int maxBy = Math.min((y + radius) / cellSize, rows - 1);
+        for (int bx = minBx; bx <= maxBx; bx++) {
+            for (int by = minBy; by <= maxBy; by++) {
+                List<TWAgent> bucket = buckets.get(bx * rows + by);
+                for (int i = 0; i < bucket.size(); i++) {
+                    TWAgent a = bucket.get(i);
+                    if (Math.abs(a.getX() - x) + Math.abs(a.getY() - y) <= radius) {
+                        result.add(a);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds to result all agents in the bucket containing (x, y) and in the
+     * eight buckets surrounding it (the zone neighbourhood).
+     *
+     * @param x x coordinate of the centre
+     * @param y y coordinate of the centre
+     * @param result list the agents are appended to
+     */
+    public void getAgentsInNeighbourhood(int x, int y, List<TWAgent> result) {
+        int b = bucketIndex(x, y);
+        int cx = b / rows;
+        int cy = b % rows;
+        for (int bx = Math.max(cx - 1, 0); bx <= Math.min(cx + 1, columns - 1); bx++) {
+            for (int by = Math.max(cy - 1, 0); by <= Math.min(cy + 1, rows - 1); by++) {
+                result.addAll(buckets.get(bx * rows + by));
+            }
+        }
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,155 @@
+package tileworld.environment;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import tileworld.TWConfig;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWThought;
+
+/**
+ * TWStepPipeline
+ *
+ * Description:
+ *
+ * Steps all agents of an environment phase by phase, after the environment
+ * itself has been updated:
+ *
+ * <pre>
+ * sense        in parallel, every agent reads the world into its own memory
+ * communicate  in agent order, agents post messages and claim goals
+ * think        in parallel, every agent decides on an action
+ * act          in agent order, the actions are applied to the world
+ * </pre>
+ *
+ * Sensing reads the world and writes only the agent's own memory. Thinking
+ * writes the agent's own memory, plan and rankings. It reads the messages,
+ * the goal reservations, the allocator's assignments and the windows peers
+ * published in communicate (see TWAgentDecayMemory#publishWindow), none of
+ * which change during the phase. Peers' maps are merged from those copies,
+ * never from the maps the peers are merging into at the same time. No agent
+ * therefore writes what another one reads in a parallel phase. The result is
+ * the same whatever the executor, and a run is bit-identical to one with
+ * TWSerialExecutor. With a shared blackboard, sensing writes into the shared
+ * map and runs in agent order instead.
+ *
+ * Unlike the default schedule, in which each agent thinks and acts before
+ * the next one thinks, all agents decide on the same world here; an agent
+ * whose action has become invalid by the time it acts (e.g. the tile was
+ * picked up by an earlier agent) fails the action as it would otherwise.
+ */
+public class TWStepPipeline implements Steppable {
+
+    private final TWEnvironment environment;
+    private final ArrayList<TWAgent> agents;
+    private final TWAgentExecutor executor;
+    private final boolean parallelSense;
+    private TWThought[] thoughts;
+
+    private final TWAgentExecutor.Task sense = new TWAgentExecutor.Task() {
+        public void run(int agent) {
+            agents.get(agent).sense();
+        }
+    };
+
+    private final TWAgentExecutor.Task think = new TWAgentExecutor.Task() {
+        public void run(int agent) {
+            thoughts[agent] = agents.get(agent).deliberate();
+        }
+    };
+
+    public TWStepPipeline(TWEnvironment environment, TWAgentExecutor executor) {
+        this.environment = environment;
+        this.agents = environment.getAgents();
+        this.executor = executor;
+        this.parallelSense = environment.getBlackboard() == null;
+        this.thoughts = new TWThought[0];
+    }
+
+    public void step(SimState state) {
+        int count = agents.size();
+        if (thoughts.length != count) {
+            thoughts = new TWThought[count];
+        }
+        if (parallelSense) {
+            executor.invokeAll(count, sense);
+        } else {
+            for (int i = 0; i < count; i++) {
+                agents.get(i).sense();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            agents.get(i).communicate();
+        }
+        executor.invokeAll(count, think);
+        for (int i = 0; i < count; i++) {
+            agents.get(i).commit(thoughts[i]);
+            thoughts[i] = null;
+        }
+    }
+
+    public TWAgentExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Benchmark: runs scenario 1 scaled to each agent count (first argument,
+     * comma separated, default 3,6,12,24) with the serial and the fork-join
+     * executor (threads given as second argument, default all cores), checks
+     * that both end in byte-identical snapshots and prints the speedup.
+     */
+    public static void main(String[] args) {
+        String[] counts = ((args.length > 0) ? args[0] : "3,6,12,24").split(",");
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long steps = (args.length > 2) ? Long.parseLong(args[2]) : 2000;
+        System.out.println("agents  serial ms/step  fork-join ms/step  speedup  identical  (" + threads + " threads)");
+        boolean ok = true;
+        for (String c : counts) {
+            int agentCount = Integer.parseInt(c.trim());
+            // Keep the area and the object rates per agent of scenario 1
+            int side = (int) Math.round(50 * Math.sqrt(agentCount / 3.0));
+            double rate = 0.2 * side * side / 2500.0;
+            TWConfig config = TWConfig.DEFAULT.toBuilder().agentCount(agentCount).dimensions(side, side)
+                    .tiles(rate, rate / 4).holes(rate, rate / 4).obstacles(rate, rate / 4)
+                    .endTime(steps).phasedStep(true).build();
+            // Warm up both paths so that neither pays for JIT compilation
+            TWConfig warmUp = config.toBuilder().endTime(Math.min(steps, 300)).build();
+            run(warmUp, new TWSerialExecutor());
+            run(warmUp, new TWForkJoinExecutor(threads));
+
+            long start = System.nanoTime();
+            ByteBuffer serial = run(config, new TWSerialExecutor());
+            double serialTime = (System.nanoTime() - start) / 1e6 / steps;
+            start = System.nanoTime();
+            ByteBuffer parallel = run(config, new TWForkJoinExecutor(threads));
+            double parallelTime = (System.nanoTime() - start) / 1e6 / steps;
+            boolean identical = serial.equals(parallel);
+            ok &= identical;
+            System.out.println(String.format("%6d  %14.3f  %17.3f  %7.2f  %9s", agentCount, serialTime, parallelTime,
+                    serialTime / parallelTime, identical ? "yes" : "NO"));
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs config to its end time with the agents on executor and returns a
+     * snapshot of the final state. The executor is set on the environment
+     * rather than through agentThreads, as the snapshot includes the
+     * configuration.
+     */
+    private static ByteBuffer run(TWConfig config, TWAgentExecutor executor) {
+        TWEnvironment tw = new TWEnvironment(config);
+        tw.setAgentExecutor(executor);
+        tw.setVerbose(false);
+        tw.start();
+        while (tw.schedule.getSteps() < config.getEndTime() && tw.schedule.step(tw)) {
+        }
+        ByteBuffer snapshot = TWSnapshot.capture(tw);
+        tw.finish();
+        return snapshot;
+    }
+}
@@ -0,0 +1,383 @@
+package tileworld.environment;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.field.grid.ObjectGrid2D;
+import sim.util.Bag;
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWThought;
+
+/**
+ * TWStripPartition
+ *
+ * Description:
+ *
+ * Domain decomposition of an environment into vertical strips of columns,
+ * used when the partitions setting is above 0. Every strip owns the objects
+ * created inside it and the agents standing in it, and the strips are worked
+ * on in parallel on the environment's agent executor (with
+ * threadPerAgent, each strip always runs on the same thread):
+ *
+ * <pre>
+ * expire       every strip takes its expired objects off the grid
+ * sense        every strip senses its agents
+ * communicate  all agents in agent order
+ * think        every strip lets its agents think
+ * act          all agents in agent order, then agents which crossed into
+ *              another strip migrate to it
+ * </pre>
+ *
+ * Object creation stays central in TWEnvironment.step, as it draws from the
+ * simulation's random number generator; the new objects are then handed to
+ * the strips they fall in. Objects all live for the same time, so a strip
+ * keeps its objects in creation order and expiring them only looks at the
+ * head of the queue instead of at every object in the world.
+ *
+ * The strips share the environment's object grid and never write outside
+ * their own columns. A sensor window which crosses a strip boundary reads
+ * the neighbouring strip's columns directly: the phases are separated by
+ * barriers and no strip writes to the grid while agents sense, which is
+ * what the exchange of halo cells provides between processes.
+ *
+ * A partitioned run steps agents like phasedStep and matches a phasedStep
+ * run step for step, whatever the number of strips and the executor, see
+ * main.
+ */
+public class TWStripPartition implements Steppable {
+
+    /**
+     * What is in one strip of columns
+     */
+    private static class Strip {
+        /**
+         * Objects in the strip, in order of death time
+         */
+        final ArrayDeque<TWObject> objects = new ArrayDeque<TWObject>();
+        /**
+         * Agents in the strip, in agent order
+         */
+        final ArrayList<TWAgent> agents = new ArrayList<TWAgent>();
+        /**
+         * Objects which expired this step and what their cells held before
+         */
+        final ArrayList<TWObject> expired = new ArrayList<TWObject>();
+        final ArrayList<TWEntity> cleared = new ArrayList<TWEntity>();
+
+        /**
+         * Queues o by its death time. Objects normally arrive in that order;
+         * the rare exception (e.g. a restored snapshot) is sorted in from the
+         * back.
+         */
+        void add(TWObject o) {
+            if (objects.isEmpty() || objects.peekLast().getDeathTime() <= o.getDeathTime()) {
+                objects.addLast(o);
+                return;
+            }
+            ArrayDeque<TWObject> later = new ArrayDeque<TWObject>();
+            while (!objects.isEmpty() && objects.peekLast().getDeathTime() > o.getDeathTime()) {
+                later.addFirst(objects.pollLast());
+            }
+            objects.addLast(o);
+            objects.addAll(later);
+        }
+    }
+
+    private final TWEnvironment environment;
+    private final ObjectGrid2D grid;
+    private final Strip[] strips;
+    private final int stripWidth;
+    /**
+     * Strip of every agent, by agent id
+     */
+    private int[] agentStrip;
+    private TWThought[] thoughts;
+    private TWAgentExecutor executor;
+    private double now;
+
+    private final TWAgentExecutor.Task expire = new TWAgentExecutor.Task() {
+        public void run(int strip) {
+            Strip s = strips[strip];
+            while (!s.objects.isEmpty() && s.objects.peekFirst().getTimeLeft(now) <= 0) {
+                TWObject o = s.objects.pollFirst();
+                s.expired.add(o);
+                s.cleared.add((TWEntity) grid.get(o.getX(), o.getY()));
+                grid.set(o.getX(), o.getY(), null);
+            }
+        }
+    };
+
+    private final TWAgentExecutor.Task sense = new TWAgentExecutor.Task() {
+        public void run(int strip) {
+            ArrayList<TWAgent> agents = strips[strip].agents;
+            for (int i = 0; i < agents.size(); i++) {
+                agents.get(i).sense();
+            }
+        }
+    };
+
+    private final TWAgentExecutor.Task think = new TWAgentExecutor.Task() {
+        public void run(int strip) {
+            ArrayList<TWAgent> agents = strips[strip].agents;
+            for (int i = 0; i < agents.size(); i++) {
+                TWAgent a = agents.get(i);
+                thoughts[a.getId()] = a.deliberate();
+            }
+        }
+    };
+
+    public TWStripPartition(TWEnvironment environment, int partitions) {
+        this.environment = environment;
+        this.grid = environment.getObjectGrid();
+        int width = environment.getxDimension();
+        int count = Math.min(partitions, width);
+        this.stripWidth = (width + count - 1) / count;
+        this.strips = new Strip[(width + stripWidth - 1) / stripWidth];
+        for (int i = 0; i < strips.length; i++) {
+            strips[i] = new Strip();
+        }
+        this.agentStrip = new int[0];
+        this.thoughts = new TWThought[0];
+    }
+
+    void setExecutor(TWAgentExecutor executor) {
+        this.executor = executor;
+    }
+
+    public int getStripCount() {
+        return strips.length;
+    }
+
+    private int stripOf(int x) {
+        return x / stripWidth;
+    }
+
+    /**
+     * Hands newly created objects to the strips they are in
+     */
+    void addAll(Bag created) {
+        for (int i = 0; i < created.size(); i++) {
+            add((TWObject) created.get(i));
+        }
+    }
+
+    void add(TWObject o) {
+        strips[stripOf(o.getX())].add(o);
+    }
+
+    /**
+     * Takes every object whose time is up off the grid, strips in parallel,
+     * then reports them to the event recorder and world listeners in strip
+     * order.
+     */
+    void expire(double time) {
+        now = time;
+        executor.invokeAll(strips.length, expire);
+        for (Strip s : strips) {
+            for (int i = 0; i < s.expired.size(); i++) {
+                TWObject o = s.expired.get(i);
+                environment.objectExpired(o, s.cleared.get(i));
+            }
+            s.expired.clear();
+            s.cleared.clear();
+        }
+    }
+
+    public void step(SimState state) {
+        ArrayList<TWAgent> agents = environment.getAgents();
+        int count = agents.size();
+        if (agentStrip.length != count) {
+            assignAgents();
+        }
+        if (environment.getBlackboard() == null) {
+            executor.invokeAll(strips.length, sense);
+        } else {
+            // Sensing writes into the shared map
+            for (int i = 0; i < count; i++) {
+                agents.get(i).sense();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            agents.get(i).communicate();
+        }
+        executor.invokeAll(strips.length, think);
+        for (int i = 0; i < count; i++) {
+            agents.get(i).commit(thoughts[i]);
+            thoughts[i] = null;
+        }
+        migrate();
+    }
+
+    /**
+     * Puts every agent into the strip it stands in
+     */
+    private void assignAgents() {
+        ArrayList<TWAgent> agents = environment.getAgents();
+        agentStrip = new int[agents.size()];
+        thoughts = new TWThought[agents.size()];
+        for (Strip s : strips) {
+            s.agents.clear();
+        }
+        for (int i = 0; i < agents.size(); i++) {
+            TWAgent a = agents.get(i);
+            agentStrip[i] = stripOf(a.getX());
+            strips[agentStrip[i]].agents.add(a);
+        }
+    }
+
+    /**
+     * Moves agents which left their strip during the step to their new strip
+     */
+    private void migrate() {
+        ArrayList<TWAgent> agents = environment.getAgents();
+        for (int i = 0; i < agents.size(); i++) {
+            TWAgent a = agents.get(i);
+            int strip = stripOf(a.getX());
+            if (strip != agentStrip[i]) {
+                strips[agentStrip[i]].agents.remove(a);
+                ArrayList<TWAgent> target = strips[strip].agents;
+                int at = 0;
+                while (at < target.size() && target.get(at).getId() < a.getId()) {
+                    at++;
+                }
+                target.add(at, a);
+                agentStrip[i] = strip;
+            }
+        }
+    }
+
+    /**
+     * Adds the objects of all strips to the bags, by type, for a snapshot
+     */
+    void collect(Bag tiles, Bag holes, Bag obstacles) {
+        for (Strip s : strips) {
+            for (TWObject o : s.objects) {
+                if (o instanceof TWTile) {
+                    tiles.add(o);
+                } else if (o instanceof TWHole) {
+                    holes.add(o);
+                } else {
+                    obstacles.add(o);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the content of the strips with the objects in the bags, which
+     * are emptied, and reassigns the agents, after a snapshot was restored
+     */
+    void reset(Bag... bags) {
+        ArrayList<TWObject> objects = new ArrayList<TWObject>();
+        for (Bag b : bags) {
+            for (int i = 0; i < b.size(); i++) {
+                objects.add((TWObject) b.get(i));
+            }
+            b.clear();
+        }
+        TWObject[] sorted = objects.toArray(new TWObject[objects.size()]);
+        Arrays.sort(sorted, new Comparator<TWObject>() {
+            public int compare(TWObject a, TWObject b) {
+                return Double.compare(a.getDeathTime(), b.getDeathTime());
+            }
+        });
+        for (Strip s : strips) {
+            s.objects.clear();
+        }
+        for (TWObject o : sorted) {
+            add(o);
+        }
+        agentStrip = new int[0];
+    }
+
+    /**
+     * Runs the configuration given as first argument (scenario 1 by default)
+     * scaled to the agent count given as second argument (default 12) once
+     * with the given number of strips (third argument, default 4) and once
+     * with phasedStep on one thread, for the number of steps given as fourth
+     * argument (default: its end time), checks after every step that the
+     * world, the agents and the reward are the same, and prints the time per
+     * step of both.
+     */
+    public static void main(String[] args) throws IOException {
+        TWConfig base = (args.length > 0) ? TWPresets.resolve(args[0]) : TWConfig.DEFAULT;
+        int agentCount = (args.length > 1) ? Integer.parseInt(args[1]) : 12;
+        int partitions = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+        long steps = (args.length > 3) ? Long.parseLong(args[3]) : base.getEndTime();
+        double scale = Math.sqrt(agentCount / 3.0);
+        double area = scale * scale;
+        TWConfig config = base.toBuilder().agentCount(agentCount)
+                .dimensions((int) Math.round(base.getxDimension() * scale), (int) Math.round(base.getyDimension() * scale))
+                .tiles(base.getTileMean() * area, base.getTileDev() * area)
+                .holes(base.getHoleMean() * area, base.getHoleDev() * area)
+                .obstacles(base.getObstacleMean() * area, base.getObstacleDev() * area)
+                .endTime(steps).build();
+        TWConfig phased = config.toBuilder().phasedStep(true).build();
+        TWConfig partitioned = config.toBuilder().partitions(partitions)
+                .agentThreads(Runtime.getRuntime().availableProcessors()).build();
+
+        TWEnvironment one = new TWEnvironment(phased);
+        TWEnvironment strips = new TWEnvironment(partitioned);
+        one.setVerbose(false);
+        strips.setVerbose(false);
+        one.start();
+        strips.start();
+        long singleTime = 0;
+        long stripTime = 0;
+        for (long step = 1; step <= config.getEndTime(); step++) {
+            long start = System.nanoTime();
+            one.schedule.step(one);
+            long middle = System.nanoTime();
+            strips.schedule.step(strips);
+            stripTime += System.nanoTime() - middle;
+            singleTime += middle - start;
+            String difference = compare(one, strips);
+            if (difference != null) {
+                System.out.println("Step " + step + ": " + difference);
+                System.exit(1);
+            }
+        }
+        System.out.println(String.format("%d agents on %dx%d, %d strips: identical for %d steps, reward %d",
+                agentCount, config.getxDimension(), config.getyDimension(), strips.getPartition().getStripCount(),
+                config.getEndTime(), strips.getReward()));
+        System.out.println(String.format("phasedStep %.3f ms/step, strips %.3f ms/step",
+                singleTime / 1e6 / config.getEndTime(), stripTime / 1e6 / config.getEndTime()));
+        one.finish();
+        strips.finish();
+    }
+
+    /**
+     * @return what differs between the observable state of a and b, null if nothing
+     */
+    private static String compare(TWEnvironment a, TWEnvironment b) {
+        if (a.getReward() != b.getReward()) {
+            return "reward " + a.getReward() + " vs " + b.getReward();
+        }
+        for (int i = 0; i < a.getAgents().size(); i++) {
+            TWAgent p = a.getAgents().get(i);
+            TWAgent q = b.getAgents().get(i);
+            if (p.getX() != q.getX() || p.getY() != q.getY() || p.getFuelLevel() != q.getFuelLevel()
+                    || p.getScore() != q.getScore()) {
+                return p.getName() + " differs";
+            }
+        }
+        for (int x = 0; x < a.getxDimension(); x++) {
+            for (int y = 0; y < a.getyDimension(); y++) {
+                TWEntity e = (TWEntity) a.getObjectGrid().get(x, y);
+                TWEntity f = (TWEntity) b.getObjectGrid().get(x, y);
+                if ((e == null) != (f == null) || (e != null && (e.getClass() != f.getClass()
+                        || (e instanceof TWObject && ((TWObject) e).getDeathTime() != ((TWObject) f).getDeathTime())))) {
+                    return "cell " + x + "," + y + " holds " + e + " vs " + f;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,422 @@
+package tileworld.environment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import tileworld.TWConfig;
+
+/**
+ * TWTaskAllocator
+ *
+ * Description:
+ *
+ * Assigns tiles and holes to agents centrally, used instead of agents
+ * auctioning their surplus targets to each other by message when the
+ * centralAllocation setting is on. In their communicate phase agents submit
+ * where they are, which kinds of target they want and the targets they know
+ * of in their zone with the lifetime they expect those to have left. A
+ * target offered by several agents counts once, with the shortest lifetime
+ * any of them expects, and lies in the zone its cell is in (see
+ * TWZoneManager), whoever offered it. The first agent asking
+ * for its assignment in the think phase has the allocator solve the whole
+ * step once, which the others then read.
+ *
+ * Every agent may be assigned any target it wants the kind of, which it can
+ * reach before the target dies, and which lies in its own zone or (with
+ * allowAssistance) at most maxAssistZoneDistance zones away. Assignments
+ * maximise the total of (xDimension + yDimension) minus the Manhattan
+ * distance of each agent to its target, i.e. they keep the total distance
+ * low while giving as many agents a target as possible. Agents without a
+ * target they may take stay unassigned.
+ *
+ * The assignment is solved with Bertsekas' auction algorithm, with a bid
+ * increment below 1 / agents, which makes it optimal as distances are whole
+ * numbers. It is warm-started from the previous step's assignment: agents
+ * whose previous target is still as good as any other (within the bid
+ * increment) keep it without bidding, so only agents whose situation changed
+ * bid. Prices are not carried over: an agent's own bid raises the price of
+ * its target, and a raised price left on a target nobody ends up taking
+ * would keep the assignment from being optimal.
+ *
+ * Agents keep and bid in the order of their ids, and an agent bids for the
+ * target with the lowest cell index among those of equal value, so the
+ * assignment does not depend on the order agents submitted and offered in.
+ */
+public class TWTaskAllocator {
+
+    private final int height;
+    private final boolean byRows;
+    private final int zoneCount;
+    /**
+     * Boundaries of moving zones, null if zones are an even split
+     */
+    private final TWZoneManager zones;
+    private final boolean allowAssistance;
+    private final int maxAssistZoneDistance;
+    private final double benefit;
+
+    /**
+     * Step whose submissions are being collected
+     */
+    private long round = -1;
+    private boolean solved;
+
+    // Agents of the round, by id
+    private int agentCount;
+    private boolean[] submitted = new boolean[0];
+    private int[] agentX = new int[0];
+    private int[] agentY = new int[0];
+    private int[] agentZone = new int[0];
+    private boolean[] wantsTiles = new boolean[0];
+    private boolean[] wantsHoles = new boolean[0];
+    private int[] assigned = new int[0];
+
+    // Targets of the round, in the order offered
+    private int targetCount;
+    private int[] targetX = new int[16];
+    private int[] targetY = new int[16];
+    private boolean[] targetHole = new boolean[16];
+    private int[] targetZone = new int[16];
+    private double[] targetLifetime = new double[16];
+    private double[] price = new double[16];
+    private int[] owner = new int[16];
+    /**
+     * Target of every cell, -1 if none is offered there this round
+     */
+    private final int[] targetAt;
+
+    // Target cell of every agent in the previous round, -1 for none
+    private int[] previousCell = new int[0];
+
+    private int[] queue = new int[0];
+
+    private long solves;
+    private long bids;
+    private long kept;
+
+    /**
+     * @param zones the zone manager, null if zones do not move
+     */
+    public TWTaskAllocator(TWConfig config, TWZoneManager zones) {
+        this.height = config.getyDimension();
+        this.byRows = config.getxDimension() <= config.getyDimension();
+        this.zoneCount = config.getAgentCount();
+        this.zones = zones;
+        this.allowAssistance = config.isAllowAssistance();
+        this.maxAssistZoneDistance = config.getMaxAssistZoneDistance();
+        this.benefit = config.getxDimension() + config.getyDimension();
+        this.targetAt = new int[config.getxDimension() * config.getyDimension()];
+        Arrays.fill(targetAt, -1);
+    }
+
+    /**
+     * Enters agentId into the allocation of step, replacing what it submitted
+     * before in the same step. Its targets are then added with offer.
+     *
+     * @param zone the agent's zone
+     */
+    public synchronized void submit(int agentId, int x, int y, int zone, boolean tiles, boolean holes, long step) {
+        if (step != round) {
+            newRound(step);
+        }
+        ensureAgents(agentId + 1);
+        submitted[agentId] = true;
+        agentX[agentId] = x;
+        agentY[agentId] = y;
+        agentZone[agentId] = zone;
+        wantsTiles[agentId] = tiles;
+        wantsHoles[agentId] = holes;
+        solved = false;
+    }
+
+    /**
+     * Adds a target known to agentId, who must have submitted this step.
+     * Targets offered by several agents count once, with the shortest
+     * lifetime offered.
+     *
+     * @param lifetime number of steps agentId expects the target to live for
+     */
+    public synchronized void offer(int agentId, int x, int y, boolean hole, double lifetime) {
+        int cell = x * height + y;
+        if (targetAt[cell] >= 0) {
+            targetLifetime[targetAt[cell]] = Math.min(targetLifetime[targetAt[cell]], lifetime);
+            solved = false;
+            return;
+        }
+        if (targetCount == targetX.length) {
+            int capacity = 2 * targetCount;
+            targetX = Arrays.copyOf(targetX, capacity);
+            targetY = Arrays.copyOf(targetY, capacity);
+            targetHole = Arrays.copyOf(targetHole, capacity);
+            targetZone = Arrays.copyOf(targetZone, capacity);
+            targetLifetime = Arrays.copyOf(targetLifetime, capacity);
+            price = Arrays.copyOf(price, capacity);
+            owner = Arrays.copyOf(owner, capacity);
+        }
+        targetX[targetCount] = x;
+        targetY[targetCount] = y;
+        targetHole[targetCount] = hole;
+        targetZone[targetCount] = zoneAt(x, y);
+        targetLifetime[targetCount] = lifetime;
+        targetAt[cell] = targetCount;
+        targetCount++;
+        solved = false;
+    }
+
+    /**
+     * Keeps the assignment of the last round for the warm start and clears
+     * the submissions
+     */
+    private void newRound(long step) {
+        for (int i = 0; i < agentCount; i++) {
+            previousCell[i] = warmCell(i);
+            submitted[i] = false;
+            assigned[i] = -1;
+        }
+        for (int t = 0; t < targetCount; t++) {
+            targetAt[cellOf(t)] = -1;
+        }
+        targetCount = 0;
+        round = step;
+        solved = false;
+    }
+
+    /**
+     * @return the cell agent i starts the next round from, its target if it
+     *         took part in this round, what it had before if it did not
+     */
+    private int warmCell(int i) {
+        if (!submitted[i]) {
+            return previousCell[i];
+        }
+        return (assigned[i] >= 0) ? cellOf(assigned[i]) : -1;
+    }
+
+    private void ensureAgents(int count) {
+        if (count <= agentCount) {
+            return;
+        }
+        submitted = Arrays.copyOf(submitted, count);
+        agentX = Arrays.copyOf(agentX, count);
+        agentY = Arrays.copyOf(agentY, count);
+        agentZone = Arrays.copyOf(agentZone, count);
+        wantsTiles = Arrays.copyOf(wantsTiles, count);
+        wantsHoles = Arrays.copyOf(wantsHoles, count);
+        assigned = Arrays.copyOf(assigned, count);
+        previousCell = Arrays.copyOf(previousCell, count);
+        queue = new int[count];
+        for (int i = agentCount; i < count; i++) {
+            assigned[i] = -1;
+            previousCell[i] = -1;
+        }
+        agentCount = count;
+    }
+
+    /**
+     * @return whether agent i may take target t
+     */
+    private boolean eligible(int i, int t) {
+        if (targetHole[t] ? !wantsHoles[i] : !wantsTiles[i]) {
+            return false;
+        }
+        if (targetZone[t] != agentZone[i]
+                && (!allowAssistance || Math.abs(targetZone[t] - agentZone[i]) > maxAssistZoneDistance)) {
+            return false;
+        }
+        return distance(i, t) < targetLifetime[t];
+    }
+
+    /**
+     * @return the zone cell (x, y) lies in, the same split HybridPRSTWAgent lays its zones out by
+     */
+    private int zoneAt(int x, int y) {
+        if (zones != null) {
+            return zones.getZone(x, y);
+        }
+        int line = byRows ? y : x;
+        int lines = Math.max(1, (byRows ? height : targetAt.length / height) / zoneCount);
+        return Math.min(line / lines, zoneCount - 1);
+    }
+
+    private int distance(int i, int t) {
+        return Math.abs(targetX[t] - agentX[i]) + Math.abs(targetY[t] - agentY[i]);
+    }
+
+    /**
+     * Solves the assignment of the current round, see the class description
+     */
+    private void solve() {
+        double epsilon = 1.0 / (agentCount + 1);
+        Arrays.fill(owner, 0, targetCount, -1);
+        Arrays.fill(price, 0, targetCount, 0);
+
+        int queued = 0;
+        for (int i = 0; i < agentCount; i++) {
+            assigned[i] = -1;
+            if (!submitted[i]) {
+                continue;
+            }
+            // Keep the previous target if it is still within epsilon of the best
+            int t = (previousCell[i] >= 0) ? targetAt[previousCell[i]] : -1;
+            if (t >= 0 && owner[t] < 0 && eligible(i, t)) {
+                double value = benefit - distance(i, t) - price[t];
+                if (value >= 0 && value >= bestValue(i) - epsilon) {
+                    owner[t] = i;
+                    assigned[i] = t;
+                    kept++;
+                    continue;
+                }
+            }
+            queue[queued++] = i;
+        }
+
+        // Gauss-Seidel auction: one unassigned agent bids at a time
+        int head = 0;
+        while (queued > 0) {
+            int i = queue[head];
+            head = (head + 1) % queue.length;
+            queued--;
+            int best = -1;
+            double first = 0;
+            double second = 0; // staying unassigned is worth 0
+            for (int t = 0; t < targetCount; t++) {
+                if (!eligible(i, t)) {
+                    continue;
+                }
+                double value = benefit - distance(i, t) - price[t];
+                if (best < 0 || value > first || (value == first && cellOf(t) < cellOf(best))) {
+                    second = Math.max(second, (best < 0) ? 0 : first);
+                    best = t;
+                    first = value;
+                } else if (value > second) {
+                    second = value;
+                }
+            }
+            if (best < 0 || first < 0) {
+                continue;
+            }
+            price[best] += first - second + epsilon;
+            bids++;
+            int outbid = owner[best];
+            owner[best] = i;
+            assigned[i] = best;
+            if (outbid >= 0) {
+                assigned[outbid] = -1;
+                queue[(head + queued) % queue.length] = outbid;
+                queued++;
+            }
+        }
+        solves++;
+        solved = true;
+    }
+
+    private int cellOf(int t) {
+        return targetX[t] * height + targetY[t];
+    }
+
+    /**
+     * @return the best value any target offers agent i at the current prices, 0 if none
+     */
+    private double bestValue(int i) {
+        double best = 0;
+        for (int t = 0; t < targetCount; t++) {
+            if (eligible(i, t)) {
+                best = Math.max(best, benefit - distance(i, t) - price[t]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Solves the step if nothing has been solved since the last submission
+     *
+     * @return whether agentId has been assigned a target this step
+     */
+    public synchronized boolean hasAssignment(int agentId, long step) {
+        if (step != round || agentId >= agentCount) {
+            return false;
+        }
+        if (!solved) {
+            solve();
+        }
+        return assigned[agentId] >= 0;
+    }
+
+    /**
+     * The target of agentId, only valid after hasAssignment returned true
+     */
+    public synchronized int getAssignedX(int agentId) {
+        return targetX[assigned[agentId]];
+    }
+
+    public synchronized int getAssignedY(int agentId) {
+        return targetY[assigned[agentId]];
+    }
+
+    public synchronized boolean isAssignedHole(int agentId) {
+        return targetHole[assigned[agentId]];
+    }
+
+    /**
+     * @return the zone the target of agentId lies in
+     */
+    public synchronized int getAssignedZone(int agentId) {
+        return targetZone[assigned[agentId]];
+    }
+
+    /**
+     * Writes the assignment the next step is warm-started from and the
+     * counters for TWSnapshot. Submissions are not included, they are made
+     * anew every step.
+     */
+    synchronized void writeState(TWSnapshotOutput out) {
+        out.writeLong(round);
+        out.writeInt(agentCount);
+        for (int i = 0; i < agentCount; i++) {
+            out.writeInt(warmCell(i));
+        }
+        out.writeLong(solves);
+        out.writeLong(bids);
+        out.writeLong(kept);
+    }
+
+    synchronized void readState(TWSnapshotInput in) throws IOException {
+        round = in.readLong();
+        ensureAgents(in.readInt());
+        for (int i = 0; i < agentCount; i++) {
+            previousCell[i] = in.readInt();
+            if (previousCell[i] < -1 || previousCell[i] >= targetAt.length) {
+                throw new IOException("Corrupt snapshot: allocated target outside the map");
+            }
+        }
+        solves = in.readLong();
+        bids = in.readLong();
+        kept = in.readLong();
+    }
+
+    /**
+     * @return number of steps solved
+     */
+    public long getSolves() {
+        return solves;
+    }
+
+    /**
+     * @return number of bids made in all solves
+     */
+    public long getBids() {
+        return bids;
+    }
+
+    /**
+     * @return number of times an agent kept its previous target without bidding
+     */
+    public long getKept() {
+        return kept;
+    }
+
+    @Override
+    public String toString() {
+        return "solves: " + solves + ", bids: " + bids + ", kept: " + kept;
+    }
+}
@@ -0,0 +1,204 @@
+package tileworld.environment;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tileworld.TWConfig;
+
+/**
+ * TWThreadPerAgentExecutor
+ *
+ * Description:
+ *
+ * Gives every agent a thread of its own which lives for the whole run, and
+ * synchronises the threads with the simulation thread through a Phaser: all
+ * agent threads wait at the barrier until a phase starts, run their part of
+ * it and meet again at the barrier when it ends. Everything an agent does in
+ * the sense and think phases therefore happens on the same thread, so agent
+ * code may block (e.g. wait for a planner it started in an earlier phase) or
+ * keep thread-local state instead of being written as a state machine.
+ *
+ * The threads are virtual threads where the JVM has them (Java 21 on),
+ * which makes hundreds of agents cheap, and daemon platform threads
+ * otherwise.
+ */
+public class TWThreadPerAgentExecutor implements TWAgentExecutor {
+
+    /**
+     * Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), null before Java 21
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    private Thread[] threads;
+    private Phaser barrier;
+    /**
+     * Set to release the current threads; every set of threads has its own
+     */
+    private AtomicBoolean stopping;
+    private volatile Task task;
+    private volatile Throwable failure;
+
+    /**
+     * @return whether agent threads are virtual threads on this JVM
+     */
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    public void invokeAll(int count, Task task) {
+        if (count <= 0) {
+            return;
+        }
+        if (threads == null || threads.length != count) {
+            shutdown();
+            startThreads(count);
+        }
+        this.task = task;
+        // Opens the phase, then waits for every agent to finish it
+        barrier.arriveAndAwaitAdvance();
+        barrier.arriveAndAwaitAdvance();
+        this.task = null;
+        Throwable t = failure;
+        if (t != null) {
+            failure = null;
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new IllegalStateException("Agent failed", t);
+        }
+    }
+
+    private void startThreads(int count) {
+        final Phaser phaser = new Phaser(count + 1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        barrier = phaser;
+        stopping = stop;
+        threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final int agent = i;
+            threads[i] = newThread(new Runnable() {
+                public void run() {
+                    loop(agent, phaser, stop);
+                }
+            });
+            threads[i].setName("Agent " + (i + 1));
+            threads[i].start();
+        }
+    }
+
+    private void loop(int agent, Phaser phaser, AtomicBoolean stop) {
+        while (true) {
+            phaser.arriveAndAwaitAdvance();
+            if (stop.get()) {
+                phaser.arriveAndDeregister();
+                return;
+            }
+            try {
+                task.run(agent);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            phaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    private static Thread newThread(Runnable body) {
+        if (OF_VIRTUAL != null) {
+            try {
+                return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), body);
+            } catch (ReflectiveOperationException e) {
+                // fall back to a platform thread
+            }
+        }
+        Thread thread = new Thread(body);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Releases the agent threads after the phase in progress, if any
+     */
+    public void shutdown() {
+        if (threads == null) {
+            return;
+        }
+        stopping.set(true);
+        barrier.arriveAndDeregister();
+        threads = null;
+        barrier = null;
+        stopping = null;
+    }
+
+    /**
+     * Compares the default schedule, the phase pipeline on a fork-join pool
+     * and the phase pipeline with a thread per agent on scenario 1 scaled to
+     * the agent count given as first argument (default 48), running the
+     * number of steps given as second argument (default 200). Prints the
+     * throughput and the median and 99th percentile time per step.
+     */
+    public static void main(String[] args) {
+        int agentCount = (args.length > 0) ? Integer.parseInt(args[0]) : 48;
+        long steps = (args.length > 1) ? Long.parseLong(args[1]) : 200;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int side = (int) Math.round(50 * Math.sqrt(agentCount / 3.0));
+        double rate = 0.2 * side * side / 2500.0;
+        TWConfig config = TWConfig.DEFAULT.toBuilder().agentCount(agentCount).dimensions(side, side)
+                .tiles(rate, rate / 4).holes(rate, rate / 4).obstacles(rate, rate / 4).endTime(steps).build();
+        TWConfig phased = config.toBuilder().phasedStep(true).build();
+
+        System.out.println(agentCount + " agents on " + side + "x" + side + ", " + steps + " steps, " + threads
+                + " cores, " + (isVirtual() ? "virtual" : "platform") + " agent threads");
+        System.out.println("mode                steps/s   p50 ms   p99 ms   reward");
+        for (int round = 0; round < 2; round++) {
+            // The first round warms up the JIT and is not printed
+            boolean print = round == 1;
+            measure("serial schedule", config, null, print);
+            measure("fork-join pipeline", phased, new TWForkJoinExecutor(threads), print);
+            measure("thread per agent", phased, new TWThreadPerAgentExecutor(), print);
+        }
+    }
+
+    private static void measure(String mode, TWConfig config, TWAgentExecutor executor, boolean print) {
+        TWEnvironment tw = new TWEnvironment(config);
+        tw.setAgentExecutor(executor);
+        tw.setVerbose(false);
+        tw.start();
+        long[] times = new long[(int) config.getEndTime()];
+        long start = System.nanoTime();
+        int n = 0;
+        while (n < times.length) {
+            long stepStart = System.nanoTime();
+            if (!tw.schedule.step(tw)) {
+                break;
+            }
+            times[n++] = System.nanoTime() - stepStart;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // Also shuts the executor down
+        tw.finish();
+        if (print) {
+            Arrays.sort(times, 0, n);
+            System.out.println(String.format("%-18s %8.1f %8.2f %8.2f %8d", mode, n / seconds,
+                    times[n / 2] / 1e6, times[Math.min(n - 1, (int) Math.ceil(n * 0.99) - 1)] / 1e6, tw.getReward()));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package tileworld.environment;
+
+import java.util.ArrayList;
+
+import sim.field.grid.ObjectGrid2D;
+import tileworld.agent.TWAgent;
+
+/**
+ * TWWorldHash
+ *
+ * Description:
+ *
+ * Zobrist-style hash of the observable state of an environment: the object
+ * grid, the agents and the reward. Every occupied cell contributes a 64 bit
+ * key derived from its position, the kind of entity and the object's death
+ * time, and the keys are combined with XOR, so a change to the grid updates
+ * the hash in O(1) by XORing the old content out and the new content in.
+ * The hash listens to the environment's world listener events for that and
+ * never rescans the grid. Keys are computed by mixing rather than looked up
+ * in a table of random numbers, which would take 32 bytes per cell.
+ *
+ * Agents (position, fuel, score and carried tiles) and the reward are few
+ * values, so their part is mixed in when the hash is read.
+ *
+ * Two runs with equal hashes after every step behave the same as far as
+ * anything outside the agents' heads can tell; see TWDeterminismCheck.
+ */
+public class TWWorldHash implements TWWorldListener {
+
+    private final TWEnvironment environment;
+    private final int height;
+    private long grid;
+
+    /**
+     * Hashes the current state of environment, which must have been
+     * started, and follows its changes from now on
+     */
+    public TWWorldHash(TWEnvironment environment) {
+        this.environment = environment;
+        this.height = environment.getyDimension();
+        this.grid = recomputeGridHash();
+        environment.addWorldListener(this);
+    }
+
+    public void cellChanged(int x, int y, TWEntity old, TWEntity now) {
+        if (old != null) {
+            grid ^= key(x, y, old);
+        }
+        if (now != null) {
+            grid ^= key(x, y, now);
+        }
+    }
+
+    /**
+     * Stops following the environment
+     */
+    public void detach() {
+        environment.removeWorldListener(this);
+    }
+
+    /**
+     * @return the hash of the object grid, kept up to date incrementally
+     */
+    public long getGridHash() {
+        return grid;
+    }
+
+    /**
+     * @return the hash of the object grid computed from scratch, to check the
+     *         incremental one
+     */
+    public long recomputeGridHash() {
+        ObjectGrid2D objects = environment.getObjectGrid();
+        long h = 0;
+        for (int x = 0; x < environment.getxDimension(); x++) {
+            for (int y = 0; y < height; y++) {
+                TWEntity e = (TWEntity) objects.get(x, y);
+                if (e != null) {
+                    h ^= key(x, y, e);
+                }
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return the hash of the state of agent i
+     */
+    public long getAgentHash(int i) {
+        TWAgent a = environment.getAgents().get(i);
+        long h = mix(i, ((long) a.getX() << 32) | (a.getY() & 0xffffffffL));
+        h = mix(h, Double.doubleToLongBits(a.getFuelLevel()));
+        h = mix(h, a.getScore());
+        return mix(h, a.getCarriedTileCount());
+    }
+
+    /**
+     * @return the hash of the whole observable state
+     */
+    public long getHash() {
+        long h = grid ^ mix(-1, environment.getReward());
+        ArrayList<TWAgent> agents = environment.getAgents();
+        for (int i = 0; i < agents.size(); i++) {
+            h ^= getAgentHash(i);
+        }
+        return h;
+    }
+
+    private long key(int x, int y, TWEntity e) {
+        long kind;
+        long death = 0;
+        if (e instanceof TWTile) {
+            kind = 1;
+        } else if (e instanceof TWHole) {
+            kind = 2;
+        } else if (e instanceof TWObstacle) {
+            kind = 3;
+        } else {
+            kind = 4;
+        }
+        if (e instanceof TWObject) {
+            death = Double.doubleToLongBits(((TWObject) e).getDeathTime());
+        }
+        return mix(((long) x * height + y) * 8 + kind, death);
+    }
+
+    /**
+     * SplitMix64 finaliser of a and b combined
+     */
+    private static long mix(long a, long b) {
+        long z = a * 0x9E3779B97F4A7C15L + b;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
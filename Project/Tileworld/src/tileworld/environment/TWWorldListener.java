@@ -0,0 +1,18 @@
+package tileworld.environment;
+
+/**
+ * TWWorldListener
+ *
+ * Description:
+ *
+ * Listener registered with TWEnvironment#addWorldListener, told about every
+ * change to the environment's object grid: objects being created, expiring,
+ * picked up or filled.
+ */
+public interface TWWorldListener {
+
+    /**
+     * Cell (x, y) changed from old to now, either may be null
+     */
+    void cellChanged(int x, int y, TWEntity old, TWEntity now);
+}
@@ -0,0 +1,297 @@
+package tileworld.environment;
+
+import java.io.IOException;
+
+import tileworld.TWConfig;
+
+/**
+ * TWZoneManager
+ *
+ * Description:
+ *
+ * Moves the boundaries of the zones HybridPRSTWAgent splits the map into,
+ * one strip of rows or columns per agent, to where the work is, used when
+ * the zoneRebalancePeriod setting is above 0. Without it the zones are split
+ * evenly once, at the first step, and never change.
+ *
+ * The manager listens to the world and keeps two decayed counters: tiles
+ * and holes created, per row (or column) along the axis the map is split
+ * on, and holes filled, per zone. The counters lose their weight over a few
+ * object lifetimes, so they follow the rates at which work arrives and is
+ * done. Every zoneRebalancePeriod steps each zone's share of the work
+ * created is compared with its target share. A quarter of the target share
+ * is an equal split, the other three quarters (FILL_WEIGHT) are the zone's
+ * share of the holes filled, so a zone whose agent falls behind (e.g. one
+ * away refuelling) is given less of the map and its neighbours more. When a
+ * zone is off its target by more than IMBALANCE, the boundaries are moved
+ * so that every zone covers its share of the work created, each zone
+ * staying at least one sensor window wide.
+ *
+ * Zones keep their number and order, only their boundaries move, so which
+ * agent has which zone and how far apart zones are stays the same. Agents
+ * compare their bounds with the manager's and lay out their anchors again
+ * only when their own zone changed.
+ */
+public class TWZoneManager implements TWWorldListener {
+
+    /**
+     * Relative deviation of a zone's share of the work from its target which triggers a repartition
+     */
+    private static final double IMBALANCE = 0.25;
+    /**
+     * Weight of the holes filled in the target shares, the rest is split equally
+     */
+    private static final double FILL_WEIGHT = 0.75;
+    /**
+     * Lifetimes over which a count decays to 1/e of its weight
+     */
+    private static final double MEMORY_LIFETIMES = 4;
+    /**
+     * Holes every zone counts as filled on top of those it did fill, so that
+     * a few fills early on do not already move the boundaries
+     */
+    private static final double FILL_PRIOR = 6;
+    /**
+     * Decayed objects created per zone needed before the counts are trusted
+     */
+    private static final double MIN_SPAWNS_PER_ZONE = 20;
+
+    private final TWEnvironment env;
+    private final boolean byRows;
+    private final int length;
+    private final int minWidth;
+    private final int period;
+    private final double decay;
+
+    /**
+     * Zone z covers the lines [cuts[z], cuts[z + 1]) along the split axis
+     */
+    private final int[] cuts;
+    private final double[] spawns;
+    private final double[] fills;
+    // Work for rebalance, allocated once
+    private final double[] prefix;
+    private final double[] share;
+    private final int[] next;
+
+    private long rebalances;
+    private long movedZones;
+
+    /**
+     * Splits the map of env evenly into as many zones as there are agents,
+     * along the same axis as HybridPRSTWAgent: into rows unless the map is
+     * wider than it is high.
+     */
+    public TWZoneManager(TWEnvironment env) {
+        TWConfig config = env.getConfig();
+        int zones = config.getAgentCount();
+        this.env = env;
+        this.byRows = env.getxDimension() <= env.getyDimension();
+        this.length = byRows ? env.getyDimension() : env.getxDimension();
+        this.minWidth = Math.max(1, Math.min(2 * config.getDefaultSensorRange() + 1, length / zones));
+        this.period = config.getZoneRebalancePeriod();
+        this.decay = Math.exp(-period / (MEMORY_LIFETIMES * config.getLifeTime()));
+        this.cuts = new int[zones + 1];
+        for (int z = 0; z < zones; z++) {
+            cuts[z] = z * (length / zones);
+        }
+        cuts[zones] = length;
+        this.spawns = new double[length];
+        this.fills = new double[zones];
+        this.prefix = new double[length + 1];
+        this.share = new double[zones];
+        this.next = new int[zones + 1];
+    }
+
+    @Override
+    public void cellChanged(int x, int y, TWEntity old, TWEntity now) {
+        int line = byRows ? y : x;
+        if (old == null && (now instanceof TWTile || now instanceof TWHole)) {
+            spawns[line]++;
+        } else if (old instanceof TWHole && now == null && ((TWHole) old).getTimeLeft(env.schedule.getTime()) > 0) {
+            // A hole which leaves the grid before its time was filled
+            fills[zoneOf(line)]++;
+        }
+    }
+
+    /**
+     * Called by the environment at the start of every step, rebalances every period steps
+     */
+    void step(long steps) {
+        if (steps > 0 && steps % period == 0) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Moves the zone boundaries if the load is out of balance, then decays the counters
+     *
+     * @return whether the boundaries were moved
+     */
+    boolean rebalance() {
+        int zones = share.length;
+        double created = 0;
+        prefix[0] = 0;
+        for (int line = 0; line < length; line++) {
+            created += spawns[line];
+            prefix[line + 1] = created;
+        }
+        double filled = 0;
+        for (int z = 0; z < zones; z++) {
+            filled += fills[z];
+        }
+        boolean imbalanced = false;
+        for (int z = 0; z < zones; z++) {
+            share[z] = (1 - FILL_WEIGHT) / zones + FILL_WEIGHT * (fills[z] + FILL_PRIOR) / (filled + zones * FILL_PRIOR);
+            double actual = (prefix[cuts[z + 1]] - prefix[cuts[z]]) / created;
+            imbalanced |= Math.abs(actual - share[z]) > IMBALANCE * share[z];
+        }
+        imbalanced &= created >= MIN_SPAWNS_PER_ZONE * zones;
+        if (imbalanced) {
+            repartition(created);
+        }
+        for (int line = 0; line < length; line++) {
+            spawns[line] *= decay;
+        }
+        for (int z = 0; z < zones; z++) {
+            fills[z] *= decay;
+        }
+        return imbalanced;
+    }
+
+    /**
+     * Puts every boundary where the work created before it adds up to the target shares of the zones before it
+     */
+    private void repartition(double created) {
+        int zones = share.length;
+        next[0] = 0;
+        next[zones] = length;
+        double target = 0;
+        for (int z = 1; z < zones; z++) {
+            target += share[z - 1] * created;
+            int last = length - (zones - z) * minWidth;
+            int cut = next[z - 1] + minWidth;
+            while (cut < last && prefix[cut] < target) {
+                cut++;
+            }
+            next[z] = cut;
+        }
+        boolean moved = false;
+        for (int z = 0; z < zones; z++) {
+            if (next[z] != cuts[z] || next[z + 1] != cuts[z + 1]) {
+                movedZones++;
+                moved = true;
+            }
+        }
+        System.arraycopy(next, 0, cuts, 0, next.length);
+        if (moved) {
+            rebalances++;
+        }
+    }
+
+    /**
+     * @return the zone cell (x, y) lies in
+     */
+    public int getZone(int x, int y) {
+        return zoneOf(byRows ? y : x);
+    }
+
+    private int zoneOf(int line) {
+        int z = 0;
+        while (line >= cuts[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    /**
+     * @return whether zones are strips of rows, otherwise of columns
+     */
+    public boolean isByRows() {
+        return byRows;
+    }
+
+    public int getZoneCount() {
+        return share.length;
+    }
+
+    /**
+     * @return the first row (or column) of zone z
+     */
+    public int getStart(int z) {
+        return cuts[z];
+    }
+
+    /**
+     * @return the row (or column) after the last one of zone z, the first of zone z + 1
+     */
+    public int getEnd(int z) {
+        return cuts[z + 1];
+    }
+
+    /**
+     * @return the number of times the boundaries were moved
+     */
+    public long getRebalances() {
+        return rebalances;
+    }
+
+    /**
+     * @return the number of zones whose bounds changed, over all rebalances
+     */
+    public long getMovedZones() {
+        return movedZones;
+    }
+
+    /**
+     * Writes the boundaries and counters for TWSnapshot
+     */
+    void writeState(TWSnapshotOutput out) {
+        out.writeInt(share.length);
+        for (int z = 0; z <= share.length; z++) {
+            out.writeInt(cuts[z]);
+        }
+        for (int z = 0; z < share.length; z++) {
+            out.writeDouble(fills[z]);
+        }
+        out.writeInt(length);
+        for (int line = 0; line < length; line++) {
+            out.writeDouble(spawns[line]);
+        }
+        out.writeLong(rebalances);
+        out.writeLong(movedZones);
+    }
+
+    /**
+     * Restores the state written by writeState, into a manager of the same map and number of agents
+     */
+    void readState(TWSnapshotInput in) throws IOException {
+        if (in.readInt() != share.length) {
+            throw new IOException("Snapshot does not match the configuration: number of zones differs");
+        }
+        for (int z = 0; z <= share.length; z++) {
+            cuts[z] = in.readInt();
+        }
+        for (int z = 0; z < share.length; z++) {
+            fills[z] = in.readDouble();
+        }
+        if (in.readInt() != length) {
+            throw new IOException("Snapshot does not match the configuration: map size differs");
+        }
+        for (int line = 0; line < length; line++) {
+            spawns[line] = in.readDouble();
+        }
+        rebalances = in.readLong();
+        movedZones = in.readLong();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(byRows ? "rows" : "columns");
+        for (int z = 0; z < share.length; z++) {
+            s.append(' ').append(cuts[z]).append('-').append(cuts[z + 1] - 1);
+        }
+        return s.append(", rebalances: ").append(rebalances).append(", moved zones: ").append(movedZones).toString();
+    }
+
+}
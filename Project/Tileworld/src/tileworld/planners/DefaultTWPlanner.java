@@ -4,11 +4,13 @@
  */
 package tileworld.planners;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import sim.util.Int2D;
-import tileworld.Parameters;
 import tileworld.agent.TWAgent;
 import tileworld.environment.TWDirection;
+import tileworld.environment.TWSnapshotInput;
+import tileworld.environment.TWSnapshotOutput;
 
 /**
  * DefaultTWPlanner
@@ -52,7 +54,7 @@ public class DefaultTWPlanner implements TWPlanner {
 		this.agent = agent;
 		this.plan = null;
 		this.goals = new ArrayList<Int2D>(0);
-		this.pathGenerator = new AstarPathGenerator(agent.getEnvironment(), agent, Parameters.xDimension + Parameters.yDimension);
+		this.pathGenerator = new AstarPathGenerator(agent.getEnvironment(), agent, agent.getEnvironment().getxDimension() + agent.getEnvironment().getyDimension());
 	}
 
 	// TSP resource-bounded time-limited scenario.
@@ -91,5 +93,23 @@ public class DefaultTWPlanner implements TWPlanner {
 		return plan.popNext().getDirection();
 	}
 
+	/**
+	 * Writes the goals for TWSnapshot. The plan is not written, it is regenerated from the goals.
+	 */
+	public void writeState(TWSnapshotOutput out) {
+		out.writeInt(goals.size());
+		for (int i = 0; i < goals.size(); i++) {
+			out.writeInt2D(goals.get(i));
+		}
+	}
+
+	public void readState(TWSnapshotInput in) throws IOException {
+		goals.clear();
+		for (int count = in.readInt(); count > 0; count--) {
+			goals.add(in.readInt2D());
+		}
+		voidPlan();
+	}
+
 }
 
@@ -0,0 +1,463 @@
+package tileworld.planners;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import sim.util.Int2D;
+import tileworld.TWConfig;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWAgentDecayMemory;
+import tileworld.agent.TWAgentPercept;
+import tileworld.environment.TWEntity;
+import tileworld.environment.TWHole;
+import tileworld.environment.TWTile;
+
+/**
+ * TWRolloutPlanner
+ *
+ * Description:
+ *
+ * Chooses between candidate goals of an agent by Monte Carlo rollouts of a
+ * simple forward model of the world, instead of by distance alone. A rollout
+ * heads for the candidate first and then carries on greedily for a number of
+ * steps: it picks up the nearest tile or fills the nearest hole it knows of,
+ * refuels when the fuel left would only just get it back to the station, and
+ * wanders at random when it knows of nothing. The candidate whose rollouts
+ * fill the most holes (discounted by how long it takes) is chosen.
+ *
+ * The model starts from what the agent remembers and makes up what it does
+ * not know: when remembered objects die (they may have been around for a
+ * while before the agent first saw them), and new tiles and holes, created
+ * at the configured mean rates at random cells and noticed once they come
+ * within sensor range. Moves cost one step per cell of Manhattan distance,
+ * obstacles are left out.
+ *
+ * The state of a rollout is a handful of primitive arrays (see State), so
+ * copying it for every rollout is cheap. Rollouts run in parallel on the
+ * common fork-join pool, in blocks per candidate. Every rollout has a random
+ * stream of its own derived from the seed and the rollout number, so rollout
+ * r draws the same world for every candidate (common random numbers) and
+ * the decision only depends on how many rollouts ran: with no budget it is
+ * reproducible, with a wall-clock budget rollouts not started before the
+ * deadline are skipped (every block runs at least one).
+ */
+public class TWRolloutPlanner {
+
+	/**
+	 * Rollouts run one after the other by a task
+	 */
+	private static final int BLOCK = 8;
+	/**
+	 * Discount per step of a filled hole
+	 */
+	private static final double DISCOUNT = 0.98;
+	/**
+	 * Value of a tile still carried at the end of a rollout, relative to a filled hole
+	 */
+	private static final double CARRIED_VALUE = 0.5;
+	/**
+	 * Value of running out of fuel, the agent is stuck for the rest of the run
+	 */
+	private static final double STRANDED_VALUE = -10;
+	/**
+	 * How much better than the goal pursued so far another goal must be to switch to it. Without this rollouts
+	 * of two about equal goals make the agent turn back and forth between them.
+	 */
+	private static final double SWITCH_MARGIN = 0.1;
+
+	static final byte TILE = 0;
+	static final byte HOLE = 1;
+
+	private final int xDimension;
+	private final int yDimension;
+	private final int sensorRange;
+	private final int lifeTime;
+	private final double fuelCapacity;
+	private final double tileMean;
+	private final double holeMean;
+	private final int rollouts;
+	private final int horizon;
+	private final long budgetNanos;
+
+	private double[] values = new double[0];
+	private int[] counts = new int[0];
+
+	public TWRolloutPlanner(TWConfig config) {
+		this.xDimension = config.getxDimension();
+		this.yDimension = config.getyDimension();
+		this.sensorRange = config.getDefaultSensorRange();
+		this.lifeTime = config.getLifeTime();
+		this.fuelCapacity = config.getDefaultFuelLevel();
+		this.tileMean = config.getTileMean();
+		this.holeMean = config.getHoleMean();
+		this.rollouts = config.getRolloutCount();
+		this.horizon = config.getRolloutHorizon();
+		this.budgetNanos = (long) (config.getRolloutBudget() * 1e6);
+	}
+
+	/**
+	 * The world as a rollout sees it: the agent, the fuel station (x -1 if not
+	 * known) and the objects, with the step each dies at and whether the agent
+	 * knows of it. Objects are removed by swapping the last one in.
+	 */
+	public static final class State {
+		int agentX, agentY, carried;
+		double fuel;
+		int stationX = -1, stationY = -1;
+		int size;
+		int[] x, y, death;
+		byte[] kind;
+		boolean[] known;
+		/**
+		 * For remembered objects, the latest step they can die at and whether the
+		 * agent sees them now, from which copyFrom draws the step they do die at
+		 */
+		int[] latestDeath;
+		boolean[] inSight;
+		int remembered;
+
+		State(int capacity) {
+			x = new int[capacity];
+			y = new int[capacity];
+			death = new int[capacity];
+			kind = new byte[capacity];
+			known = new boolean[capacity];
+			latestDeath = new int[capacity];
+			inSight = new boolean[capacity];
+		}
+
+		void add(int ox, int oy, byte k, int d, boolean isKnown) {
+			if (size == x.length) {
+				int capacity = 2 * size + 8;
+				x = Arrays.copyOf(x, capacity);
+				y = Arrays.copyOf(y, capacity);
+				death = Arrays.copyOf(death, capacity);
+				kind = Arrays.copyOf(kind, capacity);
+				known = Arrays.copyOf(known, capacity);
+				latestDeath = Arrays.copyOf(latestDeath, capacity);
+				inSight = Arrays.copyOf(inSight, capacity);
+			}
+			x[size] = ox;
+			y[size] = oy;
+			kind[size] = k;
+			death[size] = d;
+			known[size] = isKnown;
+			size++;
+		}
+
+		void remove(int i) {
+			size--;
+			x[i] = x[size];
+			y[i] = y[size];
+			kind[i] = kind[size];
+			death[i] = death[size];
+			known[i] = known[size];
+		}
+
+		/**
+		 * Copies the remembered part of root into this state, drawing when each
+		 * remembered object dies
+		 */
+		void copyFrom(State root, Random random, int lifeTime) {
+			agentX = root.agentX;
+			agentY = root.agentY;
+			carried = root.carried;
+			fuel = root.fuel;
+			stationX = root.stationX;
+			stationY = root.stationY;
+			size = 0;
+			for (int i = 0; i < root.remembered; i++) {
+				int latest = root.latestDeath[i];
+				// An object seen now is alive, the others may have died unseen since
+				int earliest = root.inSight[i] ? 1 : latest - lifeTime;
+				int d = earliest + random.nextInt(Math.max(latest - earliest, 0) + 1);
+				if (d > 0) {
+					add(root.x[i], root.y[i], root.kind[i], d, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * SplitMix64, small enough to give every rollout a stream of its own
+	 */
+	static final class Random {
+		private long state;
+
+		Random(long seed) {
+			this.state = seed;
+		}
+
+		long nextLong() {
+			long z = (state += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+
+		int nextInt(int n) {
+			return (int) (((nextLong() >>> 33) * n) >>> 31);
+		}
+
+		double nextDouble() {
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+	}
+
+	/**
+	 * Captures what the agent knows: its position, fuel and tiles, the fuel
+	 * station and the remembered tiles and holes it could reach within the
+	 * horizon.
+	 */
+	public State capture(TWAgent agent, TWAgentDecayMemory memory) {
+		State s = new State(32);
+		s.agentX = agent.getX();
+		s.agentY = agent.getY();
+		s.fuel = agent.getFuelLevel();
+		s.carried = agent.getCarriedTileCount();
+		Int2D station = memory.getFuelStation();
+		if (station != null) {
+			s.stationX = station.x;
+			s.stationY = station.y;
+		}
+		TWAgentPercept[][] objects = memory.getAgentPercept();
+		double now = memory.getSimulationTime();
+		for (int x = Math.max(0, s.agentX - horizon); x <= Math.min(xDimension - 1, s.agentX + horizon); x++) {
+			int reach = horizon - Math.abs(x - s.agentX);
+			for (int y = Math.max(0, s.agentY - reach); y <= Math.min(yDimension - 1, s.agentY + reach); y++) {
+				TWAgentPercept p = objects[x][y];
+				if (p == null) {
+					continue;
+				}
+				TWEntity o = p.getO();
+				if (o instanceof TWTile || o instanceof TWHole) {
+					s.add(x, y, (o instanceof TWTile) ? TILE : HOLE, 0, true);
+					s.latestDeath[s.size - 1] = (int) (p.getT() + lifeTime - now);
+					s.inSight[s.size - 1] = Math.abs(x - s.agentX) <= sensorRange && Math.abs(y - s.agentY) <= sensorRange;
+				}
+			}
+		}
+		s.remembered = s.size;
+		return s;
+	}
+
+	/**
+	 * Runs the rollouts of every goal from root and returns the index of the
+	 * best goal, see getValue for the value of each.
+	 *
+	 * @param goals cells to head for first, e.g. tiles, holes or the fuel station
+	 * @param seed seed of this decision's rollouts
+	 * @param current index of the goal pursued so far, kept unless another one is clearly better, -1 for none
+	 */
+	public int choose(final State root, final Int2D[] goals, final long seed, int current) {
+		final int blocks = (rollouts + BLOCK - 1) / BLOCK;
+		final double[] blockValues = new double[goals.length * blocks];
+		final int[] blockCounts = new int[goals.length * blocks];
+		final long deadline = (budgetNanos > 0) ? System.nanoTime() + budgetNanos : Long.MAX_VALUE;
+
+		RecursiveAction all = new RecursiveAction() {
+			@Override
+			protected void compute() {
+				RecursiveAction[] tasks = new RecursiveAction[goals.length * blocks];
+				for (int g = 0; g < goals.length; g++) {
+					for (int b = 0; b < blocks; b++) {
+						final int goal = g;
+						final int block = b;
+						tasks[g * blocks + b] = new RecursiveAction() {
+							@Override
+							protected void compute() {
+								runBlock(root, goals[goal], goal, block, seed, deadline, blockValues, blockCounts, goal * blocks + block);
+							}
+						};
+					}
+				}
+				invokeAll(tasks);
+			}
+		};
+		ForkJoinPool.commonPool().invoke(all);
+
+		values = new double[goals.length];
+		counts = new int[goals.length];
+		int best = 0;
+		for (int g = 0; g < goals.length; g++) {
+			double sum = 0;
+			for (int b = 0; b < blocks; b++) {
+				sum += blockValues[g * blocks + b];
+				counts[g] += blockCounts[g * blocks + b];
+			}
+			values[g] = sum / counts[g];
+			if (values[g] > values[best]) {
+				best = g;
+			}
+		}
+		return (current >= 0 && values[best] - values[current] < SWITCH_MARGIN) ? current : best;
+	}
+
+	private void runBlock(State root, Int2D goal, int g, int block, long seed, long deadline, double[] blockValues, int[] blockCounts, int slot) {
+		State work = new State(root.size + 16);
+		double sum = 0;
+		int count = 0;
+		for (int r = block * BLOCK; r < Math.min(rollouts, (block + 1) * BLOCK); r++) {
+			if (count > 0 && System.nanoTime() > deadline) {
+				break;
+			}
+			// Rollout r of every goal draws the same world, so goals are compared on equal terms
+			Random random = new Random(seed ^ ((long) r * 0xD1B54A32D192ED03L));
+			work.copyFrom(root, random, lifeTime);
+			sum += rollout(work, goal, random);
+			count++;
+		}
+		blockValues[slot] = sum;
+		blockCounts[slot] = count;
+	}
+
+	/**
+	 * Plays one rollout in s, heading for goal first
+	 *
+	 * @return the discounted number of holes filled, plus the tiles still carried
+	 */
+	double rollout(State s, Int2D goal, Random random) {
+		double value = 0;
+		double discount = 1;
+		int targetX = goal.x, targetY = goal.y;
+		boolean toGoal = true;
+		for (int step = 1; step <= horizon; step++) {
+			spawn(s, step, random);
+			expire(s, step);
+			notice(s);
+
+			if (toGoal && (s.agentX != targetX || s.agentY != targetY) && !isGoalAlive(s, targetX, targetY)) {
+				toGoal = false;
+			}
+			if (!toGoal) {
+				int target = chooseTarget(s);
+				if (target == -2) {
+					targetX = s.stationX;
+					targetY = s.stationY;
+				} else if (target >= 0) {
+					targetX = s.x[target];
+					targetY = s.y[target];
+				} else {
+					// Nothing known, wander
+					targetX = Math.min(Math.max(s.agentX + random.nextInt(3) - 1, 0), xDimension - 1);
+					targetY = Math.min(Math.max(s.agentY + random.nextInt(3) - 1, 0), yDimension - 1);
+				}
+			}
+
+			if (s.agentX != targetX || s.agentY != targetY) {
+				if (s.fuel <= 0) {
+					return value + STRANDED_VALUE * discount;
+				}
+				if (s.agentX != targetX) {
+					s.agentX += (targetX > s.agentX) ? 1 : -1;
+				} else {
+					s.agentY += (targetY > s.agentY) ? 1 : -1;
+				}
+				s.fuel--;
+			} else {
+				// Arrived, the goal is done with whatever happens here
+				toGoal = false;
+				if (s.agentX == s.stationX && s.agentY == s.stationY) {
+					s.fuel = fuelCapacity;
+				}
+				int here = find(s, s.agentX, s.agentY);
+				if (here >= 0 && s.kind[here] == TILE && s.carried < 3) {
+					s.carried++;
+					s.remove(here);
+				} else if (here >= 0 && s.kind[here] == HOLE && s.carried > 0) {
+					s.carried--;
+					s.remove(here);
+					value += discount;
+				}
+			}
+			discount *= DISCOUNT;
+		}
+		return value + CARRIED_VALUE * s.carried * discount;
+	}
+
+	/**
+	 * @return the object to head for, -2 for the fuel station, -1 if none is known
+	 */
+	private int chooseTarget(State s) {
+		if (s.stationX >= 0) {
+			int toStation = Math.abs(s.stationX - s.agentX) + Math.abs(s.stationY - s.agentY);
+			if (s.fuel <= toStation + sensorRange + 1 && s.fuel < fuelCapacity) {
+				return -2;
+			}
+		}
+		int best = -1;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < s.size; i++) {
+			if (!s.known[i] || (s.kind[i] == TILE && s.carried >= 3) || (s.kind[i] == HOLE && s.carried == 0)) {
+				continue;
+			}
+			int d = Math.abs(s.x[i] - s.agentX) + Math.abs(s.y[i] - s.agentY);
+			if (d < bestDistance && d < s.death[i]) {
+				best = i;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	private boolean isGoalAlive(State s, int gx, int gy) {
+		return find(s, gx, gy) >= 0 || (gx == s.stationX && gy == s.stationY);
+	}
+
+	private static int find(State s, int x, int y) {
+		for (int i = 0; i < s.size; i++) {
+			if (s.x[i] == x && s.y[i] == y) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates tiles and holes at the mean rates of the configuration, whole
+	 * objects and one more with the probability of the fraction
+	 */
+	private void spawn(State s, int step, Random random) {
+		for (int k = 0; k < 2; k++) {
+			double mean = (k == TILE) ? tileMean : holeMean;
+			int n = (int) mean + ((mean - (int) mean > random.nextDouble()) ? 1 : 0);
+			for (int i = 0; i < n; i++) {
+				s.add(random.nextInt(xDimension), random.nextInt(yDimension), (byte) k, step + lifeTime, false);
+			}
+		}
+	}
+
+	private static void expire(State s, int step) {
+		for (int i = s.size - 1; i >= 0; i--) {
+			if (s.death[i] <= step) {
+				s.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Makes the objects within sensor range of the agent known
+	 */
+	private void notice(State s) {
+		for (int i = 0; i < s.size; i++) {
+			if (!s.known[i] && Math.abs(s.x[i] - s.agentX) <= sensorRange && Math.abs(s.y[i] - s.agentY) <= sensorRange) {
+				s.known[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * @return the mean value of the rollouts of goal g in the last choose
+	 */
+	public double getValue(int g) {
+		return values[g];
+	}
+
+	/**
+	 * @return the number of rollouts of goal g run in the last choose
+	 */
+	public int getRolloutCount(int g) {
+		return counts[g];
+	}
+}
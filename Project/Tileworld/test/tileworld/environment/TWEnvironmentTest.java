@@ -0,0 +1,49 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWEnvironmentTest
+ *
+ * Description:
+ *
+ * An environment reseeded and started again must run exactly like a new
+ * one created with that seed, with the shared random generator as well as
+ * with a stream per component.
+ */
+public class TWEnvironmentTest {
+
+    @Test
+    public void restartWithNewSeedMatchesNewEnvironment() {
+        TWConfig shared = TWPresets.get(1);
+        checkRestart(shared);
+        checkRestart(shared.toBuilder().randomStreams(true).build());
+    }
+
+    private static void checkRestart(TWConfig config) {
+        TWEnvironment reused = new TWEnvironment(config, 11);
+        reused.setVerbose(false);
+        reused.start();
+        run(reused, 400);
+        reused.finish();
+        reused.setSeed(12);
+        reused.start();
+        run(reused, 300);
+
+        TWEnvironment fresh = new TWEnvironment(config, 12);
+        fresh.setVerbose(false);
+        fresh.start();
+        run(fresh, 300);
+        assertTrue(TWSnapshot.capture(fresh).equals(TWSnapshot.capture(reused)));
+    }
+
+    private static void run(TWEnvironment env, long steps) {
+        while (env.schedule.getSteps() < steps && env.schedule.step(env)) {
+        }
+    }
+}
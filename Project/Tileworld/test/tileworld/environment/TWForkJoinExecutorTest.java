@@ -0,0 +1,38 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * TWForkJoinExecutorTest
+ *
+ * Description:
+ *
+ * The fork-join executor must run every agent of a phase exactly once, also
+ * for phases with no agents at all.
+ */
+public class TWForkJoinExecutorTest {
+
+    @Test
+    public void runsEveryAgentOnce() {
+        TWForkJoinExecutor executor = new TWForkJoinExecutor(4);
+        try {
+            for (int count = 0; count <= 9; count++) {
+                final int[] runs = new int[count];
+                executor.invokeAll(count, new TWAgentExecutor.Task() {
+                    public void run(int agent) {
+                        runs[agent]++;
+                    }
+                });
+                int[] once = new int[count];
+                Arrays.fill(once, 1);
+                assertArrayEquals("count " + count, once, runs);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * TWGoalReservationsTest
+ *
+ * Description:
+ *
+ * expire only visits the claimed cells, so it must still drop every claim
+ * that ran out, leave renewed ones alone and not count released ones, also
+ * for cells claimed again after they were released or had expired.
+ */
+public class TWGoalReservationsTest {
+
+    @Test
+    public void expiresOnlyClaimsThatRanOut() {
+        TWGoalReservations reservations = new TWGoalReservations(10, 10);
+        reservations.claim(0, 1, 1, 0, 2);
+        reservations.claim(1, 2, 2, 0, 2);
+        reservations.claim(2, 3, 3, 0, 2);
+        reservations.release(1, 2, 2);
+        reservations.claim(0, 1, 1, 2, 2);
+
+        reservations.expire(3);
+        assertEquals(0, reservations.getOwner(1, 1, 3));
+        assertEquals(-1, reservations.getOwner(2, 2, 3));
+        assertEquals(-1, reservations.getOwner(3, 3, 3));
+        assertEquals(1, reservations.getStaleClaims());
+
+        reservations.claim(1, 2, 2, 3, 1);
+        reservations.release(1, 2, 2);
+        reservations.claim(1, 2, 2, 3, 1);
+        reservations.claim(2, 3, 3, 3, 1);
+        reservations.expire(5);
+        assertEquals(-1, reservations.getOwner(1, 1, 5));
+        assertEquals(-1, reservations.getOwner(2, 2, 5));
+        assertEquals(-1, reservations.getOwner(3, 3, 5));
+        assertEquals(4, reservations.getStaleClaims());
+
+        reservations.claim(2, 2, 2, 5, 1);
+        assertEquals(2, reservations.getOwner(2, 2, 6));
+        reservations.expire(7);
+        assertEquals(-1, reservations.getOwner(2, 2, 7));
+        assertEquals(5, reservations.getStaleClaims());
+    }
+}
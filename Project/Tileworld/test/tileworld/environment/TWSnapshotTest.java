@@ -0,0 +1,76 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+import tileworld.TWPresets;
+
+/**
+ * TWSnapshotTest
+ *
+ * Description:
+ *
+ * A simulation restored from a snapshot must carry on exactly as the run it
+ * was taken from would have, whichever steppables, random generators and
+ * agent state are involved.
+ */
+public class TWSnapshotTest {
+
+    private static final long SPLIT = 1000;
+    private static final long END = 2000;
+
+    @Test
+    public void restoredRunMatchesUninterruptedRun() throws IOException {
+        for (int scenario = 1; scenario <= 2; scenario++) {
+            checkRoundTrip("scenario " + scenario, TWPresets.get(scenario), SPLIT, END);
+        }
+    }
+
+    /**
+     * The allocator's warm start, the zone boundaries and counters and the goal last chosen by rollouts are restored too
+     */
+    @Test
+    public void restoredRunWithOptionalComponentsMatches() throws IOException {
+        TWConfig zones = TWPresets.get(2).toBuilder().zoneRebalancePeriod(50).build();
+        checkRoundTrip("allocator", zones.toBuilder().centralAllocation(true).build(), SPLIT, END);
+        checkRoundTrip("rollouts", zones.toBuilder().rolloutPlanning(true).rolloutCount(16).build(), SPLIT / 2, END / 2);
+    }
+
+    private static void checkRoundTrip(String name, TWConfig config, long split, long end) throws IOException {
+        TWEnvironment uninterrupted = start(config);
+        TWEnvironment interrupted = start(config);
+        run(uninterrupted, end);
+        run(interrupted, split);
+        TWEnvironment restored = TWSnapshot.restore(TWSnapshot.capture(interrupted));
+        restored.setVerbose(false);
+        run(restored, end);
+        assertEquals(name + " reward", uninterrupted.getReward(), restored.getReward());
+        assertTrue(name + " state differs", TWSnapshot.capture(uninterrupted).equals(TWSnapshot.capture(restored)));
+    }
+
+    @Test
+    public void restoreThenCaptureGivesTheSameSnapshot() throws IOException {
+        TWEnvironment env = start(TWPresets.get(1).toBuilder().sharedBlackboard(true).build());
+        run(env, SPLIT);
+        ByteBuffer snapshot = TWSnapshot.capture(env);
+        assertTrue(snapshot.equals(TWSnapshot.capture(TWSnapshot.restore(snapshot.duplicate()))));
+    }
+
+    private static TWEnvironment start(TWConfig config) {
+        TWEnvironment env = new TWEnvironment(config);
+        env.setVerbose(false);
+        env.start();
+        return env;
+    }
+
+    private static void run(TWEnvironment env, long steps) {
+        while (env.schedule.getSteps() < steps && env.schedule.step(env)) {
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+import tileworld.agent.SimpleTWAgent;
+import tileworld.agent.TWAgent;
+import tileworld.agent.TWAgentFactory;
+import tileworld.batch.TWDeterminismCheck;
+
+/**
+ * TWStepPipelineTest
+ *
+ * Description:
+ *
+ * A phased run must not depend on how many threads the agents sense and
+ * think on, with private memories as with the shared blackboard, and also
+ * with agents which draw random numbers while they think.
+ */
+public class TWStepPipelineTest {
+
+    @Test
+    public void runDoesNotDependOnThreads() {
+        TWConfig serial = TWConfig.DEFAULT.toBuilder().phasedStep(true).build();
+        assertNull(TWDeterminismCheck.run(serial, serial.toBuilder().agentThreads(4).build(), 1000));
+    }
+
+    @Test
+    public void randomAgentsDoNotDependOnThreads() {
+        TWAgentFactory random = new TWAgentFactory() {
+            public TWAgent create(String name, int xpos, int ypos, TWEnvironment env, double fuelLevel) {
+                return new SimpleTWAgent(name, xpos, ypos, env, fuelLevel);
+            }
+        };
+        TWConfig serial = TWConfig.DEFAULT.toBuilder().phasedStep(true).build();
+        assertNull(TWDeterminismCheck.run(serial, serial.toBuilder().agentThreads(4).build(), 1000, random));
+        assertNull(TWDeterminismCheck.run(serial, serial.toBuilder().threadPerAgent(true).build(), 1000, random));
+        TWConfig strip = TWConfig.DEFAULT.toBuilder().partitions(1).build();
+        assertNull(TWDeterminismCheck.run(strip, strip.toBuilder().partitions(4).agentThreads(4).build(), 1000, random));
+    }
+
+    @Test
+    public void blackboardRunDoesNotDependOnThreads() {
+        TWConfig serial = TWConfig.DEFAULT.toBuilder().phasedStep(true).sharedBlackboard(true).build();
+        assertNull(TWDeterminismCheck.run(serial, serial.toBuilder().agentThreads(4).build(), 1000));
+        assertNull(TWDeterminismCheck.run(serial, serial.toBuilder().threadPerAgent(true).build(), 1000));
+    }
+}
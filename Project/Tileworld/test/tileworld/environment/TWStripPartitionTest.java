@@ -0,0 +1,41 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+import tileworld.batch.TWDeterminismCheck;
+
+/**
+ * TWStripPartitionTest
+ *
+ * Description:
+ *
+ * A partitioned run must match a phasedStep run step for step, and
+ * splitting the world into more strips, and running them on more threads,
+ * must not change it.
+ */
+public class TWStripPartitionTest {
+
+    @Test
+    public void stripsMatchPhasedStep() {
+        TWConfig phased = TWConfig.DEFAULT.toBuilder().phasedStep(true).build();
+        assertNull(TWDeterminismCheck.run(phased, TWConfig.DEFAULT.toBuilder().partitions(1).build(), 1000));
+        assertNull(TWDeterminismCheck.run(phased, TWConfig.DEFAULT.toBuilder().partitions(4).agentThreads(4).build(), 1000));
+    }
+
+    @Test
+    public void stripCountDoesNotChangeTheRun() {
+        TWConfig single = TWConfig.DEFAULT.toBuilder().partitions(1).build();
+        TWConfig strips = single.toBuilder().partitions(4).agentThreads(4).build();
+        assertNull(TWDeterminismCheck.run(single, strips, 1000));
+    }
+
+    @Test
+    public void blackboardRunDoesNotDependOnStripCount() {
+        TWConfig single = TWConfig.DEFAULT.toBuilder().partitions(1).sharedBlackboard(true).build();
+        TWConfig strips = single.toBuilder().partitions(3).agentThreads(3).build();
+        assertNull(TWDeterminismCheck.run(single, strips, 1000));
+    }
+}
@@ -0,0 +1,201 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+
+/**
+ * TWTaskAllocatorTest
+ *
+ * Description:
+ *
+ * The auction must find an assignment as good as any, reuse the previous
+ * step's assignment when nothing changed, and not depend on the order agents
+ * submit and offer in.
+ */
+public class TWTaskAllocatorTest {
+
+    private static final int SIZE = 20;
+    private static final int AGENTS = 4;
+    private static final int TARGETS = 6;
+
+    private final TWConfig config = TWConfig.DEFAULT.toBuilder().dimensions(SIZE, SIZE).agentCount(AGENTS)
+            .allowAssistance(true).maxAssistZoneDistance(1).build();
+
+    /**
+     * A random round: where the agents are and what they want, and the targets with their lifetimes
+     */
+    private static class Round {
+        final int[][] agents = new int[AGENTS][];
+        final int[][] targets = new int[TARGETS][];
+
+        Round(Random random) {
+            for (int i = 0; i < AGENTS; i++) {
+                agents[i] = new int[] {random.nextInt(SIZE), random.nextInt(SIZE), random.nextInt(2), random.nextInt(2)};
+            }
+            boolean[] used = new boolean[SIZE * SIZE];
+            for (int t = 0; t < TARGETS; t++) {
+                int cell;
+                do {
+                    cell = random.nextInt(SIZE * SIZE);
+                } while (used[cell]);
+                used[cell] = true;
+                targets[t] = new int[] {cell / SIZE, cell % SIZE, random.nextInt(2), 5 + random.nextInt(30)};
+            }
+        }
+
+        void submit(TWTaskAllocator allocator, long step, int[] agentOrder, int[] targetOrder) {
+            for (int i : agentOrder) {
+                allocator.submit(i, agents[i][0], agents[i][1], zone(agents[i][1]), agents[i][2] == 1, agents[i][3] == 1, step);
+            }
+            for (int t : targetOrder) {
+                int[] o = targets[t];
+                allocator.offer(agentOrder[t % AGENTS], o[0], o[1], o[2] == 1, o[3]);
+            }
+        }
+
+        /**
+         * @return the best total value of any assignment of agents from i on, given the targets already taken
+         */
+        int best(int i, boolean[] taken, int benefit) {
+            if (i == AGENTS) {
+                return 0;
+            }
+            int best = best(i + 1, taken, benefit);
+            for (int t = 0; t < TARGETS; t++) {
+                if (!taken[t] && eligible(i, t)) {
+                    taken[t] = true;
+                    best = Math.max(best, benefit - distance(i, t) + best(i + 1, taken, benefit));
+                    taken[t] = false;
+                }
+            }
+            return best;
+        }
+
+        boolean eligible(int i, int t) {
+            boolean hole = targets[t][2] == 1;
+            return (hole ? agents[i][3] == 1 : agents[i][2] == 1) && Math.abs(zone(targets[t][1]) - zone(agents[i][1])) <= 1
+                    && distance(i, t) < targets[t][3];
+        }
+
+        int distance(int i, int t) {
+            return Math.abs(targets[t][0] - agents[i][0]) + Math.abs(targets[t][1] - agents[i][1]);
+        }
+    }
+
+    private static int zone(int y) {
+        return Math.min(y / (SIZE / AGENTS), AGENTS - 1);
+    }
+
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private static int[] reversed(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = n - 1 - i;
+        }
+        return order;
+    }
+
+    private static int total(TWTaskAllocator allocator, Round round, long step, int benefit) {
+        int total = 0;
+        for (int i = 0; i < AGENTS; i++) {
+            if (allocator.hasAssignment(i, step)) {
+                int x = allocator.getAssignedX(i);
+                int y = allocator.getAssignedY(i);
+                total += benefit - Math.abs(x - round.agents[i][0]) - Math.abs(y - round.agents[i][1]);
+            }
+        }
+        return total;
+    }
+
+    private static int[] assignedCells(TWTaskAllocator allocator, long step) {
+        int[] cells = new int[AGENTS];
+        for (int i = 0; i < AGENTS; i++) {
+            cells[i] = allocator.hasAssignment(i, step) ? allocator.getAssignedX(i) * SIZE + allocator.getAssignedY(i) : -1;
+        }
+        return cells;
+    }
+
+    @Test
+    public void assignmentIsOptimal() {
+        Random random = new Random(1);
+        int benefit = 2 * SIZE;
+        for (int instance = 0; instance < 200; instance++) {
+            Round round = new Round(random);
+            TWTaskAllocator allocator = new TWTaskAllocator(config, null);
+            round.submit(allocator, 0, identity(AGENTS), identity(TARGETS));
+            assertEquals("instance " + instance, round.best(0, new boolean[TARGETS], benefit), total(allocator, round, 0, benefit));
+        }
+    }
+
+    /**
+     * Repeating a round must stay optimal, and take fewer bids overall as agents whose target is still their best keep it
+     */
+    @Test
+    public void warmStartKeepsTargetsAndStaysOptimal() {
+        Random random = new Random(2);
+        int benefit = 2 * SIZE;
+        long kept = 0;
+        long coldBids = 0;
+        long warmBids = 0;
+        for (int instance = 0; instance < 200; instance++) {
+            Round round = new Round(random);
+            TWTaskAllocator allocator = new TWTaskAllocator(config, null);
+            round.submit(allocator, 0, identity(AGENTS), identity(TARGETS));
+            assignedCells(allocator, 0);
+            long bids = allocator.getBids();
+            round.submit(allocator, 1, identity(AGENTS), identity(TARGETS));
+            assertEquals("instance " + instance, round.best(0, new boolean[TARGETS], benefit), total(allocator, round, 1, benefit));
+            coldBids += bids;
+            warmBids += allocator.getBids() - bids;
+            kept += allocator.getKept();
+        }
+        assertTrue(kept > 0);
+        assertTrue(warmBids < coldBids);
+    }
+
+    /**
+     * Agents which do not compete for targets keep them without a single bid
+     */
+    @Test
+    public void uncontestedTargetsAreKeptWithoutBidding() {
+        TWTaskAllocator allocator = new TWTaskAllocator(config, null);
+        for (long step = 0; step < 3; step++) {
+            allocator.submit(0, 2, 2, 0, true, false, step);
+            allocator.submit(1, 15, 17, 3, false, true, step);
+            allocator.offer(0, 4, 3, false, 20);
+            allocator.offer(1, 12, 18, true, 20);
+            assertArrayEquals(new int[] {4 * SIZE + 3, 12 * SIZE + 18}, new int[] {
+                allocator.hasAssignment(0, step) ? allocator.getAssignedX(0) * SIZE + allocator.getAssignedY(0) : -1,
+                allocator.hasAssignment(1, step) ? allocator.getAssignedX(1) * SIZE + allocator.getAssignedY(1) : -1});
+        }
+        assertEquals(2, allocator.getBids());
+        assertEquals(4, allocator.getKept());
+    }
+
+    @Test
+    public void assignmentDoesNotDependOnSubmissionOrder() {
+        Random random = new Random(3);
+        for (int instance = 0; instance < 200; instance++) {
+            Round round = new Round(random);
+            TWTaskAllocator forward = new TWTaskAllocator(config, null);
+            round.submit(forward, 0, identity(AGENTS), identity(TARGETS));
+            TWTaskAllocator backward = new TWTaskAllocator(config, null);
+            round.submit(backward, 0, reversed(AGENTS), reversed(TARGETS));
+            assertArrayEquals("instance " + instance, assignedCells(forward, 0), assignedCells(backward, 0));
+        }
+    }
+}
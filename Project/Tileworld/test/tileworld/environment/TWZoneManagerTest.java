@@ -0,0 +1,103 @@
+package tileworld.environment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tileworld.TWConfig;
+
+/**
+ * TWZoneManagerTest
+ *
+ * Description:
+ *
+ * Zones must stay put while the work is balanced and give a zone whose agent
+ * falls behind less of the map, without any zone getting narrower than a
+ * sensor window or leaving part of the map uncovered.
+ */
+public class TWZoneManagerTest {
+
+    private final TWConfig config = TWConfig.DEFAULT.toBuilder().zoneRebalancePeriod(50).build();
+    private final TWZoneManager zones = new TWZoneManager(new TWEnvironment(config, 1));
+
+    private int lines() {
+        return zones.isByRows() ? config.getyDimension() : config.getxDimension();
+    }
+
+    private void spawnEverywhere(int perLine) {
+        for (int line = 0; line < lines(); line++) {
+            for (int i = 0; i < perLine; i++) {
+                zones.cellChanged(zones.isByRows() ? 0 : line, zones.isByRows() ? line : 0, null, new TWTile());
+            }
+        }
+    }
+
+    private void fill(int zone, int holes) {
+        for (int i = 0; i < holes; i++) {
+            TWHole hole = new TWHole();
+            hole.setDeathTime(Double.MAX_VALUE);
+            int line = zones.getStart(zone);
+            zones.cellChanged(zones.isByRows() ? 0 : line, zones.isByRows() ? line : 0, hole, null);
+        }
+    }
+
+    private int[] cuts() {
+        int[] cuts = new int[zones.getZoneCount() + 1];
+        for (int z = 0; z < zones.getZoneCount(); z++) {
+            cuts[z] = zones.getStart(z);
+        }
+        cuts[zones.getZoneCount()] = zones.getEnd(zones.getZoneCount() - 1);
+        return cuts;
+    }
+
+    @Test
+    public void balancedWorkKeepsTheEvenSplit() {
+        int[] even = cuts();
+        spawnEverywhere(10);
+        for (int z = 0; z < zones.getZoneCount(); z++) {
+            fill(z, 10);
+        }
+        assertFalse(zones.rebalance());
+        assertArrayEquals(even, cuts());
+        assertEquals(0, zones.getRebalances());
+    }
+
+    @Test
+    public void zoneFallingBehindShrinks() {
+        int evenWidth = zones.getEnd(0) - zones.getStart(0);
+        spawnEverywhere(10);
+        for (int z = 1; z < zones.getZoneCount(); z++) {
+            fill(z, 30);
+        }
+        assertTrue(zones.rebalance());
+        assertEquals(1, zones.getRebalances());
+        assertTrue(zones.getEnd(0) - zones.getStart(0) < evenWidth);
+
+        int minWidth = 2 * config.getDefaultSensorRange() + 1;
+        assertEquals(0, zones.getStart(0));
+        assertEquals(lines(), zones.getEnd(zones.getZoneCount() - 1));
+        for (int z = 0; z < zones.getZoneCount(); z++) {
+            assertTrue(zones.getEnd(z) - zones.getStart(z) >= minWidth);
+            if (z > 0) {
+                assertEquals(zones.getEnd(z - 1), zones.getStart(z));
+            }
+            for (int line = zones.getStart(z); line < zones.getEnd(z); line++) {
+                assertEquals(z, zones.getZone(zones.isByRows() ? 0 : line, zones.isByRows() ? line : 0));
+            }
+        }
+    }
+
+    @Test
+    public void fewSpawnsAreNotTrusted() {
+        int[] even = cuts();
+        spawnEverywhere(1);
+        for (int z = 1; z < zones.getZoneCount(); z++) {
+            fill(z, 30);
+        }
+        assertFalse(zones.rebalance());
+        assertArrayEquals(even, cuts());
+    }
+}
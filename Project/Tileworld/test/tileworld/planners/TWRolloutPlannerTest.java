@@ -0,0 +1,85 @@
+package tileworld.planners;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import sim.util.Int2D;
+import tileworld.TWConfig;
+import tileworld.batch.TWDeterminismCheck;
+
+/**
+ * TWRolloutPlannerTest
+ *
+ * Description:
+ *
+ * Rollout r draws the same world for every candidate, and without a budget
+ * every rollout runs, so a decision and a whole run with rollout planning
+ * must not depend on how the rollouts were spread over threads.
+ */
+public class TWRolloutPlannerTest {
+
+	@Test
+	public void choiceWithoutBudgetIsReproducible() {
+		TWConfig config = TWConfig.DEFAULT.toBuilder().rolloutPlanning(true).rolloutBudget(0).build();
+		TWRolloutPlanner.State root = root();
+		Int2D[] goals = {new Int2D(22, 25), new Int2D(15, 18), new Int2D(28, 21), new Int2D(10, 30)};
+
+		TWRolloutPlanner first = new TWRolloutPlanner(config);
+		int choice = first.choose(root, goals, 42, -1);
+		double[] values = new double[goals.length];
+		for (int g = 0; g < goals.length; g++) {
+			values[g] = first.getValue(g);
+			assertEquals(config.getRolloutCount(), first.getRolloutCount(g));
+		}
+		for (int repeat = 0; repeat < 5; repeat++) {
+			TWRolloutPlanner again = new TWRolloutPlanner(config);
+			assertEquals(choice, again.choose(root, goals, 42, -1));
+			double[] repeated = new double[goals.length];
+			for (int g = 0; g < goals.length; g++) {
+				repeated[g] = again.getValue(g);
+			}
+			assertArrayEquals(values, repeated, 0);
+		}
+	}
+
+	@Test
+	public void sameGoalGetsTheSameValue() {
+		TWConfig config = TWConfig.DEFAULT.toBuilder().rolloutPlanning(true).rolloutBudget(0).build();
+		TWRolloutPlanner planner = new TWRolloutPlanner(config);
+		Int2D[] goals = {new Int2D(22, 25), new Int2D(15, 18), new Int2D(22, 25)};
+		planner.choose(root(), goals, 7, -1);
+		assertEquals(planner.getValue(0), planner.getValue(2), 0);
+	}
+
+	@Test
+	public void runWithoutBudgetDoesNotDependOnThreads() {
+		TWConfig serial = TWConfig.DEFAULT.toBuilder().rolloutPlanning(true).rolloutBudget(0).rolloutCount(16)
+			.phasedStep(true).build();
+		TWConfig parallel = serial.toBuilder().agentThreads(4).build();
+		assertNull(TWDeterminismCheck.run(serial, parallel, 500));
+	}
+
+	/**
+	 * An agent carrying a tile among a few remembered tiles and holes
+	 */
+	private static TWRolloutPlanner.State root() {
+		TWRolloutPlanner.State root = new TWRolloutPlanner.State(8);
+		root.agentX = 20;
+		root.agentY = 20;
+		root.fuel = 300;
+		root.carried = 1;
+		root.stationX = 10;
+		root.stationY = 30;
+		int[][] objects = {{22, 25, TWRolloutPlanner.TILE}, {15, 18, TWRolloutPlanner.HOLE}, {28, 21, TWRolloutPlanner.HOLE},
+			{19, 12, TWRolloutPlanner.TILE}};
+		for (int[] o : objects) {
+			root.add(o[0], o[1], (byte) o[2], 0, true);
+			root.latestDeath[root.size - 1] = 40;
+		}
+		root.remembered = root.size;
+		return root;
+	}
+}